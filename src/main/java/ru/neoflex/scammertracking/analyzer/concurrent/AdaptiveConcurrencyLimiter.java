@@ -0,0 +1,125 @@
+package ru.neoflex.scammertracking.analyzer.concurrent;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds concurrent calls to a dependency by a limit adjusted with AIMD from the observed latency. A call slower than
+ * {@code latencyThreshold} or failed by the dependency cuts the limit by {@code backoffRatio}; a fast call raises it
+ * by one while at least half of the limit is in use, so an idle limit does not grow. A caller waits up to
+ * {@code maxWait} for a free slot and is rejected after that, so callers do not pile up behind a slow dependency.
+ * Waiting does not hold a monitor, virtual threads are not pinned.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+    private final long maxWaitNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final AtomicLong rejected = new AtomicLong();
+    private double limit;
+    private int inFlight;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, Duration latencyThreshold, double backoffRatio, Duration maxWait) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= minLimit <= initialLimit <= maxLimit");
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be in (0, 1)");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.backoffRatio = backoffRatio;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.limit = initialLimit;
+    }
+
+    /**
+     * @return whether a slot is taken, it must then be given back with {@link #release} or {@link #cancel}
+     */
+    public boolean tryAcquire() throws InterruptedException {
+        long remainingNanos = maxWaitNanos;
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                if (remainingNanos <= 0) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                remainingNanos = released.awaitNanos(remainingNanos);
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the slot of a completed call and adjusts the limit.
+     *
+     * @param isDropped whether the call failed because the dependency is overloaded or unreachable
+     */
+    public void release(long latencyNanos, boolean isDropped) {
+        lock.lock();
+        try {
+            if (isDropped || latencyNanos > latencyThresholdNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (inFlight * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+            inFlight--;
+            signalFreeSlots();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the slot of a call that was not made, the limit is not adjusted.
+     */
+    public void cancel() {
+        lock.lock();
+        try {
+            inFlight--;
+            signalFreeSlots();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private void signalFreeSlots() {
+        // one waiter per free slot, thousands of waiting threads are not all woken up for a single slot
+        for (int freeSlots = (int) limit - inFlight; freeSlots > 0 && lock.hasWaiters(released); freeSlots--) {
+            released.signal();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ru.neoflex.scammertracking.analyzer.concurrent;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks on a fixed number of single-threaded lanes. Tasks with the same key always land on the same lane,
+ * so they are executed one after another in submission order, while tasks of different keys run in parallel.
+ * The number of submitted but not finished tasks is bounded, {@link #execute} blocks the caller when the limit is reached.
+ */
+@Slf4j
+public class KeyOrderedExecutor implements AutoCloseable {
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final ExecutorService[] lanes;
+    private final Semaphore permits;
+    private final int maxInFlight;
+
+    public KeyOrderedExecutor(int laneCount, int maxInFlight, ThreadFactory threadFactory) {
+        if (laneCount < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("laneCount and maxInFlight must be positive");
+        }
+        this.lanes = new ExecutorService[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = Executors.newSingleThreadExecutor(threadFactory);
+        }
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    public void execute(String key, Runnable task) throws InterruptedException {
+        permits.acquire();
+        try {
+            lanes[laneOf(key)].execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    int laneOf(String key) {
+        int hash = key.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), lanes.length);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        for (ExecutorService lane : lanes) {
+            if (!lane.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Lane was not terminated in {} seconds, {} tasks are dropped", SHUTDOWN_TIMEOUT_SECONDS, lane.shutdownNow().size());
+            }
+        }
+    }
+}
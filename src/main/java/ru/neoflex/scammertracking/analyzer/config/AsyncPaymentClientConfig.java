@@ -0,0 +1,41 @@
+package ru.neoflex.scammertracking.analyzer.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import ru.neoflex.scammertracking.analyzer.feign.AsyncPaymentClient;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+@Configuration
+@ConditionalOnProperty(value = "paymentService.async.enabled", havingValue = "true")
+public class AsyncPaymentClientConfig {
+
+    @Value("${paymentService.hostPort}")
+    private String hostPort;
+    @Value("${paymentService.async.maxInFlight:256}")
+    private int maxInFlight;
+    @Value("${paymentService.async.maxQueued:10000}")
+    private int maxQueued;
+    @Value("${paymentService.async.timeoutMillis:2000}")
+    private long timeoutMillis;
+    @Value("${paymentService.async.connectTimeoutMillis:1000}")
+    private long connectTimeoutMillis;
+    @Value("${paymentService.async.threads:4}")
+    private int threads;
+
+    @Bean(destroyMethod = "close")
+    public AsyncPaymentClient asyncPaymentClient(ObjectMapper objectMapper) {
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .executor(Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("payment-client-")))
+                .build();
+        return new AsyncPaymentClient(hostPort, httpClient, objectMapper, maxInFlight, maxQueued, Duration.ofMillis(timeoutMillis));
+    }
+}
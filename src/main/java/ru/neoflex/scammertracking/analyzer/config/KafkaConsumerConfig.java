@@ -1,46 +1,162 @@
 package ru.neoflex.scammertracking.analyzer.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.CooperativeStickyAssignor;
+import org.apache.kafka.clients.consumer.RangeAssignor;
 import org.apache.kafka.common.serialization.StringDeserializer;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.annotation.EnableKafka;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.MicrometerConsumerListener;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.AfterRollbackProcessor;
+import org.springframework.kafka.listener.CommonErrorHandler;
+import org.springframework.kafka.listener.ContainerProperties;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.transaction.KafkaTransactionManager;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import ru.neoflex.scammertracking.analyzer.concurrent.KeyOrderedExecutor;
+import ru.neoflex.scammertracking.analyzer.dao.LocalPaymentStore;
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.kafka.consumer.CompositeRebalanceListener;
+import ru.neoflex.scammertracking.analyzer.kafka.serde.PaymentDeserializer;
+import ru.neoflex.scammertracking.analyzer.kafka.serde.PaymentWireFormat;
+import ru.neoflex.scammertracking.analyzer.service.impl.PaymentWarmUp;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Configuration
 @EnableKafka
 public class KafkaConsumerConfig {
 
+    public static final String BATCH_MODE = "batch";
+    public static final String PARALLEL_MODE = "parallel";
+
     @Value(value = "${spring.kafka.bootstrapAddress}")
     private String bootstrapServers;
 
     @Value(value = "${spring.kafka.consumer.groupId}")
     private String groupId;
 
+    @Value(value = "${spring.kafka.consumer.mode:record}")
+    private String consumerMode;
+
+    @Value(value = "${spring.kafka.consumer.maxPollRecords:500}")
+    private int maxPollRecords;
+
+    @Value(value = "${spring.kafka.consumer.fetchMinBytes:1}")
+    private int fetchMinBytes;
+
+    @Value(value = "${spring.kafka.consumer.fetchMaxWaitMillis:500}")
+    private int fetchMaxWaitMillis;
+
+    @Value(value = "${spring.kafka.consumer.parallel.lanes:16}")
+    private int parallelLanes;
+
+    @Value(value = "${spring.kafka.consumer.parallel.maxInFlight:1000}")
+    private int parallelMaxInFlight;
+
+    @Value(value = "${spring.kafka.consumer.parallel.virtualThreads:false}")
+    private boolean parallelVirtualThreads;
+
+    @Value(value = "${spring.kafka.consumer.parallel.virtualLanes:4096}")
+    private int parallelVirtualLanes;
+
+    @Value(value = "${spring.cloud.openfeign.httpclient.max-connections:200}")
+    private int feignMaxConnections;
+
+    @Value(value = "${localStore.enabled:false}")
+    private boolean localStoreEnabled;
+
+    @Value(value = "${paymentService.writeBehind.enabled:false}")
+    private boolean writeBehindEnabled;
+
     @Bean
-    public ConsumerFactory<String, PaymentRequestDto> consumerFactory() {
+    public ConsumerFactory<String, PaymentRequestDto> consumerFactory(MeterRegistry meterRegistry) {
         Map<String, Object> props = new HashMap<>();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
-        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        // the broker holds a fetch until fetchMinBytes are available or fetchMaxWaitMillis pass, so a poll under
+        // low load carries more records without delaying polls under high load
+        props.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, fetchMinBytes);
+        props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, fetchMaxWaitMillis);
         props.put(JsonDeserializer.TRUSTED_PACKAGES, "*");
         props.put(JsonDeserializer.VALUE_DEFAULT_TYPE, PaymentRequestDto.class);
-        return new DefaultKafkaConsumerFactory<>(props, new StringDeserializer(), new JsonDeserializer<>());
+        if (localStoreEnabled) {
+            // partitions that stay assigned over a rebalance keep their local store, RangeAssignor is kept for rolling upgrades
+            props.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, List.of(CooperativeStickyAssignor.class, RangeAssignor.class));
+        }
+        // payments marked as binary are read without JSON parsing, others with the JSON settings above
+        var factory = new DefaultKafkaConsumerFactory<String, PaymentRequestDto>(props, new StringDeserializer(),
+                new PaymentDeserializer<>(PaymentWireFormat::readRequest, new JsonDeserializer<>()));
+        // binds the client metrics of every consumer, records-lag-max among them
+        factory.addListener(new MicrometerConsumerListener<>(meterRegistry));
+        return factory;
     }
 
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, PaymentRequestDto> paymentsKafkaListenerContainerFactory() {
+    public ConcurrentKafkaListenerContainerFactory<String, PaymentRequestDto> paymentsKafkaListenerContainerFactory(
+            ConsumerFactory<String, PaymentRequestDto> consumerFactory, ObjectProvider<LocalPaymentStore> localPaymentStore,
+            ObjectProvider<PaymentWarmUp> paymentWarmUp, ObjectProvider<CommonErrorHandler> paymentsErrorHandler,
+            ObjectProvider<AfterRollbackProcessor<Object, Object>> paymentsAfterRollbackProcessor,
+            ObjectProvider<KafkaTransactionManager<String, PaymentResponseDto>> kafkaTransactionManager) {
         var factory = new ConcurrentKafkaListenerContainerFactory<String, PaymentRequestDto>();
-        factory.setConsumerFactory(consumerFactory());
+        factory.setConsumerFactory(consumerFactory);
+        // the local store is restored before the warm-up, which skips the cards found in it
+        List<ConsumerAwareRebalanceListener> rebalanceListeners = new ArrayList<>();
+        localPaymentStore.ifAvailable(rebalanceListeners::add);
+        paymentWarmUp.ifAvailable(rebalanceListeners::add);
+        if (!rebalanceListeners.isEmpty()) {
+            factory.getContainerProperties().setConsumerRebalanceListener(new CompositeRebalanceListener(rebalanceListeners));
+        }
+        // a record listener returns before the write-behind flush and its offset would be committed unwritten
+        if (writeBehindEnabled && !BATCH_MODE.equals(consumerMode) && !PARALLEL_MODE.equals(consumerMode)) {
+            throw new IllegalStateException("paymentService.writeBehind requires spring.kafka.consumer.mode=batch or parallel");
+        }
+        factory.setBatchListener(BATCH_MODE.equals(consumerMode));
+        paymentsErrorHandler.ifAvailable(factory::setCommonErrorHandler);
+        if (PARALLEL_MODE.equals(consumerMode)) {
+            factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+            factory.getContainerProperties().setAsyncAcks(true);
+        }
+        kafkaTransactionManager.ifAvailable(transactionManager -> {
+            // a record listener runs a transaction per record and the other threads of the parallel and write-behind
+            // modes send outside of the transaction of the poll
+            if (!BATCH_MODE.equals(consumerMode) || writeBehindEnabled) {
+                throw new IllegalStateException("Kafka transactions require spring.kafka.consumer.mode=batch without paymentService.writeBehind");
+            }
+            // a transaction carries the verdicts of one poll, its size is bounded by maxPollRecords and fetchMinBytes
+            factory.getContainerProperties().setTransactionManager(transactionManager);
+            paymentsAfterRollbackProcessor.ifAvailable(factory::setAfterRollbackProcessor);
+        });
         return factory;
     }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(value = "spring.kafka.consumer.mode", havingValue = PARALLEL_MODE)
+    public KeyOrderedExecutor paymentExecutor() {
+        if (parallelVirtualThreads) {
+            // HttpClient 5 waits for a pooled connection in Object.wait, which pins the carrier thread of a virtual
+            // thread, so workers must not outnumber the connections
+            if (parallelMaxInFlight > feignMaxConnections) {
+                throw new IllegalStateException("spring.kafka.consumer.parallel.maxInFlight must not exceed spring.cloud.openfeign.httpclient.max-connections with virtual threads");
+            }
+            // a blocked virtual thread does not hold a carrier thread, so a lane per few cards is affordable and
+            // concurrency is bounded by maxInFlight instead
+            return new KeyOrderedExecutor(parallelVirtualLanes, parallelMaxInFlight, Thread.ofVirtual().name("payment-worker-", 0).factory());
+        }
+        return new KeyOrderedExecutor(parallelLanes, parallelMaxInFlight, new CustomizableThreadFactory("payment-worker-"));
+    }
 }
@@ -1,17 +1,25 @@
 package ru.neoflex.scammertracking.analyzer.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.MicrometerProducerListener;
 import org.springframework.kafka.core.ProducerFactory;
 import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.kafka.transaction.KafkaTransactionManager;
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.kafka.producer.PaymentProducerListener;
+import ru.neoflex.scammertracking.analyzer.kafka.serde.PaymentSerializer;
+import ru.neoflex.scammertracking.analyzer.kafka.serde.PaymentWireFormat;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Configuration
@@ -20,17 +28,62 @@ public class KafkaProducerConfig {
     @Value(value = "${spring.kafka.bootstrapAddress}")
     private String bootstrapAddress;
 
+    @Value(value = "${spring.kafka.producer.lingerMs:0}")
+    private int lingerMs;
+
+    @Value(value = "${spring.kafka.producer.batchSize:16384}")
+    private int batchSize;
+
+    @Value(value = "${spring.kafka.producer.compressionType:none}")
+    private String compressionType;
+
+    @Value(value = "${spring.kafka.producer.idempotence:true}")
+    private boolean idempotence;
+
+    @Value(value = "${spring.kafka.producer.binaryTopics:}")
+    private List<String> binaryTopics;
+
+    @Value(value = "${spring.kafka.transactions.enabled:false}")
+    private boolean transactionsEnabled;
+
+    @Value(value = "${spring.kafka.transactions.transactionIdPrefix:analyzer-tx-}")
+    private String transactionIdPrefix;
+
     @Bean
-    public ProducerFactory<String, PaymentResponseDto> producerFactory() {
+    public ProducerFactory<String, PaymentResponseDto> producerFactory(MeterRegistry meterRegistry) {
         Map<String, Object> configProps = new HashMap<>();
         configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapAddress);
-        configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
-        return new DefaultKafkaProducerFactory<>(configProps);
+        // verdicts are small, a record waits up to lingerMs for others of its partition to be sent and compressed together
+        configProps.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        configProps.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        configProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+        configProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, idempotence);
+        if (transactionsEnabled && !idempotence) {
+            throw new IllegalStateException("spring.kafka.transactions.enabled requires spring.kafka.producer.idempotence");
+        }
+        var factory = new DefaultKafkaProducerFactory<String, PaymentResponseDto>(configProps, new StringSerializer(),
+                new PaymentSerializer<>(binaryTopics, PaymentWireFormat::writeResponse, new JsonSerializer<>()));
+        if (transactionsEnabled) {
+            // the prefix must be unique per instance and stable across restarts, so a restarted instance aborts its open transactions
+            factory.setTransactionIdPrefix(transactionIdPrefix);
+        }
+        factory.addListener(new MicrometerProducerListener<>(meterRegistry));
+        return factory;
+    }
+
+    @Bean
+    public KafkaTemplate<String, PaymentResponseDto> kafkaTemplate(ProducerFactory<String, PaymentResponseDto> producerFactory) {
+        KafkaTemplate<String, PaymentResponseDto> template = new KafkaTemplate<>(producerFactory);
+        template.setProducerListener(new PaymentProducerListener());
+        return template;
     }
 
+    /**
+     * Transactions of the payments container: the verdicts of a poll and its consumed offsets are committed together.
+     */
     @Bean
-    public KafkaTemplate<String, PaymentResponseDto> kafkaTemplate() {
-        return new KafkaTemplate<>(producerFactory());
+    @ConditionalOnProperty(value = "spring.kafka.transactions.enabled", havingValue = "true")
+    public KafkaTransactionManager<String, PaymentResponseDto> kafkaTransactionManager(ProducerFactory<String, PaymentResponseDto> producerFactory) {
+        return new KafkaTransactionManager<>(producerFactory);
     }
 }
@@ -0,0 +1,29 @@
+package ru.neoflex.scammertracking.analyzer.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import ru.neoflex.scammertracking.analyzer.feign.FeignService;
+import ru.neoflex.scammertracking.analyzer.feign.LastPaymentCoalescer;
+
+import java.util.concurrent.Executors;
+
+@Configuration
+@ConditionalOnProperty(value = "paymentService.coalescing.enabled", havingValue = "true")
+public class LastPaymentCoalescerConfig {
+
+    @Value("${paymentService.coalescing.windowMillis:5}")
+    private long windowMillis;
+    @Value("${paymentService.coalescing.maxBatchSize:100}")
+    private int maxBatchSize;
+    @Value("${paymentService.coalescing.threads:4}")
+    private int threads;
+
+    @Bean(destroyMethod = "close")
+    public LastPaymentCoalescer lastPaymentCoalescer(FeignService feignService) {
+        return new LastPaymentCoalescer(feignService, windowMillis, maxBatchSize,
+                Executors.newScheduledThreadPool(threads, new CustomizableThreadFactory("payment-lookup-")));
+    }
+}
@@ -0,0 +1,120 @@
+package ru.neoflex.scammertracking.analyzer.config;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.errors.UnknownTopicOrPartitionException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import ru.neoflex.scammertracking.analyzer.dao.LocalPaymentStore;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+@Configuration
+@ConditionalOnProperty(value = "localStore.enabled", havingValue = "true")
+public class LocalPaymentStoreConfig {
+
+    @Value(value = "${spring.kafka.bootstrapAddress}")
+    private String bootstrapAddress;
+    @Value("${spring.kafka.topic.payments}")
+    private String paymentsTopic;
+    @Value("${spring.kafka.topic.last-payments-changelog}")
+    private String changelogTopic;
+    @Value("${localStore.restoreTimeoutSeconds:60}")
+    private long restoreTimeoutSeconds;
+    @Value("${localStore.pollTimeoutMillis:500}")
+    private long pollTimeoutMillis;
+    @Value("${localStore.compact.enabled:false}")
+    private boolean compactEnabled;
+    @Value("${localStore.compact.initialCapacity:65536}")
+    private int compactInitialCapacity;
+    @Value("${localStore.compact.segments:16}")
+    private int compactSegments;
+    @Value("${localStore.compact.snapshotDirectory:}")
+    private String compactSnapshotDirectory;
+
+    @Bean
+    public LocalPaymentStore localPaymentStore(ProducerFactory<String, byte[]> changelogProducerFactory) {
+        Map<String, Object> consumerProps = new HashMap<>();
+        consumerProps.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapAddress);
+        consumerProps.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        consumerProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        consumerProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+
+        return new LocalPaymentStore(paymentsTopic, changelogTopic,
+                new DefaultKafkaConsumerFactory<>(consumerProps), new KafkaTemplate<>(changelogProducerFactory),
+                Duration.ofSeconds(restoreTimeoutSeconds), Duration.ofMillis(pollTimeoutMillis),
+                compactEnabled ? new LocalPaymentStore.CompactTables(compactInitialCapacity, compactSegments,
+                        compactSnapshotDirectory.isBlank() ? null : Path.of(compactSnapshotDirectory)) : null);
+    }
+
+    /**
+     * A bean, so its producer is flushed and closed on shutdown after the local store that writes to it.
+     */
+    @Bean
+    public ProducerFactory<String, byte[]> changelogProducerFactory() {
+        Map<String, Object> producerProps = new HashMap<>();
+        producerProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapAddress);
+        producerProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        producerProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        return new DefaultKafkaProducerFactory<>(producerProps);
+    }
+
+    @Bean
+    public KafkaAdmin kafkaAdmin() {
+        return new KafkaAdmin(Map.of(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapAddress));
+    }
+
+    /**
+     * Creates the changelog topic with the partitions of the payments topic if it does not exist. An existing changelog
+     * with other partitions fails the startup, the store could not restore the cards of a payments partition from it.
+     */
+    @Bean
+    public NewTopic lastPaymentsChangelogTopic(KafkaAdmin kafkaAdmin) throws ExecutionException, InterruptedException, TimeoutException {
+        try (AdminClient adminClient = AdminClient.create(kafkaAdmin.getConfigurationProperties())) {
+            Map<String, KafkaFuture<TopicDescription>> topics = adminClient.describeTopics(List.of(paymentsTopic, changelogTopic))
+                    .topicNameValues();
+            int paymentsPartitionCount = topics.get(paymentsTopic).get(kafkaAdmin.getOperationTimeout(), TimeUnit.SECONDS)
+                    .partitions().size();
+            try {
+                int changelogPartitionCount = topics.get(changelogTopic).get(kafkaAdmin.getOperationTimeout(), TimeUnit.SECONDS)
+                        .partitions().size();
+                if (changelogPartitionCount != paymentsPartitionCount) {
+                    throw new IllegalStateException(String.format("%s has %d partitions, %s has %d, the local store needs as many changelog partitions as payments partitions",
+                            changelogTopic, changelogPartitionCount, paymentsTopic, paymentsPartitionCount));
+                }
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof UnknownTopicOrPartitionException)) {
+                    throw e;
+                }
+            }
+            return TopicBuilder.name(changelogTopic)
+                    .partitions(paymentsPartitionCount)
+                    .compact()
+                    .build();
+        }
+    }
+}
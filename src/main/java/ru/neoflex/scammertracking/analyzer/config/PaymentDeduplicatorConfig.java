@@ -0,0 +1,24 @@
+package ru.neoflex.scammertracking.analyzer.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.neoflex.scammertracking.analyzer.dedup.PaymentDeduplicator;
+
+@Configuration
+@ConditionalOnProperty(value = "dedup.enabled", havingValue = "true")
+public class PaymentDeduplicatorConfig {
+
+    @Value("${dedup.exactIds:100000}")
+    private int exactIds;
+    @Value("${dedup.bloomIds:1000000}")
+    private int bloomIds;
+    @Value("${dedup.falsePositiveRate:0.01}")
+    private double falsePositiveRate;
+
+    @Bean
+    public PaymentDeduplicator paymentDeduplicator() {
+        return new PaymentDeduplicator(exactIds, bloomIds, falsePositiveRate);
+    }
+}
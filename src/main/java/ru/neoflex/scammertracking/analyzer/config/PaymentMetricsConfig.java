@@ -0,0 +1,138 @@
+package ru.neoflex.scammertracking.analyzer.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.neoflex.scammertracking.analyzer.concurrent.AdaptiveConcurrencyLimiter;
+import ru.neoflex.scammertracking.analyzer.concurrent.KeyOrderedExecutor;
+import ru.neoflex.scammertracking.analyzer.dao.LocalPaymentStore;
+import ru.neoflex.scammertracking.analyzer.dao.PaymentNearCache;
+import ru.neoflex.scammertracking.analyzer.dedup.PaymentDeduplicator;
+import ru.neoflex.scammertracking.analyzer.feign.AsyncPaymentClient;
+import ru.neoflex.scammertracking.analyzer.feign.PaymentServiceCircuitBreaker;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics;
+import ru.neoflex.scammertracking.analyzer.service.impl.PaymentWarmUp;
+import ru.neoflex.scammertracking.analyzer.service.impl.PaymentWriteBehind;
+
+@Configuration
+public class PaymentMetricsConfig {
+
+    @Bean
+    public MeterBinder paymentPipelineMetrics() {
+        return PaymentMetrics::bindTo;
+    }
+
+    @Bean
+    public MeterBinder paymentNearCacheMetrics(PaymentNearCache paymentNearCache) {
+        return registry -> {
+            FunctionCounter.builder("payment.nearcache.requests", paymentNearCache, nearCache -> nearCache.getStats().hitCount())
+                    .description("Near cache lookups by result")
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("payment.nearcache.requests", paymentNearCache, nearCache -> nearCache.getStats().missCount())
+                    .description("Near cache lookups by result")
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("payment.nearcache.evictions", paymentNearCache, nearCache -> nearCache.getStats().evictionCount())
+                    .description("Near cache entries evicted by size")
+                    .register(registry);
+            Gauge.builder("payment.nearcache.size", paymentNearCache, PaymentNearCache::getSize)
+                    .description("Estimated number of near cache entries")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder paymentLocalStoreMetrics(ObjectProvider<LocalPaymentStore> localPaymentStore) {
+        return registry -> localPaymentStore.ifAvailable(store -> Gauge.builder("payment.localstore.size", store, LocalPaymentStore::size)
+                .description("Number of cards in the restored partitions of the local store")
+                .register(registry));
+    }
+
+    @Bean
+    public MeterBinder paymentWarmUpMetrics(ObjectProvider<PaymentWarmUp> paymentWarmUp) {
+        return registry -> paymentWarmUp.ifAvailable(warmUp -> {
+            FunctionCounter.builder("payment.warmup.cards", warmUp, PaymentWarmUp::getCachedCards)
+                    .description("Cards preloaded on partition assignment by source")
+                    .tag("source", "cache")
+                    .register(registry);
+            FunctionCounter.builder("payment.warmup.cards", warmUp, PaymentWarmUp::getPrefetchedCards)
+                    .description("Cards preloaded on partition assignment by source")
+                    .tag("source", "paymentService")
+                    .register(registry);
+            FunctionCounter.builder("payment.warmup.prefetched.used", warmUp, PaymentWarmUp::getUsedPrefetchedCards)
+                    .description("Payment-service lookups answered by a preloaded last payment")
+                    .register(registry);
+        });
+    }
+
+    @Bean
+    public MeterBinder paymentDeduplicatorMetrics(ObjectProvider<PaymentDeduplicator> paymentDeduplicator) {
+        return registry -> paymentDeduplicator.ifAvailable(deduplicator -> {
+            FunctionCounter.builder("payment.dedup.checks", deduplicator, PaymentDeduplicator::getChecks)
+                    .description("Payments checked for redelivery")
+                    .register(registry);
+            FunctionCounter.builder("payment.dedup.duplicates", deduplicator, PaymentDeduplicator::getDuplicates)
+                    .description("Redelivered payments skipped")
+                    .register(registry);
+            FunctionCounter.builder("payment.dedup.bloomOnly", deduplicator, PaymentDeduplicator::getBloomOnlyIds)
+                    .description("Payments found by the Bloom filter only and processed, late redeliveries or false positives")
+                    .register(registry);
+        });
+    }
+
+    @Bean
+    public MeterBinder paymentInFlightMetrics(ObjectProvider<KeyOrderedExecutor> paymentExecutor,
+                                              ObjectProvider<PaymentWriteBehind> paymentWriteBehind,
+                                              ObjectProvider<AsyncPaymentClient> asyncPaymentClient) {
+        return registry -> {
+            paymentExecutor.ifAvailable(executor -> Gauge.builder(PaymentMetrics.IN_FLIGHT_GAUGE, executor, KeyOrderedExecutor::getInFlight)
+                    .description("Payments submitted to the parallel consumer and not yet processed")
+                    .tag("stage", "parallel")
+                    .register(registry));
+            paymentWriteBehind.ifAvailable(writeBehind -> Gauge.builder(PaymentMetrics.IN_FLIGHT_GAUGE, writeBehind, PaymentWriteBehind::getQueueSize)
+                    .description("Trusted payments queued for saving")
+                    .tag("stage", "writeBehind")
+                    .register(registry));
+            asyncPaymentClient.ifAvailable(client -> Gauge.builder(PaymentMetrics.IN_FLIGHT_GAUGE, client, AsyncPaymentClient::getInFlight)
+                    .description("Requests to payment-service in flight")
+                    .tag("stage", "paymentService")
+                    .register(registry));
+        };
+    }
+
+    @Bean
+    public MeterBinder paymentServiceProtectionMetrics(ObjectProvider<AdaptiveConcurrencyLimiter> paymentServiceLimiter,
+                                                       ObjectProvider<PaymentServiceCircuitBreaker> paymentServiceCircuitBreaker) {
+        return registry -> {
+            paymentServiceLimiter.ifAvailable(limiter -> {
+                Gauge.builder("payment.paymentService.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                        .description("Adaptive limit of concurrent calls to payment-service")
+                        .register(registry);
+                Gauge.builder(PaymentMetrics.IN_FLIGHT_GAUGE, limiter, AdaptiveConcurrencyLimiter::getInFlight)
+                        .description("Calls to payment-service in flight under the adaptive limit")
+                        .tag("stage", "paymentServiceLimiter")
+                        .register(registry);
+                FunctionCounter.builder("payment.paymentService.rejected", limiter, AdaptiveConcurrencyLimiter::getRejected)
+                        .description("Calls to payment-service rejected without a call")
+                        .tag("reason", "limit")
+                        .register(registry);
+            });
+            paymentServiceCircuitBreaker.ifAvailable(breaker -> {
+                Gauge.builder("payment.paymentService.breaker.state", breaker, circuitBreaker -> circuitBreaker.getState().ordinal())
+                        .description("State of the payment-service circuit breaker: 0 closed, 1 open, 2 half-open")
+                        .register(registry);
+                FunctionCounter.builder("payment.paymentService.breaker.openings", breaker, PaymentServiceCircuitBreaker::getOpenings)
+                        .description("Transitions of the payment-service circuit breaker to open")
+                        .register(registry);
+                FunctionCounter.builder("payment.paymentService.rejected", breaker, PaymentServiceCircuitBreaker::getRejectedCalls)
+                        .description("Calls to payment-service rejected without a call")
+                        .tag("reason", "circuitBreaker")
+                        .register(registry);
+            });
+        };
+    }
+}
@@ -0,0 +1,34 @@
+package ru.neoflex.scammertracking.analyzer.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+import ru.neoflex.scammertracking.analyzer.rule.PaymentRuleEngine;
+import ru.neoflex.scammertracking.analyzer.rule.PaymentRulesEndpoint;
+
+import java.io.IOException;
+import java.time.Duration;
+
+@Configuration
+@ConditionalOnProperty(value = "paymentRules.enabled", havingValue = "true")
+public class PaymentRuleConfig {
+
+    @Value("${paymentRules.location:classpath:payment-rules.yaml}")
+    private Resource location;
+    @Value("${paymentRules.maxCards:100000}")
+    private long maxCards;
+    @Value("${paymentRules.idleExpirySeconds:3600}")
+    private long idleExpirySeconds;
+
+    @Bean
+    public PaymentRuleEngine paymentRuleEngine() throws IOException {
+        return new PaymentRuleEngine(location, maxCards, Duration.ofSeconds(idleExpirySeconds));
+    }
+
+    @Bean
+    public PaymentRulesEndpoint paymentRulesEndpoint(PaymentRuleEngine paymentRuleEngine) {
+        return new PaymentRulesEndpoint(paymentRuleEngine);
+    }
+}
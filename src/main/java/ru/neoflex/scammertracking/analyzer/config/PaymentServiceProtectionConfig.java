@@ -0,0 +1,120 @@
+package ru.neoflex.scammertracking.analyzer.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.AfterRollbackProcessor;
+import org.springframework.kafka.listener.CommonDelegatingErrorHandler;
+import org.springframework.kafka.listener.CommonErrorHandler;
+import org.springframework.kafka.listener.DefaultAfterRollbackProcessor;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.backoff.ExponentialBackOff;
+import ru.neoflex.scammertracking.analyzer.concurrent.AdaptiveConcurrencyLimiter;
+import ru.neoflex.scammertracking.analyzer.error.exception.PaymentServiceUnavailableException;
+import ru.neoflex.scammertracking.analyzer.feign.PaymentServiceCircuitBreaker;
+import ru.neoflex.scammertracking.analyzer.feign.PaymentServiceCircuitBreaker.State;
+
+import java.time.Duration;
+
+@Configuration
+@Slf4j
+public class PaymentServiceProtectionConfig {
+
+    @Value("${paymentService.limiter.initialLimit:20}")
+    private int initialLimit;
+    @Value("${paymentService.limiter.minLimit:4}")
+    private int minLimit;
+    @Value("${paymentService.limiter.maxLimit:1000}")
+    private int maxLimit;
+    @Value("${paymentService.limiter.latencyThresholdMillis:500}")
+    private long latencyThresholdMillis;
+    @Value("${paymentService.limiter.backoffRatio:0.9}")
+    private double backoffRatio;
+    @Value("${paymentService.limiter.maxWaitMillis:1000}")
+    private long maxWaitMillis;
+    @Value("${paymentService.circuitBreaker.windowSize:50}")
+    private int windowSize;
+    @Value("${paymentService.circuitBreaker.minimumCalls:20}")
+    private int minimumCalls;
+    @Value("${paymentService.circuitBreaker.failureRateThreshold:0.5}")
+    private double failureRateThreshold;
+    @Value("${paymentService.circuitBreaker.openDurationMillis:5000}")
+    private long openDurationMillis;
+    @Value("${paymentService.circuitBreaker.halfOpenCalls:5}")
+    private int halfOpenCalls;
+    @Value("${paymentService.circuitBreaker.retryIntervalMillis:500}")
+    private long retryIntervalMillis;
+    @Value("${paymentService.circuitBreaker.maxRetryMillis:600000}")
+    private long maxRetryMillis;
+
+    @Bean
+    @ConditionalOnProperty(value = "paymentService.limiter.enabled", havingValue = "true")
+    public AdaptiveConcurrencyLimiter paymentServiceLimiter() {
+        return new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit, Duration.ofMillis(latencyThresholdMillis),
+                backoffRatio, Duration.ofMillis(maxWaitMillis));
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(value = "paymentService.circuitBreaker.enabled", havingValue = "true")
+    public PaymentServiceCircuitBreaker paymentServiceCircuitBreaker(ObjectProvider<KafkaListenerEndpointRegistry> listenerEndpointRegistry) {
+        // new payments are not consumed while the breaker is open, the trial calls of the half-open state are made
+        // by the payments consumed after the resume
+        return new PaymentServiceCircuitBreaker(windowSize, minimumCalls, failureRateThreshold, Duration.ofMillis(openDurationMillis),
+                halfOpenCalls, state -> listenerEndpointRegistry.ifAvailable(registry -> {
+                    log.warn("{} the payment listeners, the payment-service circuit breaker is {}", State.OPEN == state ? "Pausing" : "Resuming", state);
+                    for (MessageListenerContainer container : registry.getListenerContainers()) {
+                        if (State.OPEN == state) {
+                            container.pause();
+                        } else {
+                            container.resume();
+                        }
+                    }
+                }),
+                new CustomizableThreadFactory("payment-service-breaker-"));
+    }
+
+    /**
+     * A record or a batch rejected by the limiter or the open breaker is retried with a back-off until payment-service
+     * takes it, it is never skipped. Another failure of a record while the breaker is not closed is retried up to
+     * {@code maxRetryMillis}; other failures keep the default handling.
+     */
+    @Bean
+    public CommonErrorHandler paymentsErrorHandler(ObjectProvider<PaymentServiceCircuitBreaker> paymentServiceCircuitBreaker) {
+        DefaultErrorHandler errorHandler = new DefaultErrorHandler();
+        errorHandler.setBackOffFunction((record, exception) -> {
+            PaymentServiceCircuitBreaker breaker = paymentServiceCircuitBreaker.getIfAvailable();
+            if (null == breaker || State.CLOSED == breaker.getState()) {
+                return null;
+            }
+            ExponentialBackOff backOff = retryBackOff();
+            backOff.setMaxElapsedTime(maxRetryMillis);
+            return backOff;
+        });
+        // the back-off of the constructor also drives the retries of a whole batch, a function is applied to records only
+        CommonDelegatingErrorHandler delegatingErrorHandler = new CommonDelegatingErrorHandler(errorHandler);
+        delegatingErrorHandler.setCauseChainTraversing(true);
+        delegatingErrorHandler.addDelegate(PaymentServiceUnavailableException.class, new DefaultErrorHandler(retryBackOff()));
+        return delegatingErrorHandler;
+    }
+
+    /**
+     * Backs off between the retries of a rolled back transaction instead of retrying it at once; a batch transaction is
+     * retried until it commits.
+     */
+    @Bean
+    public AfterRollbackProcessor<Object, Object> paymentsAfterRollbackProcessor() {
+        return new DefaultAfterRollbackProcessor<>(retryBackOff());
+    }
+
+    private ExponentialBackOff retryBackOff() {
+        ExponentialBackOff backOff = new ExponentialBackOff(retryIntervalMillis, ExponentialBackOff.DEFAULT_MULTIPLIER);
+        backOff.setMaxInterval(openDurationMillis);
+        return backOff;
+    }
+}
@@ -0,0 +1,31 @@
+package ru.neoflex.scammertracking.analyzer.config;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.neoflex.scammertracking.analyzer.logging.PaymentTracing;
+import ru.neoflex.scammertracking.analyzer.logging.PaymentTracingEndpoint;
+
+import java.util.List;
+
+@Configuration
+public class PaymentTracingConfig {
+
+    @Value("${paymentLogging.mode:full}")
+    private String mode;
+    @Value("${paymentLogging.sampleRate:0}")
+    private double sampleRate;
+    @Value("${paymentLogging.tracedCards:}")
+    private List<String> tracedCards;
+
+    @PostConstruct
+    public void configurePaymentTracing() {
+        PaymentTracing.configure(mode, sampleRate, tracedCards);
+    }
+
+    @Bean
+    public PaymentTracingEndpoint paymentTracingEndpoint() {
+        return new PaymentTracingEndpoint();
+    }
+}
@@ -0,0 +1,43 @@
+package ru.neoflex.scammertracking.analyzer.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import ru.neoflex.scammertracking.analyzer.dao.PaymentCacheDao;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.feign.FeignService;
+import ru.neoflex.scammertracking.analyzer.service.impl.PaymentWarmUp;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+@Configuration
+@ConditionalOnProperty(value = "warmUp.enabled", havingValue = "true")
+public class PaymentWarmUpConfig {
+
+    @Value("${spring.kafka.topic.payments}")
+    private String paymentsTopic;
+    @Value("${warmUp.maxCards:10000}")
+    private int maxCards;
+    @Value("${warmUp.chunkSize:500}")
+    private int chunkSize;
+    @Value("${warmUp.parallelism:4}")
+    private int parallelism;
+    @Value("${warmUp.paymentServiceLookup:true}")
+    private boolean paymentServiceLookup;
+    @Value("${warmUp.timeBudgetMillis:5000}")
+    private long timeBudgetMillis;
+    @Value("${warmUp.prefetchTtlSeconds:60}")
+    private long prefetchTtlSeconds;
+
+    @Bean(destroyMethod = "close")
+    public PaymentWarmUp paymentWarmUp(PaymentCacheDao paymentCacheDao, FeignService feignService,
+                                       ConsumerFactory<String, PaymentRequestDto> consumerFactory) {
+        return new PaymentWarmUp(paymentCacheDao, feignService, consumerFactory, paymentsTopic, maxCards, chunkSize, paymentServiceLookup,
+                Duration.ofMillis(timeBudgetMillis), Duration.ofSeconds(prefetchTtlSeconds),
+                Executors.newFixedThreadPool(parallelism, new CustomizableThreadFactory("payment-warm-up-")));
+    }
+}
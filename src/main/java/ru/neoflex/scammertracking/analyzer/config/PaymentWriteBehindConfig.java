@@ -0,0 +1,38 @@
+package ru.neoflex.scammertracking.analyzer.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import ru.neoflex.scammertracking.analyzer.dao.PaymentCacheDao;
+import ru.neoflex.scammertracking.analyzer.feign.FeignService;
+import ru.neoflex.scammertracking.analyzer.kafka.producer.PaymentProducer;
+import ru.neoflex.scammertracking.analyzer.service.impl.PaymentWriteBehind;
+
+@Configuration
+@ConditionalOnProperty(value = "paymentService.writeBehind.enabled", havingValue = "true")
+public class PaymentWriteBehindConfig {
+
+    @Value("${spring.kafka.topic.suspicious-payments}")
+    private String suspiciousPaymentsTopic;
+    @Value("${spring.kafka.topic.checked-payments}")
+    private String checkedPaymentsTopic;
+    @Value("${paymentService.writeBehind.capacity:10000}")
+    private int capacity;
+    @Value("${paymentService.writeBehind.maxBatchSize:500}")
+    private int maxBatchSize;
+    @Value("${paymentService.writeBehind.retryBackoffMillis:100}")
+    private long retryBackoffMillis;
+    @Value("${paymentService.writeBehind.maxRetryBackoffMillis:10000}")
+    private long maxRetryBackoffMillis;
+    @Value("${paymentService.writeBehind.shutdownTimeoutMillis:30000}")
+    private long shutdownTimeoutMillis;
+
+    @Bean(destroyMethod = "close")
+    public PaymentWriteBehind paymentWriteBehind(FeignService feignService, PaymentCacheDao paymentCacheDao, PaymentProducer paymentProducer) {
+        return new PaymentWriteBehind(feignService, paymentCacheDao, paymentProducer, checkedPaymentsTopic, suspiciousPaymentsTopic,
+                capacity, maxBatchSize, retryBackoffMillis, maxRetryBackoffMillis, shutdownTimeoutMillis,
+                new CustomizableThreadFactory("payment-write-behind-"));
+    }
+}
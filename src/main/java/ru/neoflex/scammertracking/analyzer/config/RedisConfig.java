@@ -1,30 +1,84 @@
 package ru.neoflex.scammertracking.analyzer.config;
 
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisClientConfiguration;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
-import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
+import ru.neoflex.scammertracking.analyzer.dao.HashPaymentCacheStorage;
+import ru.neoflex.scammertracking.analyzer.dao.KeyPaymentCacheStorage;
+import ru.neoflex.scammertracking.analyzer.dao.PaymentCacheStorage;
+import ru.neoflex.scammertracking.analyzer.dao.PaymentEntityRedisSerializer;
+import ru.neoflex.scammertracking.analyzer.dao.PaymentNearCache;
+
+import java.time.Duration;
 
 @Configuration
 @EnableRedisRepositories
 public class RedisConfig {
 
+    public static final String KEY_LAYOUT = "key";
+
     @Value("${redis.hostName}")
     private String hostName;
     @Value("${redis.port}")
     private int port;
+    @Value("${redis.pool.maxTotal:64}")
+    private int poolMaxTotal;
+    @Value("${redis.pool.maxIdle:64}")
+    private int poolMaxIdle;
+    @Value("${redis.pool.minIdle:8}")
+    private int poolMinIdle;
+    @Value("${redis.pool.maxWaitMillis:2000}")
+    private long poolMaxWaitMillis;
+    @Value("${redis.pool.timeBetweenEvictionRunsMillis:30000}")
+    private long poolTimeBetweenEvictionRunsMillis;
+    @Value("${redis.connectTimeoutMillis:2000}")
+    private long connectTimeoutMillis;
+    @Value("${redis.readTimeoutMillis:2000}")
+    private long readTimeoutMillis;
+    @Value("${redis.transactionSupport:false}")
+    private boolean transactionSupport;
+    @Value("${redis.layout:hash}")
+    private String layout;
+    @Value("${redis.keyTtlSeconds:86400}")
+    private long keyTtlSeconds;
+    @Value("${redis.nearCache.enabled:true}")
+    private boolean nearCacheEnabled;
+    @Value("${redis.nearCache.maximumSize:100000}")
+    private long nearCacheMaximumSize;
+    @Value("${redis.nearCache.expireAfterWriteSeconds:60}")
+    private long nearCacheExpireAfterWriteSeconds;
+    @Value("${spring.kafka.transactions.enabled:false}")
+    private boolean kafkaTransactionsEnabled;
 
     @Bean
     public JedisConnectionFactory connectionFactory() {
         RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration();
         configuration.setHostName(hostName);
         configuration.setPort(port);
-        return new JedisConnectionFactory(configuration);
+        // in the virtual thread mode thousands of workers wait on Redis at once, they queue for a bounded pool
+        // instead of opening a connection each
+        GenericObjectPoolConfig<?> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(poolMaxTotal);
+        poolConfig.setMaxIdle(poolMaxIdle);
+        poolConfig.setMinIdle(poolMinIdle);
+        poolConfig.setMaxWait(Duration.ofMillis(poolMaxWaitMillis));
+        // minIdle is only restored by the evictor
+        poolConfig.setTimeBetweenEvictionRuns(Duration.ofMillis(poolTimeBetweenEvictionRunsMillis));
+        JedisClientConfiguration clientConfiguration = JedisClientConfiguration.builder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .readTimeout(Duration.ofMillis(readTimeoutMillis))
+                .usePooling()
+                .poolConfig(poolConfig)
+                .build();
+        return new JedisConnectionFactory(configuration, clientConfiguration);
     }
 
     @Bean
@@ -32,11 +86,27 @@ public class RedisConfig {
         RedisTemplate<String, Object> template = new RedisTemplate<>();
         template.setConnectionFactory(connectionFactory());
         template.setKeySerializer(new StringRedisSerializer());
-        template.setHashKeySerializer(new JdkSerializationRedisSerializer());
-        template.setValueSerializer(new JdkSerializationRedisSerializer());
-        template.setEnableTransactionSupport(true);
+        template.setHashKeySerializer(new StringRedisSerializer());
+        template.setHashValueSerializer(new PaymentEntityRedisSerializer());
+        template.setValueSerializer(new PaymentEntityRedisSerializer());
+        // with transaction support a connection is bound to the thread for a whole Spring transaction and every command
+        // is queued in MULTI, so reads return null; no DAO call relies on it. Inside a Kafka transaction of the listener
+        // it is never enabled, Redis writes are not part of the Kafka transaction anyway
+        template.setEnableTransactionSupport(transactionSupport && !kafkaTransactionsEnabled);
         template.afterPropertiesSet();
         return template;
     }
 
+    @Bean
+    public PaymentCacheStorage paymentCacheStorage() {
+        return KEY_LAYOUT.equals(layout)
+                ? new KeyPaymentCacheStorage(template(), Duration.ofSeconds(keyTtlSeconds))
+                : new HashPaymentCacheStorage(template());
+    }
+
+    @Bean
+    public PaymentNearCache paymentNearCache() {
+        return new PaymentNearCache(nearCacheEnabled, nearCacheMaximumSize, Duration.ofSeconds(nearCacheExpireAfterWriteSeconds), Ticker.systemTicker());
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,383 @@
+package ru.neoflex.scammertracking.analyzer.dao;
+
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Last payments of cards in primitive arrays: a slot of 48 bytes, about 96 per card with the free slots, instead of
+ * the 280 of a {@code ConcurrentHashMap<String, PaymentEntity>} entry with its objects. A card is keyed by a 64-bit
+ * hash of its number and has a slot of fixed-width fields: idPayment, latitude and longitude, datePayment in epoch
+ * millis, dateUpdating in epoch seconds and receiverCardNumber as a number. A receiver card number of more than
+ * {@value #MAX_EXACT_DIGITS} digits or with other chars is not kept, a found payment then has none.
+ * <p>
+ * The table is split into segments by the high half of the hash, each an open-addressing table with linear probing
+ * and its own {@link StampedLock}: writes of different segments do not contend and reads are optimistic, without
+ * taking the lock unless a write of the segment interleaves.
+ * <p>
+ * {@link #snapshot} writes the table to a memory-mapped file and {@link #restore} maps it back, so a restart does not
+ * rebuild the table payment by payment. Card numbers of up to {@value #MAX_EXACT_DIGITS} digits have hashes of their
+ * own; two other card numbers with the same hash share a slot, which for a hundred million cards happens with a
+ * probability of about 3 in 10 000.
+ */
+public class CardStateTable implements LocalPaymentStore.PartitionPayments {
+
+    private static final int SLOT_LONGS = 6;
+    private static final int HASH = 0;
+    private static final int ID_PAYMENT = 1;
+    private static final int COORDINATES = 2;
+    private static final int DATE_PAYMENT = 3;
+    private static final int DATE_UPDATING = 4;
+    private static final int RECEIVER = 5;
+    private static final long EMPTY = 0;
+    private static final long ABSENT = Long.MIN_VALUE;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+    private static final double MAX_LOAD = 0.75;
+    private static final int SNAPSHOT_MAGIC = 0x43535442;
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final int MAX_EXACT_DIGITS = 18;
+    private static final int SNAPSHOT_HEADER_BYTES = 3 * Integer.BYTES + Long.BYTES;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    /**
+     * @param segmentCount number of lock stripes, rounded up to a power of two
+     */
+    public CardStateTable(int expectedCards, int segmentCount) {
+        if (expectedCards < 0 || segmentCount < 1) {
+            throw new IllegalArgumentException("expectedCards must not be negative and segmentCount must be positive");
+        }
+        this.segments = new Segment[1 << 32 - Integer.numberOfLeadingZeros(segmentCount - 1)];
+        this.segmentMask = segments.length - 1;
+        int segmentCapacity = capacityFor((long) Math.ceil(expectedCards / MAX_LOAD / segments.length));
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(new long[segmentCapacity * SLOT_LONGS], 0);
+        }
+    }
+
+    private CardStateTable(Segment[] segments) {
+        this.segments = segments;
+        this.segmentMask = segments.length - 1;
+    }
+
+    /**
+     * @return the last payment of the card, or null if the card is unknown
+     */
+    @Override
+    public PaymentEntity get(String payerCardNumber) {
+        long hash = hashOf(payerCardNumber);
+        long[] slot = new long[SLOT_LONGS];
+        return segmentOf(hash).read(hash, slot) ? toPayment(payerCardNumber, slot) : null;
+    }
+
+    @Override
+    public void put(PaymentEntity payment) {
+        long hash = hashOf(payment.getPayerCardNumber());
+        segmentOf(hash).write(hash,
+                null != payment.getIdPayment() ? payment.getIdPayment() : ABSENT,
+                (long) Float.floatToRawIntBits(payment.getLatitude()) << 32 | Float.floatToRawIntBits(payment.getLongitude()) & 0xFFFFFFFFL,
+                null != payment.getDatePayment() ? payment.getDatePayment().toInstant(ZoneOffset.UTC).toEpochMilli() : ABSENT,
+                null != payment.getDateUpdating() ? payment.getDateUpdating().toEpochSecond(ZoneOffset.UTC) : ABSENT,
+                null != payment.getReceiverCardNumber() ? digitsOf(payment.getReceiverCardNumber()) : ABSENT);
+    }
+
+    @Override
+    public void remove(String payerCardNumber) {
+        long hash = hashOf(payerCardNumber);
+        segmentOf(hash).remove(hash);
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the table to the file through a temporary file mapped in memory, the file is replaced atomically. Each
+     * segment is consistent, writes to other segments may go on meanwhile.
+     *
+     * @param position stored along, e.g. the changelog offset the table is up to date with
+     */
+    public void snapshot(Path file, long position) throws IOException {
+        long[][] slots = new long[segments.length][];
+        int[] sizes = new int[segments.length];
+        long bytes = SNAPSHOT_HEADER_BYTES;
+        for (int i = 0; i < segments.length; i++) {
+            Segment segment = segments[i];
+            long stamp = segment.lock.readLock();
+            try {
+                slots[i] = segment.slots.clone();
+                sizes[i] = segment.size;
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+            bytes += 2L * Integer.BYTES + (long) slots[i].length * Long.BYTES;
+        }
+
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(segments.length).putLong(position);
+            for (int i = 0; i < segments.length; i++) {
+                buffer.putInt(slots[i].length / SLOT_LONGS).putInt(sizes[i]);
+                putLongs(buffer, slots[i]);
+            }
+            buffer.force();
+        }
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @throws IOException if the file cannot be read or is not a snapshot of this version
+     */
+    public static Snapshot restore(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < SNAPSHOT_HEADER_BYTES || buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a card state snapshot: " + file);
+            }
+            int segmentCount = buffer.getInt();
+            long position = buffer.getLong();
+            if (segmentCount < 1 || Integer.bitCount(segmentCount) != 1) {
+                throw new IOException("Corrupted card state snapshot " + file + ": " + segmentCount + " segments");
+            }
+            Segment[] segments = new Segment[segmentCount];
+            try {
+                for (int i = 0; i < segmentCount; i++) {
+                    int capacity = buffer.getInt();
+                    int size = buffer.getInt();
+                    if (capacity < MIN_SEGMENT_CAPACITY || Integer.bitCount(capacity) != 1 || size < 0 || size > capacity) {
+                        throw new IOException("Corrupted card state snapshot " + file + ": segment of " + size + " cards in " + capacity + " slots");
+                    }
+                    long[] slots = new long[capacity * SLOT_LONGS];
+                    getLongs(buffer, slots);
+                    segments[i] = new Segment(slots, size);
+                }
+            } catch (java.nio.BufferUnderflowException e) {
+                throw new IOException("Truncated card state snapshot " + file, e);
+            }
+            return new Snapshot(new CardStateTable(segments), position);
+        }
+    }
+
+    /**
+     * The number itself for card numbers of up to {@value #MAX_EXACT_DIGITS} digits, a 64-bit FNV-1a of other card
+     * numbers, spread by the finalizer of MurmurHash3. The finalizer is a bijection, so the hashes of card numbers of
+     * digits only never collide with each other. Never {@value #EMPTY}, the marker of an empty slot.
+     */
+    static long hashOf(String payerCardNumber) {
+        long hash = digitsOf(payerCardNumber);
+        if (ABSENT == hash) {
+            int length = payerCardNumber.length();
+            hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < length; i++) {
+                hash ^= payerCardNumber.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return EMPTY != hash ? hash : 1;
+    }
+
+    /**
+     * @return the card number as a number after a leading 1, which keeps leading zeros and the length apart, or
+     * {@code ABSENT} if it has more than {@value #MAX_EXACT_DIGITS} digits or other chars
+     */
+    private static long digitsOf(String cardNumber) {
+        int length = cardNumber.length();
+        long number = 1;
+        // negative once a char is not a digit
+        int digits = MAX_EXACT_DIGITS - length;
+        for (int i = 0; i < length; i++) {
+            int digit = cardNumber.charAt(i) - '0';
+            digits |= digit | 9 - digit;
+            number = number * 10 + digit;
+        }
+        return digits >= 0 ? number : ABSENT;
+    }
+
+    private Segment segmentOf(long hash) {
+        // the high half selects the segment, the low half the slot within it
+        return segments[(int) (hash >>> 32) & segmentMask];
+    }
+
+    private static int capacityFor(long slots) {
+        long capacity = Math.max(MIN_SEGMENT_CAPACITY, Long.highestOneBit(Math.max(1, slots - 1)) << 1);
+        if (capacity * SLOT_LONGS > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many cards for a segment, use more segments");
+        }
+        return (int) capacity;
+    }
+
+    private static PaymentEntity toPayment(String payerCardNumber, long[] slot) {
+        return new PaymentEntity(payerCardNumber,
+                ABSENT != slot[RECEIVER] ? Long.toString(slot[RECEIVER]).substring(1) : null,
+                ABSENT != slot[ID_PAYMENT] ? slot[ID_PAYMENT] : null,
+                Float.intBitsToFloat((int) (slot[COORDINATES] >>> 32)), Float.intBitsToFloat((int) slot[COORDINATES]),
+                ABSENT != slot[DATE_PAYMENT] ? LocalDateTime.ofEpochSecond(Math.floorDiv(slot[DATE_PAYMENT], 1000),
+                        Math.floorMod(slot[DATE_PAYMENT], 1000) * 1_000_000, ZoneOffset.UTC) : null,
+                ABSENT != slot[DATE_UPDATING] ? LocalDateTime.ofEpochSecond(slot[DATE_UPDATING], 0, ZoneOffset.UTC) : null);
+    }
+
+    private static void putLongs(ByteBuffer buffer, long[] values) {
+        LongBuffer longs = buffer.asLongBuffer();
+        longs.put(values);
+        buffer.position(buffer.position() + values.length * Long.BYTES);
+    }
+
+    private static void getLongs(ByteBuffer buffer, long[] values) {
+        if (buffer.remaining() < (long) values.length * Long.BYTES) {
+            throw new java.nio.BufferUnderflowException();
+        }
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Long.BYTES);
+    }
+
+    public record Snapshot(CardStateTable table, long position) {
+    }
+
+    private static final class Segment {
+
+        private final StampedLock lock = new StampedLock();
+        private long[] slots;
+        private volatile int size;
+
+        private Segment(long[] slots, int size) {
+            this.slots = slots;
+            this.size = size;
+        }
+
+        /**
+         * Copies the slot of the hash, optimistically first and under the read lock if a write interleaved.
+         */
+        private boolean read(long hash, long[] slot) {
+            long stamp = lock.tryOptimisticRead();
+            if (0 != stamp) {
+                boolean isFound = copySlot(slots, hash, slot);
+                if (lock.validate(stamp)) {
+                    return isFound;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return copySlot(slots, hash, slot);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private void write(long hash, long idPayment, long coordinates, long datePayment, long dateUpdating, long receiver) {
+            long stamp = lock.writeLock();
+            try {
+                int index = indexOf(slots, hash);
+                if (EMPTY == slots[index + HASH]) {
+                    if (size + 1 > slots.length / SLOT_LONGS * MAX_LOAD) {
+                        slots = resize(slots, slots.length * 2);
+                        index = indexOf(slots, hash);
+                    }
+                    size++;
+                }
+                slots[index + HASH] = hash;
+                slots[index + ID_PAYMENT] = idPayment;
+                slots[index + COORDINATES] = coordinates;
+                slots[index + DATE_PAYMENT] = datePayment;
+                slots[index + DATE_UPDATING] = dateUpdating;
+                slots[index + RECEIVER] = receiver;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Empties the slot and shifts back the following slots of the probe sequence, so no tombstones are left.
+         */
+        private void remove(long hash) {
+            long stamp = lock.writeLock();
+            try {
+                long[] slots = this.slots;
+                int index = indexOf(slots, hash);
+                if (EMPTY == slots[index + HASH]) {
+                    return;
+                }
+                int mask = slots.length / SLOT_LONGS - 1;
+                int hole = index / SLOT_LONGS;
+                for (int next = hole + 1 & mask; EMPTY != slots[next * SLOT_LONGS + HASH]; next = next + 1 & mask) {
+                    int home = homeOf(slots[next * SLOT_LONGS + HASH], mask);
+                    // the entry stays if its home lies cyclically after the hole and up to its own slot
+                    if ((next - home & mask) >= (next - hole & mask)) {
+                        System.arraycopy(slots, next * SLOT_LONGS, slots, hole * SLOT_LONGS, SLOT_LONGS);
+                        hole = next;
+                    }
+                }
+                slots[hole * SLOT_LONGS + HASH] = EMPTY;
+                size--;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private static boolean copySlot(long[] slots, long hash, long[] slot) {
+            int index = indexOf(slots, hash);
+            if (index < 0 || EMPTY == slots[index + HASH]) {
+                return false;
+            }
+            System.arraycopy(slots, index, slot, 0, SLOT_LONGS);
+            return true;
+        }
+
+        /**
+         * @return the index of the slot holding the hash or of the empty slot ending its probe sequence, -1 if the
+         * slots are full, which only an optimistic read of a changing segment may see
+         */
+        private static int indexOf(long[] slots, long hash) {
+            int mask = slots.length / SLOT_LONGS - 1;
+            int slot = homeOf(hash, mask);
+            for (int probes = 0; probes <= mask; probes++) {
+                long slotHash = slots[slot * SLOT_LONGS + HASH];
+                if (slotHash == hash || EMPTY == slotHash) {
+                    return slot * SLOT_LONGS;
+                }
+                slot = slot + 1 & mask;
+            }
+            return -1;
+        }
+
+        private static int homeOf(long hash, int mask) {
+            return (int) hash & mask;
+        }
+
+        private static long[] resize(long[] slots, int length) {
+            long[] resized = new long[length];
+            for (int i = 0; i < slots.length; i += SLOT_LONGS) {
+                if (EMPTY != slots[i + HASH]) {
+                    System.arraycopy(slots, i, resized, indexOf(resized, slots[i + HASH]), SLOT_LONGS);
+                }
+            }
+            return resized;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ru.neoflex.scammertracking.analyzer.dao;
+
+import org.springframework.data.redis.core.RedisTemplate;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All payments in the single {@value #HASH_KEY} hash, freshness is checked by the client with {@code dateUpdating}.
+ */
+public class HashPaymentCacheStorage implements PaymentCacheStorage {
+
+    public static final String HASH_KEY = "Payment";
+
+    private final RedisTemplate<String, Object> redisTemplate;
+
+    public HashPaymentCacheStorage(RedisTemplate<String, Object> redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Override
+    public PaymentEntity get(String payerCardNumber) {
+        return (PaymentEntity) redisTemplate.opsForHash().get(HASH_KEY, payerCardNumber);
+    }
+
+    @Override
+    public List<PaymentEntity> multiGet(List<String> payerCardNumbers) {
+        List<Object> payments = redisTemplate.opsForHash().multiGet(HASH_KEY, new ArrayList<>(payerCardNumbers));
+        return payments.stream()
+                .map(PaymentEntity.class::cast)
+                .toList();
+    }
+
+    @Override
+    public void put(PaymentEntity payment) {
+        redisTemplate.opsForHash().put(HASH_KEY, payment.getPayerCardNumber(), payment);
+    }
+
+    @Override
+    public PaymentEntity saveOrUpdate(PaymentEntity payment) {
+        return PaymentCacheScripts.saveOrUpdate(redisTemplate, PaymentCacheScripts.HASH_SAVE_OR_UPDATE, HASH_KEY, payment,
+                payment.getPayerCardNumber().getBytes(StandardCharsets.UTF_8), this::put);
+    }
+
+    @Override
+    public void putAll(Collection<PaymentEntity> payments) {
+        Map<String, PaymentEntity> paymentsByCardNumber = new HashMap<>();
+        payments.forEach(payment -> paymentsByCardNumber.put(payment.getPayerCardNumber(), payment));
+        redisTemplate.opsForHash().putAll(HASH_KEY, paymentsByCardNumber);
+    }
+}
@@ -0,0 +1,96 @@
+package ru.neoflex.scammertracking.analyzer.dao;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * One key per card, {@value #KEY_PREFIX}{payerCardNumber}, expiring {@code redis.keyTtlSeconds} after {@code dateUpdating}.
+ * Stale payments are removed by Redis itself instead of being fetched and compared by the analyzer,
+ * and the keys spread over the slots of a Redis Cluster.
+ */
+public class KeyPaymentCacheStorage implements PaymentCacheStorage {
+
+    public static final String KEY_PREFIX = "payment:";
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final Duration timeToLive;
+
+    public KeyPaymentCacheStorage(RedisTemplate<String, Object> redisTemplate, Duration timeToLive) {
+        this.redisTemplate = redisTemplate;
+        this.timeToLive = timeToLive;
+    }
+
+    @Override
+    public PaymentEntity get(String payerCardNumber) {
+        return (PaymentEntity) redisTemplate.opsForValue().get(keyOf(payerCardNumber));
+    }
+
+    @Override
+    public List<PaymentEntity> multiGet(List<String> payerCardNumbers) {
+        List<Object> payments = redisTemplate.opsForValue().multiGet(payerCardNumbers.stream()
+                .map(KeyPaymentCacheStorage::keyOf)
+                .toList());
+        return payments.stream()
+                .map(PaymentEntity.class::cast)
+                .toList();
+    }
+
+    @Override
+    public void put(PaymentEntity payment) {
+        Duration expiry = expiryOf(payment, timeToLive, LocalDateTime.now());
+        if (!expiry.isNegative() && !expiry.isZero()) {
+            redisTemplate.opsForValue().set(keyOf(payment.getPayerCardNumber()), payment, expiry);
+        }
+    }
+
+    @Override
+    public PaymentEntity saveOrUpdate(PaymentEntity payment) {
+        Duration expiry = expiryOf(payment, timeToLive, LocalDateTime.now());
+        if (expiry.isNegative() || expiry.isZero()) {
+            // already stale, it is not written as by put
+            PaymentEntity cachedPayment = get(payment.getPayerCardNumber());
+            return null != cachedPayment ? PaymentCacheScripts.withIdPayment(payment, cachedPayment.getIdPayment()) : payment;
+        }
+        return PaymentCacheScripts.saveOrUpdate(redisTemplate, PaymentCacheScripts.KEY_SAVE_OR_UPDATE, keyOf(payment.getPayerCardNumber()),
+                payment, String.valueOf(expiry.toMillis()).getBytes(StandardCharsets.US_ASCII), this::put);
+    }
+
+    @Override
+    public void putAll(Collection<PaymentEntity> payments) {
+        LocalDateTime now = LocalDateTime.now();
+        redisTemplate.executePipelined(new SessionCallback<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Void execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, Object> redisOperations = (RedisOperations<String, Object>) operations;
+                for (PaymentEntity payment : payments) {
+                    Duration expiry = expiryOf(payment, timeToLive, now);
+                    if (!expiry.isNegative() && !expiry.isZero()) {
+                        redisOperations.opsForValue().set(keyOf(payment.getPayerCardNumber()), payment, expiry);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    public static String keyOf(String payerCardNumber) {
+        return KEY_PREFIX + payerCardNumber;
+    }
+
+    public static Duration expiryOf(PaymentEntity payment, Duration timeToLive, LocalDateTime now) {
+        if (null == payment.getDateUpdating()) {
+            return Duration.ZERO;
+        }
+        return timeToLive.minus(Duration.between(payment.getDateUpdating(), now));
+    }
+}
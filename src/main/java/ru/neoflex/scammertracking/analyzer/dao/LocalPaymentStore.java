@@ -0,0 +1,351 @@
+package ru.neoflex.scammertracking.analyzer.dao;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Utils;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics.Stage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Last payments of the cards of the payments partitions assigned to this instance, enabled with
+ * {@code localStore.enabled}. Payments are keyed by payer card number, so one instance sees the same cards again and
+ * again and their last payments are read from memory without a Redis or payment-service call.
+ * <p>
+ * Every write goes to a compacted changelog topic with as many partitions as the payments topic, a card to the
+ * partition its payments come from. When a payments partition is assigned, its changelog partition is read from the
+ * beginning before the listener resumes; when it is revoked or lost, its payments are dropped. Until a partition is
+ * restored its cards are not found here and the analyzer falls back to the cache. Cards are mapped to partitions as the
+ * default Kafka partitioner does for a payer card number key.
+ * <p>
+ * With {@code localStore.compact.enabled} a partition is kept in a {@link CardStateTable} rather than in a map of
+ * entities, and with {@code localStore.compact.snapshotDirectory} the table of a revoked partition is written to a
+ * snapshot along with the changelog end offset. A partition assigned again is then restored from its snapshot and the
+ * changelog records after that offset only.
+ * <p>
+ * Stored entities are shared and must not be mutated.
+ */
+@Slf4j
+public class LocalPaymentStore implements ConsumerAwareRebalanceListener {
+
+    private final String paymentsTopic;
+    private final String changelogTopic;
+    private final ConsumerFactory<String, byte[]> changelogConsumerFactory;
+    private final KafkaTemplate<String, byte[]> changelogTemplate;
+    private final Duration restoreTimeout;
+    private final Duration pollTimeout;
+    private final PaymentEntityRedisSerializer serializer = new PaymentEntityRedisSerializer();
+    private final Map<Integer, PartitionPayments> partitions = new ConcurrentHashMap<>();
+    private final CompactTables compactTables;
+
+    private volatile int partitionCount;
+
+    public LocalPaymentStore(String paymentsTopic, String changelogTopic,
+                             ConsumerFactory<String, byte[]> changelogConsumerFactory, KafkaTemplate<String, byte[]> changelogTemplate,
+                             Duration restoreTimeout, Duration pollTimeout) {
+        this(paymentsTopic, changelogTopic, changelogConsumerFactory, changelogTemplate, restoreTimeout, pollTimeout, null);
+    }
+
+    /**
+     * @param compactTables settings of the {@link CardStateTable} partitions, null to keep partitions in maps
+     */
+    public LocalPaymentStore(String paymentsTopic, String changelogTopic,
+                             ConsumerFactory<String, byte[]> changelogConsumerFactory, KafkaTemplate<String, byte[]> changelogTemplate,
+                             Duration restoreTimeout, Duration pollTimeout, CompactTables compactTables) {
+        this.paymentsTopic = paymentsTopic;
+        this.changelogTopic = changelogTopic;
+        this.changelogConsumerFactory = changelogConsumerFactory;
+        this.changelogTemplate = changelogTemplate;
+        this.restoreTimeout = restoreTimeout;
+        this.pollTimeout = pollTimeout;
+        this.compactTables = compactTables;
+    }
+
+    /**
+     * @return the last payment of the card, or null if the card is unknown or its partition is not restored
+     */
+    public PaymentEntity get(String payerCardNumber) {
+        PartitionPayments payments = partitions.get(partitionFor(payerCardNumber));
+        return null != payments ? payments.get(payerCardNumber) : null;
+    }
+
+    /**
+     * Stores the payment if its partition is restored and appends it to the changelog in any case.
+     */
+    public void put(PaymentEntity payment) {
+        int partition = partitionFor(payment.getPayerCardNumber());
+        if (partition < 0) {
+            return;
+        }
+        PartitionPayments payments = partitions.get(partition);
+        if (null != payments) {
+            payments.put(payment);
+        }
+        changelogTemplate.send(changelogTopic, partition, payment.getPayerCardNumber(), serializer.serialize(payment))
+                .whenComplete((result, exception) -> {
+                    if (null != exception) {
+                        log.error("Unable to write payment with idPayment={} to {}. cause: {}", payment.getIdPayment(), changelogTopic, exception.getMessage());
+                    }
+                });
+    }
+
+    public long size() {
+        long size = 0;
+        for (PartitionPayments payments : partitions.values()) {
+            size += payments.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> assignedPartitions) {
+        List<Integer> restoredPartitions = new ArrayList<>();
+        for (TopicPartition topicPartition : assignedPartitions) {
+            if (paymentsTopic.equals(topicPartition.topic()) && !partitions.containsKey(topicPartition.partition())) {
+                restoredPartitions.add(topicPartition.partition());
+            }
+        }
+        if (restoredPartitions.isEmpty()) {
+            return;
+        }
+
+        int paymentsPartitionCount = consumer.partitionsFor(paymentsTopic).size();
+        int changelogPartitionCount = consumer.partitionsFor(changelogTopic).size();
+        if (paymentsPartitionCount != changelogPartitionCount) {
+            log.error("Local store is not restored: {} has {} partitions, {} has {}",
+                    paymentsTopic, paymentsPartitionCount, changelogTopic, changelogPartitionCount);
+            return;
+        }
+        partitionCount = paymentsPartitionCount;
+        restore(restoredPartitions);
+    }
+
+    @Override
+    public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer, Collection<TopicPartition> revokedPartitions) {
+        snapshot(consumer, drop(revokedPartitions));
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> lostPartitions) {
+        drop(lostPartitions);
+    }
+
+    /**
+     * Reads the changelog partitions from the beginning or from the offset of their snapshot, a partition is published
+     * only when it is read to the end offset taken at the start. Partitions not read within {@code restoreTimeout} stay
+     * unrestored.
+     */
+    void restore(List<Integer> restoredPartitions) {
+        long startNanos = System.nanoTime();
+        List<TopicPartition> topicPartitions = restoredPartitions.stream()
+                .map(partition -> new TopicPartition(changelogTopic, partition))
+                .toList();
+        Map<Integer, PartitionPayments> restoredPayments = new HashMap<>();
+        long recordCount = 0;
+
+        try (Consumer<String, byte[]> consumer = changelogConsumerFactory.createConsumer()) {
+            consumer.assign(topicPartitions);
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(topicPartitions);
+            Map<TopicPartition, CardStateTable.Snapshot> snapshots = readSnapshots(topicPartitions, consumer, endOffsets);
+            List<TopicPartition> replayedPartitions = new ArrayList<>();
+            for (TopicPartition topicPartition : topicPartitions) {
+                CardStateTable.Snapshot snapshot = snapshots.get(topicPartition);
+                if (null != snapshot) {
+                    restoredPayments.put(topicPartition.partition(), snapshot.table());
+                    consumer.seek(topicPartition, snapshot.position());
+                } else {
+                    restoredPayments.put(topicPartition.partition(), newPartitionPayments());
+                    replayedPartitions.add(topicPartition);
+                }
+            }
+            consumer.seekToBeginning(replayedPartitions);
+            List<TopicPartition> pendingPartitions = new ArrayList<>(topicPartitions);
+            long deadlineNanos = startNanos + restoreTimeout.toNanos();
+
+            while (true) {
+                pendingPartitions.removeIf(topicPartition -> consumer.position(topicPartition) >= endOffsets.get(topicPartition));
+                if (pendingPartitions.isEmpty() || System.nanoTime() - deadlineNanos > 0) {
+                    break;
+                }
+                for (ConsumerRecord<String, byte[]> record : consumer.poll(pollTimeout)) {
+                    PartitionPayments payments = restoredPayments.get(record.partition());
+                    if (null == record.value()) {
+                        payments.remove(record.key());
+                    } else {
+                        payments.put(serializer.deserialize(record.value()));
+                    }
+                    recordCount++;
+                }
+            }
+
+            for (TopicPartition topicPartition : pendingPartitions) {
+                restoredPayments.remove(topicPartition.partition());
+            }
+            if (!pendingPartitions.isEmpty()) {
+                log.warn("Local store partitions {} were not restored in {} ms, their cards are read from the cache",
+                        pendingPartitions, restoreTimeout.toMillis());
+            }
+        }
+
+        partitions.putAll(restoredPayments);
+        PaymentMetrics.recordStage(Stage.STORE_RESTORE, startNanos);
+        log.info("Restored local store partitions {} from {} records in {} ms",
+                restoredPayments.keySet(), recordCount, (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    /**
+     * @return snapshots of the partitions whose offset is still in the changelog, a partition without a usable
+     * snapshot is read from the beginning
+     */
+    private Map<TopicPartition, CardStateTable.Snapshot> readSnapshots(List<TopicPartition> topicPartitions, Consumer<String, byte[]> consumer,
+                                                                       Map<TopicPartition, Long> endOffsets) {
+        Map<TopicPartition, CardStateTable.Snapshot> snapshots = new HashMap<>();
+        if (null == compactTables || null == compactTables.snapshotDirectory()) {
+            return snapshots;
+        }
+        Map<TopicPartition, Long> beginningOffsets = consumer.beginningOffsets(topicPartitions);
+        for (TopicPartition topicPartition : topicPartitions) {
+            Path file = snapshotFile(topicPartition.partition());
+            if (!Files.exists(file)) {
+                continue;
+            }
+            try {
+                CardStateTable.Snapshot snapshot = CardStateTable.restore(file);
+                if (snapshot.position() >= beginningOffsets.get(topicPartition) && snapshot.position() <= endOffsets.get(topicPartition)) {
+                    snapshots.put(topicPartition, snapshot);
+                } else {
+                    log.warn("Snapshot {} at offset {} is out of the changelog offsets [{}, {}], the partition is read from the beginning",
+                            file, snapshot.position(), beginningOffsets.get(topicPartition), endOffsets.get(topicPartition));
+                }
+            } catch (IOException e) {
+                log.warn("Unable to read snapshot {}, the partition is read from the beginning. cause: {}", file, e.getMessage());
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Writes the dropped compact tables to snapshots at the changelog end offsets, which cover every write of this
+     * instance once the changelog producer is flushed.
+     */
+    private void snapshot(Consumer<?, ?> consumer, Map<Integer, PartitionPayments> droppedPayments) {
+        if (null == compactTables || null == compactTables.snapshotDirectory() || droppedPayments.isEmpty()) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        try {
+            changelogTemplate.flush();
+            List<TopicPartition> topicPartitions = droppedPayments.keySet().stream()
+                    .map(partition -> new TopicPartition(changelogTopic, partition))
+                    .toList();
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(topicPartitions);
+            Files.createDirectories(compactTables.snapshotDirectory());
+            for (TopicPartition topicPartition : topicPartitions) {
+                if (droppedPayments.get(topicPartition.partition()) instanceof CardStateTable table) {
+                    table.snapshot(snapshotFile(topicPartition.partition()), endOffsets.get(topicPartition));
+                }
+            }
+            log.info("Wrote snapshots of local store partitions {} in {} ms",
+                    droppedPayments.keySet(), (System.nanoTime() - startNanos) / 1_000_000);
+        } catch (IOException | KafkaException e) {
+            log.warn("Unable to write snapshots of local store partitions {}, they will be read from the changelog. cause: {}",
+                    droppedPayments.keySet(), e.getMessage());
+        }
+    }
+
+    private Map<Integer, PartitionPayments> drop(Collection<TopicPartition> droppedPartitions) {
+        Map<Integer, PartitionPayments> droppedPayments = new HashMap<>();
+        for (TopicPartition topicPartition : droppedPartitions) {
+            if (paymentsTopic.equals(topicPartition.topic())) {
+                PartitionPayments payments = partitions.remove(topicPartition.partition());
+                if (null != payments) {
+                    droppedPayments.put(topicPartition.partition(), payments);
+                }
+            }
+        }
+        return droppedPayments;
+    }
+
+    private PartitionPayments newPartitionPayments() {
+        return null != compactTables
+                ? new CardStateTable(compactTables.initialCapacity(), compactTables.segments())
+                : new MapPartitionPayments();
+    }
+
+    private Path snapshotFile(int partition) {
+        return compactTables.snapshotDirectory().resolve(changelogTopic + "-" + partition + ".snapshot");
+    }
+
+    private int partitionFor(String payerCardNumber) {
+        int count = partitionCount;
+        if (0 == count || null == payerCardNumber) {
+            return -1;
+        }
+        return Utils.toPositive(Utils.murmur2(payerCardNumber.getBytes(StandardCharsets.UTF_8))) % count;
+    }
+
+    /**
+     * @param initialCapacity expected cards of a partition
+     * @param segments lock stripes of a partition table
+     * @param snapshotDirectory directory of the partition snapshots, null to read partitions from the changelog only
+     */
+    public record CompactTables(int initialCapacity, int segments, Path snapshotDirectory) {
+    }
+
+    /**
+     * Last payments of the cards of one partition.
+     */
+    interface PartitionPayments {
+
+        PaymentEntity get(String payerCardNumber);
+
+        void put(PaymentEntity payment);
+
+        void remove(String payerCardNumber);
+
+        long size();
+    }
+
+    private static final class MapPartitionPayments implements PartitionPayments {
+
+        private final Map<String, PaymentEntity> payments = new ConcurrentHashMap<>();
+
+        @Override
+        public PaymentEntity get(String payerCardNumber) {
+            return payments.get(payerCardNumber);
+        }
+
+        @Override
+        public void put(PaymentEntity payment) {
+            payments.put(payment.getPayerCardNumber(), payment);
+        }
+
+        @Override
+        public void remove(String payerCardNumber) {
+            payments.remove(payerCardNumber);
+        }
+
+        @Override
+        public long size() {
+            return payments.size();
+        }
+    }
+}
@@ -2,52 +2,203 @@ package ru.neoflex.scammertracking.analyzer.dao;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.logging.PaymentTracing;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics.Stage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Repository
 @Slf4j
 @RequiredArgsConstructor
 public class PaymentCacheDao {
 
-    private static final String HASH_KEY = "Payment";
+    private final PaymentCacheStorage paymentCacheStorage;
+    private final PaymentNearCache paymentNearCache;
+    // payments accepted by the write-behind pipeline but not yet written to Redis, they shadow the stored ones
+    private final Map<String, PaymentEntity> stagedPayments = new ConcurrentHashMap<>();
+    private LocalPaymentStore localPaymentStore;
+
+    @Autowired(required = false)
+    public void setLocalPaymentStore(LocalPaymentStore localPaymentStore) {
+        this.localPaymentStore = localPaymentStore;
+    }
 
-    private final RedisTemplate redisTemplate;
+    /**
+     * Looks the card up in memory only, in the staged payments and the local store.
+     *
+     * @return the last payment, or null if the local store is disabled or does not know the card
+     */
+    public PaymentEntity findLocalPaymentByCardNumber(String payerCardNumber) {
+        if (null == localPaymentStore) {
+            return null;
+        }
+        PaymentEntity payment = stagedPayments.get(payerCardNumber);
+        return null != payment ? payment : localPaymentStore.get(payerCardNumber);
+    }
 
     public PaymentEntity findPaymentByCardNumber(String payerCardNumber) {
-        log.info("find payment by card number={}", payerCardNumber);
-        return (PaymentEntity) redisTemplate.opsForHash().get(HASH_KEY, payerCardNumber);
+        long startNanos = System.nanoTime();
+        if (PaymentTracing.isTraced(payerCardNumber)) {
+            log.info("find payment by card number={}", payerCardNumber);
+        }
+
+        PaymentEntity payment = stagedPayments.get(payerCardNumber);
+        if (null == payment) {
+            payment = findStoredPaymentByCardNumber(payerCardNumber);
+        }
+        PaymentMetrics.recordStage(Stage.CACHE_LOOKUP, startNanos);
+        return payment;
+    }
+
+    private PaymentEntity findStoredPaymentByCardNumber(String payerCardNumber) {
+        PaymentEntity payment = paymentNearCache.get(payerCardNumber);
+        if (null == payment) {
+            payment = paymentCacheStorage.get(payerCardNumber);
+            if (null != payment) {
+                paymentNearCache.put(payment);
+            }
+        }
+        return payment;
+    }
+
+    public Map<String, PaymentEntity> findPaymentsByCardNumbers(Collection<String> payerCardNumbers) {
+        long startNanos = System.nanoTime();
+        log.info("find payments by card numbers. count={}", payerCardNumbers.size());
+
+        Map<String, PaymentEntity> paymentsByCardNumber = findStoredPaymentsByCardNumbers(payerCardNumbers);
+        if (!stagedPayments.isEmpty()) {
+            for (String payerCardNumber : payerCardNumbers) {
+                PaymentEntity stagedPayment = stagedPayments.get(payerCardNumber);
+                if (null != stagedPayment) {
+                    paymentsByCardNumber.put(payerCardNumber, stagedPayment);
+                }
+            }
+        }
+
+        PaymentMetrics.recordStage(Stage.CACHE_BULK_LOOKUP, startNanos);
+        log.info("found {} of {} payments in cache", paymentsByCardNumber.size(), payerCardNumbers.size());
+        return paymentsByCardNumber;
+    }
+
+    private Map<String, PaymentEntity> findStoredPaymentsByCardNumbers(Collection<String> payerCardNumbers) {
+        Map<String, PaymentEntity> paymentsByCardNumber = new HashMap<>(paymentNearCache.getAll(payerCardNumbers));
+        List<String> missedCardNumbers = new ArrayList<>(payerCardNumbers.size() - paymentsByCardNumber.size());
+        for (String payerCardNumber : payerCardNumbers) {
+            if (!paymentsByCardNumber.containsKey(payerCardNumber)) {
+                missedCardNumbers.add(payerCardNumber);
+            }
+        }
+
+        if (!missedCardNumbers.isEmpty()) {
+            List<PaymentEntity> payments = paymentCacheStorage.multiGet(missedCardNumbers);
+            for (int i = 0; i < missedCardNumbers.size(); i++) {
+                PaymentEntity payment = payments.get(i);
+                if (null != payment) {
+                    paymentsByCardNumber.put(missedCardNumbers.get(i), payment);
+                    paymentNearCache.put(payment);
+                }
+            }
+        }
+        return paymentsByCardNumber;
     }
 
     public PaymentEntity save(PaymentEntity payment) {
-        log.info("receive for save. payment={}", payment);
+        long startNanos = System.nanoTime();
+        if (PaymentTracing.isTraced(payment.getPayerCardNumber())) {
+            log.info("receive for save. payment={}", payment);
+        }
 
-        redisTemplate.opsForHash().put(HASH_KEY, payment.getPayerCardNumber(), payment);
+        paymentCacheStorage.put(payment);
+        paymentNearCache.put(payment);
+        putLocal(payment);
+        PaymentMetrics.recordStage(Stage.CACHE_WRITE, startNanos);
 
-        log.info("The payment with idPayment={} was saved", payment.getIdPayment());
+        if (PaymentTracing.isTraced(payment.getPayerCardNumber())) {
+            log.info("The payment with idPayment={} was saved", payment.getIdPayment());
+        }
         return payment;
     }
 
+    /**
+     * Writes the payment keeping the idPayment of the card already cached, a card not cached yet is saved as is.
+     */
     public PaymentEntity update(PaymentEntity paymentUpdate) {
-        log.info("Received for check payment. payment={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, datePayment ={}, dateUpdating={} }",
-                paymentUpdate.getIdPayment(), paymentUpdate.getPayerCardNumber(), paymentUpdate.getReceiverCardNumber(), paymentUpdate.getLatitude(), paymentUpdate.getLongitude(), paymentUpdate.getDatePayment(), paymentUpdate.getDateUpdating());
-
-        PaymentEntity paymentEntity = (PaymentEntity) redisTemplate.opsForHash().get(HASH_KEY, paymentUpdate.getPayerCardNumber());
-        if (paymentEntity == null) {
-            paymentEntity = new PaymentEntity();
-            paymentEntity.setPayerCardNumber(paymentUpdate.getPayerCardNumber());
+        long startNanos = System.nanoTime();
+        if (PaymentTracing.isTraced(paymentUpdate.getPayerCardNumber())) {
+            log.info("Received for check payment. payment={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, datePayment ={}, dateUpdating={} }",
+                    paymentUpdate.getIdPayment(), paymentUpdate.getPayerCardNumber(), paymentUpdate.getReceiverCardNumber(), paymentUpdate.getLatitude(), paymentUpdate.getLongitude(), paymentUpdate.getDatePayment(), paymentUpdate.getDateUpdating());
         }
-        paymentEntity.setIdPayment(paymentEntity.getIdPayment());
-        paymentEntity.setReceiverCardNumber(paymentUpdate.getReceiverCardNumber());
-        paymentEntity.setLatitude(paymentUpdate.getLatitude());
-        paymentEntity.setLongitude(paymentUpdate.getLongitude());
-        paymentEntity.setDatePayment(paymentUpdate.getDatePayment());
-        paymentEntity.setDateUpdating(paymentUpdate.getDateUpdating());
 
-        redisTemplate.opsForHash().put(HASH_KEY, paymentEntity.getPayerCardNumber(), paymentEntity);
+        // the cached idPayment is kept by the storage in the round trip of the write instead of being read first
+        PaymentEntity paymentEntity = paymentCacheStorage.saveOrUpdate(paymentUpdate);
+
+        paymentNearCache.put(paymentEntity);
+        putLocal(paymentEntity);
+        PaymentMetrics.recordStage(Stage.CACHE_WRITE, startNanos);
 
-        log.info("The payment with idPayment={} was updateing", paymentUpdate.getIdPayment());
+        if (PaymentTracing.isTraced(paymentUpdate.getPayerCardNumber())) {
+            log.info("The payment with idPayment={} was updateing", paymentUpdate.getIdPayment());
+        }
         return paymentEntity;
     }
+
+    /**
+     * Makes the payment visible to lookups until it is written with {@link #saveAll} or discarded with {@link #unstage}.
+     */
+    public void stage(PaymentEntity payment) {
+        stagedPayments.put(payment.getPayerCardNumber(), payment);
+    }
+
+    public void unstage(PaymentEntity payment) {
+        stagedPayments.remove(payment.getPayerCardNumber(), payment);
+    }
+
+    /**
+     * Saves or updates the payments with one bulk read and one bulk write, in the same way as {@link #save} and
+     * {@link #update} called one by one: a card already cached keeps its idPayment.
+     */
+    public void saveAll(List<PaymentEntity> payments) {
+        long startNanos = System.nanoTime();
+        log.info("receive for save. payments count={}", payments.size());
+
+        Map<String, PaymentEntity> paymentsByCardNumber = new LinkedHashMap<>();
+        for (PaymentEntity payment : payments) {
+            paymentsByCardNumber.put(payment.getPayerCardNumber(), null);
+        }
+        Map<String, PaymentEntity> cachedPayments = findStoredPaymentsByCardNumbers(paymentsByCardNumber.keySet());
+        for (PaymentEntity payment : payments) {
+            PaymentEntity previousPayment = paymentsByCardNumber.get(payment.getPayerCardNumber());
+            if (null == previousPayment) {
+                previousPayment = cachedPayments.get(payment.getPayerCardNumber());
+            }
+            paymentsByCardNumber.put(payment.getPayerCardNumber(), new PaymentEntity(payment.getPayerCardNumber(), payment.getReceiverCardNumber(),
+                    null != previousPayment ? previousPayment.getIdPayment() : payment.getIdPayment(),
+                    payment.getLatitude(), payment.getLongitude(),
+                    payment.getDatePayment(), payment.getDateUpdating()));
+        }
+
+        paymentCacheStorage.putAll(paymentsByCardNumber.values());
+        paymentsByCardNumber.values().forEach(paymentNearCache::put);
+        paymentsByCardNumber.values().forEach(this::putLocal);
+        payments.forEach(this::unstage);
+        PaymentMetrics.recordStage(Stage.CACHE_BULK_WRITE, startNanos);
+
+        log.info("{} payments were saved", paymentsByCardNumber.size());
+    }
+
+    private void putLocal(PaymentEntity payment) {
+        if (null != localPaymentStore) {
+            localPaymentStore.put(payment);
+        }
+    }
 }
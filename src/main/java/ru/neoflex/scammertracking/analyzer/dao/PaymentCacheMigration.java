@@ -0,0 +1,144 @@
+package ru.neoflex.scammertracking.analyzer.dao;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.stereotype.Component;
+import ru.neoflex.scammertracking.analyzer.config.RedisConfig;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites payments cached by older analyzer versions to UTF-8 keys and {@link PaymentEntityRedisSerializer} values.
+ * Older versions JDK-serialized everything, including the name of the hash itself, so both the legacy hash and
+ * legacy entries of the current hash are walked with HSCAN in chunks of {@code redis.migration.chunkSize}, each chunk
+ * is written in one pipeline. The walk is idempotent, a newer entry stored under the new key is never overwritten: a
+ * legacy value of the current hash is replaced only while it is still the scanned one.
+ * <p>
+ * With {@code redis.layout=key} every entry of both hashes is moved to its own key with the remaining time to live,
+ * already stale entries are dropped.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(value = "redis.migration.enabled", havingValue = "true")
+public class PaymentCacheMigration implements ApplicationRunner {
+
+    private static final byte[] HASH_KEY = HashPaymentCacheStorage.HASH_KEY.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LEGACY_HASH_KEY = new JdkSerializationRedisSerializer().serialize(HashPaymentCacheStorage.HASH_KEY);
+    private static final byte[] HASH_REPLACE = PaymentCacheScripts.HASH_REPLACE.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    public PaymentCacheMigration(RedisTemplate<String, Object> redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final JdkSerializationRedisSerializer legacySerializer = new JdkSerializationRedisSerializer();
+    private final PaymentEntityRedisSerializer paymentSerializer = new PaymentEntityRedisSerializer();
+
+    @Value("${redis.migration.chunkSize:1000}")
+    private int chunkSize;
+    @Value("${redis.layout:hash}")
+    private String layout;
+    @Value("${redis.keyTtlSeconds:86400}")
+    private long keyTtlSeconds;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        log.info("Start migration of cached payments. chunkSize={}, layout={}", chunkSize, layout);
+        boolean toKeys = RedisConfig.KEY_LAYOUT.equals(layout);
+
+        long[] counters = new long[2];
+        for (byte[] hashKey : List.of(LEGACY_HASH_KEY, HASH_KEY)) {
+            redisTemplate.execute((RedisCallback<Void>) connection -> {
+                ScanOptions options = ScanOptions.scanOptions().count(chunkSize).build();
+                List<Map.Entry<byte[], byte[]>> chunk = new ArrayList<>(chunkSize);
+                try (Cursor<Map.Entry<byte[], byte[]>> cursor = connection.hashCommands().hScan(hashKey, options)) {
+                    while (cursor.hasNext()) {
+                        Map.Entry<byte[], byte[]> entry = cursor.next();
+                        counters[0]++;
+                        if (toKeys || hashKey == LEGACY_HASH_KEY || PaymentEntityRedisSerializer.isLegacy(entry.getKey()) || PaymentEntityRedisSerializer.isLegacy(entry.getValue())) {
+                            chunk.add(entry);
+                        }
+                        if (chunk.size() == chunkSize) {
+                            counters[1] += migrate(hashKey, chunk, toKeys);
+                            chunk.clear();
+                        }
+                    }
+                }
+                counters[1] += migrate(hashKey, chunk, toKeys);
+                return null;
+            });
+        }
+
+        log.info("Migration of cached payments finished. scanned={}, migrated={}", counters[0], counters[1]);
+    }
+
+    private int migrate(byte[] hashKey, List<Map.Entry<byte[], byte[]>> chunk, boolean toKeys) {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        // HASH_KEY, then field, scanned value and new value of each legacy value of the current hash
+        List<byte[]> replacements = new ArrayList<>();
+        replacements.add(HASH_KEY);
+        redisTemplate.executePipelined((RedisCallback<Void>) connection -> {
+            for (Map.Entry<byte[], byte[]> entry : chunk) {
+                if (toKeys) {
+                    migrateToKey(connection, hashKey, entry.getKey(), entry.getValue(), now);
+                    continue;
+                }
+                byte[] payment = paymentSerializer.serialize(paymentSerializer.deserialize(entry.getValue()));
+                if (hashKey == LEGACY_HASH_KEY || PaymentEntityRedisSerializer.isLegacy(entry.getKey())) {
+                    connection.hashCommands().hSetNX(HASH_KEY, payerCardNumberOf(entry.getKey()).getBytes(StandardCharsets.UTF_8), payment);
+                    connection.hashCommands().hDel(hashKey, entry.getKey());
+                } else {
+                    replacements.addAll(List.of(entry.getKey(), entry.getValue(), payment));
+                }
+            }
+            return null;
+        });
+        if (replacements.size() > 1) {
+            // the analyzer may have saved a newer payment of the card since the scan; scripts are not pipelined, the
+            // legacy values of the chunk are replaced in one call
+            redisTemplate.execute((RedisCallback<Long>) connection -> connection.scriptingCommands()
+                    .eval(HASH_REPLACE, ReturnType.INTEGER, 1, replacements.toArray(new byte[0][])));
+        }
+        return chunk.size();
+    }
+
+    private void migrateToKey(RedisConnection connection, byte[] hashKey, byte[] field, byte[] value, LocalDateTime now) {
+        PaymentEntity payment = paymentSerializer.deserialize(value);
+        Duration expiry = KeyPaymentCacheStorage.expiryOf(payment, Duration.ofSeconds(keyTtlSeconds), now);
+        if (expiry.toMillis() > 0) {
+            byte[] key = KeyPaymentCacheStorage.keyOf(payerCardNumberOf(field)).getBytes(StandardCharsets.UTF_8);
+            connection.stringCommands().set(key, paymentSerializer.serialize(payment),
+                    Expiration.milliseconds(expiry.toMillis()), RedisStringCommands.SetOption.SET_IF_ABSENT);
+        }
+        connection.hashCommands().hDel(hashKey, field);
+    }
+
+    private String payerCardNumberOf(byte[] field) {
+        return PaymentEntityRedisSerializer.isLegacy(field)
+                ? (String) legacySerializer.deserialize(field)
+                : new String(field, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,97 @@
+package ru.neoflex.scammertracking.analyzer.dao;
+
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Lua scripts of {@link PaymentCacheStorage#saveOrUpdate} and of {@link PaymentCacheMigration}. The idPayment of the cached payment is spliced into the
+ * serialized new one at {@link PaymentEntityRedisSerializer#ID_PAYMENT_OFFSET}, the same in every version, so the read and the write take one
+ * round trip and no other write of the card interleaves between them. A legacy JDK-serialized payment is returned
+ * untouched and merged on the client.
+ */
+final class PaymentCacheScripts {
+
+    private static final String MERGE = """
+            if previous and string.byte(previous, 1) == %d then
+              return previous
+            end
+            local payment = ARGV[1]
+            if previous then
+              payment = string.sub(ARGV[1], 1, %d) .. string.sub(previous, %d, %d) .. string.sub(ARGV[1], %d)
+            end
+            """.formatted(PaymentEntityRedisSerializer.JDK_STREAM_MAGIC & 0xFF,
+            PaymentEntityRedisSerializer.ID_PAYMENT_OFFSET,
+            PaymentEntityRedisSerializer.ID_PAYMENT_OFFSET + 1,
+            PaymentEntityRedisSerializer.ID_PAYMENT_OFFSET + Long.BYTES,
+            PaymentEntityRedisSerializer.ID_PAYMENT_OFFSET + Long.BYTES + 1);
+
+    /**
+     * KEYS[1] hash, ARGV[1] payment, ARGV[2] card number.
+     */
+    static final RedisScript<byte[]> HASH_SAVE_OR_UPDATE = new DefaultRedisScript<>(
+            "local previous = redis.call('HGET', KEYS[1], ARGV[2])\n"
+                    + MERGE
+                    + "redis.call('HSET', KEYS[1], ARGV[2], payment)\n"
+                    + "return previous and payment\n",
+            byte[].class);
+
+    /**
+     * KEYS[1] payment key, ARGV[1] payment, ARGV[2] time to live in milliseconds.
+     */
+    static final RedisScript<byte[]> KEY_SAVE_OR_UPDATE = new DefaultRedisScript<>(
+            "local previous = redis.call('GET', KEYS[1])\n"
+                    + MERGE
+                    + "redis.call('SET', KEYS[1], payment, 'PX', ARGV[2])\n"
+                    + "return previous and payment\n",
+            byte[].class);
+
+    /**
+     * KEYS[1] hash, ARGV triples of field, expected value and new value. A value is replaced only if it is still the
+     * expected one, so a payment written meanwhile is not overwritten. Returns the number of replaced values.
+     */
+    static final RedisScript<Long> HASH_REPLACE = new DefaultRedisScript<>(
+            "local replaced = 0\n"
+                    + "for i = 1, #ARGV, 3 do\n"
+                    + "  if redis.call('HGET', KEYS[1], ARGV[i]) == ARGV[i + 1] then\n"
+                    + "    redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 2])\n"
+                    + "    replaced = replaced + 1\n"
+                    + "  end\n"
+                    + "end\n"
+                    + "return replaced\n",
+            Long.class);
+
+    private static final PaymentEntityRedisSerializer SERIALIZER = new PaymentEntityRedisSerializer();
+
+    private PaymentCacheScripts() {
+    }
+
+    /**
+     * @param put writes a payment merged on the client with a legacy cached one
+     * @return the stored payment
+     */
+    static PaymentEntity saveOrUpdate(RedisTemplate<String, Object> redisTemplate, RedisScript<byte[]> script, String key,
+                                      PaymentEntity payment, byte[] argument, Consumer<PaymentEntity> put) {
+        byte[] stored = redisTemplate.execute(script, RedisSerializer.byteArray(), RedisSerializer.byteArray(),
+                List.of(key), SERIALIZER.serialize(payment), argument);
+        if (null == stored) {
+            return payment;
+        }
+        if (PaymentEntityRedisSerializer.isLegacy(stored)) {
+            PaymentEntity mergedPayment = withIdPayment(payment, SERIALIZER.deserialize(stored).getIdPayment());
+            put.accept(mergedPayment);
+            return mergedPayment;
+        }
+        return SERIALIZER.deserialize(stored);
+    }
+
+    static PaymentEntity withIdPayment(PaymentEntity payment, Long idPayment) {
+        return new PaymentEntity(payment.getPayerCardNumber(), payment.getReceiverCardNumber(), idPayment,
+                payment.getLatitude(), payment.getLongitude(), payment.getDatePayment(), payment.getDateUpdating());
+    }
+}
@@ -0,0 +1,34 @@
+package ru.neoflex.scammertracking.analyzer.dao;
+
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Layout of the cached payments in Redis, selected with {@code redis.layout}.
+ */
+public interface PaymentCacheStorage {
+
+    PaymentEntity get(String payerCardNumber);
+
+    /**
+     * @return payments in the order of the card numbers, null for missing ones
+     */
+    List<PaymentEntity> multiGet(List<String> payerCardNumbers);
+
+    void put(PaymentEntity payment);
+
+    /**
+     * Writes the payment with one atomic server-side operation. A card already cached keeps its idPayment, a card not
+     * cached yet gets the idPayment of the payment.
+     *
+     * @return the stored payment
+     */
+    PaymentEntity saveOrUpdate(PaymentEntity payment);
+
+    /**
+     * Writes all payments with a single round trip.
+     */
+    void putAll(Collection<PaymentEntity> payments);
+}
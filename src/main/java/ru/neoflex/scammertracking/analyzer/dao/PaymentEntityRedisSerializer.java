@@ -0,0 +1,129 @@
+package ru.neoflex.scammertracking.analyzer.dao;
+
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.geo.GeoCell;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Fixed-layout binary format of {@link PaymentEntity} in Redis:
+ * <pre>
+ * version:1 | idPayment:8 | latitude:4 | longitude:4 | geoCell:8 | datePayment:8 | dateUpdating:8 | payerCardNumber | receiverCardNumber
+ * </pre>
+ * Dates are UTC epoch millis, card numbers are a 2-byte length followed by UTF-8 bytes. Absent values are written
+ * as {@link Long#MIN_VALUE} or length -1. Version 1 values, without the {@link GeoCell}, and values written by
+ * {@link JdkSerializationRedisSerializer} are still readable.
+ */
+public class PaymentEntityRedisSerializer implements RedisSerializer<PaymentEntity> {
+
+    public static final byte VERSION = 2;
+    public static final byte VERSION_WITHOUT_GEO_CELL = 1;
+    public static final int ID_PAYMENT_OFFSET = 1;
+    public static final int FIXED_LENGTH = 41;
+
+    private static final long ABSENT = Long.MIN_VALUE;
+    static final byte JDK_STREAM_MAGIC = (byte) 0xAC;
+
+    private final JdkSerializationRedisSerializer legacySerializer = new JdkSerializationRedisSerializer();
+
+    @Override
+    public byte[] serialize(PaymentEntity payment) throws SerializationException {
+        if (null == payment) {
+            return null;
+        }
+        byte[] payerCardNumber = toBytes(payment.getPayerCardNumber());
+        byte[] receiverCardNumber = toBytes(payment.getReceiverCardNumber());
+        ByteBuffer buffer = ByteBuffer.allocate(FIXED_LENGTH + stringLength(payerCardNumber) + stringLength(receiverCardNumber));
+        buffer.put(VERSION);
+        buffer.putLong(null != payment.getIdPayment() ? payment.getIdPayment() : ABSENT);
+        buffer.putFloat(payment.getLatitude());
+        buffer.putFloat(payment.getLongitude());
+        buffer.putLong(payment.getGeoCell());
+        buffer.putLong(toEpochMillis(payment.getDatePayment()));
+        buffer.putLong(toEpochMillis(payment.getDateUpdating()));
+        putString(buffer, payerCardNumber);
+        putString(buffer, receiverCardNumber);
+        return buffer.array();
+    }
+
+    @Override
+    public PaymentEntity deserialize(byte[] bytes) throws SerializationException {
+        if (null == bytes || bytes.length == 0) {
+            return null;
+        }
+        if (isLegacy(bytes)) {
+            return (PaymentEntity) legacySerializer.deserialize(bytes);
+        }
+        if (bytes[0] != VERSION && bytes[0] != VERSION_WITHOUT_GEO_CELL) {
+            throw new SerializationException("Unsupported payment entity format version " + bytes[0]);
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+            long idPayment = buffer.getLong();
+            PaymentEntity payment = new PaymentEntity();
+            payment.setIdPayment(idPayment != ABSENT ? idPayment : null);
+            payment.setLatitude(buffer.getFloat());
+            payment.setLongitude(buffer.getFloat());
+            if (bytes[0] == VERSION) {
+                payment.setGeoCell(buffer.getLong());
+            }
+            payment.setDatePayment(toLocalDateTime(buffer.getLong()));
+            payment.setDateUpdating(toLocalDateTime(buffer.getLong()));
+            payment.setPayerCardNumber(getString(buffer));
+            payment.setReceiverCardNumber(getString(buffer));
+            return payment;
+        } catch (BufferUnderflowException e) {
+            throw new SerializationException("Truncated payment entity of " + bytes.length + " bytes", e);
+        }
+    }
+
+    public static boolean isLegacy(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == JDK_STREAM_MAGIC;
+    }
+
+    private static byte[] toBytes(String value) {
+        return null != value ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int stringLength(byte[] value) {
+        return Short.BYTES + (null != value ? value.length : 0);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        if (null == value) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) value.length);
+            buffer.put(value);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static long toEpochMillis(LocalDateTime dateTime) {
+        return null != dateTime ? dateTime.toInstant(ZoneOffset.UTC).toEpochMilli() : ABSENT;
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMillis) {
+        if (epochMillis == ABSENT) {
+            return null;
+        }
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochMillis, 1000), Math.floorMod(epochMillis, 1000) * 1_000_000, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,53 @@
+package ru.neoflex.scammertracking.analyzer.dao;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Local size- and TTL-bounded copy of the Redis payment cache, keyed by payer card number.
+ * {@link PaymentCacheDao} writes through it, so the entries are only as stale as the writes of other analyzer instances,
+ * which is bounded by the TTL. Cached entities are shared and must not be mutated.
+ */
+public class PaymentNearCache {
+
+    private final Cache<String, PaymentEntity> cache;
+
+    public PaymentNearCache(boolean enabled, long maximumSize, Duration expireAfterWrite, Ticker ticker) {
+        this.cache = enabled
+                ? Caffeine.newBuilder()
+                    .maximumSize(maximumSize)
+                    .expireAfterWrite(expireAfterWrite)
+                    .ticker(ticker)
+                    .recordStats()
+                    .build()
+                : null;
+    }
+
+    public PaymentEntity get(String payerCardNumber) {
+        return null != cache ? cache.getIfPresent(payerCardNumber) : null;
+    }
+
+    public Map<String, PaymentEntity> getAll(Iterable<String> payerCardNumbers) {
+        return null != cache ? cache.getAllPresent(payerCardNumbers) : Map.of();
+    }
+
+    public void put(PaymentEntity payment) {
+        if (null != cache) {
+            cache.put(payment.getPayerCardNumber(), payment);
+        }
+    }
+
+    public CacheStats getStats() {
+        return null != cache ? cache.stats() : CacheStats.empty();
+    }
+
+    public long getSize() {
+        return null != cache ? cache.estimatedSize() : 0;
+    }
+}
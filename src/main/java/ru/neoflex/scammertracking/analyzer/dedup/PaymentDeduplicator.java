@@ -0,0 +1,201 @@
+package ru.neoflex.scammertracking.analyzer.dedup;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ids of the payments processed by this instance, enabled with {@code dedup.enabled}. A payment delivered again after a
+ * failed commit, a retry or a rebalance that gave its partition back to this instance is found here and skipped
+ * instead of being saved, cached and published again. Payments redelivered to another instance are not detected.
+ * <p>
+ * The last {@code exactIds} ids are kept exactly, in a ring buffer and an open-addressing table, and only they make a
+ * payment a duplicate, so a new payment is never skipped. In front of them two generations of a Bloom filter of
+ * {@code bloomIds} ids each answer for most new payments without a table probe. An id found by the Bloom filter only
+ * is a redelivery older than the exact window or a false positive, it is processed and counted by
+ * {@link #getBloomOnlyIds()}.
+ * <p>
+ * An id is marked only when its payment is processed, and within a Kafka transaction only when the transaction is
+ * committed, so a failed payment is processed again. {@link Long#MIN_VALUE} is not tracked.
+ */
+public class PaymentDeduplicator {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int MAX_HASH_COUNT = 16;
+
+    private final int bloomIds;
+    private final long bloomMask;
+    private final int hashCount;
+    private long[] currentBits;
+    private long[] previousBits;
+    private int currentCount;
+
+    private final long[] ring;
+    private int ringNext;
+    private int ringSize;
+    private final long[] table;
+    private final int tableMask;
+
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder bloomOnlyIds = new LongAdder();
+
+    public PaymentDeduplicator(int exactIds, int bloomIds, double falsePositiveRate) {
+        if (exactIds < 1 || bloomIds < 1) {
+            throw new IllegalArgumentException("exactIds and bloomIds must be positive");
+        }
+        if (bloomIds < exactIds) {
+            // a generation is cleared after 2 * bloomIds ids, the Bloom filter must still hold every exactly kept id
+            throw new IllegalArgumentException("bloomIds must not be less than exactIds");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1");
+        }
+        this.bloomIds = bloomIds;
+        long optimalBits = (long) Math.ceil(-bloomIds * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        long bitCount = Math.max(Long.SIZE, Long.highestOneBit(optimalBits - 1) << 1);
+        this.bloomMask = bitCount - 1;
+        this.hashCount = (int) Math.max(1, Math.min(MAX_HASH_COUNT, Math.round((double) bitCount / bloomIds * Math.log(2))));
+        this.currentBits = new long[(int) (bitCount / Long.SIZE)];
+        this.previousBits = new long[currentBits.length];
+
+        this.ring = new long[exactIds];
+        int tableSize = Integer.highestOneBit(exactIds) << 2;
+        this.table = new long[tableSize];
+        this.tableMask = tableSize - 1;
+        Arrays.fill(table, EMPTY);
+    }
+
+    /**
+     * @return true if the payment is one of the last {@code exactIds} processed payments
+     */
+    public boolean isProcessed(long id) {
+        checks.increment();
+        if (id == EMPTY) {
+            return false;
+        }
+        long hash = mix(id);
+        synchronized (this) {
+            if (!mightContain(currentBits, hash) && !mightContain(previousBits, hash)) {
+                return false;
+            }
+            if (tableIndexOf(id, hash) >= 0) {
+                duplicates.increment();
+                return true;
+            }
+        }
+        bloomOnlyIds.increment();
+        return false;
+    }
+
+    /**
+     * Counts a payment repeated within one batch, it is skipped without a lookup.
+     */
+    public void recordDuplicate() {
+        checks.increment();
+        duplicates.increment();
+    }
+
+    public synchronized void markProcessed(long id) {
+        if (id == EMPTY) {
+            return;
+        }
+        long hash = mix(id);
+        if (tableIndexOf(id, hash) >= 0) {
+            return;
+        }
+
+        if (currentCount == bloomIds) {
+            long[] clearedBits = previousBits;
+            Arrays.fill(clearedBits, 0);
+            previousBits = currentBits;
+            currentBits = clearedBits;
+            currentCount = 0;
+        }
+        long h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (hash + i * h2) & bloomMask;
+            currentBits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        currentCount++;
+
+        if (ringSize == ring.length) {
+            tableRemove(ring[ringNext]);
+        } else {
+            ringSize++;
+        }
+        ring[ringNext] = id;
+        ringNext = ringNext + 1 == ring.length ? 0 : ringNext + 1;
+        int index = (int) hash & tableMask;
+        while (table[index] != EMPTY) {
+            index = (index + 1) & tableMask;
+        }
+        table[index] = id;
+    }
+
+    public long getChecks() {
+        return checks.sum();
+    }
+
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    public long getBloomOnlyIds() {
+        return bloomOnlyIds.sum();
+    }
+
+    private boolean mightContain(long[] bits, long hash) {
+        long h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (hash + i * h2) & bloomMask;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int tableIndexOf(long id, long hash) {
+        int index = (int) hash & tableMask;
+        while (table[index] != EMPTY) {
+            if (table[index] == id) {
+                return index;
+            }
+            index = (index + 1) & tableMask;
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the id and shifts back the ids of its probe sequence, so no tombstones are left.
+     */
+    private void tableRemove(long id) {
+        int hole = tableIndexOf(id, mix(id));
+        int index = hole;
+        while (true) {
+            index = (index + 1) & tableMask;
+            if (table[index] == EMPTY) {
+                break;
+            }
+            int home = (int) mix(table[index]) & tableMask;
+            if (((index - home) & tableMask) >= ((index - hole) & tableMask)) {
+                table[hole] = table[index];
+                hole = index;
+            }
+        }
+        table[hole] = EMPTY;
+    }
+
+    /**
+     * Finalizer of MurmurHash3, sequential ids are spread over all bits.
+     */
+    private static long mix(long id) {
+        long hash = id;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
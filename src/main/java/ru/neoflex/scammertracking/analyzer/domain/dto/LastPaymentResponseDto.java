@@ -1,13 +1,14 @@
 package ru.neoflex.scammertracking.analyzer.domain.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Builder;
 import ru.neoflex.scammertracking.analyzer.domain.model.Coordinates;
 
 import java.time.LocalDateTime;
 
-@Builder
 public class LastPaymentResponseDto {
 
+    @Builder
     public LastPaymentResponseDto(long id, String payerCardNumber, String receiverCardNumber, Coordinates coordinates, LocalDateTime date) {
         this.id = id;
         this.payerCardNumber = payerCardNumber;
@@ -24,6 +25,9 @@ public class LastPaymentResponseDto {
     private String receiverCardNumber;
     private Coordinates coordinates;
     private LocalDateTime date;
+    // the GeoCell of a payment found in the cache, not a field of payment-service
+    @JsonIgnore
+    private long geoCell;
 
     public long getId() {
         return id;
@@ -64,5 +68,15 @@ public class LastPaymentResponseDto {
     public void setDate(LocalDateTime date) {
         this.date = date;
     }
+
+    @JsonIgnore
+    public long getGeoCell() {
+        return geoCell;
+    }
+
+    @JsonIgnore
+    public void setGeoCell(long geoCell) {
+        this.geoCell = geoCell;
+    }
 }
 
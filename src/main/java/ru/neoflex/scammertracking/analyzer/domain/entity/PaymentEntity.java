@@ -1,19 +1,21 @@
 package ru.neoflex.scammertracking.analyzer.domain.entity;
 
-import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.redis.core.RedisHash;
+import ru.neoflex.scammertracking.analyzer.geo.GeoCell;
 
 import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.util.Date;
 
 @RedisHash("Payment")
-@AllArgsConstructor
 @NoArgsConstructor
 public class PaymentEntity implements Serializable {
 
+    // of the class before the geo cell was added, payments JDK-serialized by older versions stay readable
+    private static final long serialVersionUID = -5656290618094050518L;
+
     @Id
     private String payerCardNumber;
     private String receiverCardNumber;
@@ -22,6 +24,20 @@ public class PaymentEntity implements Serializable {
     private float longitude;
     private LocalDateTime datePayment;
     private LocalDateTime dateUpdating;
+    // derived from the coordinates, written by PaymentEntityRedisSerializer but not by JDK serialization
+    private transient long geoCell;
+
+    public PaymentEntity(String payerCardNumber, String receiverCardNumber, Long idPayment, float latitude, float longitude,
+                         LocalDateTime datePayment, LocalDateTime dateUpdating) {
+        this.payerCardNumber = payerCardNumber;
+        this.receiverCardNumber = receiverCardNumber;
+        this.idPayment = idPayment;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.datePayment = datePayment;
+        this.dateUpdating = dateUpdating;
+        this.geoCell = GeoCell.of(latitude, longitude);
+    }
 
     public Long getIdPayment() {
         return idPayment;
@@ -53,6 +69,7 @@ public class PaymentEntity implements Serializable {
 
     public void setLatitude(float latitude) {
         this.latitude = latitude;
+        this.geoCell = GeoCell.NONE;
     }
 
     public float getLongitude() {
@@ -61,6 +78,21 @@ public class PaymentEntity implements Serializable {
 
     public void setLongitude(float longitude) {
         this.longitude = longitude;
+        this.geoCell = GeoCell.NONE;
+    }
+
+    /**
+     * @return the {@link GeoCell} of the coordinates
+     */
+    public long getGeoCell() {
+        if (GeoCell.NONE == geoCell) {
+            geoCell = GeoCell.of(latitude, longitude);
+        }
+        return geoCell;
+    }
+
+    public void setGeoCell(long geoCell) {
+        this.geoCell = geoCell;
     }
 
     public LocalDateTime getDatePayment() {
@@ -0,0 +1,17 @@
+package ru.neoflex.scammertracking.analyzer.error.exception;
+
+/**
+ * Thrown without calling payment-service, when its circuit breaker is open or no call slot is freed in time.
+ */
+public class PaymentServiceUnavailableException extends RuntimeException {
+
+    public PaymentServiceUnavailableException(String message) {
+        super(message);
+    }
+
+    @Override
+    public String toString() {
+        return "PaymentServiceUnavailableException: " + getMessage();
+    }
+
+}
@@ -0,0 +1,183 @@
+package ru.neoflex.scammertracking.analyzer.feign;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.MessageInfoDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.error.exception.BadRequestException;
+import ru.neoflex.scammertracking.analyzer.error.exception.NotFoundException;
+import ru.neoflex.scammertracking.analyzer.error.exception.PaymentServiceUnavailableException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking client of the last-payment endpoint also served by {@link PaymentFeignClient}.
+ * Connections are kept alive and reused by the {@link HttpClient}; the number of requests in flight, and so of open
+ * connections, is bounded by {@code maxInFlight}. Requests over the limit are queued and sent as earlier ones
+ * complete, the caller never blocks; at most {@code maxQueued} requests wait, a request over that completes with
+ * {@link PaymentServiceUnavailableException}.
+ * Every request is bounded by {@code timeout} counted from the call, the time spent in the queue included. Errors are
+ * reported as in the Feign client: 400 completes the future with {@link BadRequestException}, 404 with
+ * {@link NotFoundException}.
+ */
+@Slf4j
+public class AsyncPaymentClient implements AutoCloseable {
+
+    private static final String CONTENT_TYPE = "application/json";
+
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final URI lastPaymentUri;
+    private final URI saveUri;
+    private final Duration timeout;
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final Semaphore permits;
+    private final Queue<Runnable> pendingRequests = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    public AsyncPaymentClient(String hostPort, HttpClient httpClient, ObjectMapper objectMapper, int maxInFlight, int maxQueued, Duration timeout) {
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+        this.lastPaymentUri = URI.create(hostPort + "/payment/last-payment");
+        this.saveUri = URI.create(hostPort + "/payment/save");
+        this.timeout = timeout;
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    public CompletableFuture<LastPaymentResponseDto> getLastPayment(String payerCardNumber) {
+        return send(lastPaymentUri, new LastPaymentRequestDto(payerCardNumber))
+                .thenApply(body -> read(body, LastPaymentResponseDto.class));
+    }
+
+    public CompletableFuture<Void> savePayment(PaymentRequestDto paymentRequest) {
+        return send(saveUri, paymentRequest)
+                .thenApply(body -> null);
+    }
+
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * Closes the {@link HttpClient}, waiting for the requests in flight, and shuts down its executor.
+     */
+    @Override
+    public void close() {
+        httpClient.close();
+        httpClient.executor()
+                .filter(ExecutorService.class::isInstance)
+                .ifPresent(executor -> ((ExecutorService) executor).shutdownNow());
+    }
+
+    private CompletableFuture<byte[]> send(URI uri, Object body) {
+        long deadlineNanos = System.nanoTime() + timeout.toNanos();
+        HttpRequest.Builder requestBuilder;
+        try {
+            requestBuilder = HttpRequest.newBuilder(uri)
+                    .header("Content-Type", CONTENT_TYPE)
+                    .header("Accept", CONTENT_TYPE)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(new BadRequestException(e));
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            return CompletableFuture.failedFuture(new PaymentServiceUnavailableException("The payment-service request queue is full"));
+        }
+
+        CompletableFuture<HttpResponse<byte[]>> response = new CompletableFuture<>();
+        pendingRequests.add(() -> {
+            // the request gets what is left of its timeout after waiting in the queue
+            long remainingNanos = deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0) {
+                release();
+                response.completeExceptionally(new HttpTimeoutException("request timed out in the queue"));
+                return;
+            }
+            try {
+                httpClient.sendAsync(requestBuilder.timeout(Duration.ofNanos(remainingNanos)).build(), HttpResponse.BodyHandlers.ofByteArray())
+                        .whenComplete((result, exception) -> {
+                            release();
+                            if (null != exception) {
+                                response.completeExceptionally(exception);
+                            } else {
+                                response.complete(result);
+                            }
+                        });
+            } catch (RuntimeException e) {
+                release();
+                response.completeExceptionally(e);
+            }
+        });
+        sendPending();
+        return response.thenApply(this::checkStatus);
+    }
+
+    private void release() {
+        permits.release();
+        sendPending();
+    }
+
+    private void sendPending() {
+        while (!pendingRequests.isEmpty() && permits.tryAcquire()) {
+            Runnable request = pendingRequests.poll();
+            if (null == request) {
+                permits.release();
+                return;
+            }
+            queued.decrementAndGet();
+            request.run();
+        }
+    }
+
+    private byte[] checkStatus(HttpResponse<byte[]> response) {
+        int status = response.statusCode();
+        if (status < 300) {
+            return response.body();
+        }
+        String error = errorMessage(response.body());
+        switch (status) {
+            case 400:
+                throw new BadRequestException(null != error ? error : "Bad request");
+            case 404:
+                throw new NotFoundException(null != error ? error : "Not Found");
+            default:
+                throw new RuntimeException("payment-service responded with status " + status + (null != error ? ": " + error : ""));
+        }
+    }
+
+    private String errorMessage(byte[] body) {
+        try {
+            return objectMapper.readValue(body, MessageInfoDto.class).getMessage();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private <T> T read(byte[] body, Class<T> type) {
+        try {
+            return objectMapper.readValue(body, type);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+}
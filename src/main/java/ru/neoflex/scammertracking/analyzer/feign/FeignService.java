@@ -2,12 +2,28 @@ package ru.neoflex.scammertracking.analyzer.feign;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import ru.neoflex.scammertracking.analyzer.concurrent.AdaptiveConcurrencyLimiter;
 import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentRequestDto;
 import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
 import ru.neoflex.scammertracking.analyzer.error.exception.BadRequestException;
 import ru.neoflex.scammertracking.analyzer.error.exception.NotFoundException;
+import ru.neoflex.scammertracking.analyzer.error.exception.PaymentServiceUnavailableException;
+import ru.neoflex.scammertracking.analyzer.logging.PaymentTracing;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics.Stage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 @Service
 @Slf4j
@@ -19,43 +35,312 @@ public class FeignService {
     }
 
     private PaymentFeignClient paymentFeignClient;
+    private AsyncPaymentClient asyncPaymentClient;
+    private AdaptiveConcurrencyLimiter paymentServiceLimiter;
+    private PaymentServiceCircuitBreaker paymentServiceCircuitBreaker;
+
+    @Value("${paymentService.bulkLookup.enabled:true}")
+    private boolean bulkLookupEnabled = true;
+
+    @Autowired(required = false)
+    public void setAsyncPaymentClient(AsyncPaymentClient asyncPaymentClient) {
+        this.asyncPaymentClient = asyncPaymentClient;
+    }
+
+    @Autowired(required = false)
+    public void setPaymentServiceLimiter(AdaptiveConcurrencyLimiter paymentServiceLimiter) {
+        this.paymentServiceLimiter = paymentServiceLimiter;
+    }
+
+    @Autowired(required = false)
+    public void setPaymentServiceCircuitBreaker(PaymentServiceCircuitBreaker paymentServiceCircuitBreaker) {
+        this.paymentServiceCircuitBreaker = paymentServiceCircuitBreaker;
+    }
 
     public LastPaymentResponseDto getLastPayment(PaymentRequestDto paymentRequest) throws RuntimeException {
-        log.info("Received paymentRequest={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
-                paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(), paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(), paymentRequest.getDate());
+        if (PaymentTracing.isTraced(paymentRequest.getPayerCardNumber())) {
+            log.info("Received paymentRequest={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
+                    paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(), paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(), paymentRequest.getDate());
+        }
 
         LastPaymentRequestDto lastPaymentRequestDto = new LastPaymentRequestDto(paymentRequest.getPayerCardNumber());
         LastPaymentResponseDto lastPaymentResponse;
+        long startNanos = System.nanoTime();
         try {
-            lastPaymentResponse = paymentFeignClient.getLastPaymentByPayerCardNumber(lastPaymentRequestDto);
+            lastPaymentResponse = callPaymentService(() -> paymentFeignClient.getLastPaymentByPayerCardNumber(lastPaymentRequestDto));
         } catch (NotFoundException e) {
             log.error("The payment with cardNumber={} not found", paymentRequest.getPayerCardNumber());
             throw new NotFoundException(e.getMessage());
+        } catch (PaymentServiceUnavailableException e) {
+            throw e;
         } catch (RuntimeException e) {
             log.error(e.getMessage());
             throw new RuntimeException(e.getMessage());
+        } finally {
+            PaymentMetrics.recordStage(Stage.LOOKUP, startNanos);
         }
 
-        log.info("Response payment entity={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
-                lastPaymentResponse.getId(), lastPaymentResponse.getPayerCardNumber(), lastPaymentResponse.getReceiverCardNumber(), lastPaymentResponse.getCoordinates().getLatitude(), lastPaymentResponse.getCoordinates().getLongitude(), lastPaymentResponse.getDate());
+        if (PaymentTracing.isTraced(paymentRequest.getPayerCardNumber())) {
+            log.info("Response payment entity={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
+                    lastPaymentResponse.getId(), lastPaymentResponse.getPayerCardNumber(), lastPaymentResponse.getReceiverCardNumber(), lastPaymentResponse.getCoordinates().getLatitude(), lastPaymentResponse.getCoordinates().getLongitude(), lastPaymentResponse.getDate());
+        }
 
         return lastPaymentResponse;
     }
 
+    /**
+     * Looks up the last payments of several cards with a single call of the bulk endpoint.
+     * Falls back to one call per card when the bulk endpoint fails or is disabled with {@code paymentService.bulkLookup.enabled},
+     * these calls are all in flight at once when the async client is enabled.
+     * Cards without payments are absent in the result.
+     */
+    public Map<String, LastPaymentResponseDto> getLastPayments(Collection<String> payerCardNumbers) throws RuntimeException {
+        log.info("Received for bulk lookup. payerCardNumbers count={}", payerCardNumbers.size());
+        long startNanos = System.nanoTime();
+
+        List<LastPaymentRequestDto> lastPaymentRequests = payerCardNumbers.stream()
+                .map(LastPaymentRequestDto::new)
+                .toList();
+        Map<String, LastPaymentResponseDto> lastPayments = new HashMap<>();
+        boolean isBulkLoaded = false;
+        if (bulkLookupEnabled) {
+            try {
+                callPaymentService(() -> paymentFeignClient.getLastPaymentsByPayerCardNumbers(lastPaymentRequests))
+                        .forEach(lastPayment -> lastPayments.put(lastPayment.getPayerCardNumber(), lastPayment));
+                isBulkLoaded = true;
+            } catch (PaymentServiceUnavailableException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                log.warn("Bulk lookup failed, falling back to lookup by card. cause: {}", e.getMessage());
+            }
+        }
+        if (!isBulkLoaded) {
+            if (null != asyncPaymentClient) {
+                getLastPaymentsConcurrently(lastPaymentRequests, lastPayments);
+            } else {
+                getLastPaymentsByCard(lastPaymentRequests, lastPayments);
+            }
+        }
+
+        PaymentMetrics.recordStage(Stage.BULK_LOOKUP, startNanos);
+        log.info("Response. Found {} of {} last payments", lastPayments.size(), payerCardNumbers.size());
+        return lastPayments;
+    }
+
+    private void getLastPaymentsByCard(List<LastPaymentRequestDto> lastPaymentRequests, Map<String, LastPaymentResponseDto> lastPayments) {
+        for (LastPaymentRequestDto lastPaymentRequest : lastPaymentRequests) {
+            try {
+                LastPaymentResponseDto lastPayment = callPaymentService(() -> paymentFeignClient.getLastPaymentByPayerCardNumber(lastPaymentRequest));
+                lastPayments.put(lastPaymentRequest.getCardNumber(), lastPayment);
+            } catch (NotFoundException e) {
+                if (PaymentTracing.isTraced(lastPaymentRequest.getCardNumber())) {
+                    log.info("The payment with cardNumber={} not found", lastPaymentRequest.getCardNumber());
+                }
+            } catch (PaymentServiceUnavailableException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                log.error(e.getMessage());
+                throw new RuntimeException(e.getMessage());
+            }
+        }
+    }
+
+    private void getLastPaymentsConcurrently(List<LastPaymentRequestDto> lastPaymentRequests, Map<String, LastPaymentResponseDto> lastPayments) {
+        Map<String, CompletableFuture<LastPaymentResponseDto>> futures = new LinkedHashMap<>();
+        for (LastPaymentRequestDto lastPaymentRequest : lastPaymentRequests) {
+            futures.put(lastPaymentRequest.getCardNumber(), callPaymentServiceAsync(() -> asyncPaymentClient.getLastPayment(lastPaymentRequest.getCardNumber())));
+        }
+        for (Map.Entry<String, CompletableFuture<LastPaymentResponseDto>> future : futures.entrySet()) {
+            try {
+                lastPayments.put(future.getKey(), future.getValue().join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof NotFoundException) {
+                    if (PaymentTracing.isTraced(future.getKey())) {
+                        log.info("The payment with cardNumber={} not found", future.getKey());
+                    }
+                } else if (e.getCause() instanceof PaymentServiceUnavailableException unavailable) {
+                    throw unavailable;
+                } else {
+                    log.error(e.getCause().getMessage());
+                    throw new RuntimeException(e.getCause().getMessage());
+                }
+            }
+        }
+    }
+
     public void savePayment(PaymentRequestDto paymentRequest) {
-        log.info("save payment. paymentRequest={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
-                paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(), paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(), paymentRequest.getDate());
+        if (PaymentTracing.isTraced(paymentRequest.getPayerCardNumber())) {
+            log.info("save payment. paymentRequest={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
+                    paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(), paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(), paymentRequest.getDate());
+        }
 
+        long startNanos = System.nanoTime();
         try {
-            paymentFeignClient.savePayment(paymentRequest);
+            callPaymentService(() -> paymentFeignClient.savePayment(paymentRequest));
         } catch (BadRequestException e) {
             log.error("save payment error BadRequest: {}",  e.getMessage());
             throw new BadRequestException(e.getMessage());
+        } catch (PaymentServiceUnavailableException e) {
+            throw e;
         } catch (RuntimeException e) {
             log.error("save payment error BadRequest: {}", e.getMessage());
             throw new RuntimeException(e.getMessage());
+        } finally {
+            PaymentMetrics.recordStage(Stage.SAVE, startNanos);
         }
 
-        log.info("The payment with id={} was saved", paymentRequest.getId());
+        if (PaymentTracing.isTraced(paymentRequest.getPayerCardNumber())) {
+            log.info("The payment with id={} was saved", paymentRequest.getId());
+        }
+    }
+
+    /**
+     * Saves the payment with the async client without blocking the caller, or with the Feign client when the async
+     * client is disabled. The future completes with the exceptions thrown by {@link #savePayment}.
+     */
+    public CompletableFuture<Void> savePaymentAsync(PaymentRequestDto paymentRequest) {
+        if (null == asyncPaymentClient) {
+            try {
+                savePayment(paymentRequest);
+                return CompletableFuture.completedFuture(null);
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        long startNanos = System.nanoTime();
+        return callPaymentServiceAsync(() -> asyncPaymentClient.savePayment(paymentRequest))
+                .whenComplete((result, exception) -> {
+                    PaymentMetrics.recordStage(Stage.SAVE, startNanos);
+                    if (null != exception) {
+                        Throwable cause = exception instanceof CompletionException ? exception.getCause() : exception;
+                        log.error("save payment error: {}", cause.getMessage());
+                    } else if (PaymentTracing.isTraced(paymentRequest.getPayerCardNumber())) {
+                        log.info("The payment with id={} was saved", paymentRequest.getId());
+                    }
+                });
+    }
+
+    /**
+     * Saves several payments with a single call of the bulk endpoint. When the bulk call fails, the payments are saved
+     * one by one, so a payment rejected with BadRequest does not fail the others.
+     *
+     * @return payments rejected by payment-service with BadRequest
+     */
+    public List<PaymentRequestDto> savePayments(List<PaymentRequestDto> paymentRequests) throws RuntimeException {
+        log.info("save payments. count={}", paymentRequests.size());
+        long startNanos = System.nanoTime();
+
+        try {
+            callPaymentService(() -> paymentFeignClient.savePayments(paymentRequests));
+            PaymentMetrics.recordStage(Stage.BULK_SAVE, startNanos);
+            log.info("{} payments were saved", paymentRequests.size());
+            return List.of();
+        } catch (PaymentServiceUnavailableException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            log.warn("Bulk save failed, falling back to save by payment. cause: {}", e.getMessage());
+        }
+
+        List<PaymentRequestDto> rejectedPayments = new ArrayList<>();
+        for (PaymentRequestDto paymentRequest : paymentRequests) {
+            try {
+                callPaymentService(() -> paymentFeignClient.savePayment(paymentRequest));
+            } catch (BadRequestException e) {
+                log.error("save payment error BadRequest: {}", e.getMessage());
+                rejectedPayments.add(paymentRequest);
+            } catch (PaymentServiceUnavailableException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                log.error("save payment error: {}", e.getMessage());
+                throw new RuntimeException(e.getMessage());
+            }
+        }
+
+        PaymentMetrics.recordStage(Stage.BULK_SAVE, startNanos);
+        log.info("{} payments were saved, {} rejected", paymentRequests.size() - rejectedPayments.size(), rejectedPayments.size());
+        return rejectedPayments;
+    }
+
+    /**
+     * Makes a call through the circuit breaker and the concurrency limiter when they are enabled. A NotFound or
+     * BadRequest answer counts as a successful call, any other failure and a rejection by the limiter as a failed one.
+     *
+     * @throws PaymentServiceUnavailableException when the breaker is open or the limiter has no free slot in time
+     */
+    private <T> T callPaymentService(Supplier<T> call) {
+        acquirePaymentService();
+
+        long startNanos = System.nanoTime();
+        boolean isDropped = true;
+        try {
+            T result = call.get();
+            isDropped = false;
+            return result;
+        } catch (NotFoundException | BadRequestException e) {
+            isDropped = false;
+            throw e;
+        } finally {
+            onCallCompleted(startNanos, isDropped);
+        }
+    }
+
+    /**
+     * Makes an async call as {@link #callPaymentService} does, the limiter slot is held until the returned future
+     * completes. A rejection completes the future with {@link PaymentServiceUnavailableException}.
+     */
+    private <T> CompletableFuture<T> callPaymentServiceAsync(Supplier<CompletableFuture<T>> call) {
+        try {
+            acquirePaymentService();
+        } catch (PaymentServiceUnavailableException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((value, exception) -> {
+            Throwable cause = exception instanceof CompletionException ? exception.getCause() : exception;
+            onCallCompleted(startNanos, null != cause && !(cause instanceof NotFoundException || cause instanceof BadRequestException));
+        });
+    }
+
+    private void acquirePaymentService() {
+        if (null != paymentServiceCircuitBreaker && !paymentServiceCircuitBreaker.tryAcquirePermission()) {
+            throw new PaymentServiceUnavailableException("The payment-service circuit breaker is open");
+        }
+        if (null != paymentServiceLimiter && !acquireLimiter()) {
+            // no slot was freed for maxWaitMillis, payment-service does not keep up even with the reduced limit
+            if (null != paymentServiceCircuitBreaker) {
+                paymentServiceCircuitBreaker.onFailure();
+            }
+            throw new PaymentServiceUnavailableException("The payment-service concurrency limit is reached");
+        }
+    }
+
+    private void onCallCompleted(long startNanos, boolean isDropped) {
+        if (null != paymentServiceLimiter) {
+            paymentServiceLimiter.release(System.nanoTime() - startNanos, isDropped);
+        }
+        if (null != paymentServiceCircuitBreaker) {
+            if (isDropped) {
+                paymentServiceCircuitBreaker.onFailure();
+            } else {
+                paymentServiceCircuitBreaker.onSuccess();
+            }
+        }
+    }
+
+    private boolean acquireLimiter() {
+        try {
+            return paymentServiceLimiter.tryAcquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 }
@@ -0,0 +1,149 @@
+package ru.neoflex.scammertracking.analyzer.feign;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.error.exception.NotFoundException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces last payment lookups in front of {@link FeignService}.
+ * Concurrent lookups of the same card share one in-flight call. Distinct cards requested within {@code windowMillis}
+ * of the first one are looked up with a single {@link FeignService#getLastPayments} call, which falls back to one call
+ * per card when the bulk endpoint fails. A window is sent early when it collects {@code maxBatchSize} cards.
+ * A card without payments completes its future with {@link NotFoundException}.
+ */
+@Slf4j
+public class LastPaymentCoalescer implements AutoCloseable {
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final FeignService feignService;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<String, CompletableFuture<LastPaymentResponseDto>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedLookups = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    private final Object lock = new Object();
+    private List<String> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    public LastPaymentCoalescer(FeignService feignService, long windowMillis, int maxBatchSize, ScheduledExecutorService scheduler) {
+        if (windowMillis < 0 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("windowMillis must not be negative and maxBatchSize must be positive");
+        }
+        this.feignService = feignService;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = scheduler;
+    }
+
+    public CompletableFuture<LastPaymentResponseDto> getLastPayment(String payerCardNumber) {
+        CompletableFuture<LastPaymentResponseDto> lookup = new CompletableFuture<>();
+        CompletableFuture<LastPaymentResponseDto> sharedLookup = inFlight.putIfAbsent(payerCardNumber, lookup);
+        if (null != sharedLookup) {
+            coalescedLookups.incrementAndGet();
+            return sharedLookup;
+        }
+
+        enqueue(payerCardNumber);
+        return lookup;
+    }
+
+    public long getCoalescedLookups() {
+        return coalescedLookups.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    private void enqueue(String payerCardNumber) {
+        List<String> fullBatch = null;
+        synchronized (lock) {
+            pending.add(payerCardNumber);
+            if (pending.size() >= maxBatchSize) {
+                fullBatch = pending;
+                pending = new ArrayList<>();
+            } else if (null == scheduledFlush) {
+                try {
+                    scheduledFlush = scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // the coalescer is closed, the card is looked up below in the caller thread
+                    fullBatch = pending;
+                    pending = new ArrayList<>();
+                }
+            }
+        }
+
+        if (null != fullBatch) {
+            List<String> batch = fullBatch;
+            try {
+                scheduler.execute(() -> lookup(batch));
+            } catch (RejectedExecutionException e) {
+                lookup(batch);
+            }
+        }
+    }
+
+    private void flush() {
+        List<String> batch;
+        synchronized (lock) {
+            batch = pending;
+            pending = new ArrayList<>();
+            scheduledFlush = null;
+        }
+        if (!batch.isEmpty()) {
+            lookup(batch);
+        }
+    }
+
+    private void lookup(List<String> payerCardNumbers) {
+        batches.incrementAndGet();
+        log.debug("Coalesced lookup of {} last payments", payerCardNumbers.size());
+
+        Map<String, LastPaymentResponseDto> lastPayments;
+        try {
+            lastPayments = feignService.getLastPayments(payerCardNumbers);
+        } catch (RuntimeException e) {
+            payerCardNumbers.forEach(payerCardNumber -> inFlight.remove(payerCardNumber).completeExceptionally(e));
+            return;
+        }
+
+        for (String payerCardNumber : payerCardNumbers) {
+            CompletableFuture<LastPaymentResponseDto> lookup = inFlight.remove(payerCardNumber);
+            LastPaymentResponseDto lastPayment = lastPayments.get(payerCardNumber);
+            if (null != lastPayment) {
+                lookup.complete(lastPayment);
+            } else {
+                lookup.completeExceptionally(new NotFoundException("The payment with cardNumber " + payerCardNumber + " not found"));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        synchronized (lock) {
+            if (null != scheduledFlush) {
+                scheduledFlush.cancel(false);
+            }
+        }
+        scheduler.shutdown();
+        if (!scheduler.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            log.warn("Coalescer was not terminated in {} seconds, {} lookups are dropped", SHUTDOWN_TIMEOUT_SECONDS, scheduler.shutdownNow().size());
+        }
+        flush();
+    }
+}
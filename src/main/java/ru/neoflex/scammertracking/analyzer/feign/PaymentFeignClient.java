@@ -10,13 +10,22 @@ import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentRequestDto;
 import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
 
+import java.util.List;
+
 @FeignClient(value = "paymentFeign", url = "${paymentService.hostPort}/payment", configuration = DecoderConfiguration.class)
 public interface PaymentFeignClient {
 
     @PostMapping("/last-payment")
     LastPaymentResponseDto getLastPaymentByPayerCardNumber(@RequestBody LastPaymentRequestDto payment);
 
+    @PostMapping("/last-payments")
+    List<LastPaymentResponseDto> getLastPaymentsByPayerCardNumbers(@RequestBody List<LastPaymentRequestDto> payments);
+
     @PostMapping("/save")
     @ResponseStatus(value = HttpStatus.CREATED)
     String savePayment(@RequestBody PaymentRequestDto payment);
+
+    @PostMapping("/save-all")
+    @ResponseStatus(value = HttpStatus.CREATED)
+    String savePayments(@RequestBody List<PaymentRequestDto> payments);
 }
@@ -0,0 +1,197 @@
+package ru.neoflex.scammertracking.analyzer.feign;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Circuit breaker of the calls to payment-service. It opens when at least {@code failureRateThreshold} of the last
+ * {@code windowSize} calls failed, counted once {@code minimumCalls} calls are made, and rejects every call while open.
+ * After {@code openDuration} it lets {@code halfOpenCalls} trial calls through: it closes when all of them succeed and
+ * opens again on the first failure. Every transition is passed to the listener, which pauses and resumes the Kafka
+ * listener containers.
+ * <p>
+ * A NotFound or BadRequest answer is a success, only calls that got no answer are failures.
+ */
+@Slf4j
+public class PaymentServiceCircuitBreaker implements AutoCloseable {
+
+    private final boolean[] failures;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openDurationMillis;
+    private final int halfOpenCalls;
+    private final Consumer<State> transitionListener;
+    private final ScheduledExecutorService scheduler;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicLong rejectedCalls = new AtomicLong();
+    private final AtomicLong openings = new AtomicLong();
+    private volatile State state = State.CLOSED;
+    private int position;
+    private int calls;
+    private int failedCalls;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    public PaymentServiceCircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, Duration openDuration,
+                                        int halfOpenCalls, Consumer<State> transitionListener, ThreadFactory threadFactory) {
+        if (minimumCalls < 1 || minimumCalls > windowSize || halfOpenCalls < 1) {
+            throw new IllegalArgumentException("Calls must satisfy 1 <= minimumCalls <= windowSize and halfOpenCalls >= 1");
+        }
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+            throw new IllegalArgumentException("failureRateThreshold must be in (0, 1]");
+        }
+        this.failures = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationMillis = openDuration.toMillis();
+        this.halfOpenCalls = halfOpenCalls;
+        this.transitionListener = transitionListener;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    /**
+     * @return whether a call may be made, its result must then be passed to {@link #onSuccess} or {@link #onFailure}
+     */
+    public boolean tryAcquirePermission() {
+        if (State.CLOSED == state) {
+            return true;
+        }
+        lock.lock();
+        try {
+            if (State.CLOSED == state) {
+                return true;
+            }
+            if (State.HALF_OPEN == state && halfOpenPermits > 0) {
+                halfOpenPermits--;
+                return true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        rejectedCalls.incrementAndGet();
+        return false;
+    }
+
+    public void onSuccess() {
+        State newState = null;
+        lock.lock();
+        try {
+            if (State.CLOSED == state) {
+                record(false);
+            } else if (State.HALF_OPEN == state && ++halfOpenSuccesses >= halfOpenCalls) {
+                newState = transitionTo(State.CLOSED);
+            }
+        } finally {
+            lock.unlock();
+        }
+        notifyListener(newState);
+    }
+
+    public void onFailure() {
+        State newState = null;
+        lock.lock();
+        try {
+            if (State.CLOSED == state) {
+                record(true);
+                if (calls >= minimumCalls && failedCalls >= failureRateThreshold * calls) {
+                    newState = transitionTo(State.OPEN);
+                }
+            } else if (State.HALF_OPEN == state) {
+                newState = transitionTo(State.OPEN);
+            }
+        } finally {
+            lock.unlock();
+        }
+        notifyListener(newState);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getRejectedCalls() {
+        return rejectedCalls.get();
+    }
+
+    public long getOpenings() {
+        return openings.get();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void record(boolean isFailure) {
+        if (calls == failures.length) {
+            if (failures[position]) {
+                failedCalls--;
+            }
+        } else {
+            calls++;
+        }
+        failures[position] = isFailure;
+        if (isFailure) {
+            failedCalls++;
+        }
+        position = (position + 1) % failures.length;
+    }
+
+    private State transitionTo(State newState) {
+        log.warn("payment-service circuit breaker {} -> {}, failed {} of the last {} calls", state, newState, failedCalls, calls);
+        state = newState;
+        position = 0;
+        calls = 0;
+        failedCalls = 0;
+        if (State.OPEN == newState) {
+            openings.incrementAndGet();
+            try {
+                scheduler.schedule(this::halfOpen, openDurationMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                log.debug("The circuit breaker is closed, it stays open");
+            }
+        } else if (State.HALF_OPEN == newState) {
+            halfOpenPermits = halfOpenCalls;
+            halfOpenSuccesses = 0;
+        }
+        return newState;
+    }
+
+    private void halfOpen() {
+        State newState = null;
+        lock.lock();
+        try {
+            if (State.OPEN == state) {
+                newState = transitionTo(State.HALF_OPEN);
+            }
+        } finally {
+            lock.unlock();
+        }
+        notifyListener(newState);
+    }
+
+    private void notifyListener(State newState) {
+        if (null != newState) {
+            try {
+                transitionListener.accept(newState);
+            } catch (RuntimeException e) {
+                log.error("Circuit breaker transition to {} was not handled. cause: {}", newState, e.getMessage());
+            }
+        }
+    }
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+}
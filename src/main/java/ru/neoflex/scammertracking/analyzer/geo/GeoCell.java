@@ -0,0 +1,89 @@
+package ru.neoflex.scammertracking.analyzer.geo;
+
+/**
+ * Coarse spatial cell of a payment: a {@value #CELL_DEGREES} degree latitude/longitude grid, the row and column
+ * packed into a long. A cell and its eight neighbors, wrapped around the antimeridian, form a neighborhood whose
+ * diameter is precomputed per row, cells of a row being congruent. Two payments in neighboring cells are then known
+ * to be closer than a distance limit at least that diameter with an integer compare, only moves between regions need
+ * the geodesic distance.
+ * <p>
+ * Rows are packed from 1, so a zeroed field is {@link #NONE}.
+ */
+public final class GeoCell {
+
+    public static final long NONE = 0;
+    public static final double CELL_DEGREES = 0.1;
+
+    private static final int CELLS_PER_DEGREE = 10;
+    private static final int ROWS = 180 * CELLS_PER_DEGREE;
+    private static final int COLUMNS = 360 * CELLS_PER_DEGREE;
+    // the spherical distance differs from the ellipsoidal one by less than 0.6%
+    private static final double SPHERICAL_ERROR_MARGIN = 0.01;
+    private static final double[] NEIGHBORHOOD_DIAMETERS_KM = new double[ROWS];
+
+    static {
+        for (int row = 0; row < ROWS; row++) {
+            double lowLatitude = Math.max(-90, latitudeOf(row - 1));
+            double highLatitude = Math.min(90, latitudeOf(row + 2));
+            double width = 3 * CELL_DEGREES;
+            // the farthest points of a small latitude/longitude rectangle are two of its corners
+            double diameter = Math.max(
+                    Math.max(GeoCoordinates.calculateSphericalDistance(lowLatitude, 0, highLatitude, width),
+                            GeoCoordinates.calculateSphericalDistance(highLatitude, 0, lowLatitude, width)),
+                    Math.max(GeoCoordinates.calculateSphericalDistance(lowLatitude, 0, lowLatitude, width),
+                            GeoCoordinates.calculateSphericalDistance(highLatitude, 0, highLatitude, width)));
+            NEIGHBORHOOD_DIAMETERS_KM[row] = diameter * (1 + SPHERICAL_ERROR_MARGIN);
+        }
+    }
+
+    private GeoCell() {
+    }
+
+    /**
+     * @return the cell of the location, or {@link #NONE} for a latitude outside of [-90, 90] or a non-finite longitude
+     */
+    public static long of(double latitude, double longitude) {
+        if (!(latitude >= -90 && latitude <= 90) || !Double.isFinite(longitude)) {
+            return NONE;
+        }
+        int row = Math.min(ROWS - 1, (int) Math.floor((latitude + 90) * CELLS_PER_DEGREE));
+        int column = Math.floorMod((long) Math.floor((longitude + 180) * CELLS_PER_DEGREE), COLUMNS);
+        return (long) (row + 1) << 32 | column;
+    }
+
+    public static int rowOf(long cell) {
+        return (int) (cell >>> 32) - 1;
+    }
+
+    public static int columnOf(long cell) {
+        return (int) cell;
+    }
+
+    public static boolean isNeighbor(long cell1, long cell2) {
+        if (NONE == cell1 || NONE == cell2) {
+            return false;
+        }
+        int rowDelta = Math.abs(rowOf(cell1) - rowOf(cell2));
+        int columnDelta = Math.abs(columnOf(cell1) - columnOf(cell2));
+        return rowDelta <= 1 && (columnDelta <= 1 || columnDelta == COLUMNS - 1);
+    }
+
+    /**
+     * @return the largest distance in kilometers between two locations in the cell and its neighbors
+     */
+    public static double neighborhoodDiameterKm(long cell) {
+        return NEIGHBORHOOD_DIAMETERS_KM[rowOf(cell)];
+    }
+
+    /**
+     * @return true if every location of one cell is within the distance of every location of the other, false if
+     * the distance has to be computed
+     */
+    public static boolean isWithin(long cell1, long cell2, double distanceKm) {
+        return isNeighbor(cell1, cell2) && NEIGHBORHOOD_DIAMETERS_KM[rowOf(cell1)] <= distanceKm;
+    }
+
+    private static double latitudeOf(int row) {
+        return (double) row / CELLS_PER_DEGREE - 90;
+    }
+}
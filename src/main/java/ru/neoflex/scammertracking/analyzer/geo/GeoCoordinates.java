@@ -7,16 +7,29 @@ public class GeoCoordinates {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(GeoCoordinates.class);
 
+    // mean Earth radius of WGS84, (2a + b) / 3
+    private static final double MEAN_RADIUS = 6371.0088;
+    // the spherical distance differs from the ellipsoidal one by less than 0.6% in both directions,
+    // so a spherical distance outside of this margin around a threshold decides the comparison on its own
+    private static final double SPHERICAL_ERROR_MARGIN = 0.01;
+
     public static double calculateDistance(GeoPoint gp1, GeoPoint gp2) {
+        return calculateDistance(gp1.getLat(), gp1.getLon(), gp2.getLat(), gp2.getLon());
+    }
+
+    /**
+     * Geodesic distance in kilometers on the WGS84 ellipsoid, computed with Vincenty's inverse formula.
+     */
+    public static double calculateDistance(double latitude1, double longitude1, double latitude2, double longitude2) {
         // Based on http://www.ngs.noaa.gov/PUBS_LIB/inverse.pdf
         // using the "Inverse Formula" (section 4)
 
         int MAXITERS = 20;
         // Convert lat/long to radians
-        double lat1 = gp1.getLat() * Math.PI / 180.0;
-        double lat2 = gp2.getLat() * Math.PI / 180.0;
-        double lon1 = gp1.getLon() * Math.PI / 180.0;
-        double lon2 = gp2.getLon() * Math.PI / 180.0;
+        double lat1 = Math.toRadians(latitude1);
+        double lat2 = Math.toRadians(latitude2);
+        double lon1 = Math.toRadians(longitude1);
+        double lon2 = Math.toRadians(longitude2);
 
         double a = 6378.137; // WGS84 major axis
         double b = 6356.7523142; // WGS84 semi-major axis
@@ -93,4 +106,31 @@ public class GeoCoordinates {
 
         return b * A * (sigma - deltaSigma);
     }
+
+    /**
+     * Great-circle distance in kilometers on the sphere of the mean Earth radius, computed with the haversine formula.
+     */
+    public static double calculateSphericalDistance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double lat1 = Math.toRadians(latitude1);
+        double lat2 = Math.toRadians(latitude2);
+        double sinHalfDeltaLat = Math.sin((lat2 - lat1) / 2);
+        double sinHalfDeltaLon = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double h = sinHalfDeltaLat * sinHalfDeltaLat + Math.cos(lat1) * Math.cos(lat2) * sinHalfDeltaLon * sinHalfDeltaLon;
+        return 2 * MEAN_RADIUS * Math.asin(Math.min(1.0, Math.sqrt(h)));
+    }
+
+    /**
+     * Checks that the geodesic distance is greater than the threshold. The cheap spherical distance decides the clear cases,
+     * Vincenty's formula runs only when the distance is within the error margin of the sphere around the threshold.
+     */
+    public static boolean isFartherThan(double latitude1, double longitude1, double latitude2, double longitude2, double thresholdKm) {
+        double sphericalDistance = calculateSphericalDistance(latitude1, longitude1, latitude2, longitude2);
+        if (sphericalDistance > thresholdKm * (1 + SPHERICAL_ERROR_MARGIN)) {
+            return true;
+        }
+        if (sphericalDistance < thresholdKm * (1 - SPHERICAL_ERROR_MARGIN)) {
+            return false;
+        }
+        return calculateDistance(latitude1, longitude1, latitude2, longitude2) > thresholdKm;
+    }
 }
@@ -4,39 +4,50 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
-
-import java.time.LocalDateTime;
-
+import ru.neoflex.scammertracking.analyzer.logging.PaymentTracing;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics.Stage;
+import ru.neoflex.scammertracking.analyzer.rule.PaymentRule;
+import ru.neoflex.scammertracking.analyzer.rule.PaymentRuleSet;
+import ru.neoflex.scammertracking.analyzer.rule.PaymentWindow;
+
+/**
+ * Checks a payment against the last payment of its card with {@link PaymentRuleSet#defaultRules()}. Used when the
+ * rule engine is disabled with {@code paymentRules.enabled}.
+ */
 public class SimplePaymentAnalyzer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SimplePaymentAnalyzer.class);
+    private static final PaymentRuleSet DEFAULT_RULES = PaymentRuleSet.defaultRules();
+    // the window holds only the last payment, it is reused by the thread
+    private static final ThreadLocal<PaymentWindow> LAST_PAYMENT_WINDOW = ThreadLocal.withInitial(() -> new PaymentWindow(1));
 
     public static boolean checkPayment(LastPaymentResponseDto lastPayment, PaymentRequestDto currentPayment) {
-        LOGGER.info("Received for check payment. lastPayment={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }.\n currentPayment={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date={} }",
-                lastPayment.getId(), lastPayment.getPayerCardNumber(), lastPayment.getReceiverCardNumber(), lastPayment.getCoordinates().getLatitude(), lastPayment.getCoordinates().getLongitude(), lastPayment.getDate(), currentPayment.getId(), currentPayment.getPayerCardNumber(), currentPayment.getReceiverCardNumber(), currentPayment.getCoordinates().getLatitude(), currentPayment.getCoordinates().getLongitude(), currentPayment.getDate());
-
-        LocalDateTime lastPaymentDate = lastPayment.getDate();
-        LocalDateTime currentPaymentDate = currentPayment.getDate();
-        GeoPoint lastGeoPoint = new GeoPoint(lastPayment.getCoordinates().getLatitude(), lastPayment.getCoordinates().getLongitude());
-        GeoPoint currentGeoPoint = new GeoPoint(currentPayment.getCoordinates().getLatitude(), currentPayment.getCoordinates().getLongitude());
-
-        double distance = GeoCoordinates.calculateDistance(lastGeoPoint, currentGeoPoint);
-
-        if (lastPaymentDate.plusHours(1).compareTo(currentPaymentDate)>=0 && distance > 10000) {
-            LOGGER.warn("The payment with id={} is suspicious", currentPayment.getId());
-            return false;
-        }
-        if (lastPaymentDate.plusMinutes(1).compareTo(currentPaymentDate)>=0 && distance > 50) {
-            LOGGER.warn("The payment with id={} is suspicious", currentPayment.getId());
-            return false;
-        }
-        if (lastPaymentDate.plusSeconds(1).compareTo(currentPaymentDate)>=0 && distance > 1) {
-            LOGGER.warn("The payment with id={} is suspicious", currentPayment.getId());
-            return false;
+        long startNanos = System.nanoTime();
+        boolean isTraced = PaymentTracing.isTraced(currentPayment.getPayerCardNumber());
+        if (isTraced) {
+            LOGGER.info("Received for check payment. lastPayment={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }.\n currentPayment={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date={} }",
+                    lastPayment.getId(), lastPayment.getPayerCardNumber(), lastPayment.getReceiverCardNumber(), lastPayment.getCoordinates().getLatitude(), lastPayment.getCoordinates().getLongitude(), lastPayment.getDate(), currentPayment.getId(), currentPayment.getPayerCardNumber(), currentPayment.getReceiverCardNumber(), currentPayment.getCoordinates().getLatitude(), currentPayment.getCoordinates().getLongitude(), currentPayment.getDate());
         }
 
-        LOGGER.info("The payment with id={} is trusted", currentPayment.getId());
+        PaymentWindow window = LAST_PAYMENT_WINDOW.get();
+        window.clear();
+        window.add(PaymentWindow.toEpochNanos(lastPayment.getDate()), lastPayment.getCoordinates().getLatitude(),
+                lastPayment.getCoordinates().getLongitude(), lastPayment.getReceiverCardNumber(), lastPayment.getGeoCell());
+        PaymentRule violatedRule = DEFAULT_RULES.evaluate(window, PaymentWindow.toEpochNanos(currentPayment.getDate()),
+                currentPayment.getCoordinates().getLatitude(), currentPayment.getCoordinates().getLongitude(), currentPayment.getReceiverCardNumber());
+        boolean isTrusted = null == violatedRule;
+
+        if (isTraced) {
+            if (isTrusted) {
+                LOGGER.info("The payment with id={} is trusted", currentPayment.getId());
+            } else {
+                LOGGER.warn("The payment with id={} is suspicious", currentPayment.getId());
+            }
+        }
+        PaymentMetrics.recordVerdict(isTrusted, isTrusted ? PaymentMetrics.PASSED_RULE : violatedRule.getName());
+        PaymentMetrics.recordStage(Stage.CHECK, startNanos);
 
-        return true;
+        return isTrusted;
     }
 }
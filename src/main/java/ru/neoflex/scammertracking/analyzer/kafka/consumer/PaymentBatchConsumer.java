@@ -0,0 +1,50 @@
+package ru.neoflex.scammertracking.analyzer.kafka.consumer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Service;
+import ru.neoflex.scammertracking.analyzer.config.KafkaConsumerConfig;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics.Stage;
+import ru.neoflex.scammertracking.analyzer.service.PaymentAnalyzer;
+
+import java.util.List;
+
+/**
+ * Batch counterpart of {@link PaymentConsumer}, enabled with {@code spring.kafka.consumer.mode=batch}.
+ * The whole poll is handed to the analyzer at once, offsets are committed by the container after the batch returns.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(value = "spring.kafka.consumer.mode", havingValue = KafkaConsumerConfig.BATCH_MODE)
+public class PaymentBatchConsumer {
+
+    @Autowired
+    public PaymentBatchConsumer(PaymentAnalyzer paymentAnalyzer) {
+        this.paymentAnalyzer = paymentAnalyzer;
+    }
+
+    private PaymentAnalyzer paymentAnalyzer;
+
+    @KafkaListener(topics = "${spring.kafka.topic.payments}", containerFactory = "paymentsKafkaListenerContainerFactory")
+    public void consumePayments(@Payload List<PaymentRequestDto> paymentRequests,
+                                @Header(KafkaHeaders.RECEIVED_KEY) List<String> keys) throws Exception {
+        long startNanos = System.nanoTime();
+        log.info("received batch of {} payments", paymentRequests.size());
+        log.debug("received batch keys={}", keys);
+
+        PaymentMetrics.addInFlight(paymentRequests.size());
+        try {
+            paymentAnalyzer.analyzeConsumeMessages(paymentRequests);
+        } finally {
+            PaymentMetrics.addInFlight(-paymentRequests.size());
+            PaymentMetrics.recordStage(Stage.CONSUME_BATCH, startNanos);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package ru.neoflex.scammertracking.analyzer.kafka.consumer;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cloud.openfeign.FeignClientsConfiguration;
 import org.springframework.context.annotation.Import;
 import org.springframework.kafka.annotation.KafkaListener;
@@ -10,11 +11,15 @@ import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Service;
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.logging.PaymentTracing;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics.Stage;
 import ru.neoflex.scammertracking.analyzer.service.PaymentAnalyzer;
 
 @Service
 @Import(FeignClientsConfiguration.class)
 @Slf4j
+@ConditionalOnProperty(value = "spring.kafka.consumer.mode", havingValue = "record", matchIfMissing = true)
 public class PaymentConsumer {
 
     @Autowired
@@ -27,9 +32,18 @@ public class PaymentConsumer {
     @KafkaListener(topics = "${spring.kafka.topic.payments}", containerFactory = "paymentsKafkaListenerContainerFactory")
     public void consumePayment(@Payload PaymentRequestDto paymentRequest,
                                @Header(KafkaHeaders.RECEIVED_KEY) String key) throws Exception {
-        log.info("received key={} paymentRequest={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
-                key, paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(), paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(), paymentRequest.getDate());
+        long startNanos = System.nanoTime();
+        if (PaymentTracing.isTraced(paymentRequest.getPayerCardNumber())) {
+            log.info("received key={} paymentRequest={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
+                    key, paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(), paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(), paymentRequest.getDate());
+        }
 
-        paymentAnalyzer.analyzeConsumeMessage(key, paymentRequest);
+        PaymentMetrics.addInFlight(1);
+        try {
+            paymentAnalyzer.analyzeConsumeMessage(key, paymentRequest);
+        } finally {
+            PaymentMetrics.addInFlight(-1);
+            PaymentMetrics.recordStage(Stage.CONSUME, startNanos);
+        }
     }
 }
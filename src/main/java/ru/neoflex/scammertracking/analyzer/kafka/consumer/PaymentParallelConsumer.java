@@ -0,0 +1,169 @@
+package ru.neoflex.scammertracking.analyzer.kafka.consumer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Service;
+import ru.neoflex.scammertracking.analyzer.concurrent.KeyOrderedExecutor;
+import ru.neoflex.scammertracking.analyzer.config.KafkaConsumerConfig;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.error.exception.PaymentServiceUnavailableException;
+import ru.neoflex.scammertracking.analyzer.logging.PaymentTracing;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics.Stage;
+import ru.neoflex.scammertracking.analyzer.service.PaymentAnalyzer;
+import ru.neoflex.scammertracking.analyzer.service.impl.PaymentWriteBehind;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Parallel counterpart of {@link PaymentConsumer}, enabled with {@code spring.kafka.consumer.mode=parallel}.
+ * Records are analyzed on worker lanes keyed by payer card number, so payments of one card keep their order.
+ * Every record is acknowledged when its analysis completes; the container commits an offset only
+ * after all earlier records of the partition are acknowledged. With the write-behind pipeline enabled a record is
+ * acknowledged only when its trusted payment is written. A failed payment is retried on its lane with a growing
+ * back-off while later payments of the card wait for it, and the container does not poll past a batch with
+ * unacknowledged records. A payment rejected by the payment-service limiter or breaker is retried until it is taken,
+ * other failures up to {@code spring.kafka.consumer.parallel.maxAttempts} times, after which the record is logged and
+ * skipped as in record mode. A payment whose write fails is not acknowledged and the listener is restarted, so the
+ * partition is consumed again from its committed offset. With
+ * {@code spring.kafka.consumer.parallel.virtualThreads=true} the lanes run on virtual threads, so thousands of
+ * payments can wait on Redis and payment-service at once.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(value = "spring.kafka.consumer.mode", havingValue = KafkaConsumerConfig.PARALLEL_MODE)
+public class PaymentParallelConsumer {
+
+    @Autowired
+    public PaymentParallelConsumer(PaymentAnalyzer paymentAnalyzer, KeyOrderedExecutor paymentExecutor) {
+        this.paymentAnalyzer = paymentAnalyzer;
+        this.paymentExecutor = paymentExecutor;
+    }
+
+    private PaymentAnalyzer paymentAnalyzer;
+    private KeyOrderedExecutor paymentExecutor;
+    private PaymentWriteBehind paymentWriteBehind;
+    private KafkaListenerEndpointRegistry listenerEndpointRegistry;
+    private final AtomicBoolean isRestarting = new AtomicBoolean();
+
+    @Value("${spring.kafka.consumer.parallel.retryIntervalMillis:500}")
+    private long retryIntervalMillis = 500;
+    @Value("${spring.kafka.consumer.parallel.maxRetryIntervalMillis:10000}")
+    private long maxRetryIntervalMillis = 10000;
+    @Value("${spring.kafka.consumer.parallel.maxAttempts:10}")
+    private int maxAttempts = 10;
+
+    @Autowired(required = false)
+    public void setPaymentWriteBehind(PaymentWriteBehind paymentWriteBehind) {
+        this.paymentWriteBehind = paymentWriteBehind;
+    }
+
+    @Autowired(required = false)
+    public void setListenerEndpointRegistry(KafkaListenerEndpointRegistry listenerEndpointRegistry) {
+        this.listenerEndpointRegistry = listenerEndpointRegistry;
+    }
+
+    @KafkaListener(topics = "${spring.kafka.topic.payments}", containerFactory = "paymentsKafkaListenerContainerFactory")
+    public void consumePayment(@Payload PaymentRequestDto paymentRequest,
+                               @Header(KafkaHeaders.RECEIVED_KEY) String key,
+                               Acknowledgment acknowledgment) throws InterruptedException {
+        if (PaymentTracing.isTraced(paymentRequest.getPayerCardNumber())) {
+            log.info("received key={} paymentRequest={ id={}, payerCardNumber={} }, in flight={}",
+                    key, paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentExecutor.getInFlight());
+        }
+
+        paymentExecutor.execute(paymentRequest.getPayerCardNumber(), () -> {
+            long startNanos = System.nanoTime();
+            PaymentMetrics.addInFlight(1);
+            boolean isAnalyzed;
+            try {
+                isAnalyzed = analyze(key, paymentRequest);
+            } finally {
+                PaymentMetrics.addInFlight(-1);
+                PaymentMetrics.recordStage(Stage.CONSUME, startNanos);
+            }
+            if (isAnalyzed) {
+                acknowledgeWritten(paymentRequest, acknowledgment);
+            }
+        });
+    }
+
+    /**
+     * @return false if the lane was interrupted on shutdown before the payment was analyzed, its record is then
+     * redelivered from the last committed offset; true if the record is to be acknowledged
+     */
+    private boolean analyze(String key, PaymentRequestDto paymentRequest) {
+        long backoffMillis = retryIntervalMillis;
+        int failures = 0;
+        while (true) {
+            try {
+                paymentAnalyzer.analyzeConsumeMessage(key, paymentRequest);
+                return true;
+            } catch (PaymentServiceUnavailableException e) {
+                log.warn("The payment with id={} was rejected by payment-service protection, retry in {} ms. cause: {}",
+                        paymentRequest.getId(), backoffMillis, e.getMessage());
+            } catch (Exception e) {
+                if (++failures >= maxAttempts) {
+                    log.error("Unable to analyze payment with id={} in {} attempts, the record is skipped. cause: {}",
+                            paymentRequest.getId(), failures, e.getMessage());
+                    return true;
+                }
+                log.error("Unable to analyze payment with id={}, attempt {}, retry in {} ms. cause: {}",
+                        paymentRequest.getId(), failures, backoffMillis, e.getMessage());
+            }
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("The payment with id={} was not analyzed before shutdown, the record is not acknowledged", paymentRequest.getId());
+                return false;
+            }
+            backoffMillis = Math.min(backoffMillis * 2, maxRetryIntervalMillis);
+        }
+    }
+
+    private void acknowledgeWritten(PaymentRequestDto paymentRequest, Acknowledgment acknowledgment) {
+        if (null == paymentWriteBehind) {
+            acknowledgment.acknowledge();
+            return;
+        }
+
+        paymentWriteBehind.getLastWrite().whenComplete((result, exception) -> {
+            if (null != exception) {
+                log.error("The payment with id={} was not written, the record is not acknowledged. cause: {}", paymentRequest.getId(), exception.getMessage());
+                restartListeners();
+            } else {
+                acknowledgment.acknowledge();
+            }
+        });
+    }
+
+    /**
+     * Restarts the running listener containers without waiting for them to stop. The unacknowledged record keeps the
+     * committed offset of its partition before it, so the partition is consumed again from that record.
+     */
+    private void restartListeners() {
+        if (null == listenerEndpointRegistry || !isRestarting.compareAndSet(false, true)) {
+            return;
+        }
+        for (MessageListenerContainer container : listenerEndpointRegistry.getListenerContainers()) {
+            // the containers are stopped before the write-behind on shutdown, a stopped container stays stopped
+            if (container.isRunning()) {
+                log.warn("Restarting the payment listener {}", container.getListenerId());
+                container.stop(() -> {
+                    container.start();
+                    isRestarting.set(false);
+                });
+            }
+        }
+    }
+}
@@ -1,16 +1,25 @@
 package ru.neoflex.scammertracking.analyzer.kafka.producer;
 
 import lombok.extern.slf4j.Slf4j;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics.Stage;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
+/**
+ * Sends verdicts keyed by payment id. Results of the sends are logged by {@link PaymentProducerListener} of the
+ * template, a send itself only records its time to the acknowledgement.
+ * <p>
+ * Sends made on a thread between {@link #beginBatch()} and {@link SendBatch#close()} are collected by the batch: it
+ * records one {@link Stage#SEND_BATCH} time and logs one line when all of them are acknowledged.
+ */
 @Service
 @Slf4j
 public class PaymentProducer {
@@ -22,17 +31,80 @@ public class PaymentProducer {
 
     private KafkaTemplate<String, PaymentResponseDto> kafkaTemplate;
 
-    public void sendMessage(final String TOPIC, PaymentResponseDto payment) {
+    private final ThreadLocal<SendBatch> currentBatch = new ThreadLocal<>();
+
+    public CompletableFuture<SendResult<String, PaymentResponseDto>> sendMessage(final String TOPIC, PaymentResponseDto payment) {
+        long startNanos = System.nanoTime();
         CompletableFuture<SendResult<String, PaymentResponseDto>> future = kafkaTemplate.send(TOPIC, String.valueOf(payment.getId()), payment);
 
-        future.whenCompleteAsync((result, exception) -> {
-            if (null != exception) {
-                log.error("error. Unable to send message with key={} message={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} } due to : {}",
-                        payment.getId(), payment.getId(), payment.getPayerCardNumber(), payment.getReceiverCardNumber(), payment.getCoordinates().getLatitude(), payment.getCoordinates().getLongitude(), payment.getDate(), exception.getMessage());
-            } else {
-                log.info("Sent message={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} } with offset=={}",
-                        payment.getId(), payment.getPayerCardNumber(), payment.getReceiverCardNumber(), payment.getCoordinates().getLatitude(), payment.getCoordinates().getLongitude(), payment.getDate(), result.getRecordMetadata().offset());
+        SendBatch batch = currentBatch.get();
+        if (null != batch) {
+            batch.futures.add(future);
+        } else {
+            // completed on the producer network thread, the callback must stay this cheap
+            future.whenComplete((result, exception) -> PaymentMetrics.recordStage(Stage.SEND, startNanos));
+        }
+        return future;
+    }
+
+    /**
+     * Starts collecting the sends of the current thread, the batch must be closed on the same thread.
+     */
+    public SendBatch beginBatch() {
+        if (null != currentBatch.get()) {
+            throw new IllegalStateException("A send batch is already open on this thread");
+        }
+        SendBatch batch = new SendBatch();
+        currentBatch.set(batch);
+        return batch;
+    }
+
+    public final class SendBatch implements AutoCloseable {
+
+        private final long startNanos = System.nanoTime();
+        private final List<CompletableFuture<SendResult<String, PaymentResponseDto>>> futures = new ArrayList<>();
+        private final CompletableFuture<Integer> completion = new CompletableFuture<>();
+
+        private SendBatch() {
+        }
+
+        public int size() {
+            return futures.size();
+        }
+
+        /**
+         * @return completed with the number of failed sends when all sends of the closed batch are done
+         */
+        public CompletableFuture<Integer> getCompletion() {
+            return completion;
+        }
+
+        /**
+         * Stops collecting sends, it does not wait for their acknowledgements.
+         */
+        @Override
+        public void close() {
+            currentBatch.remove();
+            if (futures.isEmpty()) {
+                completion.complete(0);
+                return;
             }
-        });
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).whenComplete((result, exception) -> {
+                int failedCount = 0;
+                for (CompletableFuture<?> future : futures) {
+                    if (future.isCompletedExceptionally()) {
+                        failedCount++;
+                    }
+                }
+                PaymentMetrics.recordStage(Stage.SEND_BATCH, startNanos);
+                long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+                if (failedCount > 0) {
+                    log.warn("Sent {} of {} messages of a batch in {} ms", futures.size() - failedCount, futures.size(), elapsedMillis);
+                } else {
+                    log.info("Sent {} messages of a batch in {} ms", futures.size(), elapsedMillis);
+                }
+                completion.complete(failedCount);
+            });
+        }
     }
 }
@@ -0,0 +1,32 @@
+package ru.neoflex.scammertracking.analyzer.kafka.producer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.springframework.kafka.support.ProducerListener;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.logging.PaymentTracing;
+
+/**
+ * The one place where results of verdict sends are handled, registered on the verdicts template. It is called on the
+ * producer network thread for every record, so it does no more than logging.
+ */
+@Slf4j
+public class PaymentProducerListener implements ProducerListener<String, PaymentResponseDto> {
+
+    @Override
+    public void onSuccess(ProducerRecord<String, PaymentResponseDto> record, RecordMetadata metadata) {
+        PaymentResponseDto payment = record.value();
+        if (PaymentTracing.isTraced(payment.getPayerCardNumber())) {
+            log.info("Sent message={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} } in topic={} with offset=={}",
+                    payment.getId(), payment.getPayerCardNumber(), payment.getReceiverCardNumber(), payment.getCoordinates().getLatitude(), payment.getCoordinates().getLongitude(), payment.getDate(), record.topic(), metadata.offset());
+        }
+    }
+
+    @Override
+    public void onError(ProducerRecord<String, PaymentResponseDto> record, RecordMetadata metadata, Exception exception) {
+        PaymentResponseDto payment = record.value();
+        log.error("error. Unable to send message with key={} in topic={} message={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} } due to : {}",
+                record.key(), record.topic(), payment.getId(), payment.getPayerCardNumber(), payment.getReceiverCardNumber(), payment.getCoordinates().getLatitude(), payment.getCoordinates().getLongitude(), payment.getDate(), exception.getMessage());
+    }
+}
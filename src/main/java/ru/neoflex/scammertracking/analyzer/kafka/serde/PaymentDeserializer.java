@@ -0,0 +1,47 @@
+package ru.neoflex.scammertracking.analyzer.kafka.serde;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Reads values marked with the {@value PaymentWireFormat#FORMAT_HEADER} header in {@link PaymentWireFormat} and other
+ * values with the JSON deserializer, so producers of a topic are migrated one by one.
+ */
+public class PaymentDeserializer<T> implements Deserializer<T> {
+
+    private final Function<byte[], T> binaryReader;
+    private final Deserializer<T> jsonDeserializer;
+
+    public PaymentDeserializer(Function<byte[], T> binaryReader, Deserializer<T> jsonDeserializer) {
+        this.binaryReader = binaryReader;
+        this.jsonDeserializer = jsonDeserializer;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        jsonDeserializer.configure(configs, isKey);
+    }
+
+    @Override
+    public T deserialize(String topic, byte[] data) {
+        return jsonDeserializer.deserialize(topic, data);
+    }
+
+    @Override
+    public T deserialize(String topic, Headers headers, byte[] data) {
+        Header formatHeader = headers.lastHeader(PaymentWireFormat.FORMAT_HEADER);
+        if (null != formatHeader && PaymentWireFormat.isBinary(formatHeader.value())) {
+            return binaryReader.apply(data);
+        }
+        return jsonDeserializer.deserialize(topic, headers, data);
+    }
+
+    @Override
+    public void close() {
+        jsonDeserializer.close();
+    }
+}
@@ -0,0 +1,56 @@
+package ru.neoflex.scammertracking.analyzer.kafka.serde;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Writes values of the binary topics in {@link PaymentWireFormat} with its header and values of other topics with the
+ * JSON serializer, so consumers of a topic are migrated before the topic is switched.
+ */
+public class PaymentSerializer<T> implements Serializer<T> {
+
+    private final Set<String> binaryTopics;
+    private final Function<T, byte[]> binaryWriter;
+    private final Serializer<T> jsonSerializer;
+
+    public PaymentSerializer(Collection<String> binaryTopics, Function<T, byte[]> binaryWriter, Serializer<T> jsonSerializer) {
+        this.binaryTopics = binaryTopics.stream()
+                .filter(topic -> !topic.isBlank())
+                .collect(Collectors.toUnmodifiableSet());
+        this.binaryWriter = binaryWriter;
+        this.jsonSerializer = jsonSerializer;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        jsonSerializer.configure(configs, isKey);
+    }
+
+    /**
+     * Without headers the binary format cannot be marked, the value is JSON.
+     */
+    @Override
+    public byte[] serialize(String topic, T data) {
+        return jsonSerializer.serialize(topic, data);
+    }
+
+    @Override
+    public byte[] serialize(String topic, Headers headers, T data) {
+        if (null == data || !binaryTopics.contains(topic)) {
+            return jsonSerializer.serialize(topic, headers, data);
+        }
+        headers.add(PaymentWireFormat.FORMAT_HEADER, PaymentWireFormat.binaryHeader());
+        return binaryWriter.apply(data);
+    }
+
+    @Override
+    public void close() {
+        jsonSerializer.close();
+    }
+}
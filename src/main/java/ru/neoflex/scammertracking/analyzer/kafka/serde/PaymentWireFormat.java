@@ -0,0 +1,177 @@
+package ru.neoflex.scammertracking.analyzer.kafka.serde;
+
+import org.apache.kafka.common.errors.SerializationException;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.model.Coordinates;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Fixed-layout binary format of payments and verdicts in Kafka, version {@value #VERSION}:
+ * <pre>
+ * version:1 | id:8 | latitude:4 | longitude:4 | dateSeconds:8 | dateNanos:4 | payerCardNumber | receiverCardNumber | trusted:1
+ * </pre>
+ * {@code trusted} is written for verdicts only. The date is a UTC epoch second and its nanosecond, so it is read back
+ * exactly. Card numbers are a 2-byte length followed by UTF-8 bytes. Absent values are written as {@link Long#MIN_VALUE}
+ * seconds, NaN coordinates, length -1 or trusted -1.
+ * <p>
+ * Records in this format carry the {@value #FORMAT_HEADER} header, records without it are JSON.
+ */
+public final class PaymentWireFormat {
+
+    public static final String FORMAT_HEADER = "paymentFormat";
+    public static final byte VERSION = 1;
+    public static final int REQUEST_FIXED_LENGTH = 29;
+    public static final int RESPONSE_FIXED_LENGTH = REQUEST_FIXED_LENGTH + 1;
+
+    private static final byte[] BINARY = "binary".getBytes(StandardCharsets.UTF_8);
+    private static final long ABSENT = Long.MIN_VALUE;
+
+    private PaymentWireFormat() {
+    }
+
+    /**
+     * @return value of the {@value #FORMAT_HEADER} header of a binary record
+     */
+    public static byte[] binaryHeader() {
+        return BINARY.clone();
+    }
+
+    public static boolean isBinary(byte[] formatHeader) {
+        return null != formatHeader && Arrays.equals(BINARY, formatHeader);
+    }
+
+    public static byte[] writeRequest(PaymentRequestDto payment) {
+        byte[] payerCardNumber = toBytes(payment.getPayerCardNumber());
+        byte[] receiverCardNumber = toBytes(payment.getReceiverCardNumber());
+        ByteBuffer buffer = ByteBuffer.allocate(REQUEST_FIXED_LENGTH + stringLength(payerCardNumber) + stringLength(receiverCardNumber));
+        putPayment(buffer, payment.getId(), payment.getCoordinates(), payment.getDate(), payerCardNumber, receiverCardNumber);
+        return buffer.array();
+    }
+
+    public static byte[] writeResponse(PaymentResponseDto payment) {
+        byte[] payerCardNumber = toBytes(payment.getPayerCardNumber());
+        byte[] receiverCardNumber = toBytes(payment.getReceiverCardNumber());
+        ByteBuffer buffer = ByteBuffer.allocate(RESPONSE_FIXED_LENGTH + stringLength(payerCardNumber) + stringLength(receiverCardNumber));
+        putPayment(buffer, payment.getId(), payment.getCoordinates(), payment.getDate(), payerCardNumber, receiverCardNumber);
+        buffer.put(null != payment.getTrusted() ? (byte) (payment.getTrusted() ? 1 : 0) : -1);
+        return buffer.array();
+    }
+
+    public static PaymentRequestDto readRequest(byte[] bytes) {
+        if (null == bytes) {
+            return null;
+        }
+        ByteBuffer buffer = wrap(bytes);
+        try {
+            PaymentRequestDto payment = new PaymentRequestDto();
+            payment.setId(buffer.getLong());
+            payment.setCoordinates(getCoordinates(buffer));
+            payment.setDate(getDate(buffer));
+            payment.setPayerCardNumber(getString(buffer));
+            payment.setReceiverCardNumber(getString(buffer));
+            return payment;
+        } catch (BufferUnderflowException e) {
+            throw new SerializationException("Truncated payment of " + bytes.length + " bytes", e);
+        }
+    }
+
+    public static PaymentResponseDto readResponse(byte[] bytes) {
+        if (null == bytes) {
+            return null;
+        }
+        ByteBuffer buffer = wrap(bytes);
+        try {
+            PaymentResponseDto payment = new PaymentResponseDto();
+            payment.setId(buffer.getLong());
+            payment.setCoordinates(getCoordinates(buffer));
+            payment.setDate(getDate(buffer));
+            payment.setPayerCardNumber(getString(buffer));
+            payment.setReceiverCardNumber(getString(buffer));
+            byte trusted = buffer.get();
+            payment.setTrusted(trusted >= 0 ? trusted == 1 : null);
+            return payment;
+        } catch (BufferUnderflowException e) {
+            throw new SerializationException("Truncated verdict of " + bytes.length + " bytes", e);
+        }
+    }
+
+    private static ByteBuffer wrap(byte[] bytes) {
+        if (bytes.length == 0 || bytes[0] != VERSION) {
+            throw new SerializationException("Unsupported payment format version " + (bytes.length > 0 ? bytes[0] : "of an empty value"));
+        }
+        return ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+    }
+
+    private static void putPayment(ByteBuffer buffer, long id, Coordinates coordinates, LocalDateTime date,
+                                   byte[] payerCardNumber, byte[] receiverCardNumber) {
+        buffer.put(VERSION);
+        buffer.putLong(id);
+        buffer.putFloat(null != coordinates ? coordinates.getLatitude() : Float.NaN);
+        buffer.putFloat(null != coordinates ? coordinates.getLongitude() : Float.NaN);
+        if (null != date) {
+            buffer.putLong(date.toEpochSecond(ZoneOffset.UTC));
+            buffer.putInt(date.getNano());
+        } else {
+            buffer.putLong(ABSENT);
+            buffer.putInt(0);
+        }
+        putString(buffer, payerCardNumber);
+        putString(buffer, receiverCardNumber);
+    }
+
+    private static Coordinates getCoordinates(ByteBuffer buffer) {
+        float latitude = buffer.getFloat();
+        float longitude = buffer.getFloat();
+        return Float.isNaN(latitude) && Float.isNaN(longitude) ? null : new Coordinates(latitude, longitude);
+    }
+
+    private static LocalDateTime getDate(ByteBuffer buffer) {
+        long epochSecond = buffer.getLong();
+        int nanos = buffer.getInt();
+        return epochSecond != ABSENT ? LocalDateTime.ofEpochSecond(epochSecond, nanos, ZoneOffset.UTC) : null;
+    }
+
+    private static byte[] toBytes(String value) {
+        if (null == value) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new SerializationException("Card number of " + bytes.length + " bytes is longer than " + Short.MAX_VALUE);
+        }
+        return bytes;
+    }
+
+    private static int stringLength(byte[] value) {
+        return Short.BYTES + (null != value ? value.length : 0);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        if (null == value) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) value.length);
+            buffer.put(value);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new SerializationException("Corrupted card number length " + length + ", " + buffer.remaining() + " bytes remain");
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,130 @@
+package ru.neoflex.scammertracking.analyzer.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decides which payments are logged in detail, the mode is selected with {@code paymentLogging.mode}.
+ * In {@code full} mode every stage logs every payment as before. In {@code summary} mode a stage logs a payment only
+ * if its card is traced: listed in {@code paymentLogging.tracedCards}, added at runtime with {@link #trace} or
+ * {@link PaymentTracingEndpoint}, or sampled with {@code paymentLogging.sampleRate}. Sampling is decided by the card
+ * number, so a sampled card is traced through its whole history.
+ * <p>
+ * Call sites check {@link #isTraced} before logging, so arguments of a skipped statement are neither evaluated nor
+ * boxed. In both modes every payment ends with one event of the {@value #SUMMARY_LOGGER} logger, which is disabled
+ * with the level of that logger.
+ */
+public final class PaymentTracing {
+
+    public static final String FULL_MODE = "full";
+    public static final String SUMMARY_MODE = "summary";
+    public static final String SUMMARY_LOGGER = "payment.summary";
+
+    private static final Logger SUMMARY_LOG = LoggerFactory.getLogger(SUMMARY_LOGGER);
+    private static final int SAMPLE_SCALE = 1 << 16;
+
+    private static volatile boolean isFullMode = true;
+    private static volatile int sampleThreshold;
+    private static volatile Set<String> tracedCards = Set.of();
+
+    private PaymentTracing() {
+    }
+
+    public static void configure(String mode, double sampleRate, Collection<String> tracedCards) {
+        if (!FULL_MODE.equals(mode) && !SUMMARY_MODE.equals(mode)) {
+            throw new IllegalArgumentException("Unknown payment logging mode " + mode);
+        }
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("sampleRate must be between 0 and 1");
+        }
+        PaymentTracing.isFullMode = FULL_MODE.equals(mode);
+        PaymentTracing.sampleThreshold = (int) Math.round(sampleRate * SAMPLE_SCALE);
+        PaymentTracing.tracedCards = Set.copyOf(tracedCards);
+    }
+
+    public static boolean isTraced(String payerCardNumber) {
+        if (isFullMode) {
+            return true;
+        }
+        if (null == payerCardNumber) {
+            return false;
+        }
+        return isSampled(payerCardNumber) || tracedCards.contains(payerCardNumber);
+    }
+
+    /**
+     * Turns on detail logging of the card until {@link #untrace} is called.
+     */
+    public static synchronized void trace(String payerCardNumber) {
+        Set<String> cards = new HashSet<>(tracedCards);
+        cards.add(payerCardNumber);
+        tracedCards = Set.copyOf(cards);
+    }
+
+    public static synchronized void untrace(String payerCardNumber) {
+        Set<String> cards = new HashSet<>(tracedCards);
+        cards.remove(payerCardNumber);
+        tracedCards = Set.copyOf(cards);
+    }
+
+    public static Set<String> getTracedCards() {
+        return tracedCards;
+    }
+
+    /**
+     * Logs the summary event of a processed payment.
+     *
+     * @param startNanos {@link System#nanoTime()} taken when the processing of the payment started
+     */
+    public static void logSummary(Long id, String payerCardNumber, Outcome outcome, long startNanos) {
+        if (SUMMARY_LOG.isInfoEnabled()) {
+            long tookMicros = (System.nanoTime() - startNanos) / 1000;
+            SUMMARY_LOG.info("payment id={} payerCardNumber={} outcome={} tookMicros={}", id, payerCardNumber, outcome, tookMicros);
+        }
+    }
+
+    private static boolean isSampled(String payerCardNumber) {
+        int threshold = sampleThreshold;
+        if (threshold == 0) {
+            return false;
+        }
+        // String.hashCode of similar card numbers differs in the low bits only, it is mixed before the bits are taken
+        int hash = payerCardNumber.hashCode() * 0x9E3779B9;
+        return (hash >>> 16) < threshold;
+    }
+
+    public enum Outcome {
+        /**
+         * The payment failed validation and was sent to the suspicious topic.
+         */
+        INVALID,
+        /**
+         * The last payment lookup was rejected by payment-service, the payment was sent to the suspicious topic.
+         */
+        LOOKUP_REJECTED,
+        /**
+         * The payment is the first payment of the card and was routed while the last payment was looked up.
+         */
+        FIRST_PAYMENT,
+        /**
+         * The analysis trusted the payment, it is sent to the checked topic unless payment-service rejects its save.
+         */
+        TRUSTED,
+        /**
+         * The analysis did not trust the payment, it is sent to the suspicious topic.
+         */
+        SUSPICIOUS,
+        /**
+         * The payment was already processed by this instance and was skipped.
+         */
+        DUPLICATE,
+        /**
+         * The processing failed with an exception.
+         */
+        FAILED
+    }
+}
@@ -0,0 +1,35 @@
+package ru.neoflex.scammertracking.analyzer.logging;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+import java.util.Set;
+
+/**
+ * {@code GET /actuator/paymenttracing} lists the traced cards, {@code POST /actuator/paymenttracing} with
+ * {@code {"cardNumber": ...}} traces a card and {@code DELETE /actuator/paymenttracing?cardNumber=...} stops tracing it.
+ * The endpoint is unauthenticated and not exposed by default: add it to
+ * {@code management.endpoints.web.exposure.include} only with a {@code management.server.port} closed to clients.
+ */
+@Endpoint(id = "paymenttracing")
+public class PaymentTracingEndpoint {
+
+    @ReadOperation
+    public Set<String> tracedCards() {
+        return PaymentTracing.getTracedCards();
+    }
+
+    @WriteOperation
+    public Set<String> trace(String cardNumber) {
+        PaymentTracing.trace(cardNumber);
+        return PaymentTracing.getTracedCards();
+    }
+
+    @DeleteOperation
+    public Set<String> untrace(String cardNumber) {
+        PaymentTracing.untrace(cardNumber);
+        return PaymentTracing.getTracedCards();
+    }
+}
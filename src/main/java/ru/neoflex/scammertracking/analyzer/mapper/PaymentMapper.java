@@ -0,0 +1,43 @@
+package ru.neoflex.scammertracking.analyzer.mapper;
+
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.domain.model.Coordinates;
+
+import java.time.LocalDateTime;
+
+/**
+ * Conversions between the payment representations, done for every consumed record.
+ * Coordinates of a request are shared with the result instead of being copied, none of them is mutated after consuming.
+ */
+public final class PaymentMapper {
+
+    private PaymentMapper() {
+    }
+
+    public static PaymentResponseDto toPaymentResponse(PaymentRequestDto paymentRequest, Boolean trusted) {
+        return new PaymentResponseDto(paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(),
+                paymentRequest.getCoordinates(), paymentRequest.getDate(), trusted);
+    }
+
+    public static PaymentEntity toPaymentEntity(PaymentRequestDto paymentRequest, LocalDateTime dateUpdating) {
+        return new PaymentEntity(paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(),
+                paymentRequest.getId(),
+                paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(),
+                paymentRequest.getDate(), dateUpdating);
+    }
+
+    public static LastPaymentResponseDto toLastPaymentResponse(PaymentRequestDto paymentRequest) {
+        return new LastPaymentResponseDto(paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(),
+                paymentRequest.getCoordinates(), paymentRequest.getDate());
+    }
+
+    public static LastPaymentResponseDto toLastPaymentResponse(PaymentEntity paymentEntity) {
+        LastPaymentResponseDto lastPayment = new LastPaymentResponseDto(paymentEntity.getIdPayment(), paymentEntity.getPayerCardNumber(), paymentEntity.getReceiverCardNumber(),
+                new Coordinates(paymentEntity.getLatitude(), paymentEntity.getLongitude()), paymentEntity.getDatePayment());
+        lastPayment.setGeoCell(paymentEntity.getGeoCell());
+        return lastPayment;
+    }
+}
@@ -0,0 +1,222 @@
+package ru.neoflex.scammertracking.analyzer.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Meters of the payment pipeline. They are built once per registry, so recording is a lookup-free call on a prebuilt
+ * meter. Until {@link #bindTo} is called, in tests and benchmarks, the meters belong to an empty composite registry and
+ * recording is a no-op.
+ * <p>
+ * Percentile histograms of {@value #STAGE_TIMER} are enabled with
+ * {@code management.metrics.distribution.percentiles-histogram.payment.stage}.
+ */
+public final class PaymentMetrics {
+
+    public static final String STAGE_TIMER = "payment.stage";
+    public static final String CACHE_LOOKUP_COUNTER = "payment.cache.lookups";
+    public static final String VERDICT_COUNTER = "payment.verdicts";
+    public static final String IN_FLIGHT_GAUGE = "payment.inflight";
+    public static final String FALLBACK_COUNTER = "payment.paymentService.fallbacks";
+    /**
+     * Rule tag of the payments trusted by the rules of {@code PaymentRuleSet}.
+     */
+    public static final String PASSED_RULE = "passed";
+
+    private static final AtomicInteger IN_FLIGHT = new AtomicInteger();
+
+    private static volatile Meters meters = new Meters(new CompositeMeterRegistry());
+
+    private PaymentMetrics() {
+    }
+
+    public static void bindTo(MeterRegistry registry) {
+        meters = new Meters(registry);
+    }
+
+    /**
+     * @param startNanos {@link System#nanoTime()} taken when the stage started
+     */
+    public static void recordStage(Stage stage, long startNanos) {
+        meters.stageTimers[stage.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public static void recordCacheLookup(CacheResult cacheResult) {
+        meters.cacheLookupCounters[cacheResult.ordinal()].increment();
+    }
+
+    public static void recordCacheLookups(CacheResult cacheResult, int count) {
+        if (count > 0) {
+            meters.cacheLookupCounters[cacheResult.ordinal()].increment(count);
+        }
+    }
+
+    /**
+     * Counts deprecated cached payments used as last payments while payment-service is unavailable.
+     */
+    public static void recordFallbacks(int count) {
+        if (count > 0) {
+            meters.fallbackCounter.increment(count);
+        }
+    }
+
+    public static void recordVerdict(boolean isTrusted, Rule rule) {
+        Meters boundMeters = meters;
+        (isTrusted ? boundMeters.trustedCounters : boundMeters.suspiciousCounters)[rule.ordinal()].increment();
+    }
+
+    /**
+     * Counts a verdict of a configured rule, the counter of a rule is registered on its first verdict.
+     */
+    public static void recordVerdict(boolean isTrusted, String rule) {
+        Meters boundMeters = meters;
+        Map<String, Counter> counters = isTrusted ? boundMeters.trustedCountersByRule : boundMeters.suspiciousCountersByRule;
+        Counter counter = counters.get(rule);
+        if (null == counter) {
+            counter = counters.computeIfAbsent(rule, name -> verdictCounter(boundMeters.registry, isTrusted ? "trusted" : "suspicious", name));
+        }
+        counter.increment();
+    }
+
+    public static void addInFlight(int delta) {
+        IN_FLIGHT.addAndGet(delta);
+    }
+
+    private static final class Meters {
+
+        private final MeterRegistry registry;
+        private final Timer[] stageTimers = new Timer[Stage.values().length];
+        private final Counter[] cacheLookupCounters = new Counter[CacheResult.values().length];
+        private final Counter fallbackCounter;
+        private final Counter[] trustedCounters = new Counter[Rule.values().length];
+        private final Counter[] suspiciousCounters = new Counter[Rule.values().length];
+        private final Map<String, Counter> trustedCountersByRule = new ConcurrentHashMap<>();
+        private final Map<String, Counter> suspiciousCountersByRule = new ConcurrentHashMap<>();
+
+        private Meters(MeterRegistry registry) {
+            this.registry = registry;
+            for (Stage stage : Stage.values()) {
+                stageTimers[stage.ordinal()] = Timer.builder(STAGE_TIMER)
+                        .description("Time spent in a stage of the payment pipeline")
+                        .tag("stage", stage.tag)
+                        .register(registry);
+            }
+            for (CacheResult cacheResult : CacheResult.values()) {
+                cacheLookupCounters[cacheResult.ordinal()] = Counter.builder(CACHE_LOOKUP_COUNTER)
+                        .description("Last payment lookups in the cache by result")
+                        .tag("result", cacheResult.tag)
+                        .register(registry);
+            }
+            fallbackCounter = Counter.builder(FALLBACK_COUNTER)
+                    .description("Deprecated cached payments used while payment-service is unavailable")
+                    .register(registry);
+            for (Rule rule : Rule.values()) {
+                trustedCounters[rule.ordinal()] = verdictCounter(registry, "trusted", rule.tag);
+                suspiciousCounters[rule.ordinal()] = verdictCounter(registry, "suspicious", rule.tag);
+            }
+            Gauge.builder(IN_FLIGHT_GAUGE, IN_FLIGHT, AtomicInteger::get)
+                    .description("Payments being analyzed")
+                    .tag("stage", "analyze")
+                    .strongReference(true)
+                    .register(registry);
+        }
+    }
+
+    private static Counter verdictCounter(MeterRegistry registry, String verdict, String rule) {
+        return Counter.builder(VERDICT_COUNTER)
+                .description("Payment verdicts by the rule that decided them")
+                .tag("verdict", verdict)
+                .tag("rule", rule)
+                .register(registry);
+    }
+
+    public enum Stage {
+        /**
+         * Processing of a consumed record, from the listener call to the return.
+         */
+        CONSUME("consume"),
+        /**
+         * Processing of a consumed batch.
+         */
+        CONSUME_BATCH("consume.batch"),
+        CACHE_LOOKUP("cache.lookup"),
+        CACHE_BULK_LOOKUP("cache.bulkLookup"),
+        LOOKUP("paymentService.lookup"),
+        BULK_LOOKUP("paymentService.bulkLookup"),
+        /**
+         * The rule check of a payment, by {@code PaymentRuleEngine} or {@code SimplePaymentAnalyzer}.
+         */
+        CHECK("check"),
+        SAVE("paymentService.save"),
+        BULK_SAVE("paymentService.bulkSave"),
+        CACHE_WRITE("cache.write"),
+        CACHE_BULK_WRITE("cache.bulkWrite"),
+        /**
+         * Time from a send to its acknowledgement by the broker.
+         */
+        SEND("kafka.send"),
+        /**
+         * Time from the start of a send batch to the acknowledgement of its last send.
+         */
+        SEND_BATCH("kafka.sendBatch"),
+        /**
+         * Restore of the local store partitions assigned in a rebalance.
+         */
+        STORE_RESTORE("localStore.restore"),
+        /**
+         * Warm-up of the partitions assigned to the consumer for the first time after the start.
+         */
+        WARM_UP_STARTUP("warmUp.startup"),
+        /**
+         * Warm-up of the partitions assigned in a later rebalance.
+         */
+        WARM_UP_REBALANCE("warmUp.rebalance");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    public enum CacheResult {
+        /**
+         * The last payment is found in the local store, no network call is made.
+         */
+        LOCAL("local"),
+        HIT("hit"),
+        MISS("miss"),
+        /**
+         * The cached payment is deprecated and the last payment is requested from payment-service.
+         */
+        STALE("stale");
+
+        private final String tag;
+
+        CacheResult(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    public enum Rule {
+        PAYER_CARD_NUMBER("payerCardNumber"),
+        RECEIVER_CARD_NUMBER("receiverCardNumber"),
+        FUTURE_DATE("futureDate"),
+        LOOKUP_REJECTED("lookupRejected"),
+        FIRST_PAYMENT("firstPayment");
+
+        private final String tag;
+
+        Rule(String tag) {
+            this.tag = tag;
+        }
+    }
+}
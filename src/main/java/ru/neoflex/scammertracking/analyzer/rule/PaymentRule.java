@@ -0,0 +1,64 @@
+package ru.neoflex.scammertracking.analyzer.rule;
+
+import java.time.Duration;
+
+/**
+ * Compiled rule of a {@link PaymentRuleSet}. A rule applies to the payments of the card made within {@code window}
+ * before the checked payment, the meaning of {@code limit} depends on the type.
+ */
+public final class PaymentRule {
+
+    private final String name;
+    private final Type type;
+    private final Duration window;
+    private final long windowNanos;
+    private final double limit;
+
+    public PaymentRule(String name, Type type, Duration window, double limit) {
+        this.name = name;
+        this.type = type;
+        this.window = window;
+        this.windowNanos = window.toNanos();
+        this.limit = limit;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Duration getWindow() {
+        return window;
+    }
+
+    public long getWindowNanos() {
+        return windowNanos;
+    }
+
+    public double getLimit() {
+        return limit;
+    }
+
+    @Override
+    public String toString() {
+        return name + "{type=" + type + ", window=" + window + ", limit=" + limit + "}";
+    }
+
+    public enum Type {
+        /**
+         * The payment is at most {@code limit} kilometers away from every payment within the window.
+         */
+        DISTANCE,
+        /**
+         * The card makes at most {@code limit} payments within the window, the checked one included.
+         */
+        VELOCITY,
+        /**
+         * The card pays at most {@code limit} distinct receivers within the window, the checked payment included.
+         */
+        RECEIVERS
+    }
+}
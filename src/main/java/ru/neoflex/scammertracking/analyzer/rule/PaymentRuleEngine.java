@@ -0,0 +1,118 @@
+package ru.neoflex.scammertracking.analyzer.rule;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.logging.PaymentTracing;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics.Stage;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Checks payments against the rules of a {@link PaymentRuleSet}, enabled with {@code paymentRules.enabled}.
+ * Each card has a {@link PaymentWindow} of its recent trusted payments, so a payment is compared with all of them and
+ * not only with the last one. The window of a card is seeded with the last payment found by the analyzer, which also
+ * brings in payments analyzed by another instance. Windows of idle cards expire and are bounded in number.
+ * <p>
+ * {@link #reload} swaps the rules between two payments, the listener keeps running. Only rules read from a file can be
+ * reloaded: the default {@code classpath:} location is packaged in the application jar and does not change.
+ */
+@Slf4j
+public class PaymentRuleEngine {
+
+    private final Resource location;
+    private final Cache<String, PaymentWindow> windows;
+    private final Function<String, PaymentWindow> windowFactory = payerCardNumber -> new PaymentWindow(getRuleSet().getWindowSize());
+
+    private volatile PaymentRuleSet ruleSet;
+
+    /**
+     * @param location YAML rules file, see {@link PaymentRuleSet#load}
+     */
+    public PaymentRuleEngine(Resource location, long maxCards, Duration idleExpiry) throws IOException {
+        this.location = location;
+        this.windows = Caffeine.newBuilder()
+                .maximumSize(maxCards)
+                .expireAfterAccess(idleExpiry)
+                .build();
+        this.ruleSet = PaymentRuleSet.load(location);
+        log.info("Loaded payment rules from {}: {}", location.getDescription(), ruleSet.getRules());
+    }
+
+    public PaymentRuleSet getRuleSet() {
+        return ruleSet;
+    }
+
+    /**
+     * Reads the rules file again. Invalid rules are rejected and the current rules stay in place.
+     *
+     * @throws IllegalStateException if the rules were not read from a file
+     */
+    public PaymentRuleSet reload() throws IOException {
+        if (!location.isFile()) {
+            throw new IllegalStateException("The payment rules " + location.getDescription()
+                    + " are not a file and cannot be reloaded, set paymentRules.location to a file: location");
+        }
+        return reload(PaymentRuleSet.load(location));
+    }
+
+    public synchronized PaymentRuleSet reload(PaymentRuleSet newRuleSet) {
+        boolean isWindowResized = newRuleSet.getWindowSize() != ruleSet.getWindowSize();
+        ruleSet = newRuleSet;
+        // windows are seeded again from the last payment of the card
+        if (isWindowResized) {
+            windows.invalidateAll();
+        }
+        log.info("Reloaded payment rules: {}", newRuleSet.getRules());
+        return newRuleSet;
+    }
+
+    /**
+     * @return true if the payment passes every rule, it is then added to the window of the card
+     */
+    public boolean checkPayment(LastPaymentResponseDto lastPayment, PaymentRequestDto currentPayment) {
+        long startNanos = System.nanoTime();
+        boolean isTraced = PaymentTracing.isTraced(currentPayment.getPayerCardNumber());
+        if (isTraced) {
+            log.info("Received for check payment. lastPayment={ id={}, date={} }, currentPayment={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date={} }",
+                    lastPayment.getId(), lastPayment.getDate(), currentPayment.getId(), currentPayment.getPayerCardNumber(), currentPayment.getReceiverCardNumber(), currentPayment.getCoordinates().getLatitude(), currentPayment.getCoordinates().getLongitude(), currentPayment.getDate());
+        }
+
+        PaymentRuleSet rules = ruleSet;
+        long lastTimeNanos = PaymentWindow.toEpochNanos(lastPayment.getDate());
+        long timeNanos = PaymentWindow.toEpochNanos(currentPayment.getDate());
+        PaymentRule violatedRule;
+        PaymentWindow window = windows.get(currentPayment.getPayerCardNumber(), windowFactory);
+        synchronized (window) {
+            if (0 == window.size() || lastTimeNanos > window.getTimeNanos(0)) {
+                window.add(lastTimeNanos, lastPayment.getCoordinates().getLatitude(), lastPayment.getCoordinates().getLongitude(),
+                        lastPayment.getReceiverCardNumber(), lastPayment.getGeoCell());
+            }
+            violatedRule = rules.evaluate(window, timeNanos, currentPayment.getCoordinates().getLatitude(),
+                    currentPayment.getCoordinates().getLongitude(), currentPayment.getReceiverCardNumber());
+            if (null == violatedRule) {
+                window.add(timeNanos, currentPayment.getCoordinates().getLatitude(), currentPayment.getCoordinates().getLongitude(),
+                        currentPayment.getReceiverCardNumber());
+            }
+        }
+
+        boolean isTrusted = null == violatedRule;
+        if (isTraced) {
+            if (isTrusted) {
+                log.info("The payment with id={} is trusted", currentPayment.getId());
+            } else {
+                log.warn("The payment with id={} is suspicious by rule {}", currentPayment.getId(), violatedRule);
+            }
+        }
+        PaymentMetrics.recordVerdict(isTrusted, isTrusted ? PaymentMetrics.PASSED_RULE : violatedRule.getName());
+        PaymentMetrics.recordStage(Stage.CHECK, startNanos);
+
+        return isTrusted;
+    }
+}
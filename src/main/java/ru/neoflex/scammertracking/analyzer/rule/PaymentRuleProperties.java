@@ -0,0 +1,81 @@
+package ru.neoflex.scammertracking.analyzer.rule;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rules file bound under {@code paymentRules}, compiled with {@link PaymentRuleSet#compile}.
+ */
+public class PaymentRuleProperties {
+
+    // number of recent payments kept for each card
+    private int windowSize = PaymentRuleSet.DEFAULT_WINDOW_SIZE;
+    private List<Definition> rules = new ArrayList<>();
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public List<Definition> getRules() {
+        return rules;
+    }
+
+    public void setRules(List<Definition> rules) {
+        this.rules = rules;
+    }
+
+    public static class Definition {
+
+        public Definition(String name, PaymentRule.Type type, Duration window, double limit) {
+            this.name = name;
+            this.type = type;
+            this.window = window;
+            this.limit = limit;
+        }
+
+        public Definition() {
+        }
+
+        private String name;
+        private PaymentRule.Type type;
+        private Duration window;
+        private double limit;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public PaymentRule.Type getType() {
+            return type;
+        }
+
+        public void setType(PaymentRule.Type type) {
+            this.type = type;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public void setWindow(Duration window) {
+            this.window = window;
+        }
+
+        public double getLimit() {
+            return limit;
+        }
+
+        public void setLimit(double limit) {
+            this.limit = limit;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package ru.neoflex.scammertracking.analyzer.rule;
+
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.Resource;
+import ru.neoflex.scammertracking.analyzer.geo.GeoCell;
+import ru.neoflex.scammertracking.analyzer.geo.GeoCoordinates;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable set of rules compiled from {@link PaymentRuleProperties}. Rules are grouped by type into arrays, so
+ * {@link #evaluate} walks the window without allocating: the distance to each payment in the window is computed once,
+ * against the smallest limit of the distance rules whose window covers it. A payment in a {@link GeoCell} neighboring
+ * the cell of the earlier one passes a limit of at least the neighborhood diameter without computing the distance.
+ */
+public final class PaymentRuleSet {
+
+    public static final int DEFAULT_WINDOW_SIZE = 16;
+
+    private final int windowSize;
+    private final List<PaymentRule> rules;
+    private final PaymentRule[] distanceRules;
+    private final PaymentRule[] velocityRules;
+    private final PaymentRule[] receiverRules;
+    private final long maxDistanceWindowNanos;
+
+    private PaymentRuleSet(int windowSize, List<PaymentRule> rules) {
+        this.windowSize = windowSize;
+        this.rules = List.copyOf(rules);
+        this.distanceRules = ofType(rules, PaymentRule.Type.DISTANCE);
+        this.velocityRules = ofType(rules, PaymentRule.Type.VELOCITY);
+        this.receiverRules = ofType(rules, PaymentRule.Type.RECEIVERS);
+        long maxWindowNanos = Long.MIN_VALUE;
+        for (PaymentRule rule : distanceRules) {
+            maxWindowNanos = Math.max(maxWindowNanos, rule.getWindowNanos());
+        }
+        this.maxDistanceWindowNanos = maxWindowNanos;
+    }
+
+    public static PaymentRuleSet compile(PaymentRuleProperties properties) {
+        if (properties.getWindowSize() < 1) {
+            throw new IllegalArgumentException("windowSize must be positive");
+        }
+        Set<String> names = new HashSet<>();
+        List<PaymentRule> rules = new ArrayList<>();
+        for (PaymentRuleProperties.Definition definition : properties.getRules()) {
+            if (null == definition.getName() || definition.getName().isBlank()) {
+                throw new IllegalArgumentException("Rule name is required");
+            }
+            if (!names.add(definition.getName())) {
+                throw new IllegalArgumentException("Duplicate rule " + definition.getName());
+            }
+            if (null == definition.getType()) {
+                throw new IllegalArgumentException("Rule " + definition.getName() + " has no type");
+            }
+            if (null == definition.getWindow() || definition.getWindow().isNegative() || definition.getWindow().isZero()) {
+                throw new IllegalArgumentException("Rule " + definition.getName() + " must have a positive window");
+            }
+            if (definition.getLimit() <= 0) {
+                throw new IllegalArgumentException("Rule " + definition.getName() + " must have a positive limit");
+            }
+            rules.add(new PaymentRule(definition.getName(), definition.getType(), definition.getWindow(), definition.getLimit()));
+        }
+        return new PaymentRuleSet(properties.getWindowSize(), rules);
+    }
+
+    /**
+     * Reads a YAML rules file, the rules are bound from the {@code paymentRules} prefix.
+     */
+    public static PaymentRuleSet load(Resource resource) throws IOException {
+        List<PropertySource<?>> propertySources = new YamlPropertySourceLoader().load(resource.getDescription(), resource);
+        PaymentRuleProperties properties = new Binder(ConfigurationPropertySources.from(propertySources))
+                .bind("payment-rules", PaymentRuleProperties.class)
+                .orElseThrow(() -> new IllegalArgumentException("No paymentRules in " + resource.getDescription()));
+        return compile(properties);
+    }
+
+    /**
+     * The thresholds the analyzer has always applied: the shorter the time since a payment, the closer the next one
+     * must be. Equal to the rules of {@code payment-rules.yaml}.
+     */
+    public static PaymentRuleSet defaultRules() {
+        PaymentRuleProperties properties = new PaymentRuleProperties();
+        properties.setRules(List.of(
+                new PaymentRuleProperties.Definition("withinSecond", PaymentRule.Type.DISTANCE, Duration.ofSeconds(1), 1),
+                new PaymentRuleProperties.Definition("withinMinute", PaymentRule.Type.DISTANCE, Duration.ofMinutes(1), 50),
+                new PaymentRuleProperties.Definition("withinHour", PaymentRule.Type.DISTANCE, Duration.ofHours(1), 10000)));
+        return compile(properties);
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public List<PaymentRule> getRules() {
+        return rules;
+    }
+
+    /**
+     * Checks a payment against the earlier payments of its card. A payment dated before an earlier one is within
+     * every window.
+     *
+     * @param timeNanos time of the payment, {@link PaymentWindow#toEpochNanos}
+     * @return the first violated rule, distance rules first, or null if the payment passes every rule
+     */
+    public PaymentRule evaluate(PaymentWindow window, long timeNanos, double latitude, double longitude, String receiverCardNumber) {
+        int size = window.size();
+        long geoCell = distanceRules.length > 0 ? GeoCell.of(latitude, longitude) : GeoCell.NONE;
+
+        for (int i = 0; i < size; i++) {
+            long gapNanos = timeNanos - window.getTimeNanos(i);
+            if (gapNanos > maxDistanceWindowNanos) {
+                continue;
+            }
+            PaymentRule distanceRule = null;
+            for (PaymentRule rule : distanceRules) {
+                if (gapNanos <= rule.getWindowNanos() && (null == distanceRule || rule.getLimit() < distanceRule.getLimit())) {
+                    distanceRule = rule;
+                }
+            }
+            if (null != distanceRule && !GeoCell.isWithin(window.getGeoCell(i), geoCell, distanceRule.getLimit())
+                    && GeoCoordinates.isFartherThan(window.getLatitude(i), window.getLongitude(i), latitude, longitude, distanceRule.getLimit())) {
+                return distanceRule;
+            }
+        }
+
+        for (PaymentRule rule : velocityRules) {
+            int count = 1;
+            for (int i = 0; i < size; i++) {
+                if (timeNanos - window.getTimeNanos(i) <= rule.getWindowNanos()) {
+                    count++;
+                }
+            }
+            if (count > rule.getLimit()) {
+                return rule;
+            }
+        }
+
+        for (PaymentRule rule : receiverRules) {
+            long fromNanos = timeNanos - rule.getWindowNanos();
+            int count = 1;
+            for (int i = 0; i < size; i++) {
+                if (window.getTimeNanos(i) >= fromNanos && isNewReceiver(window, i, fromNanos, receiverCardNumber)) {
+                    count++;
+                }
+            }
+            if (count > rule.getLimit()) {
+                return rule;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return whether the receiver of the i-th payment differs from the checked one and from the receivers of the
+     * more recent payments within the window; a payment of unknown receiver, e.g. seeded from a store that does not
+     * keep it, is not counted
+     */
+    private static boolean isNewReceiver(PaymentWindow window, int i, long fromNanos, String receiverCardNumber) {
+        String receiver = window.getReceiverCardNumber(i);
+        if (null == receiver || Objects.equals(receiver, receiverCardNumber)) {
+            return false;
+        }
+        for (int j = 0; j < i; j++) {
+            if (window.getTimeNanos(j) >= fromNanos && Objects.equals(receiver, window.getReceiverCardNumber(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static PaymentRule[] ofType(List<PaymentRule> rules, PaymentRule.Type type) {
+        return rules.stream()
+                .filter(rule -> type == rule.getType())
+                .toArray(PaymentRule[]::new);
+    }
+}
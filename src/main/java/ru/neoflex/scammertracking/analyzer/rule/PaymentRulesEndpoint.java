@@ -0,0 +1,33 @@
+package ru.neoflex.scammertracking.analyzer.rule;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * {@code GET /actuator/paymentrules} lists the rules in use, {@code POST /actuator/paymentrules} reloads the rules file.
+ * Reloading needs {@code paymentRules.location} to be a {@code file:} location. Like {@code paymenttracing}, the endpoint
+ * is not exposed by default.
+ */
+@Endpoint(id = "paymentrules")
+public class PaymentRulesEndpoint {
+
+    private final PaymentRuleEngine paymentRuleEngine;
+
+    public PaymentRulesEndpoint(PaymentRuleEngine paymentRuleEngine) {
+        this.paymentRuleEngine = paymentRuleEngine;
+    }
+
+    @ReadOperation
+    public List<PaymentRule> rules() {
+        return paymentRuleEngine.getRuleSet().getRules();
+    }
+
+    @WriteOperation
+    public List<PaymentRule> reload() throws IOException {
+        return paymentRuleEngine.reload().getRules();
+    }
+}
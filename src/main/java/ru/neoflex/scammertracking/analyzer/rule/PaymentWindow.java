@@ -0,0 +1,96 @@
+package ru.neoflex.scammertracking.analyzer.rule;
+
+import ru.neoflex.scammertracking.analyzer.geo.GeoCell;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Ring buffer of the recent payments of one card, the oldest payment is overwritten when the window is full.
+ * Entries are indexed from the most recently added one. Not thread-safe.
+ */
+public final class PaymentWindow {
+
+    private final long[] timeNanos;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final long[] geoCells;
+    private final String[] receiverCardNumbers;
+    private int size;
+    private int next;
+
+    public PaymentWindow(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.timeNanos = new long[capacity];
+        this.latitudes = new double[capacity];
+        this.longitudes = new double[capacity];
+        this.geoCells = new long[capacity];
+        this.receiverCardNumbers = new String[capacity];
+    }
+
+    public static long toEpochNanos(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + dateTime.getNano();
+    }
+
+    public void add(long timeNanos, double latitude, double longitude, String receiverCardNumber) {
+        add(timeNanos, latitude, longitude, receiverCardNumber, GeoCell.NONE);
+    }
+
+    /**
+     * @param geoCell the {@link GeoCell} of the location if already known, {@link GeoCell#NONE} to compute it
+     */
+    public void add(long timeNanos, double latitude, double longitude, String receiverCardNumber, long geoCell) {
+        this.timeNanos[next] = timeNanos;
+        this.latitudes[next] = latitude;
+        this.longitudes[next] = longitude;
+        this.geoCells[next] = GeoCell.NONE != geoCell ? geoCell : GeoCell.of(latitude, longitude);
+        this.receiverCardNumbers[next] = receiverCardNumber;
+        next = next + 1 == capacity() ? 0 : next + 1;
+        if (size < capacity()) {
+            size++;
+        }
+    }
+
+    public void clear() {
+        size = 0;
+        next = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return timeNanos.length;
+    }
+
+    /**
+     * @param i 0 for the most recently added payment
+     */
+    public long getTimeNanos(int i) {
+        return timeNanos[indexOf(i)];
+    }
+
+    public double getLatitude(int i) {
+        return latitudes[indexOf(i)];
+    }
+
+    public double getLongitude(int i) {
+        return longitudes[indexOf(i)];
+    }
+
+    public long getGeoCell(int i) {
+        return geoCells[indexOf(i)];
+    }
+
+    public String getReceiverCardNumber(int i) {
+        return receiverCardNumbers[indexOf(i)];
+    }
+
+    private int indexOf(int i) {
+        int index = next - 1 - i;
+        return index < 0 ? index + capacity() : index;
+    }
+}
@@ -2,6 +2,10 @@ package ru.neoflex.scammertracking.analyzer.service;
 
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
 
+import java.util.List;
+
 public interface PaymentAnalyzer {
     void analyzeConsumeMessage(String key, PaymentRequestDto paymentRequest) throws Exception;
+
+    void analyzeConsumeMessages(List<PaymentRequestDto> paymentRequests) throws Exception;
 }
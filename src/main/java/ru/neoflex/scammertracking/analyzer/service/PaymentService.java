@@ -3,8 +3,13 @@ package ru.neoflex.scammertracking.analyzer.service;
 import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public interface PaymentService {
     LastPaymentResponseDto getLastPayment(PaymentRequestDto paymentRequest, AtomicBoolean isCachedDateDeprecated) throws RuntimeException, Exception;
+
+    Map<String, LastPaymentResponseDto> getLastPayments(Collection<String> payerCardNumbers, Set<String> deprecatedCardNumbers) throws RuntimeException;
 }
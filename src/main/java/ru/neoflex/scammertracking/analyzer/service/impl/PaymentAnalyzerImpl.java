@@ -2,26 +2,43 @@ package ru.neoflex.scammertracking.analyzer.service.impl;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import ru.neoflex.scammertracking.analyzer.dao.PaymentCacheDao;
+import ru.neoflex.scammertracking.analyzer.dedup.PaymentDeduplicator;
 import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
 import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
 import ru.neoflex.scammertracking.analyzer.error.exception.BadRequestException;
 import ru.neoflex.scammertracking.analyzer.error.exception.NotFoundException;
+import ru.neoflex.scammertracking.analyzer.error.exception.PaymentServiceUnavailableException;
 import ru.neoflex.scammertracking.analyzer.feign.FeignService;
 import ru.neoflex.scammertracking.analyzer.geo.SimplePaymentAnalyzer;
 import ru.neoflex.scammertracking.analyzer.kafka.producer.PaymentProducer;
+import ru.neoflex.scammertracking.analyzer.logging.PaymentTracing;
+import ru.neoflex.scammertracking.analyzer.logging.PaymentTracing.Outcome;
+import ru.neoflex.scammertracking.analyzer.mapper.PaymentMapper;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics.Rule;
+import ru.neoflex.scammertracking.analyzer.rule.PaymentRuleEngine;
 import ru.neoflex.scammertracking.analyzer.service.PaymentAnalyzer;
 import ru.neoflex.scammertracking.analyzer.service.PaymentService;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
@@ -33,104 +50,310 @@ public class PaymentAnalyzerImpl implements PaymentAnalyzer {
     private final PaymentService paymentService;
     private final PaymentCacheDao paymentCacheDao;
     private final PaymentProducer paymentProducer;
-    private final ModelMapper modelMapper;
+    private PaymentWriteBehind paymentWriteBehind;
+    private PaymentRuleEngine paymentRuleEngine;
+    private PaymentDeduplicator paymentDeduplicator;
 
     @Value("${spring.kafka.topic.suspicious-payments}")
     private String suspiciousPaymentsTopic;
     @Value("${spring.kafka.topic.checked-payments}")
     private String checkedPaymentsTopic;
 
+    @Autowired(required = false)
+    public void setPaymentWriteBehind(PaymentWriteBehind paymentWriteBehind) {
+        this.paymentWriteBehind = paymentWriteBehind;
+    }
+
+    @Autowired(required = false)
+    public void setPaymentRuleEngine(PaymentRuleEngine paymentRuleEngine) {
+        this.paymentRuleEngine = paymentRuleEngine;
+    }
+
+    @Autowired(required = false)
+    public void setPaymentDeduplicator(PaymentDeduplicator paymentDeduplicator) {
+        this.paymentDeduplicator = paymentDeduplicator;
+    }
+
     @Override
     public void analyzeConsumeMessage(String key, PaymentRequestDto paymentRequest) throws Exception {
-        log.info("received key={} paymentRequest={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
-                key, paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(), paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(), paymentRequest.getDate());
+        long startNanos = System.nanoTime();
+        if (null != paymentDeduplicator && paymentDeduplicator.isProcessed(paymentRequest.getId())) {
+            PaymentTracing.logSummary(paymentRequest.getId(), paymentRequest.getPayerCardNumber(), Outcome.DUPLICATE, startNanos);
+            return;
+        }
+
+        Outcome outcome = Outcome.FAILED;
+        try {
+            outcome = analyze(key, paymentRequest);
+            if (null != paymentDeduplicator && null != paymentWriteBehind) {
+                // a payment whose verdict is not written is consumed again, it must not be skipped as a duplicate
+                paymentWriteBehind.getLastWrite().thenRun(() -> markProcessed(List.of(paymentRequest.getId())));
+            } else if (null != paymentDeduplicator) {
+                markProcessed(List.of(paymentRequest.getId()));
+            }
+        } finally {
+            PaymentTracing.logSummary(paymentRequest.getId(), paymentRequest.getPayerCardNumber(), outcome, startNanos);
+        }
+    }
 
-        PaymentResponseDto paymentResult = modelMapper.map(paymentRequest, PaymentResponseDto.class);
+    private Outcome analyze(String key, PaymentRequestDto paymentRequest) throws Exception {
+        boolean isTraced = PaymentTracing.isTraced(paymentRequest.getPayerCardNumber());
+        if (isTraced) {
+            log.info("received key={} paymentRequest={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
+                    key, paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(), paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(), paymentRequest.getDate());
+        }
+
+        PaymentResponseDto paymentResult = PaymentMapper.toPaymentResponse(paymentRequest, null);
         AtomicBoolean isCacheDeprecated = new AtomicBoolean();
 
         boolean isTrusted;
         if (checkSuspicious(paymentRequest)) {
-            log.info("response. Sent message with key={} in topic={}", key, suspiciousPaymentsTopic);
+            if (isTraced) {
+                log.info("response. Sent message with key={} in topic={}", key, suspiciousPaymentsTopic);
+            }
             paymentResult.setTrusted(false);
             paymentProducer.sendMessage(suspiciousPaymentsTopic, paymentResult);
-            return;
+            return Outcome.INVALID;
         }
 
         LastPaymentResponseDto lastPayment = null;
         try {
             lastPayment = paymentService.getLastPayment(paymentRequest, isCacheDeprecated);
         } catch (BadRequestException | NotFoundException e) {
-            paymentResult = modelMapper.map(paymentRequest, PaymentResponseDto.class);
             paymentResult.setTrusted(false);
             paymentProducer.sendMessage(suspiciousPaymentsTopic, paymentResult);
-            log.warn("sent message with key={} in topic {}", key, suspiciousPaymentsTopic);
-            return;
+            if (isTraced) {
+                log.warn("sent message with key={} in topic {}", key, suspiciousPaymentsTopic);
+            }
+            PaymentMetrics.recordVerdict(false, Rule.LOOKUP_REJECTED);
+            return Outcome.LOOKUP_REJECTED;
+        } catch (PaymentServiceUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             log.error(e.getMessage());
             throw new Exception(e.getMessage());
         }
 
-        isTrusted = SimplePaymentAnalyzer.checkPayment(lastPayment, paymentRequest);
+        if (null == lastPayment) {
+            if (isTraced) {
+                log.info("The payment with id={} is the first payment of the card, it was already routed", paymentRequest.getId());
+            }
+            PaymentMetrics.recordVerdict(true, Rule.FIRST_PAYMENT);
+            return Outcome.FIRST_PAYMENT;
+        }
+
+        isTrusted = checkPayment(lastPayment, paymentRequest);
         paymentResult.setTrusted(isTrusted);
 
         routePayment(isTrusted, isCacheDeprecated, paymentRequest, paymentResult);
+        return isTrusted ? Outcome.TRUSTED : Outcome.SUSPICIOUS;
+    }
+
+    @Override
+    public void analyzeConsumeMessages(List<PaymentRequestDto> consumedRequests) throws Exception {
+        log.info("received batch of {} payments", consumedRequests.size());
+        List<PaymentRequestDto> paymentRequests = null != paymentDeduplicator ? skipProcessed(consumedRequests) : consumedRequests;
+
+        boolean[] suspicious = new boolean[paymentRequests.size()];
+        Set<String> payerCardNumbers = new LinkedHashSet<>();
+        for (int i = 0; i < paymentRequests.size(); i++) {
+            suspicious[i] = checkSuspicious(paymentRequests.get(i));
+            if (!suspicious[i]) {
+                payerCardNumbers.add(paymentRequests.get(i).getPayerCardNumber());
+            }
+        }
+
+        Set<String> deprecatedCardNumbers = new HashSet<>();
+        Map<String, LastPaymentResponseDto> lastPayments = payerCardNumbers.isEmpty()
+                ? new HashMap<>()
+                : paymentService.getLastPayments(payerCardNumbers, deprecatedCardNumbers);
+
+        // verdicts of the batch are acknowledged together, the listener does not wait for them
+        PaymentProducer.SendBatch sendBatch = paymentProducer.beginBatch();
+        try {
+            // records are routed in poll order, so verdicts of one partition keep the order of the payments
+            for (int i = 0; i < paymentRequests.size(); i++) {
+                long paymentStartNanos = System.nanoTime();
+                PaymentRequestDto paymentRequest = paymentRequests.get(i);
+                PaymentResponseDto paymentResult = PaymentMapper.toPaymentResponse(paymentRequest, null);
+                if (suspicious[i]) {
+                    paymentResult.setTrusted(false);
+                    paymentProducer.sendMessage(suspiciousPaymentsTopic, paymentResult);
+                    PaymentTracing.logSummary(paymentRequest.getId(), paymentRequest.getPayerCardNumber(), Outcome.INVALID, paymentStartNanos);
+                    continue;
+                }
+
+                String payerCardNumber = paymentRequest.getPayerCardNumber();
+                LastPaymentResponseDto lastPayment = lastPayments.get(payerCardNumber);
+                boolean isCached;
+                Outcome outcome;
+                if (null == lastPayment) {
+                    paymentResult.setTrusted(false);
+                    isCached = routePayment(true, new AtomicBoolean(true), paymentRequest, paymentResult);
+                    outcome = Outcome.FIRST_PAYMENT;
+                    PaymentMetrics.recordVerdict(true, Rule.FIRST_PAYMENT);
+                } else {
+                    boolean isTrusted = checkPayment(lastPayment, paymentRequest);
+                    paymentResult.setTrusted(isTrusted);
+                    isCached = routePayment(isTrusted, new AtomicBoolean(deprecatedCardNumbers.contains(payerCardNumber)), paymentRequest, paymentResult);
+                    outcome = isTrusted ? Outcome.TRUSTED : Outcome.SUSPICIOUS;
+                }
+                // the time of the batch lookup is shared by the batch and is not counted in the payment
+                PaymentTracing.logSummary(paymentRequest.getId(), payerCardNumber, outcome, paymentStartNanos);
+
+                // later payments of the card in this batch see the cache exactly as they would in record mode
+                if (isCached) {
+                    lastPayments.put(payerCardNumber, PaymentMapper.toLastPaymentResponse(paymentRequest));
+                    deprecatedCardNumbers.remove(payerCardNumber);
+                }
+            }
+        } finally {
+            sendBatch.close();
+        }
+
+        // offsets of the batch are committed when the listener returns, so the batch waits for its own writes
+        if (null != paymentWriteBehind) {
+            try {
+                paymentWriteBehind.getLastWrite().join();
+            } catch (CompletionException e) {
+                log.error(e.getCause().getMessage());
+                throw new Exception(e.getCause().getMessage());
+            }
+        }
+        if (null != paymentDeduplicator) {
+            markProcessed(paymentRequests.stream().map(PaymentRequestDto::getId).toList());
+        }
+    }
+
+    /**
+     * Marks the payments processed, inside a Kafka transaction of the listener only once it is committed: the verdicts
+     * of an aborted transaction are discarded and the redelivered payments must be analyzed again. Without a transaction
+     * the verdicts are already sent, a redelivery after a failed offset commit is a duplicate.
+     */
+    private void markProcessed(List<Long> ids) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            ids.forEach(paymentDeduplicator::markProcessed);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                ids.forEach(paymentDeduplicator::markProcessed);
+            }
+        });
+    }
+
+    /**
+     * @return the payments of the batch not processed yet, a payment repeated in the batch is kept once
+     */
+    private List<PaymentRequestDto> skipProcessed(List<PaymentRequestDto> consumedRequests) {
+        List<PaymentRequestDto> paymentRequests = new ArrayList<>(consumedRequests.size());
+        Set<Long> batchIds = new HashSet<>();
+        for (PaymentRequestDto paymentRequest : consumedRequests) {
+            long startNanos = System.nanoTime();
+            if (!batchIds.add(paymentRequest.getId())) {
+                paymentDeduplicator.recordDuplicate();
+            } else if (!paymentDeduplicator.isProcessed(paymentRequest.getId())) {
+                paymentRequests.add(paymentRequest);
+                continue;
+            }
+            PaymentTracing.logSummary(paymentRequest.getId(), paymentRequest.getPayerCardNumber(), Outcome.DUPLICATE, startNanos);
+        }
+        return paymentRequests;
+    }
+
+    private boolean checkPayment(LastPaymentResponseDto lastPayment, PaymentRequestDto paymentRequest) {
+        return null != paymentRuleEngine
+                ? paymentRuleEngine.checkPayment(lastPayment, paymentRequest)
+                : SimplePaymentAnalyzer.checkPayment(lastPayment, paymentRequest);
     }
 
     private boolean checkSuspicious(PaymentRequestDto paymentRequest) {
-        log.info("Check suspicious. paymentRequest={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
-                paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(), paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(), paymentRequest.getDate());
+        boolean isTraced = PaymentTracing.isTraced(paymentRequest.getPayerCardNumber());
+        if (isTraced) {
+            log.info("Check suspicious. paymentRequest={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
+                    paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(), paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(), paymentRequest.getDate());
+        }
 
         if (paymentRequest.getPayerCardNumber().length() < 6) {
-            log.warn("Result validating. The message is suspicious, because the length of payerCardNumber is too short");
+            if (isTraced) {
+                log.warn("Result validating. The message is suspicious, because the length of payerCardNumber is too short");
+            }
+            PaymentMetrics.recordVerdict(false, Rule.PAYER_CARD_NUMBER);
             return true;
         }
         if (paymentRequest.getReceiverCardNumber().length() < 6) {
-            log.warn("Result validating. The message is suspicious, because the length of receiverCardNumber is too short");
+            if (isTraced) {
+                log.warn("Result validating. The message is suspicious, because the length of receiverCardNumber is too short");
+            }
+            PaymentMetrics.recordVerdict(false, Rule.RECEIVER_CARD_NUMBER);
             return true;
         }
         if (LocalDateTime.now().isBefore(paymentRequest.getDate())) {
-            log.warn("Result validating. The message is suspicious, because date of paymentRequest more than current datetime");
+            if (isTraced) {
+                log.warn("Result validating. The message is suspicious, because date of paymentRequest more than current datetime");
+            }
+            PaymentMetrics.recordVerdict(false, Rule.FUTURE_DATE);
             return true;
         }
 
-        log.info("Result validating. The message is valid");
+        if (isTraced) {
+            log.info("Result validating. The message is valid");
+        }
         return false;
     }
 
-    public void routePayment(boolean isTrusted, AtomicBoolean isCacheDeprecated, PaymentRequestDto paymentRequest, PaymentResponseDto paymentResult) throws Exception {
-        log.info("Received. isTrusted={}, isCacheDeprecated={}.\n PaymentRequest={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }.\n Payment result={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={}, trusted = {}}",
-                isTrusted, isCacheDeprecated, paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(), paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(), paymentRequest.getDate(), paymentResult.getId(), paymentResult.getPayerCardNumber(), paymentResult.getReceiverCardNumber(), paymentRequest.getCoordinates().getLatitude(), paymentResult.getCoordinates().getLongitude(), paymentResult.getDate(), paymentResult.getTrusted());
+    /**
+     * @return true if the payment was saved and written to the cache
+     */
+    public boolean routePayment(boolean isTrusted, AtomicBoolean isCacheDeprecated, PaymentRequestDto paymentRequest, PaymentResponseDto paymentResult) throws Exception {
+        boolean isTraced = PaymentTracing.isTraced(paymentRequest.getPayerCardNumber());
+        if (isTraced) {
+            log.info("Received. isTrusted={}, isCacheDeprecated={}.\n PaymentRequest={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }.\n Payment result={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={}, trusted = {}}",
+                    isTrusted, isCacheDeprecated, paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(), paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(), paymentRequest.getDate(), paymentResult.getId(), paymentResult.getPayerCardNumber(), paymentResult.getReceiverCardNumber(), paymentRequest.getCoordinates().getLatitude(), paymentResult.getCoordinates().getLongitude(), paymentResult.getDate(), paymentResult.getTrusted());
+        }
 
         if (isTrusted) {
+            if (null != paymentWriteBehind) {
+                paymentWriteBehind.submit(paymentRequest, paymentResult, isCacheDeprecated.get());
+                if (isTraced) {
+                    log.info("response. The payment with id={} is queued for saving", paymentRequest.getId());
+                }
+                return isCacheDeprecated.get();
+            }
+
             try {
                 feignService.savePayment(paymentRequest);
             } catch (BadRequestException e) {
                 paymentProducer.sendMessage(suspiciousPaymentsTopic, paymentResult);
-                log.info("Response. Sent message in topic={}, BadRequest because of {}",
-                        suspiciousPaymentsTopic, e.getMessage());
-                return;
+                if (isTraced) {
+                    log.info("Response. Sent message in topic={}, BadRequest because of {}",
+                            suspiciousPaymentsTopic, e.getMessage());
+                }
+                return false;
+            } catch (PaymentServiceUnavailableException e) {
+                throw e;
             } catch (Exception e) {
                 log.info("Internal error");
                 throw new Exception(e.getMessage());
             }
 
             if (isCacheDeprecated.get()) {
-                PaymentEntity paymentEntity = new PaymentEntity(paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(),
-                        paymentRequest.getId(),
-                        paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(),
-                        paymentRequest.getDate(), LocalDateTime.now());
-                if (paymentCacheDao.findPaymentByCardNumber(paymentRequest.getPayerCardNumber()) != null) {
-                    paymentCacheDao.update(paymentEntity);
-                } else {
-                    paymentCacheDao.save(paymentEntity);
-                }
+                PaymentEntity paymentEntity = PaymentMapper.toPaymentEntity(paymentRequest, LocalDateTime.now());
+                paymentCacheDao.update(paymentEntity);
             }
             paymentProducer.sendMessage(checkedPaymentsTopic, paymentResult);
-            log.info("response. Sent message in topic={}", checkedPaymentsTopic);
+            if (isTraced) {
+                log.info("response. Sent message in topic={}", checkedPaymentsTopic);
+            }
+            return isCacheDeprecated.get();
         } else {
             paymentProducer.sendMessage(suspiciousPaymentsTopic, paymentResult);
-            log.info("Response. Sent message in topic={}, because latitude={}, longitude={}",
-                    suspiciousPaymentsTopic, paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude());
+            if (isTraced) {
+                log.info("Response. Sent message in topic={}, because latitude={}, longitude={}",
+                        suspiciousPaymentsTopic, paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude());
+            }
+            return false;
         }
     }
 }
@@ -2,7 +2,6 @@ package ru.neoflex.scammertracking.analyzer.service.impl;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
@@ -11,13 +10,25 @@ import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
 import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
-import ru.neoflex.scammertracking.analyzer.domain.model.Coordinates;
 import ru.neoflex.scammertracking.analyzer.error.exception.NotFoundException;
+import ru.neoflex.scammertracking.analyzer.error.exception.PaymentServiceUnavailableException;
 import ru.neoflex.scammertracking.analyzer.feign.FeignService;
+import ru.neoflex.scammertracking.analyzer.feign.LastPaymentCoalescer;
+import ru.neoflex.scammertracking.analyzer.logging.PaymentTracing;
+import ru.neoflex.scammertracking.analyzer.mapper.PaymentMapper;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics.CacheResult;
 import ru.neoflex.scammertracking.analyzer.service.PaymentAnalyzer;
 import ru.neoflex.scammertracking.analyzer.service.PaymentService;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
@@ -28,56 +39,83 @@ public class PaymentServiceImpl implements PaymentService {
     private final PaymentCacheDao paymentCacheDao;
     private final FeignService feignService;
     private PaymentAnalyzerImpl paymentAnalyzer;
-    private final ModelMapper modelMapper;
+    private LastPaymentCoalescer lastPaymentCoalescer;
+    private PaymentWarmUp paymentWarmUp;
 
     @Autowired
     public void setPaymentAnalyzer(@Lazy PaymentAnalyzerImpl paymentAnalyzer) {
         this.paymentAnalyzer = paymentAnalyzer;
     }
 
+    @Autowired(required = false)
+    public void setLastPaymentCoalescer(LastPaymentCoalescer lastPaymentCoalescer) {
+        this.lastPaymentCoalescer = lastPaymentCoalescer;
+    }
+
+    @Autowired(required = false)
+    public void setPaymentWarmUp(PaymentWarmUp paymentWarmUp) {
+        this.paymentWarmUp = paymentWarmUp;
+    }
+
     public LastPaymentResponseDto getLastPayment(PaymentRequestDto paymentRequest, AtomicBoolean isCachedDateDeprecated) throws Exception {
-        log.info("received cacheDeprecated={} paymentRequest={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
-                isCachedDateDeprecated, paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(), paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(), paymentRequest.getDate());
+        if (PaymentTracing.isTraced(paymentRequest.getPayerCardNumber())) {
+            log.info("received cacheDeprecated={} paymentRequest={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
+                    isCachedDateDeprecated, paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(), paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(), paymentRequest.getDate());
+        }
 
         LastPaymentResponseDto lastPaymentResponse = null;
 
         try {
-            PaymentEntity paymentCacheEntity = paymentCacheDao.findPaymentByCardNumber(paymentRequest.getPayerCardNumber());
+            PaymentEntity paymentCacheEntity = paymentCacheDao.findLocalPaymentByCardNumber(paymentRequest.getPayerCardNumber());
+            boolean isLocal = null != paymentCacheEntity;
+            if (!isLocal) {
+                paymentCacheEntity = paymentCacheDao.findPaymentByCardNumber(paymentRequest.getPayerCardNumber());
+            }
             if (null != paymentCacheEntity) {
-                boolean isDeprecated = LocalDateTime.now().minusDays(1).isAfter(paymentCacheEntity.getDateUpdating());
+                boolean isDeprecated = isDeprecated(paymentCacheEntity, LocalDateTime.now());
                 isCachedDateDeprecated.set(isDeprecated);
+                PaymentMetrics.recordCacheLookup(isDeprecated ? CacheResult.STALE : isLocal ? CacheResult.LOCAL : CacheResult.HIT);
                 if (isCachedDateDeprecated.get()) {
-                    lastPaymentResponse = feignService.getLastPayment(paymentRequest);
-                    log.info("Response. cache is deprecated. Feign service return last payment response={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
-                            lastPaymentResponse.getId(), lastPaymentResponse.getPayerCardNumber(), lastPaymentResponse.getReceiverCardNumber(), lastPaymentResponse.getCoordinates().getLatitude(), lastPaymentResponse.getCoordinates().getLongitude(), lastPaymentResponse.getDate());
+                    try {
+                        lastPaymentResponse = requestLastPayment(paymentRequest);
+                    } catch (PaymentServiceUnavailableException e) {
+                        // the payment is checked against the cached one instead of failing the record, the cache is
+                        // still refreshed when the payment is saved
+                        lastPaymentResponse = PaymentMapper.toLastPaymentResponse(paymentCacheEntity);
+                        PaymentMetrics.recordFallbacks(1);
+                    }
+                    if (PaymentTracing.isTraced(paymentRequest.getPayerCardNumber())) {
+                        log.info("Response. cache is deprecated. Feign service return last payment response={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
+                                lastPaymentResponse.getId(), lastPaymentResponse.getPayerCardNumber(), lastPaymentResponse.getReceiverCardNumber(), lastPaymentResponse.getCoordinates().getLatitude(), lastPaymentResponse.getCoordinates().getLongitude(), lastPaymentResponse.getDate());
+                    }
                 } else {
-                    lastPaymentResponse = LastPaymentResponseDto.builder()
-                            .id(paymentCacheEntity.getIdPayment())
-                            .payerCardNumber(paymentCacheEntity.getPayerCardNumber())
-                            .receiverCardNumber(paymentCacheEntity.getReceiverCardNumber())
-                            .coordinates(new Coordinates(paymentCacheEntity.getLatitude(), paymentCacheEntity.getLongitude()))
-                            .date(paymentCacheEntity.getDatePayment())
-                            .build();
-                    log.info("Response cache. Last payment response={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
-                            lastPaymentResponse.getId(), lastPaymentResponse.getPayerCardNumber(), lastPaymentResponse.getReceiverCardNumber(), lastPaymentResponse.getCoordinates().getLatitude(), lastPaymentResponse.getCoordinates().getLongitude(), lastPaymentResponse.getDate());
+                    lastPaymentResponse = PaymentMapper.toLastPaymentResponse(paymentCacheEntity);
+                    if (PaymentTracing.isTraced(paymentRequest.getPayerCardNumber())) {
+                        log.info("Response cache. Last payment response={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
+                                lastPaymentResponse.getId(), lastPaymentResponse.getPayerCardNumber(), lastPaymentResponse.getReceiverCardNumber(), lastPaymentResponse.getCoordinates().getLatitude(), lastPaymentResponse.getCoordinates().getLongitude(), lastPaymentResponse.getDate());
+                    }
                 }
             } else {
-                lastPaymentResponse = feignService.getLastPayment(paymentRequest);
+                PaymentMetrics.recordCacheLookup(CacheResult.MISS);
+                lastPaymentResponse = requestLastPayment(paymentRequest);
 //                PaymentEntity paymentEntitySave = new PaymentEntity(paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(),
 //                        paymentRequest.getId(),
 //                        paymentRequest.getCoordinates().getLatitude(), paymentRequest.getCoordinates().getLongitude(),
 //                        paymentRequest.getDate(), LocalDateTime.now());
                 isCachedDateDeprecated.set(true);
-                log.info("Response. Cache does not exist. Feign service return last payment response={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
-                        lastPaymentResponse.getId(), lastPaymentResponse.getPayerCardNumber(), lastPaymentResponse.getReceiverCardNumber(), lastPaymentResponse.getCoordinates().getLatitude(), lastPaymentResponse.getCoordinates().getLongitude(), lastPaymentResponse.getDate());
+                if (PaymentTracing.isTraced(paymentRequest.getPayerCardNumber())) {
+                    log.info("Response. Cache does not exist. Feign service return last payment response={ id={}, payerCardNumber={}, receiverCardNumber={}, latitude={}, longitude={}, date ={} }",
+                            lastPaymentResponse.getId(), lastPaymentResponse.getPayerCardNumber(), lastPaymentResponse.getReceiverCardNumber(), lastPaymentResponse.getCoordinates().getLatitude(), lastPaymentResponse.getCoordinates().getLongitude(), lastPaymentResponse.getDate());
+                }
                 //paymentCacheDao.save(paymentEntitySave);
             }
         } catch (NotFoundException e) {
 //            log.error("The payment with cardNumber={} not found", paymentRequest.getPayerCardNumber());
 //            throw new NotFoundException(e.getMessage());
-            PaymentResponseDto paymentResult = modelMapper.map(paymentRequest, PaymentResponseDto.class);
-            paymentResult.setTrusted(false);
+            PaymentResponseDto paymentResult = PaymentMapper.toPaymentResponse(paymentRequest, false);
             paymentAnalyzer.routePayment(true, new AtomicBoolean(true), paymentRequest, paymentResult);
+        } catch (PaymentServiceUnavailableException e) {
+            throw e;
         } catch (RuntimeException e) {
             log.error(e.getMessage());
             throw new RuntimeException(e.getMessage());
@@ -85,4 +123,122 @@ public class PaymentServiceImpl implements PaymentService {
 
         return lastPaymentResponse;
     }
+
+    @Override
+    public Map<String, LastPaymentResponseDto> getLastPayments(Collection<String> payerCardNumbers, Set<String> deprecatedCardNumbers) throws RuntimeException {
+        log.info("received for bulk lookup. payerCardNumbers count={}", payerCardNumbers.size());
+
+        Map<String, PaymentEntity> localPayments = new HashMap<>();
+        List<String> remoteCardNumbers = new ArrayList<>();
+        for (String payerCardNumber : payerCardNumbers) {
+            PaymentEntity localPayment = paymentCacheDao.findLocalPaymentByCardNumber(payerCardNumber);
+            if (null != localPayment) {
+                localPayments.put(payerCardNumber, localPayment);
+            } else {
+                remoteCardNumbers.add(payerCardNumber);
+            }
+        }
+        Map<String, PaymentEntity> paymentCacheEntities = remoteCardNumbers.isEmpty()
+                ? Map.of()
+                : paymentCacheDao.findPaymentsByCardNumbers(remoteCardNumbers);
+
+        Map<String, LastPaymentResponseDto> lastPayments = new HashMap<>();
+        List<String> missedCardNumbers = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        int localCount = 0;
+        int staleCount = 0;
+        for (String payerCardNumber : payerCardNumbers) {
+            PaymentEntity paymentCacheEntity = localPayments.get(payerCardNumber);
+            boolean isLocal = null != paymentCacheEntity;
+            if (!isLocal) {
+                paymentCacheEntity = paymentCacheEntities.get(payerCardNumber);
+            }
+            if (null != paymentCacheEntity && !isDeprecated(paymentCacheEntity, now)) {
+                lastPayments.put(payerCardNumber, PaymentMapper.toLastPaymentResponse(paymentCacheEntity));
+                if (isLocal) {
+                    localCount++;
+                }
+            } else {
+                if (null != paymentCacheEntity) {
+                    staleCount++;
+                }
+                missedCardNumbers.add(payerCardNumber);
+                deprecatedCardNumbers.add(payerCardNumber);
+            }
+        }
+
+        PaymentMetrics.recordCacheLookups(CacheResult.LOCAL, localCount);
+        PaymentMetrics.recordCacheLookups(CacheResult.HIT, payerCardNumbers.size() - missedCardNumbers.size() - localCount);
+        PaymentMetrics.recordCacheLookups(CacheResult.STALE, staleCount);
+        PaymentMetrics.recordCacheLookups(CacheResult.MISS, missedCardNumbers.size() - staleCount);
+
+        List<String> requestedCardNumbers = missedCardNumbers;
+        if (null != paymentWarmUp) {
+            requestedCardNumbers = new ArrayList<>(missedCardNumbers.size());
+            for (String payerCardNumber : missedCardNumbers) {
+                LastPaymentResponseDto prefetchedPayment = paymentWarmUp.takePrefetched(payerCardNumber);
+                if (null != prefetchedPayment) {
+                    lastPayments.put(payerCardNumber, prefetchedPayment);
+                } else {
+                    requestedCardNumbers.add(payerCardNumber);
+                }
+            }
+        }
+        if (!requestedCardNumbers.isEmpty()) {
+            try {
+                lastPayments.putAll(feignService.getLastPayments(requestedCardNumbers));
+            } catch (PaymentServiceUnavailableException e) {
+                useDeprecatedPayments(requestedCardNumbers, localPayments, paymentCacheEntities, lastPayments, e);
+            }
+        }
+
+        log.info("Response. {} last payments from cache, {} requested from payment service",
+                payerCardNumbers.size() - missedCardNumbers.size(), requestedCardNumbers.size());
+        return lastPayments;
+    }
+
+    /**
+     * Falls back to the deprecated cached payments of the cards when payment-service is unavailable. A card without
+     * a cached payment can not be checked, then the whole batch fails.
+     */
+    private void useDeprecatedPayments(List<String> requestedCardNumbers, Map<String, PaymentEntity> localPayments,
+                                       Map<String, PaymentEntity> paymentCacheEntities, Map<String, LastPaymentResponseDto> lastPayments,
+                                       PaymentServiceUnavailableException cause) {
+        Map<String, LastPaymentResponseDto> deprecatedPayments = new HashMap<>();
+        for (String payerCardNumber : requestedCardNumbers) {
+            PaymentEntity paymentCacheEntity = localPayments.getOrDefault(payerCardNumber, paymentCacheEntities.get(payerCardNumber));
+            if (null == paymentCacheEntity) {
+                throw cause;
+            }
+            deprecatedPayments.put(payerCardNumber, PaymentMapper.toLastPaymentResponse(paymentCacheEntity));
+        }
+        lastPayments.putAll(deprecatedPayments);
+        PaymentMetrics.recordFallbacks(deprecatedPayments.size());
+        log.warn("{}, {} deprecated cached payments are used", cause.getMessage(), deprecatedPayments.size());
+    }
+
+    private LastPaymentResponseDto requestLastPayment(PaymentRequestDto paymentRequest) throws RuntimeException {
+        if (null != paymentWarmUp) {
+            LastPaymentResponseDto prefetchedPayment = paymentWarmUp.takePrefetched(paymentRequest.getPayerCardNumber());
+            if (null != prefetchedPayment) {
+                return prefetchedPayment;
+            }
+        }
+        if (null == lastPaymentCoalescer) {
+            return feignService.getLastPayment(paymentRequest);
+        }
+
+        try {
+            return lastPaymentCoalescer.getLastPayment(paymentRequest.getPayerCardNumber()).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private boolean isDeprecated(PaymentEntity paymentCacheEntity, LocalDateTime now) {
+        return now.minusDays(1).isAfter(paymentCacheEntity.getDateUpdating());
+    }
 }
@@ -0,0 +1,231 @@
+package ru.neoflex.scammertracking.analyzer.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import ru.neoflex.scammertracking.analyzer.dao.PaymentCacheDao;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.feign.FeignService;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics.Stage;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Preloads last payments of the cards of newly assigned payments partitions, enabled with {@code warmUp.enabled}.
+ * It runs in the rebalance callback, so the listener resumes only when the preload is done or {@code timeBudgetMillis}
+ * is spent. The cards are taken from the records waiting in the assigned partitions, at most {@code maxCards} of them.
+ * <p>
+ * Cards are preloaded in chunks of {@code chunkSize} on {@code parallelism} threads: the cached payments are read with
+ * one pipelined Redis call per chunk, which fills the near cache, and the cards missing in the cache are looked up with
+ * one bulk payment-service call per chunk. Looked up payments are held for {@code prefetchTtlSeconds} and taken by
+ * {@link PaymentServiceImpl} in place of its payment-service call, so the analysis is the same as without warm-up.
+ */
+@Slf4j
+public class PaymentWarmUp implements ConsumerAwareRebalanceListener, AutoCloseable {
+
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(100);
+
+    private final PaymentCacheDao paymentCacheDao;
+    private final FeignService feignService;
+    private final ConsumerFactory<String, PaymentRequestDto> consumerFactory;
+    private final String paymentsTopic;
+    private final int maxCards;
+    private final int chunkSize;
+    private final boolean isPaymentServiceLookupEnabled;
+    private final Duration timeBudget;
+    private final ExecutorService executor;
+    private final Cache<String, LastPaymentResponseDto> prefetchedPayments;
+    private final AtomicBoolean isStarted = new AtomicBoolean();
+    private final LongAdder cachedCards = new LongAdder();
+    private final LongAdder prefetchedCards = new LongAdder();
+    private final LongAdder usedPrefetchedCards = new LongAdder();
+
+    public PaymentWarmUp(PaymentCacheDao paymentCacheDao, FeignService feignService, ConsumerFactory<String, PaymentRequestDto> consumerFactory,
+                         String paymentsTopic, int maxCards, int chunkSize, boolean isPaymentServiceLookupEnabled,
+                         Duration timeBudget, Duration prefetchTtl, ExecutorService executor) {
+        if (maxCards < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("maxCards and chunkSize must be positive");
+        }
+        this.paymentCacheDao = paymentCacheDao;
+        this.feignService = feignService;
+        this.consumerFactory = consumerFactory;
+        this.paymentsTopic = paymentsTopic;
+        this.maxCards = maxCards;
+        this.chunkSize = chunkSize;
+        this.isPaymentServiceLookupEnabled = isPaymentServiceLookupEnabled;
+        this.timeBudget = timeBudget;
+        this.executor = executor;
+        this.prefetchedPayments = Caffeine.newBuilder()
+                .maximumSize(maxCards)
+                .expireAfterWrite(prefetchTtl)
+                .build();
+    }
+
+    /**
+     * @return the last payment looked up by the warm-up, or null; a payment is returned once
+     */
+    public LastPaymentResponseDto takePrefetched(String payerCardNumber) {
+        LastPaymentResponseDto lastPayment = prefetchedPayments.asMap().remove(payerCardNumber);
+        if (null != lastPayment) {
+            usedPrefetchedCards.increment();
+        }
+        return lastPayment;
+    }
+
+    public long getCachedCards() {
+        return cachedCards.sum();
+    }
+
+    public long getPrefetchedCards() {
+        return prefetchedCards.sum();
+    }
+
+    public long getUsedPrefetchedCards() {
+        return usedPrefetchedCards.sum();
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        List<TopicPartition> paymentsPartitions = partitions.stream()
+                .filter(partition -> paymentsTopic.equals(partition.topic()))
+                .toList();
+        if (paymentsPartitions.isEmpty()) {
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + timeBudget.toNanos();
+        Stage stage = isStarted.compareAndSet(false, true) ? Stage.WARM_UP_STARTUP : Stage.WARM_UP_REBALANCE;
+        try {
+            Map<TopicPartition, Long> positions = new HashMap<>();
+            for (TopicPartition partition : paymentsPartitions) {
+                positions.put(partition, consumer.position(partition));
+            }
+            Set<String> payerCardNumbers = findWaitingCardNumbers(positions, deadlineNanos);
+            int preloadedCards = preload(new ArrayList<>(payerCardNumbers), deadlineNanos);
+            log.info("Warmed up {} of {} cards of partitions {} in {} ms",
+                    preloadedCards, payerCardNumbers.size(), paymentsPartitions, (System.nanoTime() - startNanos) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.warn("Warm-up of partitions {} failed. cause: {}", paymentsPartitions, e.getMessage());
+        } finally {
+            PaymentMetrics.recordStage(stage, startNanos);
+        }
+    }
+
+    private Set<String> findWaitingCardNumbers(Map<TopicPartition, Long> positions, long deadlineNanos) {
+        Set<String> payerCardNumbers = new LinkedHashSet<>();
+        Properties overrides = new Properties();
+        overrides.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        try (Consumer<String, PaymentRequestDto> consumer = consumerFactory.createConsumer(null, "warm-up-", null, overrides)) {
+            consumer.assign(positions.keySet());
+            positions.forEach(consumer::seek);
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(positions.keySet());
+            List<TopicPartition> pendingPartitions = new ArrayList<>(positions.keySet());
+
+            while (payerCardNumbers.size() < maxCards && System.nanoTime() - deadlineNanos < 0) {
+                pendingPartitions.removeIf(partition -> consumer.position(partition) >= endOffsets.get(partition));
+                if (pendingPartitions.isEmpty()) {
+                    break;
+                }
+                for (ConsumerRecord<String, PaymentRequestDto> record : consumer.poll(POLL_TIMEOUT)) {
+                    if (null != record.value() && null != record.value().getPayerCardNumber() && payerCardNumbers.size() < maxCards) {
+                        payerCardNumbers.add(record.value().getPayerCardNumber());
+                    }
+                }
+            }
+        }
+        return payerCardNumbers;
+    }
+
+    /**
+     * @return number of cards found in the cache or looked up before the deadline
+     */
+    private int preload(List<String> payerCardNumbers, long deadlineNanos) {
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int from = 0; from < payerCardNumbers.size(); from += chunkSize) {
+            List<String> chunk = payerCardNumbers.subList(from, Math.min(from + chunkSize, payerCardNumbers.size()));
+            futures.add(executor.submit(() -> preloadChunk(chunk)));
+        }
+
+        int preloadedCards = 0;
+        try {
+            for (Future<Integer> future : futures) {
+                try {
+                    preloadedCards += future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException e) {
+                    log.warn("Warm-up of a chunk of cards failed. cause: {}", e.getCause().getMessage());
+                }
+            }
+        } catch (TimeoutException e) {
+            log.warn("Warm-up did not finish in {} ms", timeBudget.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+        return preloadedCards;
+    }
+
+    private int preloadChunk(List<String> payerCardNumbers) {
+        List<String> remoteCardNumbers = new ArrayList<>(payerCardNumbers.size());
+        for (String payerCardNumber : payerCardNumbers) {
+            if (null == paymentCacheDao.findLocalPaymentByCardNumber(payerCardNumber)) {
+                remoteCardNumbers.add(payerCardNumber);
+            }
+        }
+        if (remoteCardNumbers.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, PaymentEntity> cachedPayments = paymentCacheDao.findPaymentsByCardNumbers(remoteCardNumbers);
+        LocalDateTime deprecatedBefore = LocalDateTime.now().minusDays(1);
+        List<String> missedCardNumbers = new ArrayList<>();
+        for (String payerCardNumber : remoteCardNumbers) {
+            PaymentEntity cachedPayment = cachedPayments.get(payerCardNumber);
+            // deprecated payments are looked up in payment-service by the analyzer, as missing ones
+            if (null == cachedPayment || deprecatedBefore.isAfter(cachedPayment.getDateUpdating())) {
+                missedCardNumbers.add(payerCardNumber);
+            }
+        }
+        int cachedCount = remoteCardNumbers.size() - missedCardNumbers.size();
+        cachedCards.add(cachedCount);
+        if (!isPaymentServiceLookupEnabled || missedCardNumbers.isEmpty()) {
+            return cachedCount;
+        }
+
+        Map<String, LastPaymentResponseDto> lastPayments = feignService.getLastPayments(missedCardNumbers);
+        prefetchedPayments.putAll(lastPayments);
+        prefetchedCards.add(lastPayments.size());
+        return cachedCount + lastPayments.size();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,239 @@
+package ru.neoflex.scammertracking.analyzer.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.neoflex.scammertracking.analyzer.dao.PaymentCacheDao;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.feign.FeignService;
+import ru.neoflex.scammertracking.analyzer.kafka.producer.PaymentProducer;
+import ru.neoflex.scammertracking.analyzer.mapper.PaymentMapper;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind pipeline of trusted payments, enabled with {@code paymentService.writeBehind.enabled}.
+ * The listener thread only enqueues a payment; a single flusher thread takes up to {@code maxBatchSize} queued payments,
+ * saves them in payment-service with one bulk call, writes the cache with one pipelined Redis write and only then sends
+ * the verdicts, so verdicts of a card keep their order. A payment rejected with BadRequest is sent to the suspicious
+ * topic as in the synchronous path.
+ * <p>
+ * The queue holds at most {@code capacity} payments, {@link #submit} blocks when it is full. A failed flush is retried
+ * with a growing backoff and never drops the batch; a payment may then be saved in payment-service more than once.
+ * A payment whose verdict cannot be sent completes its future exceptionally, the flusher goes on with the next ones.
+ * Cached payments are staged in {@link PaymentCacheDao} on submit, so the next payment of the card is analyzed against
+ * it before the flush. On close the queue is drained and flushed.
+ */
+@Slf4j
+public class PaymentWriteBehind implements AutoCloseable {
+
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private final FeignService feignService;
+    private final PaymentCacheDao paymentCacheDao;
+    private final PaymentProducer paymentProducer;
+    private final String checkedPaymentsTopic;
+    private final String suspiciousPaymentsTopic;
+    private final int maxBatchSize;
+    private final long retryBackoffMillis;
+    private final long maxRetryBackoffMillis;
+    private final long shutdownTimeoutMillis;
+    private final BlockingQueue<PendingPayment> queue;
+    private final Lock submitLock = new ReentrantLock();
+    private final Thread flusher;
+
+    private volatile boolean isClosed;
+    private volatile CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
+
+    public PaymentWriteBehind(FeignService feignService, PaymentCacheDao paymentCacheDao, PaymentProducer paymentProducer,
+                              String checkedPaymentsTopic, String suspiciousPaymentsTopic,
+                              int capacity, int maxBatchSize, long retryBackoffMillis, long maxRetryBackoffMillis, long shutdownTimeoutMillis,
+                              ThreadFactory threadFactory) {
+        if (capacity < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("capacity and maxBatchSize must be positive");
+        }
+        this.feignService = feignService;
+        this.paymentCacheDao = paymentCacheDao;
+        this.paymentProducer = paymentProducer;
+        this.checkedPaymentsTopic = checkedPaymentsTopic;
+        this.suspiciousPaymentsTopic = suspiciousPaymentsTopic;
+        this.maxBatchSize = maxBatchSize;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.maxRetryBackoffMillis = maxRetryBackoffMillis;
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.flusher = threadFactory.newThread(this::run);
+        this.flusher.start();
+    }
+
+    /**
+     * Enqueues a trusted payment, blocking while the queue is full.
+     *
+     * @param isCacheWritten whether the payment should be written to the cache
+     * @return future completed when the payment is saved, cached and its verdict is sent
+     */
+    public CompletableFuture<Void> submit(PaymentRequestDto paymentRequest, PaymentResponseDto paymentResult, boolean isCacheWritten) throws InterruptedException {
+        if (isClosed) {
+            throw new IllegalStateException("Write-behind is closed");
+        }
+
+        PaymentEntity paymentEntity = null;
+        if (isCacheWritten) {
+            paymentEntity = PaymentMapper.toPaymentEntity(paymentRequest, LocalDateTime.now());
+            paymentCacheDao.stage(paymentEntity);
+        }
+
+        PendingPayment pendingPayment = new PendingPayment(paymentRequest, paymentResult, paymentEntity, new CompletableFuture<>());
+        // the queue and lastWrite are updated together, so lastWrite is always the latest payment in the queue order.
+        // A lock rather than a monitor, a virtual thread blocked on a full queue then does not pin its carrier
+        submitLock.lockInterruptibly();
+        try {
+            queue.put(pendingPayment);
+            lastWrite = pendingPayment.written();
+        } finally {
+            submitLock.unlock();
+        }
+        return pendingPayment.written();
+    }
+
+    /**
+     * @return future completed when every payment submitted so far is written, batches are flushed in submission order
+     */
+    public CompletableFuture<Void> getLastWrite() {
+        return lastWrite;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void run() {
+        List<PendingPayment> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (!isClosed || !queue.isEmpty()) {
+                PendingPayment pendingPayment = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (null == pendingPayment) {
+                    continue;
+                }
+                batch.add(pendingPayment);
+                queue.drainTo(batch, maxBatchSize - 1);
+                try {
+                    flush(batch);
+                } catch (RuntimeException e) {
+                    log.error("Flush of {} payments failed. cause: {}", batch.size(), e.getMessage());
+                    fail(batch, e);
+                } finally {
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.addAll(queue);
+            log.error("Write-behind was interrupted, {} payments are not written. ids={}", batch.size(),
+                    batch.stream().map(pendingPayment -> pendingPayment.paymentRequest().getId()).toList());
+            fail(batch, e);
+        }
+    }
+
+    /**
+     * Completes the payments not written yet exceptionally, their staged cache entries are removed.
+     */
+    private void fail(List<PendingPayment> batch, Throwable cause) {
+        for (PendingPayment pendingPayment : batch) {
+            if (pendingPayment.written().isDone()) {
+                continue;
+            }
+            if (null != pendingPayment.paymentEntity()) {
+                paymentCacheDao.unstage(pendingPayment.paymentEntity());
+            }
+            pendingPayment.written().completeExceptionally(cause);
+        }
+    }
+
+    private void flush(List<PendingPayment> batch) throws InterruptedException {
+        log.info("Flush {} trusted payments", batch.size());
+
+        List<PaymentRequestDto> paymentRequests = batch.stream()
+                .map(PendingPayment::paymentRequest)
+                .toList();
+        Set<PaymentRequestDto> rejectedPayments = null;
+        long backoffMillis = retryBackoffMillis;
+        while (true) {
+            try {
+                // a retry after a failed cache write does not save the batch again
+                if (null == rejectedPayments) {
+                    List<PaymentRequestDto> rejectedRequests = feignService.savePayments(paymentRequests);
+                    rejectedPayments = Collections.newSetFromMap(new IdentityHashMap<>());
+                    rejectedPayments.addAll(rejectedRequests);
+                }
+                Set<PaymentRequestDto> rejected = rejectedPayments;
+                List<PaymentEntity> paymentEntities = batch.stream()
+                        .filter(pendingPayment -> !rejected.contains(pendingPayment.paymentRequest()))
+                        .map(PendingPayment::paymentEntity)
+                        .filter(Objects::nonNull)
+                        .toList();
+                if (!paymentEntities.isEmpty()) {
+                    paymentCacheDao.saveAll(paymentEntities);
+                }
+                break;
+            } catch (RuntimeException e) {
+                log.error("Flush of {} payments failed, retry in {} ms. cause: {}", batch.size(), backoffMillis, e.getMessage());
+                Thread.sleep(backoffMillis);
+                backoffMillis = Math.min(backoffMillis * 2, maxRetryBackoffMillis);
+            }
+        }
+
+        PaymentProducer.SendBatch sendBatch = paymentProducer.beginBatch();
+        try {
+            for (PendingPayment pendingPayment : batch) {
+                // a send may fail synchronously, e.g. on a metadata timeout, the other verdicts are still sent
+                try {
+                    if (rejectedPayments.contains(pendingPayment.paymentRequest())) {
+                        if (null != pendingPayment.paymentEntity()) {
+                            paymentCacheDao.unstage(pendingPayment.paymentEntity());
+                        }
+                        paymentProducer.sendMessage(suspiciousPaymentsTopic, pendingPayment.paymentResult());
+                        log.info("Response. Sent message in topic={}, payment with id={} was rejected with BadRequest",
+                                suspiciousPaymentsTopic, pendingPayment.paymentRequest().getId());
+                    } else {
+                        paymentProducer.sendMessage(checkedPaymentsTopic, pendingPayment.paymentResult());
+                    }
+                    pendingPayment.written().complete(null);
+                } catch (RuntimeException e) {
+                    log.error("Unable to send verdict of payment with id={}. cause: {}", pendingPayment.paymentRequest().getId(), e.getMessage());
+                    pendingPayment.written().completeExceptionally(e);
+                }
+            }
+        } finally {
+            sendBatch.close();
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        isClosed = true;
+        flusher.join(shutdownTimeoutMillis);
+        if (flusher.isAlive()) {
+            log.warn("Write-behind was not flushed in {} ms, {} payments are queued", shutdownTimeoutMillis, queue.size());
+            flusher.interrupt();
+            flusher.join();
+        }
+    }
+
+    private record PendingPayment(PaymentRequestDto paymentRequest, PaymentResponseDto paymentResult,
+                                  PaymentEntity paymentEntity, CompletableFuture<Void> written) {
+    }
+}
@@ -0,0 +1,203 @@
+package ru.neoflex.scammertracking.analyzer.benchmark;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.neoflex.scammertracking.analyzer.dao.PaymentCacheDao;
+import ru.neoflex.scammertracking.analyzer.dao.PaymentCacheStorage;
+import ru.neoflex.scammertracking.analyzer.dao.PaymentNearCache;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.domain.model.Coordinates;
+import ru.neoflex.scammertracking.analyzer.error.exception.NotFoundException;
+import ru.neoflex.scammertracking.analyzer.feign.FeignService;
+import ru.neoflex.scammertracking.analyzer.feign.PaymentFeignClient;
+import ru.neoflex.scammertracking.analyzer.kafka.producer.PaymentProducer;
+import ru.neoflex.scammertracking.analyzer.service.impl.PaymentAnalyzerImpl;
+import ru.neoflex.scammertracking.analyzer.service.impl.PaymentServiceImpl;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full {@link PaymentAnalyzerImpl#analyzeConsumeMessage} run of a trusted payment with in-memory payment-service,
+ * Redis and Kafka producer, so only the analyzer's own CPU cost is measured. The stubs ignore writes to keep every
+ * invocation on the same path: {@code lastPaymentSource=cache} reads a fresh cached payment,
+ * {@code lastPaymentSource=paymentService} finds a deprecated one and asks payment-service.
+ * Verdicts are still serialized to JSON by the producer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalyzeConsumeMessageBenchmark {
+
+    private static final int CARDS = 1024;
+
+    @Param({"cache", "paymentService"})
+    private String lastPaymentSource;
+
+    private PaymentAnalyzerImpl paymentAnalyzer;
+    private final PaymentRequestDto[] paymentRequests = new PaymentRequestDto[CARDS];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkLogging.off();
+        boolean isCached = "cache".equals(lastPaymentSource);
+        LocalDateTime now = LocalDateTime.now();
+        InMemoryPaymentFeignClient paymentFeignClient = new InMemoryPaymentFeignClient();
+        InMemoryPaymentCacheStorage paymentCacheStorage = new InMemoryPaymentCacheStorage();
+        Random random = new Random(42);
+        for (int i = 0; i < CARDS; i++) {
+            String payerCardNumber = String.valueOf(4276550000000000L + i);
+            Coordinates coordinates = new Coordinates(random.nextFloat() * 120 - 60, random.nextFloat() * 360 - 180);
+            LocalDateTime lastPaymentDate = now.minusMinutes(30);
+            paymentFeignClient.lastPayments.put(payerCardNumber,
+                    new LastPaymentResponseDto(i, payerCardNumber, "5536913812345678", coordinates, lastPaymentDate));
+            paymentCacheStorage.payments.put(payerCardNumber, new PaymentEntity(payerCardNumber, "5536913812345678", (long) i,
+                    coordinates.getLatitude(), coordinates.getLongitude(), lastPaymentDate, isCached ? now : now.minusDays(2)));
+            paymentRequests[i] = new PaymentRequestDto(CARDS + i, payerCardNumber, "5536913812345678",
+                    new Coordinates(coordinates.getLatitude() + 0.1f, coordinates.getLongitude() + 0.1f), now.minusSeconds(1));
+        }
+
+        FeignService feignService = new FeignService(paymentFeignClient);
+        PaymentCacheDao paymentCacheDao = new PaymentCacheDao(paymentCacheStorage,
+                new PaymentNearCache(isCached, CARDS, Duration.ofHours(1), Ticker.systemTicker()));
+        DiscardingProducer producer = new DiscardingProducer();
+        KafkaTemplate<String, PaymentResponseDto> kafkaTemplate = new KafkaTemplate<>(() -> producer);
+        PaymentServiceImpl paymentService = new PaymentServiceImpl(paymentCacheDao, feignService);
+        paymentAnalyzer = new PaymentAnalyzerImpl(feignService, paymentService, paymentCacheDao, new PaymentProducer(kafkaTemplate));
+        paymentService.setPaymentAnalyzer(paymentAnalyzer);
+        ReflectionTestUtils.setField(paymentAnalyzer, "suspiciousPaymentsTopic", "suspicious-payments");
+        ReflectionTestUtils.setField(paymentAnalyzer, "checkedPaymentsTopic", "checked-payments");
+    }
+
+    @Benchmark
+    public PaymentRequestDto analyzeConsumeMessage() throws Exception {
+        next = (next + 1) & (CARDS - 1);
+        PaymentRequestDto paymentRequest = paymentRequests[next];
+        paymentAnalyzer.analyzeConsumeMessage(paymentRequest.getPayerCardNumber(), paymentRequest);
+        return paymentRequest;
+    }
+
+    private static class InMemoryPaymentFeignClient implements PaymentFeignClient {
+
+        private final Map<String, LastPaymentResponseDto> lastPayments = new ConcurrentHashMap<>();
+
+        @Override
+        public LastPaymentResponseDto getLastPaymentByPayerCardNumber(LastPaymentRequestDto payment) {
+            LastPaymentResponseDto lastPayment = lastPayments.get(payment.getCardNumber());
+            if (null == lastPayment) {
+                throw new NotFoundException("The payment with cardNumber " + payment.getCardNumber() + " not found");
+            }
+            return lastPayment;
+        }
+
+        @Override
+        public List<LastPaymentResponseDto> getLastPaymentsByPayerCardNumbers(List<LastPaymentRequestDto> payments) {
+            return payments.stream()
+                    .map(payment -> lastPayments.get(payment.getCardNumber()))
+                    .filter(lastPayment -> null != lastPayment)
+                    .toList();
+        }
+
+        @Override
+        public String savePayment(PaymentRequestDto payment) {
+            return "saved";
+        }
+
+        @Override
+        public String savePayments(List<PaymentRequestDto> payments) {
+            return "saved";
+        }
+    }
+
+    static class InMemoryPaymentCacheStorage implements PaymentCacheStorage {
+
+        final Map<String, PaymentEntity> payments = new ConcurrentHashMap<>();
+
+        @Override
+        public PaymentEntity get(String payerCardNumber) {
+            return payments.get(payerCardNumber);
+        }
+
+        @Override
+        public List<PaymentEntity> multiGet(List<String> payerCardNumbers) {
+            return payerCardNumbers.stream()
+                    .map(payments::get)
+                    .toList();
+        }
+
+        @Override
+        public void put(PaymentEntity payment) {
+        }
+
+        @Override
+        public PaymentEntity saveOrUpdate(PaymentEntity payment) {
+            PaymentEntity cachedPayment = payments.get(payment.getPayerCardNumber());
+            return null != cachedPayment
+                    ? new PaymentEntity(payment.getPayerCardNumber(), payment.getReceiverCardNumber(), cachedPayment.getIdPayment(),
+                    payment.getLatitude(), payment.getLongitude(), payment.getDatePayment(), payment.getDateUpdating())
+                    : payment;
+        }
+
+        @Override
+        public void putAll(Collection<PaymentEntity> payments) {
+        }
+    }
+
+    static class DiscardingProducer extends MockProducer<String, PaymentResponseDto> {
+
+        private static final RecordMetadata METADATA = new RecordMetadata(new TopicPartition("checked-payments", 0), 0, 0, 0, 0, 0);
+
+        private final JsonSerializer<PaymentResponseDto> valueSerializer = new JsonSerializer<>();
+
+        DiscardingProducer() {
+            super(true, new StringSerializer(), new JsonSerializer<>());
+        }
+
+        @Override
+        public synchronized Future<RecordMetadata> send(ProducerRecord<String, PaymentResponseDto> record, Callback callback) {
+            valueSerializer.serialize(record.topic(), record.value());
+            callback.onCompletion(METADATA, null);
+            return CompletableFuture.completedFuture(METADATA);
+        }
+
+        @Override
+        public void close(Duration timeout) {
+        }
+    }
+}
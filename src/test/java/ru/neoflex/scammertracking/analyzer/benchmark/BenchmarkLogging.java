@@ -0,0 +1,19 @@
+package ru.neoflex.scammertracking.analyzer.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Benchmarks run without the Spring context, so logback falls back to its default DEBUG console output,
+ * which would dominate the hot path. The benchmarks measure the code with logging off.
+ */
+final class BenchmarkLogging {
+
+    private BenchmarkLogging() {
+    }
+
+    static void off() {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.OFF);
+    }
+}
@@ -0,0 +1,108 @@
+package ru.neoflex.scammertracking.analyzer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.neoflex.scammertracking.analyzer.dao.CardStateTable;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Last payments of {@value #CARDS} cards in a {@link CardStateTable} ({@code store=compact}) and in the
+ * {@link ConcurrentHashMap} of entities the local store keeps by default ({@code store=map}). {@code get} and
+ * {@code put} hit random cards, the heap retained per card is printed at the start of a trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class CardStateTableBenchmark {
+
+    private static final int CARDS = 1 << 20;
+
+    @Param({"compact", "map"})
+    private String store;
+
+    private CardStateTable table;
+    private Map<String, PaymentEntity> map;
+    private final String[] cardNumbers = new String[CARDS];
+    private final PaymentEntity[] payments = new PaymentEntity[CARDS];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkLogging.off();
+        Random random = new Random(42);
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < CARDS; i++) {
+            cardNumbers[i] = String.valueOf(4276550000000000L + random.nextInt(1_000_000_000));
+        }
+
+        long usedBytes = usedBytes();
+        if ("compact".equals(store)) {
+            table = new CardStateTable(0, 16);
+        } else {
+            map = new ConcurrentHashMap<>();
+        }
+        for (int i = 0; i < CARDS; i++) {
+            // strings of their own, as the deserialized entities of the changelog have
+            PaymentEntity payment = new PaymentEntity(new String(cardNumbers[i]), "5536913812345678", (long) i,
+                    random.nextFloat() * 120 - 60, random.nextFloat() * 360 - 180, now.minusSeconds(i), now.minusSeconds(i));
+            put(payment);
+        }
+        System.out.printf("%n%d bytes per card%n", (usedBytes() - usedBytes) / CARDS);
+
+        for (int i = 0; i < CARDS; i++) {
+            payments[i] = new PaymentEntity(cardNumbers[random.nextInt(CARDS)], "5536913812345678", (long) i,
+                    random.nextFloat() * 120 - 60, random.nextFloat() * 360 - 180, now, now);
+        }
+    }
+
+    @Benchmark
+    public PaymentEntity get() {
+        String cardNumber = cardNumbers[nextCard()];
+        return null != table ? table.get(cardNumber) : map.get(cardNumber);
+    }
+
+    @Benchmark
+    public void put() {
+        put(payments[nextCard()]);
+    }
+
+    private void put(PaymentEntity payment) {
+        if (null != table) {
+            table.put(payment);
+        } else {
+            map.put(payment.getPayerCardNumber(), payment);
+        }
+    }
+
+    private int nextCard() {
+        next = (next + 0x9E3779B1) & (CARDS - 1);
+        return next;
+    }
+
+    private static long usedBytes() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,65 @@
+package ru.neoflex.scammertracking.analyzer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.model.Coordinates;
+import ru.neoflex.scammertracking.analyzer.geo.SimplePaymentAnalyzer;
+
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SimplePaymentAnalyzer#checkPayment} for each time window between the last and the current payment,
+ * {@code secondsSinceLastPayment} selects the distance threshold. Random locations within a few hundred kilometers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CheckPaymentBenchmark {
+
+    private static final int PAIRS = 1024;
+
+    @Param({"0", "30", "1800", "7200"})
+    private long secondsSinceLastPayment;
+
+    private final LastPaymentResponseDto[] lastPayments = new LastPaymentResponseDto[PAIRS];
+    private final PaymentRequestDto[] currentPayments = new PaymentRequestDto[PAIRS];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkLogging.off();
+        Random random = new Random(42);
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < PAIRS; i++) {
+            float latitude = random.nextFloat() * 120 - 60;
+            float longitude = random.nextFloat() * 360 - 180;
+            lastPayments[i] = new LastPaymentResponseDto(i, "4276550012345678", "5536913812345678",
+                    new Coordinates(latitude, longitude), now.minusSeconds(secondsSinceLastPayment));
+            currentPayments[i] = new PaymentRequestDto(i + PAIRS, "4276550012345678", "5536913812345678",
+                    new Coordinates(latitude + random.nextFloat() * 4 - 2, longitude + random.nextFloat() * 4 - 2), now);
+        }
+    }
+
+    @Benchmark
+    public boolean checkPayment() {
+        next = (next + 1) & (PAIRS - 1);
+        return SimplePaymentAnalyzer.checkPayment(lastPayments[next], currentPayments[next]);
+    }
+}
@@ -0,0 +1,128 @@
+package ru.neoflex.scammertracking.analyzer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.domain.model.Coordinates;
+import ru.neoflex.scammertracking.analyzer.geo.GeoCell;
+import ru.neoflex.scammertracking.analyzer.geo.GeoCoordinates;
+import ru.neoflex.scammertracking.analyzer.geo.SimplePaymentAnalyzer;
+import ru.neoflex.scammertracking.analyzer.mapper.PaymentMapper;
+
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distance checks of a synthetic payment stream. Each card pays around the home of its holder in one of
+ * {@value #CITIES} cities: {@code 80%} of the payments within a few kilometers, {@code 15%} anywhere in the city and
+ * {@code 5%} in another city. The last payment of the card is a few seconds to two hours earlier, which selects the
+ * limit of the default distance rules. {@code geodesic} decides every pair with {@link GeoCoordinates#isFartherThan},
+ * {@code geoCell} tries {@link GeoCell#isWithin} with the cell stored in the cached payment first. The share of pairs
+ * decided by the cells is printed at the start of a trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeoCellBenchmark {
+
+    private static final int PAIRS = 4096;
+    private static final int CITIES = 200;
+
+    private final double[] coordinates = new double[PAIRS * 4];
+    private final long[] lastGeoCells = new long[PAIRS];
+    private final double[] limits = new double[PAIRS];
+    private final LastPaymentResponseDto[] lastPayments = new LastPaymentResponseDto[PAIRS];
+    private final PaymentRequestDto[] currentPayments = new PaymentRequestDto[PAIRS];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkLogging.off();
+        Random random = new Random(42);
+        double[] cities = new double[CITIES * 2];
+        for (int i = 0; i < CITIES; i++) {
+            cities[i * 2] = random.nextDouble() * 120 - 55;
+            cities[i * 2 + 1] = random.nextDouble() * 360 - 180;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        int decidedByCells = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            int city = random.nextInt(CITIES);
+            float homeLatitude = (float) (cities[city * 2] + random.nextGaussian() * 0.1);
+            float homeLongitude = (float) (cities[city * 2 + 1] + random.nextGaussian() * 0.1);
+            float latitude;
+            float longitude;
+            int kind = random.nextInt(100);
+            if (kind < 80) {
+                latitude = (float) (homeLatitude + random.nextGaussian() * 0.02);
+                longitude = (float) (homeLongitude + random.nextGaussian() * 0.02);
+            } else if (kind < 95) {
+                latitude = (float) (cities[city * 2] + random.nextGaussian() * 0.1);
+                longitude = (float) (cities[city * 2 + 1] + random.nextGaussian() * 0.1);
+            } else {
+                int otherCity = random.nextInt(CITIES);
+                latitude = (float) (cities[otherCity * 2] + random.nextGaussian() * 0.1);
+                longitude = (float) (cities[otherCity * 2 + 1] + random.nextGaussian() * 0.1);
+            }
+            long secondsSinceLastPayment = 1 + (long) (random.nextDouble() * random.nextDouble() * 7200);
+            limits[i] = secondsSinceLastPayment <= 1 ? 1 : secondsSinceLastPayment <= 60 ? 50 : 10000;
+
+            PaymentEntity lastPayment = new PaymentEntity("4276550012345678", "5536913812345678", (long) i,
+                    homeLatitude, homeLongitude, now.minusSeconds(secondsSinceLastPayment), now);
+            coordinates[i * 4] = homeLatitude;
+            coordinates[i * 4 + 1] = homeLongitude;
+            coordinates[i * 4 + 2] = latitude;
+            coordinates[i * 4 + 3] = longitude;
+            lastGeoCells[i] = lastPayment.getGeoCell();
+            lastPayments[i] = PaymentMapper.toLastPaymentResponse(lastPayment);
+            currentPayments[i] = new PaymentRequestDto(PAIRS + i, "4276550012345678", "5536913812345678",
+                    new Coordinates(latitude, longitude), now);
+            if (GeoCell.isWithin(lastGeoCells[i], GeoCell.of(latitude, longitude), limits[i])) {
+                decidedByCells++;
+            }
+        }
+        System.out.printf("%n%d of %d pairs decided by the cells%n", decidedByCells, PAIRS);
+    }
+
+    @Benchmark
+    public boolean geodesic() {
+        int i = nextPair();
+        int c = i * 4;
+        return GeoCoordinates.isFartherThan(coordinates[c], coordinates[c + 1], coordinates[c + 2], coordinates[c + 3], limits[i]);
+    }
+
+    @Benchmark
+    public boolean geoCell() {
+        int i = nextPair();
+        int c = i * 4;
+        return !GeoCell.isWithin(lastGeoCells[i], GeoCell.of(coordinates[c + 2], coordinates[c + 3]), limits[i])
+                && GeoCoordinates.isFartherThan(coordinates[c], coordinates[c + 1], coordinates[c + 2], coordinates[c + 3], limits[i]);
+    }
+
+    @Benchmark
+    public boolean checkPayment() {
+        int i = nextPair();
+        return SimplePaymentAnalyzer.checkPayment(lastPayments[i], currentPayments[i]);
+    }
+
+    private int nextPair() {
+        next = (next + 1) & (PAIRS - 1);
+        return next;
+    }
+}
@@ -0,0 +1,81 @@
+package ru.neoflex.scammertracking.analyzer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.neoflex.scammertracking.analyzer.geo.GeoCoordinates;
+import ru.neoflex.scammertracking.analyzer.geo.GeoPoint;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threshold check as done before, Vincenty on allocated {@link GeoPoint}s, against {@link GeoCoordinates#isFartherThan}
+ * on the same point pairs. The pairs are spread around the threshold, {@code offsetDegrees} controls how many of them
+ * fall within the margin where Vincenty still runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeoDistanceBenchmark {
+
+    private static final int PAIRS = 1024;
+
+    @Param({"1", "50", "10000"})
+    private double threshold;
+
+    private final double[] coordinates = new double[PAIRS * 4];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // offsets of roughly twice the threshold in degrees, so the distances spread over both sides of it
+        double offsetDegrees = Math.min(100, threshold / 111.0 * 2);
+        Random random = new Random(42);
+        for (int i = 0; i < PAIRS; i++) {
+            double latitude = random.nextDouble() * 160 - 80;
+            double longitude = random.nextDouble() * 360 - 180;
+            coordinates[i * 4] = latitude;
+            coordinates[i * 4 + 1] = longitude;
+            coordinates[i * 4 + 2] = Math.max(-89, Math.min(89, latitude + (random.nextDouble() * 2 - 1) * offsetDegrees));
+            coordinates[i * 4 + 3] = longitude + (random.nextDouble() * 2 - 1) * offsetDegrees;
+        }
+    }
+
+    @Benchmark
+    public boolean vincentyGeoPoints() {
+        int i = nextPair();
+        GeoPoint geoPoint1 = new GeoPoint(coordinates[i], coordinates[i + 1]);
+        GeoPoint geoPoint2 = new GeoPoint(coordinates[i + 2], coordinates[i + 3]);
+        return GeoCoordinates.calculateDistance(geoPoint1, geoPoint2) > threshold;
+    }
+
+    @Benchmark
+    public double haversine() {
+        int i = nextPair();
+        return GeoCoordinates.calculateSphericalDistance(coordinates[i], coordinates[i + 1], coordinates[i + 2], coordinates[i + 3]);
+    }
+
+    @Benchmark
+    public boolean tiered() {
+        int i = nextPair();
+        return GeoCoordinates.isFartherThan(coordinates[i], coordinates[i + 1], coordinates[i + 2], coordinates[i + 3], threshold);
+    }
+
+    private int nextPair() {
+        next = (next + 1) & (PAIRS - 1);
+        return next * 4;
+    }
+}
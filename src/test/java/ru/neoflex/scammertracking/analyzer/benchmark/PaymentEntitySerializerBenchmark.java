@@ -0,0 +1,68 @@
+package ru.neoflex.scammertracking.analyzer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import ru.neoflex.scammertracking.analyzer.dao.PaymentEntityRedisSerializer;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JDK serialization against {@link PaymentEntityRedisSerializer}. Encoded sizes are printed on setup,
+ * allocation per operation is reported with {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentEntitySerializerBenchmark {
+
+    private final JdkSerializationRedisSerializer jdkSerializer = new JdkSerializationRedisSerializer();
+    private final PaymentEntityRedisSerializer binarySerializer = new PaymentEntityRedisSerializer();
+
+    private PaymentEntity payment;
+    private byte[] jdkBytes;
+    private byte[] binaryBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        payment = new PaymentEntity("4276550012345678", "5536913812345678", 1234567L, 55.7558f, 37.6173f,
+                LocalDateTime.now().minusMinutes(3), LocalDateTime.now());
+        jdkBytes = jdkSerializer.serialize(payment);
+        binaryBytes = binarySerializer.serialize(payment);
+        System.out.printf("%nencoded size: jdk=%d bytes, binary=%d bytes%n", jdkBytes.length, binaryBytes.length);
+    }
+
+    @Benchmark
+    public byte[] jdkSerialize() {
+        return jdkSerializer.serialize(payment);
+    }
+
+    @Benchmark
+    public Object jdkDeserialize() {
+        return jdkSerializer.deserialize(jdkBytes);
+    }
+
+    @Benchmark
+    public byte[] binarySerialize() {
+        return binarySerializer.serialize(payment);
+    }
+
+    @Benchmark
+    public PaymentEntity binaryDeserialize() {
+        return binarySerializer.deserialize(binaryBytes);
+    }
+}
@@ -0,0 +1,164 @@
+package ru.neoflex.scammertracking.analyzer.benchmark;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import feign.Feign;
+import feign.hc5.ApacheHttp5Client;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.cloud.openfeign.support.SpringDecoder;
+import org.springframework.cloud.openfeign.support.SpringEncoder;
+import org.springframework.cloud.openfeign.support.SpringMvcContract;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.neoflex.scammertracking.analyzer.concurrent.KeyOrderedExecutor;
+import ru.neoflex.scammertracking.analyzer.dao.PaymentCacheDao;
+import ru.neoflex.scammertracking.analyzer.dao.PaymentNearCache;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.domain.model.Coordinates;
+import ru.neoflex.scammertracking.analyzer.error.decoder.RetreiveMessageErrorDecoder;
+import ru.neoflex.scammertracking.analyzer.feign.FeignService;
+import ru.neoflex.scammertracking.analyzer.feign.PaymentFeignClient;
+import ru.neoflex.scammertracking.analyzer.kafka.producer.PaymentProducer;
+import ru.neoflex.scammertracking.analyzer.service.impl.PaymentAnalyzerImpl;
+import ru.neoflex.scammertracking.analyzer.service.impl.PaymentServiceImpl;
+import ru.neoflex.scammertracking.analyzer.utils.PaymentServiceStub;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PaymentAnalyzerImpl#analyzeConsumeMessage} of a poll of payments on the lanes of the parallel mode:
+ * {@code threading=platform} is the default of 16 platform lanes, {@code threading=virtual} is
+ * {@code parallel.virtualThreads=true} with a virtual lane per card. Every payment finds a deprecated cached payment,
+ * so it looks up its last payment and saves itself in a stubbed payment-service over HTTP, through a Feign client with
+ * an Apache HttpClient 5 pool of {@value #MAX_CONNECTIONS} connections, which also bounds the tasks in flight. The stub
+ * answers after {@code delayMillis}, Redis and Kafka are in memory. The stub shares the CPUs with the analyzer, so
+ * with short delays both modes are bound by the CPU rather than by the waits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentExecutorBenchmark {
+
+    private static final int CARDS = 4096;
+    private static final int PLATFORM_LANES = 16;
+    private static final int VIRTUAL_LANES = 4096;
+    private static final int MAX_CONNECTIONS = 256;
+
+    @Param({"platform", "virtual"})
+    private String threading;
+
+    @Param({"50"})
+    private long delayMillis;
+
+    private PaymentServiceStub paymentServiceStub;
+    private CloseableHttpClient httpClient;
+    private PaymentAnalyzerImpl paymentAnalyzer;
+    private KeyOrderedExecutor paymentExecutor;
+    private final PaymentRequestDto[] paymentRequests = new PaymentRequestDto[CARDS];
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkLogging.off();
+        paymentServiceStub = new PaymentServiceStub();
+        paymentServiceStub.setDelayMillis(delayMillis);
+        AnalyzeConsumeMessageBenchmark.InMemoryPaymentCacheStorage paymentCacheStorage = new AnalyzeConsumeMessageBenchmark.InMemoryPaymentCacheStorage();
+        LocalDateTime now = LocalDateTime.now();
+        Random random = new Random(42);
+        for (int i = 0; i < CARDS; i++) {
+            String payerCardNumber = String.valueOf(4276550000000000L + i);
+            Coordinates coordinates = new Coordinates(random.nextFloat() * 120 - 60, random.nextFloat() * 360 - 180);
+            LocalDateTime lastPaymentDate = now.minusMinutes(30);
+            paymentServiceStub.putLastPayment(new LastPaymentResponseDto(i, payerCardNumber, "5536913812345678", coordinates, lastPaymentDate));
+            paymentCacheStorage.payments.put(payerCardNumber, new PaymentEntity(payerCardNumber, "5536913812345678", (long) i,
+                    coordinates.getLatitude(), coordinates.getLongitude(), lastPaymentDate, now.minusDays(2)));
+            paymentRequests[i] = new PaymentRequestDto(CARDS + i, payerCardNumber, "5536913812345678",
+                    new Coordinates(coordinates.getLatitude() + 0.1f, coordinates.getLongitude() + 0.1f), now.minusSeconds(1));
+        }
+
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(MAX_CONNECTIONS)
+                .setMaxConnPerRoute(MAX_CONNECTIONS)
+                .build();
+        httpClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+        ObjectFactory<HttpMessageConverters> messageConverters =
+                () -> new HttpMessageConverters(new MappingJackson2HttpMessageConverter(PaymentServiceStub.OBJECT_MAPPER));
+        PaymentFeignClient paymentFeignClient = Feign.builder()
+                .client(new ApacheHttp5Client(httpClient))
+                .contract(new SpringMvcContract())
+                .encoder(new SpringEncoder(messageConverters))
+                .decoder(new SpringDecoder(messageConverters))
+                .errorDecoder(new RetreiveMessageErrorDecoder())
+                .target(PaymentFeignClient.class, paymentServiceStub.getHostPort() + "/payment");
+
+        FeignService feignService = new FeignService(paymentFeignClient);
+        PaymentCacheDao paymentCacheDao = new PaymentCacheDao(paymentCacheStorage,
+                new PaymentNearCache(false, CARDS, Duration.ofHours(1), Ticker.systemTicker()));
+        AnalyzeConsumeMessageBenchmark.DiscardingProducer producer = new AnalyzeConsumeMessageBenchmark.DiscardingProducer();
+        KafkaTemplate<String, PaymentResponseDto> kafkaTemplate = new KafkaTemplate<>(() -> producer);
+        PaymentServiceImpl paymentService = new PaymentServiceImpl(paymentCacheDao, feignService);
+        paymentAnalyzer = new PaymentAnalyzerImpl(feignService, paymentService, paymentCacheDao, new PaymentProducer(kafkaTemplate));
+        paymentService.setPaymentAnalyzer(paymentAnalyzer);
+        ReflectionTestUtils.setField(paymentAnalyzer, "suspiciousPaymentsTopic", "suspicious-payments");
+        ReflectionTestUtils.setField(paymentAnalyzer, "checkedPaymentsTopic", "checked-payments");
+
+        paymentExecutor = "virtual".equals(threading)
+                ? new KeyOrderedExecutor(VIRTUAL_LANES, MAX_CONNECTIONS, Thread.ofVirtual().name("payment-worker-", 0).factory())
+                : new KeyOrderedExecutor(PLATFORM_LANES, MAX_CONNECTIONS, new CustomizableThreadFactory("payment-worker-"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        paymentExecutor.close();
+        httpClient.close();
+        paymentServiceStub.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CARDS)
+    public long analyzePoll() throws InterruptedException {
+        CountDownLatch analyzed = new CountDownLatch(CARDS);
+        for (PaymentRequestDto paymentRequest : paymentRequests) {
+            paymentExecutor.execute(paymentRequest.getPayerCardNumber(), () -> {
+                try {
+                    paymentAnalyzer.analyzeConsumeMessage(paymentRequest.getPayerCardNumber(), paymentRequest);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    analyzed.countDown();
+                }
+            });
+        }
+        analyzed.await();
+        return paymentServiceStub.getRequests();
+    }
+}
@@ -0,0 +1,64 @@
+package ru.neoflex.scammertracking.analyzer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.model.Coordinates;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserialization of a consumed payment with the {@link JsonDeserializer} configured as in the consumer factory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentJsonBenchmark {
+
+    private static final String TOPIC = "payments";
+
+    private JsonDeserializer<PaymentRequestDto> deserializer;
+    private byte[] json;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkLogging.off();
+        deserializer = new JsonDeserializer<>();
+        deserializer.configure(Map.of(
+                JsonDeserializer.TRUSTED_PACKAGES, "*",
+                JsonDeserializer.VALUE_DEFAULT_TYPE, PaymentRequestDto.class), false);
+        try (JsonSerializer<PaymentRequestDto> serializer = new JsonSerializer<>()) {
+            serializer.setAddTypeInfo(false);
+            json = serializer.serialize(TOPIC, new PaymentRequestDto(1234567L, "4276550012345678", "5536913812345678",
+                    new Coordinates(55.7558f, 37.6173f), LocalDateTime.now()));
+        }
+        System.out.printf("%njson size: %d bytes%n", json.length);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        deserializer.close();
+    }
+
+    @Benchmark
+    public PaymentRequestDto deserialize() {
+        return deserializer.deserialize(TOPIC, json);
+    }
+}
@@ -0,0 +1,55 @@
+package ru.neoflex.scammertracking.analyzer.benchmark;
+
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.model.Coordinates;
+import ru.neoflex.scammertracking.analyzer.mapper.PaymentMapper;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of a consumed payment to its verdict, done for every record by the analyzer: the reflective {@link ModelMapper}
+ * used before against {@link PaymentMapper}. Allocation per operation is reported with {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentMappingBenchmark {
+
+    private ModelMapper modelMapper;
+    private PaymentRequestDto paymentRequest;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkLogging.off();
+        modelMapper = new ModelMapper();
+        paymentRequest = new PaymentRequestDto(1234567L, "4276550012345678", "5536913812345678",
+                new Coordinates(55.7558f, 37.6173f), LocalDateTime.now());
+    }
+
+    @Benchmark
+    public PaymentResponseDto modelMapper() {
+        return modelMapper.map(paymentRequest, PaymentResponseDto.class);
+    }
+
+    @Benchmark
+    public PaymentResponseDto paymentMapper() {
+        return PaymentMapper.toPaymentResponse(paymentRequest, null);
+    }
+}
@@ -0,0 +1,129 @@
+package ru.neoflex.scammertracking.analyzer.benchmark;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.EmbeddedKafkaZKBroker;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.model.Coordinates;
+import ru.neoflex.scammertracking.analyzer.kafka.producer.PaymentProducer;
+import ru.neoflex.scammertracking.analyzer.kafka.producer.PaymentProducerListener;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verdict sends of {@link PaymentProducer} to a broker with the default producer settings and with the throughput
+ * settings of application.yaml. {@code sendBatch} sends batches of a poll without waiting for them, as the listener does,
+ * and waits only for the batch sent {@value #IN_FLIGHT_BATCHES} batches before. {@code sendOne} is the acknowledgement
+ * latency of a lone send, which pays for {@code linger.ms}.
+ * <p>
+ * An embedded broker is started, {@code -Dbenchmark.bootstrapServers=localhost:9092} runs against the Kafka of
+ * docker-compose instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentProducerBenchmark {
+
+    private static final String TOPIC = "benchmark-checked-payments";
+    private static final int PARTITIONS = 4;
+    private static final int BATCH = 500;
+    private static final int IN_FLIGHT_BATCHES = 16;
+
+    @Param({"default", "throughput"})
+    private String profile;
+
+    private EmbeddedKafkaBroker broker;
+    private DefaultKafkaProducerFactory<String, PaymentResponseDto> producerFactory;
+    private PaymentProducer paymentProducer;
+    private final PaymentResponseDto[] payments = new PaymentResponseDto[BATCH];
+    private final CompletableFuture<?>[] inFlightBatches = new CompletableFuture<?>[IN_FLIGHT_BATCHES];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkLogging.off();
+        String bootstrapServers = System.getProperty("benchmark.bootstrapServers");
+        if (null == bootstrapServers) {
+            broker = new EmbeddedKafkaZKBroker(1, false, PARTITIONS, TOPIC);
+            broker.afterPropertiesSet();
+            bootstrapServers = broker.getBrokersAsString();
+        }
+
+        Map<String, Object> configProps = new HashMap<>();
+        configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        if ("throughput".equals(profile)) {
+            configProps.put(ProducerConfig.LINGER_MS_CONFIG, 10);
+            configProps.put(ProducerConfig.BATCH_SIZE_CONFIG, 131072);
+            configProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        }
+        producerFactory = new DefaultKafkaProducerFactory<>(configProps);
+        KafkaTemplate<String, PaymentResponseDto> kafkaTemplate = new KafkaTemplate<>(producerFactory);
+        kafkaTemplate.setProducerListener(new PaymentProducerListener());
+        paymentProducer = new PaymentProducer(kafkaTemplate);
+
+        Random random = new Random(42);
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < BATCH; i++) {
+            payments[i] = new PaymentResponseDto(i, String.valueOf(4276550000000000L + random.nextInt(100_000)), "5536913812345678",
+                    new Coordinates(random.nextFloat() * 120 - 60, random.nextFloat() * 360 - 180), now, random.nextBoolean());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        CompletableFuture.allOf(Arrays.stream(inFlightBatches).filter(Objects::nonNull).toArray(CompletableFuture<?>[]::new)).join();
+        producerFactory.destroy();
+        if (null != broker) {
+            broker.destroy();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object sendBatch() {
+        next = (next + 1) % IN_FLIGHT_BATCHES;
+        Object failedCount = null != inFlightBatches[next] ? inFlightBatches[next].join() : null;
+        PaymentProducer.SendBatch sendBatch = paymentProducer.beginBatch();
+        for (PaymentResponseDto payment : payments) {
+            paymentProducer.sendMessage(TOPIC, payment);
+        }
+        sendBatch.close();
+        inFlightBatches[next] = sendBatch.getCompletion();
+        return failedCount;
+    }
+
+    @Benchmark
+    public Object sendOne() {
+        return paymentProducer.sendMessage(TOPIC, payments[0]).join();
+    }
+}
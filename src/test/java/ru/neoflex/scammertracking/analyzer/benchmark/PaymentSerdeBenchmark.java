@@ -0,0 +1,103 @@
+package ru.neoflex.scammertracking.analyzer.benchmark;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.model.Coordinates;
+import ru.neoflex.scammertracking.analyzer.kafka.serde.PaymentDeserializer;
+import ru.neoflex.scammertracking.analyzer.kafka.serde.PaymentSerializer;
+import ru.neoflex.scammertracking.analyzer.kafka.serde.PaymentWireFormat;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserialization of a consumed payment and serialization of a verdict with the serde of the consumer and producer
+ * factories, in JSON with type headers and in {@link PaymentWireFormat}. Record sizes, value and headers, are printed
+ * at the start of a trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentSerdeBenchmark {
+
+    private static final String TOPIC = "payments";
+
+    @Param({"json", "binary"})
+    private String format;
+
+    private PaymentDeserializer<PaymentRequestDto> deserializer;
+    private PaymentSerializer<PaymentResponseDto> serializer;
+    private PaymentResponseDto verdict;
+    private byte[] payment;
+    private RecordHeaders paymentHeaders;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkLogging.off();
+        List<String> binaryTopics = "binary".equals(format) ? List.of(TOPIC) : List.of();
+        deserializer = new PaymentDeserializer<>(PaymentWireFormat::readRequest, new JsonDeserializer<>());
+        deserializer.configure(Map.of(
+                JsonDeserializer.TRUSTED_PACKAGES, "*",
+                JsonDeserializer.VALUE_DEFAULT_TYPE, PaymentRequestDto.class), false);
+        serializer = new PaymentSerializer<>(binaryTopics, PaymentWireFormat::writeResponse, new JsonSerializer<>());
+
+        LocalDateTime now = LocalDateTime.now();
+        Coordinates coordinates = new Coordinates(55.7558f, 37.6173f);
+        verdict = new PaymentResponseDto(1234567L, "4276550012345678", "5536913812345678", coordinates, now, true);
+        PaymentRequestDto paymentRequest = new PaymentRequestDto(1234567L, "4276550012345678", "5536913812345678", coordinates, now);
+        paymentHeaders = new RecordHeaders();
+        try (PaymentSerializer<PaymentRequestDto> paymentSerializer = new PaymentSerializer<>(binaryTopics, PaymentWireFormat::writeRequest, new JsonSerializer<>())) {
+            payment = paymentSerializer.serialize(TOPIC, paymentHeaders, paymentRequest);
+        }
+        RecordHeaders verdictHeaders = new RecordHeaders();
+        byte[] verdictBytes = serializer.serialize(TOPIC, verdictHeaders, verdict);
+        System.out.printf("%n%s payment: %d + %d header bytes, verdict: %d + %d header bytes%n", format,
+                payment.length, headersSize(paymentHeaders), verdictBytes.length, headersSize(verdictHeaders));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        deserializer.close();
+        serializer.close();
+    }
+
+    @Benchmark
+    public PaymentRequestDto deserializePayment() {
+        return deserializer.deserialize(TOPIC, paymentHeaders, payment);
+    }
+
+    @Benchmark
+    public byte[] serializeVerdict() {
+        return serializer.serialize(TOPIC, new RecordHeaders(), verdict);
+    }
+
+    private static int headersSize(RecordHeaders headers) {
+        int size = 0;
+        for (Header header : headers) {
+            size += header.key().length() + header.value().length;
+        }
+        return size;
+    }
+}
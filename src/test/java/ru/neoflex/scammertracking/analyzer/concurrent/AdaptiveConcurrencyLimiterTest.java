@@ -0,0 +1,64 @@
+package ru.neoflex.scammertracking.analyzer.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long FAST_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    @Test
+    public void aimdTest() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 2, 6, Duration.ofMillis(100), 0.5, Duration.ZERO);
+
+        // an idle limit does not grow
+        assertTrue(limiter.tryAcquire());
+        limiter.release(FAST_NANOS, false);
+        assertEquals(4, limiter.getLimit());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertFalse(limiter.tryAcquire());
+        limiter.release(FAST_NANOS, false);
+        limiter.release(FAST_NANOS, false);
+        assertEquals(6, limiter.getLimit());
+
+        limiter.release(SLOW_NANOS, false);
+        assertEquals(3, limiter.getLimit());
+        limiter.release(FAST_NANOS, true);
+        assertEquals(2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(1, limiter.getRejected());
+    }
+
+    @Test
+    public void waitForSlotTest() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, Duration.ofMillis(100), 0.5, Duration.ofSeconds(10));
+        assertTrue(limiter.tryAcquire());
+
+        CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.tryAcquire();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(waiter.isDone());
+        limiter.cancel();
+
+        assertTrue(waiter.get(5, TimeUnit.SECONDS));
+        assertEquals(1, limiter.getInFlight());
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimiter(1, 2, 4, Duration.ofMillis(100), 0.5, Duration.ZERO));
+    }
+}
@@ -0,0 +1,39 @@
+package ru.neoflex.scammertracking.analyzer.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class KeyOrderedExecutorTest {
+
+    @Test
+    public void executeKeepsOrderByKeyTest() throws Exception {
+        final int KEYS = 10;
+        final int TASKS_PER_KEY = 200;
+
+        Map<String, List<Integer>> executed = new ConcurrentHashMap<>();
+        try (KeyOrderedExecutor executor = new KeyOrderedExecutor(4, 16, Executors.defaultThreadFactory())) {
+            for (int i = 0; i < TASKS_PER_KEY; i++) {
+                for (int key = 0; key < KEYS; key++) {
+                    final int sequence = i;
+                    final String cardNumber = "card-" + key;
+                    executor.execute(cardNumber, () -> executed.computeIfAbsent(cardNumber, k -> new CopyOnWriteArrayList<>()).add(sequence));
+                }
+            }
+        }
+
+        assertEquals(KEYS, executed.size());
+        executed.values().forEach(sequences -> {
+            assertEquals(TASKS_PER_KEY, sequences.size());
+            for (int i = 0; i < TASKS_PER_KEY; i++) {
+                assertEquals(i, sequences.get(i));
+            }
+        });
+    }
+}
@@ -0,0 +1,100 @@
+package ru.neoflex.scammertracking.analyzer.config;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.BatchMessageListener;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.support.TopicPartitionOffset;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.neoflex.scammertracking.analyzer.error.exception.PaymentServiceUnavailableException;
+import ru.neoflex.scammertracking.analyzer.feign.PaymentServiceCircuitBreaker;
+import ru.neoflex.scammertracking.analyzer.feign.PaymentServiceCircuitBreaker.State;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PaymentServiceProtectionConfigTest {
+
+    private static final String PAYMENTS_TOPIC = "payments";
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void rejectedBatchIsNotCommittedTest() throws Exception {
+        final int ATTEMPTS = 20;
+        PaymentServiceProtectionConfig config = new PaymentServiceProtectionConfig();
+        ReflectionTestUtils.setField(config, "retryIntervalMillis", 1L);
+        ReflectionTestUtils.setField(config, "openDurationMillis", 5L);
+        ReflectionTestUtils.setField(config, "maxRetryMillis", 10L);
+
+        TopicPartition partition = new TopicPartition(PAYMENTS_TOPIC, 0);
+        // stays open after the container stops, so its commits are checked afterwards
+        MockConsumer<String, String> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST) {
+            @Override
+            public synchronized void close() {
+            }
+
+            @Override
+            public synchronized void close(Duration timeout) {
+            }
+        };
+        consumer.updateBeginningOffsets(Map.of(partition, 0L));
+        consumer.schedulePollTask(() -> {
+            consumer.addRecord(new ConsumerRecord<>(PAYMENTS_TOPIC, 0, 0L, "1", "payment-1"));
+            consumer.addRecord(new ConsumerRecord<>(PAYMENTS_TOPIC, 0, 1L, "2", "payment-2"));
+        });
+        ConsumerFactory<String, String> consumerFactory = mock(ConsumerFactory.class);
+        when(consumerFactory.createConsumer(any(), any(), any(), any())).thenReturn(consumer);
+
+        try (PaymentServiceCircuitBreaker circuitBreaker = new PaymentServiceCircuitBreaker(10, 4, 0.5, Duration.ofMinutes(1), 2,
+                state -> { }, Executors.defaultThreadFactory())) {
+            for (int i = 0; i < 4; i++) {
+                circuitBreaker.tryAcquirePermission();
+                circuitBreaker.onFailure();
+            }
+            assertEquals(State.OPEN, circuitBreaker.getState());
+
+            AtomicInteger attempts = new AtomicInteger();
+            ContainerProperties containerProperties = new ContainerProperties(new TopicPartitionOffset(PAYMENTS_TOPIC, 0, 0L));
+            containerProperties.setGroupId("analyzer-group-id");
+            containerProperties.setMessageListener((BatchMessageListener<String, String>) records -> {
+                attempts.incrementAndGet();
+                if (!circuitBreaker.tryAcquirePermission()) {
+                    throw new PaymentServiceUnavailableException("The payment-service circuit breaker is open");
+                }
+            });
+            KafkaMessageListenerContainer<String, String> container = new KafkaMessageListenerContainer<>(consumerFactory, containerProperties);
+            container.setCommonErrorHandler(config.paymentsErrorHandler(
+                    new StaticListableBeanFactory(Map.of("paymentServiceCircuitBreaker", circuitBreaker))
+                            .getBeanProvider(PaymentServiceCircuitBreaker.class)));
+
+            container.start();
+            try {
+                for (int i = 0; i < 500 && attempts.get() < ATTEMPTS; i++) {
+                    Thread.sleep(10);
+                }
+            } finally {
+                container.stop();
+            }
+
+            // the default error handler skips the batch and commits its offsets after 10 attempts
+            assertTrue(attempts.get() >= ATTEMPTS, "attempts " + attempts.get());
+            assertNull(consumer.committed(Set.of(partition)).get(partition));
+        }
+    }
+}
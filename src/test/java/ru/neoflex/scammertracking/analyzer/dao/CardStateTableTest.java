@@ -0,0 +1,144 @@
+package ru.neoflex.scammertracking.analyzer.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CardStateTableTest {
+
+    private static final LocalDateTime DATE_PAYMENT = LocalDateTime.of(2024, 3, 1, 12, 30, 15, 250_000_000);
+
+    @Test
+    public void putGetTest() {
+        CardStateTable table = new CardStateTable(0, 4);
+        assertNull(table.get(Constants.PAYER_CARD_NUMBER));
+
+        table.put(payment(Constants.PAYER_CARD_NUMBER, 1L));
+        table.put(payment(Constants.PAYER_CARD_NUMBER, 2L));
+
+        PaymentEntity payment = table.get(Constants.PAYER_CARD_NUMBER);
+        assertEquals(Constants.PAYER_CARD_NUMBER, payment.getPayerCardNumber());
+        assertEquals(Constants.RECEIVER_CARD_NUMBER, payment.getReceiverCardNumber());
+        assertEquals(2L, payment.getIdPayment());
+        assertEquals(Constants.TEST_COORDINATE_1, payment.getLatitude());
+        assertEquals(Constants.TEST_COORDINATE_2, payment.getLongitude());
+        assertEquals(DATE_PAYMENT, payment.getDatePayment());
+        assertEquals(DATE_PAYMENT.withNano(0), payment.getDateUpdating());
+        assertEquals(1, table.size());
+        assertNull(table.get("0" + Constants.PAYER_CARD_NUMBER));
+
+        table.put(new PaymentEntity(Constants.RECEIVER_CARD_NUMBER, null, null, 0, 0, null, null));
+        PaymentEntity emptyPayment = table.get(Constants.RECEIVER_CARD_NUMBER);
+        assertNull(emptyPayment.getReceiverCardNumber());
+        assertNull(emptyPayment.getIdPayment());
+        assertNull(emptyPayment.getDatePayment());
+        assertNull(emptyPayment.getDateUpdating());
+
+        // receiver card numbers that are not a number of up to 18 digits are not kept
+        table.put(new PaymentEntity(Constants.FAKE_CARD_NUMBER, "0042", 3L, 0, 0, null, null));
+        table.put(new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.FAKE_CARD_NUMBER, 4L, 0, 0, null, null));
+        assertEquals("0042", table.get(Constants.FAKE_CARD_NUMBER).getReceiverCardNumber());
+        assertNull(table.get(Constants.PAYER_CARD_NUMBER).getReceiverCardNumber());
+    }
+
+    @Test
+    public void resizeAndRemoveTest() {
+        CardStateTable table = new CardStateTable(0, 1);
+        for (long i = 0; i < 10_000; i++) {
+            table.put(payment(cardNumber(i), i));
+        }
+        assertEquals(10_000, table.size());
+
+        for (long i = 0; i < 10_000; i += 2) {
+            table.remove(cardNumber(i));
+        }
+        table.remove(Constants.FAKE_CARD_NUMBER);
+
+        assertEquals(5_000, table.size());
+        for (long i = 0; i < 10_000; i++) {
+            PaymentEntity payment = table.get(cardNumber(i));
+            if (i % 2 == 0) {
+                assertNull(payment);
+            } else {
+                assertEquals(i, payment.getIdPayment());
+            }
+        }
+    }
+
+    @Test
+    public void concurrentPutTest() throws Exception {
+        CardStateTable table = new CardStateTable(16, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                long first = thread * 5_000L;
+                futures.add(executor.submit(() -> {
+                    for (long i = first; i < first + 5_000; i++) {
+                        table.put(payment(cardNumber(i), i));
+                        assertEquals(i, table.get(cardNumber(i)).getIdPayment());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(20_000, table.size());
+        for (long i = 0; i < 20_000; i++) {
+            assertEquals(i, table.get(cardNumber(i)).getIdPayment());
+        }
+    }
+
+    @Test
+    public void snapshotTest(@TempDir Path directory) throws IOException {
+        CardStateTable table = new CardStateTable(100, 8);
+        for (long i = 0; i < 1_000; i++) {
+            table.put(payment(cardNumber(i), i));
+        }
+        Path file = directory.resolve("changelog-0.snapshot");
+
+        table.snapshot(file, 42);
+        CardStateTable.Snapshot snapshot = CardStateTable.restore(file);
+
+        assertEquals(42, snapshot.position());
+        assertEquals(1_000, snapshot.table().size());
+        for (long i = 0; i < 1_000; i++) {
+            PaymentEntity payment = snapshot.table().get(cardNumber(i));
+            assertEquals(i, payment.getIdPayment());
+            assertEquals(DATE_PAYMENT, payment.getDatePayment());
+        }
+        snapshot.table().put(payment(Constants.PAYER_CARD_NUMBER, 1L));
+        assertEquals(1_001, snapshot.table().size());
+
+        Files.write(file, new byte[]{1, 2, 3});
+        assertThrows(IOException.class, () -> CardStateTable.restore(file));
+    }
+
+    private static String cardNumber(long i) {
+        return String.valueOf(4276550000000000L + i);
+    }
+
+    private static PaymentEntity payment(String payerCardNumber, Long idPayment) {
+        return new PaymentEntity(payerCardNumber, Constants.RECEIVER_CARD_NUMBER, idPayment,
+                Constants.TEST_COORDINATE_1, Constants.TEST_COORDINATE_2, DATE_PAYMENT, DATE_PAYMENT);
+    }
+}
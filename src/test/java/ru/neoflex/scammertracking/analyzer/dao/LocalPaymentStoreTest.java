@@ -0,0 +1,170 @@
+package ru.neoflex.scammertracking.analyzer.dao;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class LocalPaymentStoreTest {
+
+    private static final String PAYMENTS_TOPIC = "payments";
+    private static final String CHANGELOG_TOPIC = "changelog";
+    private static final TopicPartition PAYMENTS_PARTITION = new TopicPartition(PAYMENTS_TOPIC, 0);
+    private static final TopicPartition CHANGELOG_PARTITION = new TopicPartition(CHANGELOG_TOPIC, 0);
+
+    private final PaymentEntityRedisSerializer serializer = new PaymentEntityRedisSerializer();
+    private final MockConsumer<String, byte[]> changelogConsumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+    // stays open like the producers of DefaultKafkaProducerFactory, which ignore close
+    private final MockProducer<String, byte[]> changelogProducer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer()) {
+        @Override
+        public void close(Duration timeout) {
+        }
+    };
+
+    @Test
+    public void restoreTest() {
+        PaymentEntity firstPayment = payment(Constants.PAYER_CARD_NUMBER, 1L);
+        PaymentEntity lastPayment = payment(Constants.PAYER_CARD_NUMBER, 2L);
+        PaymentEntity deletedPayment = payment(Constants.RECEIVER_CARD_NUMBER, 3L);
+        changelogConsumer.updateBeginningOffsets(Map.of(CHANGELOG_PARTITION, 0L));
+        changelogConsumer.updateEndOffsets(Map.of(CHANGELOG_PARTITION, 4L));
+        changelogConsumer.schedulePollTask(() -> {
+            changelogConsumer.addRecord(record(0, Constants.PAYER_CARD_NUMBER, serializer.serialize(firstPayment)));
+            changelogConsumer.addRecord(record(1, Constants.RECEIVER_CARD_NUMBER, serializer.serialize(deletedPayment)));
+            changelogConsumer.addRecord(record(2, Constants.PAYER_CARD_NUMBER, serializer.serialize(lastPayment)));
+            changelogConsumer.addRecord(record(3, Constants.RECEIVER_CARD_NUMBER, null));
+        });
+        LocalPaymentStore store = store();
+
+        assertNull(store.get(Constants.PAYER_CARD_NUMBER));
+        store.onPartitionsAssigned(paymentsConsumer(1), List.of(PAYMENTS_PARTITION));
+
+        assertEquals(2L, store.get(Constants.PAYER_CARD_NUMBER).getIdPayment());
+        assertNull(store.get(Constants.RECEIVER_CARD_NUMBER));
+        assertEquals(1, store.size());
+
+        store.onPartitionsRevokedAfterCommit(paymentsConsumer(1), List.of(PAYMENTS_PARTITION));
+        assertNull(store.get(Constants.PAYER_CARD_NUMBER));
+    }
+
+    @Test
+    public void putTest() {
+        changelogConsumer.updateBeginningOffsets(Map.of(CHANGELOG_PARTITION, 0L));
+        changelogConsumer.updateEndOffsets(Map.of(CHANGELOG_PARTITION, 0L));
+        LocalPaymentStore store = store();
+        store.onPartitionsAssigned(paymentsConsumer(1), List.of(PAYMENTS_PARTITION));
+
+        PaymentEntity payment = payment(Constants.PAYER_CARD_NUMBER, 1L);
+        store.put(payment);
+
+        assertEquals(payment, store.get(Constants.PAYER_CARD_NUMBER));
+        ProducerRecord<String, byte[]> changelogRecord = changelogProducer.history().get(0);
+        assertEquals(CHANGELOG_TOPIC, changelogRecord.topic());
+        assertEquals(0, changelogRecord.partition());
+        assertEquals(Constants.PAYER_CARD_NUMBER, changelogRecord.key());
+        assertEquals(payment.getIdPayment(), serializer.deserialize(changelogRecord.value()).getIdPayment());
+    }
+
+    @Test
+    public void partitionCountMismatchTest() {
+        MockConsumer<String, byte[]> paymentsConsumer = paymentsConsumer(1);
+        paymentsConsumer.updatePartitions(CHANGELOG_TOPIC, List.of(partitionInfo(CHANGELOG_TOPIC, 0), partitionInfo(CHANGELOG_TOPIC, 1)));
+        LocalPaymentStore store = store();
+
+        store.onPartitionsAssigned(paymentsConsumer, List.of(PAYMENTS_PARTITION));
+
+        store.put(payment(Constants.PAYER_CARD_NUMBER, 1L));
+        assertNull(store.get(Constants.PAYER_CARD_NUMBER));
+        assertEquals(0, changelogProducer.history().size());
+    }
+
+    @Test
+    public void compactSnapshotTest(@TempDir Path snapshotDirectory) {
+        LocalPaymentStore.CompactTables compactTables = new LocalPaymentStore.CompactTables(16, 2, snapshotDirectory);
+        changelogConsumer.updateBeginningOffsets(Map.of(CHANGELOG_PARTITION, 0L));
+        changelogConsumer.updateEndOffsets(Map.of(CHANGELOG_PARTITION, 0L));
+        LocalPaymentStore store = store(changelogConsumer, compactTables);
+        store.onPartitionsAssigned(paymentsConsumer(1), List.of(PAYMENTS_PARTITION));
+        store.put(payment(Constants.PAYER_CARD_NUMBER, 1L));
+        assertEquals(1L, store.get(Constants.PAYER_CARD_NUMBER).getIdPayment());
+
+        MockConsumer<String, byte[]> paymentsConsumer = paymentsConsumer(1);
+        paymentsConsumer.updateEndOffsets(Map.of(CHANGELOG_PARTITION, 1L));
+        store.onPartitionsRevokedAfterCommit(paymentsConsumer, List.of(PAYMENTS_PARTITION));
+        assertTrue(Files.exists(snapshotDirectory.resolve(CHANGELOG_TOPIC + "-0.snapshot")));
+
+        // the record at offset 0 is in the snapshot and must not be read again, the one at offset 1 was written later
+        MockConsumer<String, byte[]> nextChangelogConsumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        nextChangelogConsumer.updateBeginningOffsets(Map.of(CHANGELOG_PARTITION, 0L));
+        nextChangelogConsumer.updateEndOffsets(Map.of(CHANGELOG_PARTITION, 2L));
+        nextChangelogConsumer.schedulePollTask(() -> {
+            nextChangelogConsumer.addRecord(record(0, Constants.PAYER_CARD_NUMBER, serializer.serialize(payment(Constants.PAYER_CARD_NUMBER, 0L))));
+            nextChangelogConsumer.addRecord(record(1, Constants.RECEIVER_CARD_NUMBER, serializer.serialize(payment(Constants.RECEIVER_CARD_NUMBER, 2L))));
+        });
+        LocalPaymentStore restoredStore = store(nextChangelogConsumer, compactTables);
+        restoredStore.onPartitionsAssigned(paymentsConsumer(1), List.of(PAYMENTS_PARTITION));
+
+        assertEquals(1L, restoredStore.get(Constants.PAYER_CARD_NUMBER).getIdPayment());
+        assertEquals(2L, restoredStore.get(Constants.RECEIVER_CARD_NUMBER).getIdPayment());
+        assertEquals(2, restoredStore.size());
+    }
+
+    private LocalPaymentStore store() {
+        return store(changelogConsumer, null);
+    }
+
+    private LocalPaymentStore store(MockConsumer<String, byte[]> changelogConsumer, LocalPaymentStore.CompactTables compactTables) {
+        @SuppressWarnings("unchecked")
+        ConsumerFactory<String, byte[]> consumerFactory = mock(ConsumerFactory.class);
+        when(consumerFactory.createConsumer()).thenReturn(changelogConsumer);
+        return new LocalPaymentStore(PAYMENTS_TOPIC, CHANGELOG_TOPIC, consumerFactory, new KafkaTemplate<>(() -> changelogProducer),
+                Duration.ofSeconds(10), Duration.ofMillis(10), compactTables);
+    }
+
+    private static MockConsumer<String, byte[]> paymentsConsumer(int partitionCount) {
+        MockConsumer<String, byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        for (String topic : List.of(PAYMENTS_TOPIC, CHANGELOG_TOPIC)) {
+            consumer.updatePartitions(topic, IntStream.range(0, partitionCount)
+                    .mapToObj(partition -> partitionInfo(topic, partition))
+                    .toList());
+        }
+        return consumer;
+    }
+
+    private static PartitionInfo partitionInfo(String topic, int partition) {
+        return new PartitionInfo(topic, partition, null, null, null);
+    }
+
+    private static ConsumerRecord<String, byte[]> record(long offset, String key, byte[] value) {
+        return new ConsumerRecord<>(CHANGELOG_TOPIC, 0, offset, key, value);
+    }
+
+    private static PaymentEntity payment(String payerCardNumber, Long idPayment) {
+        return new PaymentEntity(payerCardNumber, Constants.RECEIVER_CARD_NUMBER, idPayment, Constants.TEST_COORDINATE_1, Constants.TEST_COORDINATE_1, LocalDateTime.now(), LocalDateTime.now());
+    }
+}
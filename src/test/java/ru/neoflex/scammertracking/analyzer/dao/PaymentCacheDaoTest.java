@@ -0,0 +1,140 @@
+package ru.neoflex.scammertracking.analyzer.dao;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PaymentCacheDaoTest {
+
+    private final PaymentCacheStorage paymentCacheStorage = mock(PaymentCacheStorage.class);
+    private final PaymentNearCache paymentNearCache = new PaymentNearCache(true, 100, Duration.ofMinutes(1), System::nanoTime);
+    private final PaymentCacheDao paymentCacheDao = new PaymentCacheDao(paymentCacheStorage, paymentNearCache);
+
+    @Test
+    public void findPaymentsByCardNumbersTest() {
+        final String NEAR_CACHED_CARD_NUMBER = "111111";
+        PaymentEntity nearCachedPayment = new PaymentEntity(NEAR_CACHED_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, 1L, Constants.TEST_COORDINATE_1, Constants.TEST_COORDINATE_1, LocalDateTime.now(), LocalDateTime.now());
+        PaymentEntity storedPayment = new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, 2L, Constants.TEST_COORDINATE_1, Constants.TEST_COORDINATE_1, LocalDateTime.now(), LocalDateTime.now());
+        paymentNearCache.put(nearCachedPayment);
+        when(paymentCacheStorage.multiGet(List.of(Constants.PAYER_CARD_NUMBER, Constants.FAKE_CARD_NUMBER)))
+                .thenReturn(Arrays.asList(storedPayment, null));
+
+        Map<String, PaymentEntity> payments = paymentCacheDao.findPaymentsByCardNumbers(List.of(NEAR_CACHED_CARD_NUMBER, Constants.PAYER_CARD_NUMBER, Constants.FAKE_CARD_NUMBER));
+
+        assertEquals(2, payments.size());
+        assertSame(nearCachedPayment, payments.get(NEAR_CACHED_CARD_NUMBER));
+        assertSame(storedPayment, payments.get(Constants.PAYER_CARD_NUMBER));
+        assertSame(storedPayment, paymentCacheDao.findPaymentByCardNumber(Constants.PAYER_CARD_NUMBER));
+        verify(paymentCacheStorage, never()).get(Mockito.any());
+    }
+
+    @Test
+    public void updateKeepsCachedIdTest() {
+        PaymentEntity cachedPayment = new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, 1L, Constants.TEST_COORDINATE_1, Constants.TEST_COORDINATE_1, LocalDateTime.now().minusDays(2), LocalDateTime.now().minusDays(2));
+        PaymentEntity paymentUpdate = new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.FAKE_CARD_NUMBER, 2L, Constants.TEST_COORDINATE_2, Constants.TEST_COORDINATE_2, LocalDateTime.now(), LocalDateTime.now());
+        PaymentEntity storedPayment = PaymentCacheScripts.withIdPayment(paymentUpdate, cachedPayment.getIdPayment());
+        when(paymentCacheStorage.saveOrUpdate(paymentUpdate)).thenReturn(storedPayment);
+
+        PaymentEntity result = paymentCacheDao.update(paymentUpdate);
+
+        assertSame(storedPayment, result);
+        assertSame(storedPayment, paymentCacheDao.findPaymentByCardNumber(Constants.PAYER_CARD_NUMBER));
+        verify(paymentCacheStorage, never()).get(Mockito.any());
+        verify(paymentCacheStorage, never()).put(Mockito.any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void saveOrUpdateScriptTest() {
+        PaymentEntityRedisSerializer serializer = new PaymentEntityRedisSerializer();
+        PaymentEntity cachedPayment = new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, 1L, Constants.TEST_COORDINATE_1, Constants.TEST_COORDINATE_1, LocalDateTime.now().minusDays(2), LocalDateTime.now().minusDays(2));
+        PaymentEntity payment = new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.FAKE_CARD_NUMBER, 2L, Constants.TEST_COORDINATE_2, Constants.TEST_COORDINATE_2, LocalDateTime.now(), LocalDateTime.now());
+        RedisTemplate<String, Object> redisTemplate = mock(RedisTemplate.class);
+        HashPaymentCacheStorage storage = Mockito.spy(new HashPaymentCacheStorage(redisTemplate));
+        Mockito.doNothing().when(storage).put(Mockito.any());
+
+        // a card not cached yet
+        assertSame(payment, storage.saveOrUpdate(payment));
+
+        // the script returns the merged payment
+        byte[] mergedBytes = serializer.serialize(PaymentCacheScripts.withIdPayment(payment, 1L));
+        when(executeSaveOrUpdate(redisTemplate)).thenReturn(mergedBytes);
+        PaymentEntity result = storage.saveOrUpdate(payment);
+        assertEquals(1L, result.getIdPayment());
+        assertEquals(Constants.FAKE_CARD_NUMBER, result.getReceiverCardNumber());
+        verify(storage, never()).put(Mockito.any());
+
+        // a legacy payment is merged on the client
+        when(executeSaveOrUpdate(redisTemplate))
+                .thenReturn(new JdkSerializationRedisSerializer().serialize(cachedPayment));
+        result = storage.saveOrUpdate(payment);
+        assertEquals(1L, result.getIdPayment());
+        assertEquals(Constants.FAKE_CARD_NUMBER, result.getReceiverCardNumber());
+        verify(storage).put(result);
+    }
+
+    @Test
+    public void saveAllStagedPaymentsTest() {
+        final String NEW_CARD_NUMBER = "111111";
+        PaymentEntity cachedPayment = new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, 1L, Constants.TEST_COORDINATE_1, Constants.TEST_COORDINATE_1, LocalDateTime.now().minusDays(2), LocalDateTime.now().minusDays(2));
+        PaymentEntity paymentUpdate = new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.FAKE_CARD_NUMBER, 2L, Constants.TEST_COORDINATE_2, Constants.TEST_COORDINATE_2, LocalDateTime.now(), LocalDateTime.now());
+        PaymentEntity firstPayment = new PaymentEntity(NEW_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, 3L, Constants.TEST_COORDINATE_1, Constants.TEST_COORDINATE_1, LocalDateTime.now(), LocalDateTime.now());
+        PaymentEntity secondPayment = new PaymentEntity(NEW_CARD_NUMBER, Constants.FAKE_CARD_NUMBER, 4L, Constants.TEST_COORDINATE_2, Constants.TEST_COORDINATE_2, LocalDateTime.now(), LocalDateTime.now());
+        when(paymentCacheStorage.multiGet(List.of(Constants.PAYER_CARD_NUMBER))).thenReturn(Arrays.asList((PaymentEntity) null));
+        when(paymentCacheStorage.multiGet(List.of(Constants.PAYER_CARD_NUMBER, NEW_CARD_NUMBER))).thenReturn(Arrays.asList(cachedPayment, null));
+        List<PaymentEntity> storedPayments = new ArrayList<>();
+        Mockito.doAnswer(invocation -> storedPayments.addAll(invocation.<Collection<PaymentEntity>>getArgument(0)))
+                .when(paymentCacheStorage).putAll(Mockito.any());
+
+        List.of(paymentUpdate, firstPayment, secondPayment).forEach(paymentCacheDao::stage);
+        assertSame(secondPayment, paymentCacheDao.findPaymentByCardNumber(NEW_CARD_NUMBER));
+        assertSame(paymentUpdate, paymentCacheDao.findPaymentsByCardNumbers(List.of(Constants.PAYER_CARD_NUMBER)).get(Constants.PAYER_CARD_NUMBER));
+        paymentCacheDao.saveAll(List.of(paymentUpdate, firstPayment, secondPayment));
+
+        // ids are kept as if the payments were saved and updated one by one
+        assertEquals(2, storedPayments.size());
+        assertEquals(1L, storedPayments.get(0).getIdPayment());
+        assertEquals(Constants.FAKE_CARD_NUMBER, storedPayments.get(0).getReceiverCardNumber());
+        assertEquals(3L, storedPayments.get(1).getIdPayment());
+        assertEquals(Constants.FAKE_CARD_NUMBER, storedPayments.get(1).getReceiverCardNumber());
+        assertSame(storedPayments.get(1), paymentCacheDao.findPaymentByCardNumber(NEW_CARD_NUMBER));
+        paymentCacheDao.unstage(paymentUpdate);
+        assertNull(paymentNearCache.get(Constants.FAKE_CARD_NUMBER));
+    }
+
+    @Test
+    public void keyExpiryTest() {
+        LocalDateTime now = LocalDateTime.now();
+        PaymentEntity payment = new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, 1L, Constants.TEST_COORDINATE_1, Constants.TEST_COORDINATE_1, now, now.minusHours(1));
+
+        assertEquals(Duration.ofHours(23), KeyPaymentCacheStorage.expiryOf(payment, Duration.ofDays(1), now));
+        payment.setDateUpdating(now.minusDays(2));
+        assertTrue(KeyPaymentCacheStorage.expiryOf(payment, Duration.ofDays(1), now).isNegative());
+    }
+
+    private static byte[] executeSaveOrUpdate(RedisTemplate<String, Object> redisTemplate) {
+        return redisTemplate.execute(Mockito.eq(PaymentCacheScripts.HASH_SAVE_OR_UPDATE), Mockito.<RedisSerializer<?>>any(),
+                Mockito.<RedisSerializer<byte[]>>any(), Mockito.eq(List.of(HashPaymentCacheStorage.HASH_KEY)), Mockito.any(), Mockito.any());
+    }
+}
@@ -0,0 +1,215 @@
+package ru.neoflex.scammertracking.analyzer.dao;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the Lua scripts of {@link PaymentCacheScripts} on a real Redis server.
+ */
+class PaymentCacheScriptsTest {
+
+    private static final LocalDateTime DATE_PAYMENT = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+
+    private static RedisServer redisServer;
+    private static JedisConnectionFactory connectionFactory;
+    private static RedisTemplate<String, Object> redisTemplate;
+
+    @BeforeAll
+    public static void startRedis() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redisServer = new RedisServer(port);
+        redisServer.start();
+
+        connectionFactory = new JedisConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(connectionFactory);
+        redisTemplate.setKeySerializer(new StringRedisSerializer());
+        redisTemplate.setHashKeySerializer(new StringRedisSerializer());
+        redisTemplate.setHashValueSerializer(new PaymentEntityRedisSerializer());
+        redisTemplate.setValueSerializer(new PaymentEntityRedisSerializer());
+        redisTemplate.afterPropertiesSet();
+    }
+
+    @AfterAll
+    public static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    public void flush() {
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            connection.serverCommands().flushAll();
+        }
+    }
+
+    @Test
+    public void hashSaveNewTest() {
+        HashPaymentCacheStorage storage = new HashPaymentCacheStorage(redisTemplate);
+
+        PaymentEntity result = storage.saveOrUpdate(payment(2L, 55));
+
+        assertEquals(2L, result.getIdPayment());
+        assertEquals(2L, storage.get(Constants.PAYER_CARD_NUMBER).getIdPayment());
+    }
+
+    @Test
+    public void hashUpdateTest() {
+        HashPaymentCacheStorage storage = new HashPaymentCacheStorage(redisTemplate);
+        storage.put(payment(1L, 55));
+
+        PaymentEntity result = storage.saveOrUpdate(payment(2L, 56));
+
+        // the new payment keeps the idPayment of the cached one
+        assertEquals(1L, result.getIdPayment());
+        assertEquals(56, result.getLatitude());
+        PaymentEntity stored = storage.get(Constants.PAYER_CARD_NUMBER);
+        assertEquals(1L, stored.getIdPayment());
+        assertEquals(56, stored.getLatitude());
+        assertEquals(Constants.RECEIVER_CARD_NUMBER, stored.getReceiverCardNumber());
+    }
+
+    @Test
+    public void hashUpdateLegacyTest() {
+        HashPaymentCacheStorage storage = new HashPaymentCacheStorage(redisTemplate);
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            connection.hashCommands().hSet(HashPaymentCacheStorage.HASH_KEY.getBytes(StandardCharsets.UTF_8),
+                    Constants.PAYER_CARD_NUMBER.getBytes(StandardCharsets.UTF_8), new JdkSerializationRedisSerializer().serialize(payment(1L, 55)));
+        }
+
+        PaymentEntity result = storage.saveOrUpdate(payment(2L, 56));
+
+        assertEquals(1L, result.getIdPayment());
+        assertEquals(56, result.getLatitude());
+        // the legacy payment is replaced by the merged one in the current format
+        assertFalse(PaymentEntityRedisSerializer.isLegacy(rawHashValue()));
+        PaymentEntity stored = storage.get(Constants.PAYER_CARD_NUMBER);
+        assertEquals(1L, stored.getIdPayment());
+        assertEquals(56, stored.getLatitude());
+    }
+
+    @Test
+    public void keySaveNewTest() {
+        KeyPaymentCacheStorage storage = new KeyPaymentCacheStorage(redisTemplate, Duration.ofHours(1));
+
+        PaymentEntity result = storage.saveOrUpdate(payment(2L, 55));
+
+        assertEquals(2L, result.getIdPayment());
+        assertEquals(2L, storage.get(Constants.PAYER_CARD_NUMBER).getIdPayment());
+        assertTrue(timeToLiveMillis() > 0);
+    }
+
+    @Test
+    public void keyUpdateTest() {
+        KeyPaymentCacheStorage storage = new KeyPaymentCacheStorage(redisTemplate, Duration.ofHours(1));
+        storage.put(payment(1L, 55));
+
+        PaymentEntity result = storage.saveOrUpdate(payment(2L, 56));
+
+        assertEquals(1L, result.getIdPayment());
+        assertEquals(56, result.getLatitude());
+        PaymentEntity stored = storage.get(Constants.PAYER_CARD_NUMBER);
+        assertEquals(1L, stored.getIdPayment());
+        assertEquals(56, stored.getLatitude());
+        assertTrue(timeToLiveMillis() > 0);
+    }
+
+    @Test
+    public void keyUpdateLegacyTest() {
+        KeyPaymentCacheStorage storage = new KeyPaymentCacheStorage(redisTemplate, Duration.ofHours(1));
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            connection.stringCommands().set(KeyPaymentCacheStorage.keyOf(Constants.PAYER_CARD_NUMBER).getBytes(StandardCharsets.UTF_8),
+                    new JdkSerializationRedisSerializer().serialize(payment(1L, 55)));
+        }
+
+        PaymentEntity result = storage.saveOrUpdate(payment(2L, 56));
+
+        assertEquals(1L, result.getIdPayment());
+        PaymentEntity stored = storage.get(Constants.PAYER_CARD_NUMBER);
+        assertEquals(1L, stored.getIdPayment());
+        assertEquals(56, stored.getLatitude());
+        assertTrue(timeToLiveMillis() > 0);
+    }
+
+    @Test
+    public void hashReplaceTest() {
+        PaymentEntityRedisSerializer serializer = new PaymentEntityRedisSerializer();
+        byte[] hashKey = HashPaymentCacheStorage.HASH_KEY.getBytes(StandardCharsets.UTF_8);
+        byte[] field = Constants.PAYER_CARD_NUMBER.getBytes(StandardCharsets.UTF_8);
+        byte[] legacyPayment = new JdkSerializationRedisSerializer().serialize(payment(1L, 55));
+        byte[] newerPayment = serializer.serialize(payment(2L, 56));
+        byte[] script = PaymentCacheScripts.HASH_REPLACE.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            connection.hashCommands().hSet(hashKey, field, newerPayment);
+            // the scanned legacy payment was replaced by a newer one meanwhile
+            Long replaced = connection.scriptingCommands().eval(script, ReturnType.INTEGER, 1, hashKey, field,
+                    legacyPayment, serializer.serialize(payment(1L, 55)));
+            assertEquals(0L, replaced);
+        }
+        assertEquals(2L, new HashPaymentCacheStorage(redisTemplate).get(Constants.PAYER_CARD_NUMBER).getIdPayment());
+    }
+
+    @Test
+    public void migrateLegacyValueTest() {
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            connection.hashCommands().hSet(HashPaymentCacheStorage.HASH_KEY.getBytes(StandardCharsets.UTF_8),
+                    Constants.PAYER_CARD_NUMBER.getBytes(StandardCharsets.UTF_8), new JdkSerializationRedisSerializer().serialize(payment(1L, 55)));
+        }
+        PaymentCacheMigration migration = new PaymentCacheMigration(redisTemplate);
+        ReflectionTestUtils.setField(migration, "chunkSize", 100);
+        ReflectionTestUtils.setField(migration, "layout", "hash");
+
+        migration.run(null);
+
+        assertFalse(PaymentEntityRedisSerializer.isLegacy(rawHashValue()));
+        assertEquals(1L, new HashPaymentCacheStorage(redisTemplate).get(Constants.PAYER_CARD_NUMBER).getIdPayment());
+    }
+
+    private static PaymentEntity payment(Long idPayment, float latitude) {
+        return new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, idPayment, latitude, 37,
+                DATE_PAYMENT, LocalDateTime.now());
+    }
+
+    private static byte[] rawHashValue() {
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            return connection.hashCommands().hGet(HashPaymentCacheStorage.HASH_KEY.getBytes(StandardCharsets.UTF_8),
+                    Constants.PAYER_CARD_NUMBER.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static long timeToLiveMillis() {
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            return connection.keyCommands().pTtl(KeyPaymentCacheStorage.keyOf(Constants.PAYER_CARD_NUMBER).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package ru.neoflex.scammertracking.analyzer.dao;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.geo.GeoCell;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PaymentEntityRedisSerializerTest {
+
+    private final PaymentEntityRedisSerializer serializer = new PaymentEntityRedisSerializer();
+
+    @Test
+    public void serializeDeserializeTest() {
+        LocalDateTime datePayment = LocalDateTime.now().minusMinutes(5).truncatedTo(ChronoUnit.MILLIS);
+        LocalDateTime dateUpdating = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        PaymentEntity payment = new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.ID, 55.75f, 37.61f, datePayment, dateUpdating);
+
+        PaymentEntity result = serializer.deserialize(serializer.serialize(payment));
+
+        assertEquals(payment.getPayerCardNumber(), result.getPayerCardNumber());
+        assertEquals(payment.getReceiverCardNumber(), result.getReceiverCardNumber());
+        assertEquals(payment.getIdPayment(), result.getIdPayment());
+        assertEquals(payment.getLatitude(), result.getLatitude());
+        assertEquals(payment.getLongitude(), result.getLongitude());
+        assertEquals(datePayment, result.getDatePayment());
+        assertEquals(dateUpdating, result.getDateUpdating());
+        assertEquals(GeoCell.of(55.75f, 37.61f), result.getGeoCell());
+    }
+
+    @Test
+    public void deserializeWithoutGeoCellTest() {
+        PaymentEntity payment = new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.ID, 55.75f, 37.61f, null, null);
+        byte[] bytes = serializer.serialize(payment);
+        ByteBuffer versionWithoutGeoCell = ByteBuffer.allocate(bytes.length - Long.BYTES);
+        versionWithoutGeoCell.put(PaymentEntityRedisSerializer.VERSION_WITHOUT_GEO_CELL)
+                .put(bytes, 1, 16)
+                .put(bytes, 17 + Long.BYTES, bytes.length - 17 - Long.BYTES);
+
+        PaymentEntity result = serializer.deserialize(versionWithoutGeoCell.array());
+
+        assertEquals(Constants.ID, result.getIdPayment());
+        assertEquals(payment.getLongitude(), result.getLongitude());
+        assertEquals(Constants.RECEIVER_CARD_NUMBER, result.getReceiverCardNumber());
+        assertEquals(payment.getGeoCell(), result.getGeoCell());
+    }
+
+    @Test
+    public void serializeAbsentValuesTest() {
+        PaymentEntity payment = new PaymentEntity();
+        payment.setPayerCardNumber(Constants.PAYER_CARD_NUMBER);
+
+        PaymentEntity result = serializer.deserialize(serializer.serialize(payment));
+
+        assertEquals(Constants.PAYER_CARD_NUMBER, result.getPayerCardNumber());
+        assertNull(result.getReceiverCardNumber());
+        assertNull(result.getIdPayment());
+        assertNull(result.getDatePayment());
+        assertNull(result.getDateUpdating());
+    }
+
+    @Test
+    public void deserializeLegacyTest() {
+        PaymentEntity payment = new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.ID, Constants.TEST_COORDINATE_1, Constants.TEST_COORDINATE_2, LocalDateTime.now(), LocalDateTime.now());
+        byte[] legacyBytes = new JdkSerializationRedisSerializer().serialize(payment);
+
+        PaymentEntity result = serializer.deserialize(legacyBytes);
+
+        assertTrue(PaymentEntityRedisSerializer.isLegacy(legacyBytes));
+        assertEquals(payment.getIdPayment(), result.getIdPayment());
+        assertEquals(payment.getDateUpdating(), result.getDateUpdating());
+        assertTrue(serializer.serialize(payment).length * 5 < legacyBytes.length);
+    }
+}
@@ -0,0 +1,44 @@
+package ru.neoflex.scammertracking.analyzer.dao;
+
+import org.junit.jupiter.api.Test;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PaymentNearCacheTest {
+
+    @Test
+    public void expireAfterWriteTest() {
+        AtomicLong nanos = new AtomicLong();
+        PaymentNearCache nearCache = new PaymentNearCache(true, 10, Duration.ofSeconds(60), nanos::get);
+        PaymentEntity payment = new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.ID, Constants.TEST_COORDINATE_1, Constants.TEST_COORDINATE_1, LocalDateTime.now(), LocalDateTime.now());
+
+        nearCache.put(payment);
+        assertSame(payment, nearCache.get(Constants.PAYER_CARD_NUMBER));
+
+        nanos.addAndGet(Duration.ofSeconds(61).toNanos());
+        assertNull(nearCache.get(Constants.PAYER_CARD_NUMBER));
+        assertNull(nearCache.get(Constants.FAKE_CARD_NUMBER));
+
+        assertEquals(1, nearCache.getStats().hitCount());
+        assertEquals(2, nearCache.getStats().missCount());
+    }
+
+    @Test
+    public void disabledTest() {
+        PaymentNearCache nearCache = new PaymentNearCache(false, 10, Duration.ofSeconds(60), System::nanoTime);
+        PaymentEntity payment = new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.ID, Constants.TEST_COORDINATE_1, Constants.TEST_COORDINATE_1, LocalDateTime.now(), LocalDateTime.now());
+
+        nearCache.put(payment);
+
+        assertNull(nearCache.get(Constants.PAYER_CARD_NUMBER));
+        assertEquals(0, nearCache.getSize());
+    }
+}
@@ -0,0 +1,66 @@
+package ru.neoflex.scammertracking.analyzer.dedup;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PaymentDeduplicatorTest {
+
+    @Test
+    public void markProcessedTest() {
+        PaymentDeduplicator paymentDeduplicator = new PaymentDeduplicator(10, 100, 0.01);
+
+        assertFalse(paymentDeduplicator.isProcessed(1));
+        paymentDeduplicator.markProcessed(1);
+        paymentDeduplicator.markProcessed(1);
+
+        assertTrue(paymentDeduplicator.isProcessed(1));
+        assertFalse(paymentDeduplicator.isProcessed(2));
+        assertFalse(paymentDeduplicator.isProcessed(Long.MIN_VALUE));
+        assertEquals(4, paymentDeduplicator.getChecks());
+        assertEquals(1, paymentDeduplicator.getDuplicates());
+    }
+
+    @Test
+    public void exactWindowTest() {
+        PaymentDeduplicator paymentDeduplicator = new PaymentDeduplicator(4, 100, 0.01);
+        for (long id = 1; id <= 10; id++) {
+            paymentDeduplicator.markProcessed(id);
+        }
+
+        for (long id = 1; id <= 6; id++) {
+            assertFalse(paymentDeduplicator.isProcessed(id));
+        }
+        for (long id = 7; id <= 10; id++) {
+            assertTrue(paymentDeduplicator.isProcessed(id));
+        }
+        assertEquals(6, paymentDeduplicator.getBloomOnlyIds());
+        assertEquals(4, paymentDeduplicator.getDuplicates());
+    }
+
+    @Test
+    public void evictionTest() {
+        int exactIds = 1000;
+        PaymentDeduplicator paymentDeduplicator = new PaymentDeduplicator(exactIds, exactIds, 0.01);
+        Random random = new Random(42);
+        long[] ids = new long[50_000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = random.nextLong();
+            paymentDeduplicator.markProcessed(ids[i]);
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(i >= ids.length - exactIds, paymentDeduplicator.isProcessed(ids[i]));
+        }
+    }
+
+    @Test
+    public void bloomSmallerThanExactTest() {
+        assertThrows(IllegalArgumentException.class, () -> new PaymentDeduplicator(100, 10, 0.01));
+    }
+}
@@ -0,0 +1,168 @@
+package ru.neoflex.scammertracking.analyzer.feign;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.error.exception.BadRequestException;
+import ru.neoflex.scammertracking.analyzer.error.exception.NotFoundException;
+import ru.neoflex.scammertracking.analyzer.error.exception.PaymentServiceUnavailableException;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+import ru.neoflex.scammertracking.analyzer.utils.PaymentServiceStub;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AsyncPaymentClientTest {
+
+    private PaymentServiceStub paymentServiceStub;
+    private AsyncPaymentClient asyncPaymentClient;
+
+    @BeforeEach
+    public void init() throws Exception {
+        paymentServiceStub = new PaymentServiceStub();
+        asyncPaymentClient = new AsyncPaymentClient(paymentServiceStub.getHostPort(), HttpClient.newHttpClient(),
+                PaymentServiceStub.OBJECT_MAPPER, 8, 64, Duration.ofMillis(500));
+    }
+
+    @AfterEach
+    public void close() {
+        asyncPaymentClient.close();
+        paymentServiceStub.close();
+    }
+
+    @Test
+    public void getLastPaymentTest() {
+        LocalDateTime date = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        paymentServiceStub.putLastPayment(new LastPaymentResponseDto(Constants.ID, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, date));
+
+        LastPaymentResponseDto lastPayment = asyncPaymentClient.getLastPayment(Constants.PAYER_CARD_NUMBER).join();
+
+        assertEquals(Constants.ID, lastPayment.getId());
+        assertEquals(Constants.RECEIVER_CARD_NUMBER, lastPayment.getReceiverCardNumber());
+        assertEquals(date, lastPayment.getDate());
+        CompletionException notFound = assertThrows(CompletionException.class, () -> asyncPaymentClient.getLastPayment(Constants.FAKE_CARD_NUMBER).join());
+        assertInstanceOf(NotFoundException.class, notFound.getCause());
+    }
+
+    @Test
+    public void savePaymentTest() {
+        PaymentRequestDto payment = new PaymentRequestDto(Constants.ID, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        PaymentRequestDto badPayment = new PaymentRequestDto(-1, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+
+        asyncPaymentClient.savePayment(payment).join();
+
+        assertEquals(Constants.ID, asyncPaymentClient.getLastPayment(Constants.PAYER_CARD_NUMBER).join().getId());
+        CompletionException badRequest = assertThrows(CompletionException.class, () -> asyncPaymentClient.savePayment(badPayment).join());
+        assertInstanceOf(BadRequestException.class, badRequest.getCause());
+    }
+
+    @Test
+    public void concurrentLookupsTest() {
+        final int LOOKUPS = 32;
+        paymentServiceStub.setDelayMillis(100);
+        IntStream.range(0, LOOKUPS).forEach(i -> paymentServiceStub.putLastPayment(
+                new LastPaymentResponseDto(i, "card-" + i, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now())));
+        // the last lookups wait in the queue for three rounds of the first ones, the timeout counts that wait
+        AsyncPaymentClient pooledClient = new AsyncPaymentClient(paymentServiceStub.getHostPort(), HttpClient.newHttpClient(),
+                PaymentServiceStub.OBJECT_MAPPER, 8, 64, Duration.ofMillis(2000));
+
+        try {
+            long start = System.nanoTime();
+            List<CompletableFuture<LastPaymentResponseDto>> futures = IntStream.range(0, LOOKUPS)
+                    .mapToObj(i -> pooledClient.getLastPayment("card-" + i))
+                    .toList();
+            // lookups over the limit are queued without blocking the caller
+            assertEquals(8, pooledClient.getInFlight());
+            futures.forEach(CompletableFuture::join);
+            long elapsedMillis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+
+            // 8 lookups in flight at once, a serial client would need 32 * 100 ms
+            assertEquals(LOOKUPS, paymentServiceStub.getRequests());
+            assertEquals(true, elapsedMillis < LOOKUPS * 100 / 2, "elapsed " + elapsedMillis + " ms");
+        } finally {
+            pooledClient.close();
+        }
+    }
+
+    @Test
+    public void timeoutTest() {
+        paymentServiceStub.setDelayMillis(1000);
+
+        CompletionException timeout = assertThrows(CompletionException.class, () -> asyncPaymentClient.getLastPayment(Constants.PAYER_CARD_NUMBER).join());
+        assertInstanceOf(HttpTimeoutException.class, timeout.getCause());
+    }
+
+    @Test
+    public void queueFullTest() {
+        paymentServiceStub.setDelayMillis(200);
+        paymentServiceStub.putLastPayment(new LastPaymentResponseDto(Constants.ID, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now()));
+        AsyncPaymentClient boundedClient = new AsyncPaymentClient(paymentServiceStub.getHostPort(), HttpClient.newHttpClient(),
+                PaymentServiceStub.OBJECT_MAPPER, 1, 1, Duration.ofMillis(2000));
+
+        try {
+            CompletableFuture<LastPaymentResponseDto> sent = boundedClient.getLastPayment(Constants.PAYER_CARD_NUMBER);
+            CompletableFuture<LastPaymentResponseDto> queued = boundedClient.getLastPayment(Constants.PAYER_CARD_NUMBER);
+            CompletionException rejected = assertThrows(CompletionException.class, () -> boundedClient.getLastPayment(Constants.PAYER_CARD_NUMBER).join());
+
+            assertInstanceOf(PaymentServiceUnavailableException.class, rejected.getCause());
+            assertEquals(Constants.ID, sent.join().getId());
+            assertEquals(Constants.ID, queued.join().getId());
+            assertEquals(2, paymentServiceStub.getRequests());
+        } finally {
+            boundedClient.close();
+        }
+    }
+
+    @Test
+    public void queuedTimeoutTest() {
+        paymentServiceStub.setDelayMillis(300);
+        paymentServiceStub.putLastPayment(new LastPaymentResponseDto(Constants.ID, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now()));
+        AsyncPaymentClient serialClient = new AsyncPaymentClient(paymentServiceStub.getHostPort(), HttpClient.newHttpClient(),
+                PaymentServiceStub.OBJECT_MAPPER, 1, 64, Duration.ofMillis(500));
+
+        try {
+            long start = System.nanoTime();
+            CompletableFuture<LastPaymentResponseDto> sent = serialClient.getLastPayment(Constants.PAYER_CARD_NUMBER);
+            CompletableFuture<LastPaymentResponseDto> queued = serialClient.getLastPayment(Constants.PAYER_CARD_NUMBER);
+            assertEquals(Constants.ID, sent.join().getId());
+            CompletionException timeout = assertThrows(CompletionException.class, queued::join);
+            long elapsedMillis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+
+            // the queued lookup waited 300 ms for the first one and had 200 ms left, not another 500 ms
+            assertInstanceOf(HttpTimeoutException.class, timeout.getCause());
+            assertEquals(true, elapsedMillis < 800, "elapsed " + elapsedMillis + " ms");
+        } finally {
+            serialClient.close();
+        }
+    }
+
+    @Test
+    public void sendFailureTest() {
+        HttpClient httpClient = mock(HttpClient.class);
+        when(httpClient.sendAsync(any(), any())).thenThrow(new IllegalStateException("closed"));
+        AsyncPaymentClient failingClient = new AsyncPaymentClient(paymentServiceStub.getHostPort(), httpClient,
+                PaymentServiceStub.OBJECT_MAPPER, 1, 64, Duration.ofMillis(500));
+
+        for (int i = 0; i < 2; i++) {
+            CompletionException failure = assertThrows(CompletionException.class, () -> failingClient.getLastPayment(Constants.PAYER_CARD_NUMBER).join());
+            assertInstanceOf(IllegalStateException.class, failure.getCause());
+        }
+        assertEquals(0, failingClient.getInFlight());
+    }
+}
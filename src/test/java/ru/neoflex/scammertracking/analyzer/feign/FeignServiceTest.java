@@ -6,25 +6,29 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
-import ru.neoflex.scammertracking.analyzer.config.AnalyzerConfig;
+import ru.neoflex.scammertracking.analyzer.concurrent.AdaptiveConcurrencyLimiter;
 import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentRequestDto;
 import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
 import ru.neoflex.scammertracking.analyzer.domain.model.Coordinates;
 import ru.neoflex.scammertracking.analyzer.error.exception.NotFoundException;
+import ru.neoflex.scammertracking.analyzer.error.exception.PaymentServiceUnavailableException;
 import ru.neoflex.scammertracking.analyzer.utils.Constants;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.when;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
 @ExtendWith(MockitoExtension.class)
-@SpringBootTest
-@SpringJUnitConfig({AnalyzerConfig.class})
 class FeignServiceTest {
 
     @Mock
@@ -60,4 +64,42 @@ class FeignServiceTest {
             feignService.getLastPayment(paymentRequest);
         });
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getLastPaymentsFallbackTest() {
+        LastPaymentResponseDto lastPaymentResponseDto = new LastPaymentResponseDto(1, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+
+        when(paymentFeignClient.getLastPaymentsByPayerCardNumbers(Mockito.any())).thenThrow(new NotFoundException("Not Found"));
+        when(paymentFeignClient.getLastPaymentByPayerCardNumber(Mockito.argThat(request -> request != null && Constants.PAYER_CARD_NUMBER.equals(request.getCardNumber()))))
+                .thenReturn(lastPaymentResponseDto);
+        when(paymentFeignClient.getLastPaymentByPayerCardNumber(Mockito.argThat(request -> request != null && Constants.FAKE_CARD_NUMBER.equals(request.getCardNumber()))))
+                .thenThrow(new NotFoundException("The payment with the cardNumber not found"));
+
+        Map<String, LastPaymentResponseDto> lastPayments = feignService.getLastPayments(List.of(Constants.PAYER_CARD_NUMBER, Constants.FAKE_CARD_NUMBER));
+
+        assertEquals(lastPaymentResponseDto.getId(), lastPayments.get(Constants.PAYER_CARD_NUMBER).getId());
+        assertFalse(lastPayments.containsKey(Constants.FAKE_CARD_NUMBER));
+    }
+
+    @Test
+    public void savePaymentAsyncLimiterTest() {
+        PaymentRequestDto paymentRequest = new PaymentRequestDto(1, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        AsyncPaymentClient asyncPaymentClient = Mockito.mock(AsyncPaymentClient.class);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, Duration.ofSeconds(1), 0.5, Duration.ZERO);
+        CompletableFuture<Void> saved = new CompletableFuture<>();
+        feignService.setAsyncPaymentClient(asyncPaymentClient);
+        feignService.setPaymentServiceLimiter(limiter);
+        when(asyncPaymentClient.savePayment(paymentRequest)).thenReturn(saved);
+
+        CompletableFuture<Void> first = feignService.savePaymentAsync(paymentRequest);
+        // the slot is held while the request is in flight, the second save is rejected by the limiter
+        assertEquals(1, limiter.getInFlight());
+        CompletionException rejected = assertThrows(CompletionException.class, () -> feignService.savePaymentAsync(paymentRequest).join());
+        assertInstanceOf(PaymentServiceUnavailableException.class, rejected.getCause());
+
+        saved.complete(null);
+        first.join();
+        assertEquals(0, limiter.getInFlight());
+        Mockito.verify(asyncPaymentClient).savePayment(paymentRequest);
+    }
+}
@@ -0,0 +1,84 @@
+package ru.neoflex.scammertracking.analyzer.feign;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.error.exception.NotFoundException;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LastPaymentCoalescerTest {
+
+    @Test
+    public void getLastPaymentCoalescesWindowTest() throws Exception {
+        final String PAYER_CARD_NUMBER_OTHER = "987654321";
+
+        FeignService feignService = Mockito.mock(FeignService.class);
+        LastPaymentResponseDto lastPayment = new LastPaymentResponseDto(Constants.ID, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        LastPaymentResponseDto lastPaymentOther = new LastPaymentResponseDto(2, PAYER_CARD_NUMBER_OTHER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        when(feignService.getLastPayments(anyCollection()))
+                .thenReturn(Map.of(Constants.PAYER_CARD_NUMBER, lastPayment, PAYER_CARD_NUMBER_OTHER, lastPaymentOther));
+
+        try (LastPaymentCoalescer coalescer = new LastPaymentCoalescer(feignService, 200, 100, Executors.newScheduledThreadPool(1))) {
+            CompletableFuture<LastPaymentResponseDto> lookup = coalescer.getLastPayment(Constants.PAYER_CARD_NUMBER);
+            CompletableFuture<LastPaymentResponseDto> sharedLookup = coalescer.getLastPayment(Constants.PAYER_CARD_NUMBER);
+            CompletableFuture<LastPaymentResponseDto> otherLookup = coalescer.getLastPayment(PAYER_CARD_NUMBER_OTHER);
+            CompletableFuture<LastPaymentResponseDto> missedLookup = coalescer.getLastPayment(Constants.FAKE_CARD_NUMBER);
+
+            assertSame(lookup, sharedLookup);
+            assertEquals(Constants.ID, lookup.join().getId());
+            assertEquals(2, otherLookup.join().getId());
+            CompletionException notFound = assertThrows(CompletionException.class, missedLookup::join);
+            assertInstanceOf(NotFoundException.class, notFound.getCause());
+            assertEquals(1, coalescer.getCoalescedLookups());
+            assertEquals(1, coalescer.getBatches());
+        }
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<String>> payerCardNumbers = ArgumentCaptor.forClass(Collection.class);
+        verify(feignService, times(1)).getLastPayments(payerCardNumbers.capture());
+        assertEquals(Set.of(Constants.PAYER_CARD_NUMBER, PAYER_CARD_NUMBER_OTHER, Constants.FAKE_CARD_NUMBER), Set.copyOf(payerCardNumbers.getValue()));
+    }
+
+    @Test
+    public void getLastPaymentSendsFullBatchEarlyTest() throws Exception {
+        FeignService feignService = Mockito.mock(FeignService.class);
+        when(feignService.getLastPayments(anyCollection())).thenReturn(Map.of());
+
+        try (LastPaymentCoalescer coalescer = new LastPaymentCoalescer(feignService, 60_000, 2, Executors.newScheduledThreadPool(1))) {
+            List<CompletableFuture<LastPaymentResponseDto>> lookups = List.of(coalescer.getLastPayment("card-1"), coalescer.getLastPayment("card-2"));
+
+            lookups.forEach(lookup -> assertThrows(CompletionException.class, lookup::join));
+            assertEquals(1, coalescer.getBatches());
+        }
+    }
+
+    @Test
+    public void getLastPaymentPropagatesErrorTest() throws Exception {
+        FeignService feignService = Mockito.mock(FeignService.class);
+        when(feignService.getLastPayments(anyCollection())).thenThrow(new RuntimeException("payment-service is unavailable"));
+
+        try (LastPaymentCoalescer coalescer = new LastPaymentCoalescer(feignService, 0, 100, Executors.newScheduledThreadPool(1))) {
+            CompletionException error = assertThrows(CompletionException.class, () -> coalescer.getLastPayment(Constants.PAYER_CARD_NUMBER).join());
+            assertEquals("payment-service is unavailable", error.getCause().getMessage());
+        }
+    }
+}
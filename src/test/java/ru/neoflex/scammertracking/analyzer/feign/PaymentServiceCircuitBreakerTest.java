@@ -0,0 +1,89 @@
+package ru.neoflex.scammertracking.analyzer.feign;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.neoflex.scammertracking.analyzer.feign.PaymentServiceCircuitBreaker.State;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PaymentServiceCircuitBreakerTest {
+
+    private final List<State> transitions = new CopyOnWriteArrayList<>();
+    private PaymentServiceCircuitBreaker circuitBreaker;
+
+    @BeforeEach
+    public void setUp() {
+        circuitBreaker = new PaymentServiceCircuitBreaker(10, 4, 0.5, Duration.ofMillis(100), 2,
+                transitions::add, Executors.defaultThreadFactory());
+    }
+
+    @AfterEach
+    public void close() {
+        circuitBreaker.close();
+    }
+
+    @Test
+    public void openOnFailureRateTest() {
+        for (int i = 0; i < 6; i++) {
+            assertTrue(circuitBreaker.tryAcquirePermission());
+            circuitBreaker.onSuccess();
+        }
+        for (int i = 0; i < 4; i++) {
+            assertTrue(circuitBreaker.tryAcquirePermission());
+            circuitBreaker.onFailure();
+        }
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+
+        // the oldest success leaves the window of 10 calls, then 5 of them failed
+        circuitBreaker.onFailure();
+        assertEquals(State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquirePermission());
+        assertEquals(List.of(State.OPEN), transitions);
+        assertEquals(1, circuitBreaker.getRejectedCalls());
+    }
+
+    @Test
+    public void halfOpenTest() throws Exception {
+        openCircuitBreaker();
+        awaitState(State.HALF_OPEN);
+
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertFalse(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.onSuccess();
+        circuitBreaker.onFailure();
+        assertEquals(State.OPEN, circuitBreaker.getState());
+
+        awaitState(State.HALF_OPEN);
+        for (int i = 0; i < 2; i++) {
+            assertTrue(circuitBreaker.tryAcquirePermission());
+            circuitBreaker.onSuccess();
+        }
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+        assertEquals(List.of(State.OPEN, State.HALF_OPEN, State.OPEN, State.HALF_OPEN, State.CLOSED), transitions);
+        assertEquals(2, circuitBreaker.getOpenings());
+    }
+
+    private void openCircuitBreaker() {
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.tryAcquirePermission();
+            circuitBreaker.onFailure();
+        }
+        assertEquals(State.OPEN, circuitBreaker.getState());
+    }
+
+    private void awaitState(State state) throws InterruptedException {
+        for (int i = 0; i < 100 && state != circuitBreaker.getState(); i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(state, circuitBreaker.getState());
+    }
+}
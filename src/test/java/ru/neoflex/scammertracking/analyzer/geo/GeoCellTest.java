@@ -0,0 +1,46 @@
+package ru.neoflex.scammertracking.analyzer.geo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeoCellTest {
+
+    @Test
+    public void neighborTest() {
+        long cell = GeoCell.of(55.75, 37.61);
+
+        assertEquals(1457, GeoCell.rowOf(cell));
+        assertEquals(2176, GeoCell.columnOf(cell));
+        assertTrue(GeoCell.isNeighbor(cell, GeoCell.of(55.85, 37.51)));
+        assertFalse(GeoCell.isNeighbor(cell, GeoCell.of(55.95, 37.61)));
+        assertTrue(GeoCell.isNeighbor(GeoCell.of(10, 179.95), GeoCell.of(10.05, -179.95)));
+        assertTrue(GeoCell.isNeighbor(GeoCell.of(90, 0), GeoCell.of(89.85, 0)));
+        assertEquals(GeoCell.NONE, GeoCell.of(Double.NaN, 0));
+        assertEquals(GeoCell.NONE, GeoCell.of(91, 0));
+        assertFalse(GeoCell.isNeighbor(GeoCell.NONE, GeoCell.NONE));
+
+        assertTrue(GeoCell.isWithin(cell, GeoCell.of(55.85, 37.51), 50));
+        assertFalse(GeoCell.isWithin(cell, cell, 1));
+        assertTrue(GeoCell.neighborhoodDiameterKm(GeoCell.of(0, 0)) < 50);
+    }
+
+    @Test
+    public void neighborhoodDiameterTest() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            double latitude = random.nextDouble() * 179.8 - 89.9;
+            double longitude = random.nextDouble() * 360 - 180;
+            double otherLatitude = Math.max(-90, Math.min(90, latitude + (random.nextDouble() * 2 - 1) * 2 * GeoCell.CELL_DEGREES));
+            double otherLongitude = longitude + (random.nextDouble() * 2 - 1) * 2 * GeoCell.CELL_DEGREES;
+            long cell = GeoCell.of(latitude, longitude);
+            if (GeoCell.isNeighbor(cell, GeoCell.of(otherLatitude, otherLongitude))) {
+                assertTrue(GeoCoordinates.calculateDistance(latitude, longitude, otherLatitude, otherLongitude) <= GeoCell.neighborhoodDiameterKm(cell));
+            }
+        }
+    }
+}
@@ -3,7 +3,10 @@ package ru.neoflex.scammertracking.analyzer.geo;
 import org.junit.jupiter.api.Test;
 import ru.neoflex.scammertracking.analyzer.utils.Constants;
 
+import java.util.Random;
+
 import static java.lang.Math.abs;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class GeoCoordinatesTest {
@@ -33,4 +36,25 @@ class GeoCoordinatesTest {
         assertTrue(abs(TEST_DISTANCE_3 - distance3) < ACCURACY);
         assertTrue(abs(TEST_DISTANCE_4 - distance4) < ACCURACY);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void isFartherThanTest() {
+        final double[] THRESHOLDS = {1, 50, 10000};
+        // offsets in degrees giving distances around each threshold
+        final double[] MAX_OFFSETS = {0.03, 1, 100};
+
+        Random random = new Random(42);
+        for (int t = 0; t < THRESHOLDS.length; t++) {
+            for (int i = 0; i < 100_000; i++) {
+                double latitude1 = random.nextDouble() * 160 - 80;
+                double longitude1 = random.nextDouble() * 360 - 180;
+                double latitude2 = Math.max(-89, Math.min(89, latitude1 + (random.nextDouble() * 2 - 1) * MAX_OFFSETS[t]));
+                double longitude2 = longitude1 + (random.nextDouble() * 2 - 1) * MAX_OFFSETS[t];
+
+                double distance = GeoCoordinates.calculateDistance(latitude1, longitude1, latitude2, longitude2);
+                assertEquals(distance > THRESHOLDS[t], GeoCoordinates.isFartherThan(latitude1, longitude1, latitude2, longitude2, THRESHOLDS[t]),
+                        "distance=" + distance + ", threshold=" + THRESHOLDS[t]);
+            }
+        }
+    }
+}
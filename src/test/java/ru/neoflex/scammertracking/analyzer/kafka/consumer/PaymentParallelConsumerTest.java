@@ -0,0 +1,125 @@
+package ru.neoflex.scammertracking.analyzer.kafka.consumer;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.neoflex.scammertracking.analyzer.concurrent.KeyOrderedExecutor;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.error.exception.PaymentServiceUnavailableException;
+import ru.neoflex.scammertracking.analyzer.service.PaymentAnalyzer;
+import ru.neoflex.scammertracking.analyzer.service.impl.PaymentWriteBehind;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PaymentParallelConsumerTest {
+
+    @Test
+    public void retryFailedPaymentTest() throws Exception {
+        PaymentAnalyzer paymentAnalyzer = mock(PaymentAnalyzer.class);
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+        PaymentRequestDto paymentRequest = new PaymentRequestDto(Constants.ID, Constants.PAYER_CARD_NUMBER,
+                Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        String key = String.valueOf(Constants.ID);
+        doThrow(new PaymentServiceUnavailableException("rejected"))
+                .doThrow(new RuntimeException("timeout"))
+                .doNothing()
+                .when(paymentAnalyzer).analyzeConsumeMessage(key, paymentRequest);
+
+        try (KeyOrderedExecutor executor = new KeyOrderedExecutor(1, 16, Executors.defaultThreadFactory())) {
+            PaymentParallelConsumer consumer = new PaymentParallelConsumer(paymentAnalyzer, executor);
+            ReflectionTestUtils.setField(consumer, "retryIntervalMillis", 1L);
+            consumer.consumePayment(paymentRequest, key, acknowledgment);
+        }
+
+        verify(paymentAnalyzer, times(3)).analyzeConsumeMessage(key, paymentRequest);
+        verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    public void interruptedRetryTest() throws Exception {
+        PaymentAnalyzer paymentAnalyzer = mock(PaymentAnalyzer.class);
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+        PaymentRequestDto paymentRequest = new PaymentRequestDto(Constants.ID, Constants.PAYER_CARD_NUMBER,
+                Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        String key = String.valueOf(Constants.ID);
+        CompletableFuture<Thread> lane = new CompletableFuture<>();
+        doAnswer(invocation -> {
+            lane.complete(Thread.currentThread());
+            throw new PaymentServiceUnavailableException("rejected");
+        }).when(paymentAnalyzer).analyzeConsumeMessage(key, paymentRequest);
+
+        try (KeyOrderedExecutor executor = new KeyOrderedExecutor(1, 16, Executors.defaultThreadFactory())) {
+            PaymentParallelConsumer consumer = new PaymentParallelConsumer(paymentAnalyzer, executor);
+            consumer.consumePayment(paymentRequest, key, acknowledgment);
+            lane.get(5, TimeUnit.SECONDS).interrupt();
+        }
+
+        verify(paymentAnalyzer).analyzeConsumeMessage(key, paymentRequest);
+        verify(acknowledgment, never()).acknowledge();
+    }
+
+    @Test
+    public void skipFailingPaymentTest() throws Exception {
+        PaymentAnalyzer paymentAnalyzer = mock(PaymentAnalyzer.class);
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+        PaymentRequestDto paymentRequest = new PaymentRequestDto(Constants.ID, Constants.PAYER_CARD_NUMBER,
+                Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        String key = String.valueOf(Constants.ID);
+        doThrow(new RuntimeException("poison")).when(paymentAnalyzer).analyzeConsumeMessage(key, paymentRequest);
+
+        try (KeyOrderedExecutor executor = new KeyOrderedExecutor(1, 16, Executors.defaultThreadFactory())) {
+            PaymentParallelConsumer consumer = new PaymentParallelConsumer(paymentAnalyzer, executor);
+            ReflectionTestUtils.setField(consumer, "retryIntervalMillis", 1L);
+            ReflectionTestUtils.setField(consumer, "maxAttempts", 3);
+            consumer.consumePayment(paymentRequest, key, acknowledgment);
+        }
+
+        verify(paymentAnalyzer, times(3)).analyzeConsumeMessage(key, paymentRequest);
+        verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    public void failedWriteRestartsListenerTest() throws Exception {
+        PaymentAnalyzer paymentAnalyzer = mock(PaymentAnalyzer.class);
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+        PaymentWriteBehind paymentWriteBehind = mock(PaymentWriteBehind.class);
+        KafkaListenerEndpointRegistry registry = mock(KafkaListenerEndpointRegistry.class);
+        MessageListenerContainer container = mock(MessageListenerContainer.class);
+        PaymentRequestDto paymentRequest = new PaymentRequestDto(Constants.ID, Constants.PAYER_CARD_NUMBER,
+                Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        String key = String.valueOf(Constants.ID);
+        when(paymentWriteBehind.getLastWrite()).thenReturn(CompletableFuture.failedFuture(new RuntimeException("redis is down")));
+        when(registry.getListenerContainers()).thenReturn(List.of(container));
+        when(container.isRunning()).thenReturn(true);
+
+        try (KeyOrderedExecutor executor = new KeyOrderedExecutor(1, 16, Executors.defaultThreadFactory())) {
+            PaymentParallelConsumer consumer = new PaymentParallelConsumer(paymentAnalyzer, executor);
+            consumer.setPaymentWriteBehind(paymentWriteBehind);
+            consumer.setListenerEndpointRegistry(registry);
+            consumer.consumePayment(paymentRequest, key, acknowledgment);
+        }
+
+        verify(acknowledgment, never()).acknowledge();
+        ArgumentCaptor<Runnable> callback = ArgumentCaptor.forClass(Runnable.class);
+        verify(container).stop(callback.capture());
+        verify(container, never()).start();
+        callback.getValue().run();
+        verify(container).start();
+    }
+}
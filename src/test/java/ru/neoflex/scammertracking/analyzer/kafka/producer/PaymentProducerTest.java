@@ -0,0 +1,73 @@
+package ru.neoflex.scammertracking.analyzer.kafka.producer;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PaymentProducerTest {
+
+    private static final String TOPIC = "checked-payments";
+
+    private final MockProducer<String, PaymentResponseDto> producer = new MockProducer<>(false, new StringSerializer(), new JsonSerializer<>());
+    private final KafkaTemplate<String, PaymentResponseDto> kafkaTemplate = new KafkaTemplate<>(() -> producer);
+    private final PaymentProducer paymentProducer = new PaymentProducer(kafkaTemplate);
+
+    @BeforeEach
+    public void setUp() {
+        kafkaTemplate.setProducerListener(new PaymentProducerListener());
+    }
+
+    @Test
+    public void sendBatchTest() {
+        PaymentProducer.SendBatch sendBatch = paymentProducer.beginBatch();
+        for (long id = 1; id <= 3; id++) {
+            paymentProducer.sendMessage(TOPIC, payment(id));
+        }
+        sendBatch.close();
+
+        assertEquals(3, sendBatch.size());
+        assertEquals("1", producer.history().get(0).key());
+        producer.completeNext();
+        producer.errorNext(new RuntimeException("broker is not available"));
+        assertFalse(sendBatch.getCompletion().isDone());
+        producer.completeNext();
+        assertEquals(1, sendBatch.getCompletion().join());
+    }
+
+    @Test
+    public void sendAfterBatchTest() {
+        PaymentProducer.SendBatch sendBatch = paymentProducer.beginBatch();
+        sendBatch.close();
+        CompletableFuture<?> future = paymentProducer.sendMessage(TOPIC, payment(Constants.ID));
+
+        assertEquals(0, sendBatch.size());
+        assertEquals(0, sendBatch.getCompletion().join());
+        producer.completeNext();
+        assertTrue(future.isDone());
+    }
+
+    @Test
+    public void nestedBatchTest() {
+        try (PaymentProducer.SendBatch sendBatch = paymentProducer.beginBatch()) {
+            assertThrows(IllegalStateException.class, paymentProducer::beginBatch);
+        }
+        paymentProducer.beginBatch().close();
+    }
+
+    private static PaymentResponseDto payment(long id) {
+        return new PaymentResponseDto(id, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now(), true);
+    }
+}
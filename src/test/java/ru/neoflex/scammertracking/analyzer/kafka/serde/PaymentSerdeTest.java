@@ -0,0 +1,116 @@
+package ru.neoflex.scammertracking.analyzer.kafka.serde;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PaymentSerdeTest {
+
+    private static final String BINARY_TOPIC = "checked-payments";
+    private static final String JSON_TOPIC = "suspicious-payments";
+    private static final LocalDateTime DATE = LocalDateTime.of(2023, 5, 17, 12, 30, 15, 123_456_789);
+
+    private final PaymentSerializer<PaymentResponseDto> serializer =
+            new PaymentSerializer<>(List.of(BINARY_TOPIC, ""), PaymentWireFormat::writeResponse, new JsonSerializer<>());
+    private final PaymentDeserializer<PaymentResponseDto> deserializer =
+            new PaymentDeserializer<>(PaymentWireFormat::readResponse, new JsonDeserializer<>());
+
+    @BeforeEach
+    public void setUp() {
+        deserializer.configure(Map.of(
+                JsonDeserializer.TRUSTED_PACKAGES, "*",
+                JsonDeserializer.VALUE_DEFAULT_TYPE, PaymentResponseDto.class), false);
+    }
+
+    @Test
+    public void binaryTopicTest() {
+        RecordHeaders headers = new RecordHeaders();
+        byte[] bytes = serializer.serialize(BINARY_TOPIC, headers, verdict(true));
+
+        assertEquals(PaymentWireFormat.RESPONSE_FIXED_LENGTH + 2 * (2 + 6), bytes.length);
+        assertVerdict(deserializer.deserialize(BINARY_TOPIC, headers, bytes), true);
+    }
+
+    @Test
+    public void jsonFallbackTest() {
+        RecordHeaders headers = new RecordHeaders();
+        byte[] bytes = serializer.serialize(JSON_TOPIC, headers, verdict(false));
+
+        assertEquals('{', bytes[0]);
+        assertNull(headers.lastHeader(PaymentWireFormat.FORMAT_HEADER));
+        assertVerdict(deserializer.deserialize(JSON_TOPIC, headers, bytes), false);
+    }
+
+    @Test
+    public void requestTest() {
+        PaymentRequestDto payment = PaymentWireFormat.readRequest(PaymentWireFormat.writeRequest(
+                new PaymentRequestDto(Constants.ID, Constants.PAYER_CARD_NUMBER, null, null, DATE)));
+
+        assertEquals(Constants.ID, payment.getId());
+        assertEquals(Constants.PAYER_CARD_NUMBER, payment.getPayerCardNumber());
+        assertNull(payment.getReceiverCardNumber());
+        assertNull(payment.getCoordinates());
+        assertEquals(DATE, payment.getDate());
+    }
+
+    @Test
+    public void unsupportedVersionTest() {
+        byte[] bytes = PaymentWireFormat.writeResponse(verdict(null));
+        assertNull(PaymentWireFormat.readResponse(bytes).getTrusted());
+
+        bytes[0] = PaymentWireFormat.VERSION + 1;
+        assertThrows(SerializationException.class, () -> PaymentWireFormat.readResponse(bytes));
+        assertThrows(SerializationException.class, () -> PaymentWireFormat.readResponse(new byte[]{PaymentWireFormat.VERSION, 0}));
+    }
+
+    @Test
+    public void truncatedFrameTest() {
+        byte[] bytes = PaymentWireFormat.writeRequest(new PaymentRequestDto(Constants.ID, Constants.PAYER_CARD_NUMBER, null, null, DATE));
+        // the frame ends within the payer card number
+        byte[] truncated = Arrays.copyOf(bytes, PaymentWireFormat.REQUEST_FIXED_LENGTH + 2);
+        assertThrows(SerializationException.class, () -> PaymentWireFormat.readRequest(truncated));
+
+        // the length of the payer card number is negative and not the -1 of an absent one
+        bytes[PaymentWireFormat.REQUEST_FIXED_LENGTH] = (byte) 0x80;
+        assertThrows(SerializationException.class, () -> PaymentWireFormat.readRequest(bytes));
+    }
+
+    @Test
+    public void oversizedStringTest() {
+        String longestCardNumber = "1".repeat(Short.MAX_VALUE);
+        assertEquals(longestCardNumber, PaymentWireFormat.readRequest(PaymentWireFormat.writeRequest(
+                new PaymentRequestDto(Constants.ID, longestCardNumber, null, null, DATE))).getPayerCardNumber());
+
+        assertThrows(SerializationException.class, () -> PaymentWireFormat.writeRequest(
+                new PaymentRequestDto(Constants.ID, longestCardNumber + "1", null, null, DATE)));
+    }
+
+    private static PaymentResponseDto verdict(Boolean trusted) {
+        return new PaymentResponseDto(Constants.ID, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, DATE, trusted);
+    }
+
+    private static void assertVerdict(PaymentResponseDto payment, boolean trusted) {
+        assertEquals(Constants.ID, payment.getId());
+        assertEquals(Constants.PAYER_CARD_NUMBER, payment.getPayerCardNumber());
+        assertEquals(Constants.RECEIVER_CARD_NUMBER, payment.getReceiverCardNumber());
+        assertEquals(Constants.COORDINATES.getLatitude(), payment.getCoordinates().getLatitude());
+        assertEquals(Constants.COORDINATES.getLongitude(), payment.getCoordinates().getLongitude());
+        assertEquals(DATE, payment.getDate());
+        assertEquals(trusted, payment.getTrusted());
+    }
+}
@@ -0,0 +1,34 @@
+package ru.neoflex.scammertracking.analyzer.logging;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PaymentTracingEndpointTest {
+
+    @AfterEach
+    public void resetTracing() {
+        PaymentTracing.configure(PaymentTracing.FULL_MODE, 0, List.of());
+    }
+
+    @Test
+    public void traceUntraceTest() {
+        PaymentTracing.configure(PaymentTracing.SUMMARY_MODE, 0, List.of(Constants.PAYER_CARD_NUMBER));
+        PaymentTracingEndpoint endpoint = new PaymentTracingEndpoint();
+
+        assertEquals(Set.of(Constants.PAYER_CARD_NUMBER), endpoint.tracedCards());
+
+        assertEquals(Set.of(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER), endpoint.trace(Constants.RECEIVER_CARD_NUMBER));
+        assertTrue(PaymentTracing.isTraced(Constants.RECEIVER_CARD_NUMBER));
+
+        assertEquals(Set.of(Constants.RECEIVER_CARD_NUMBER), endpoint.untrace(Constants.PAYER_CARD_NUMBER));
+        assertFalse(PaymentTracing.isTraced(Constants.PAYER_CARD_NUMBER));
+    }
+}
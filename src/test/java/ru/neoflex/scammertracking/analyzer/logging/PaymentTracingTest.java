@@ -0,0 +1,70 @@
+package ru.neoflex.scammertracking.analyzer.logging;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PaymentTracingTest {
+
+    @AfterEach
+    public void resetTracing() {
+        PaymentTracing.configure(PaymentTracing.FULL_MODE, 0, List.of());
+    }
+
+    @Test
+    public void fullModeTest() {
+        PaymentTracing.configure(PaymentTracing.FULL_MODE, 0, List.of());
+
+        assertTrue(PaymentTracing.isTraced(Constants.PAYER_CARD_NUMBER));
+        assertTrue(PaymentTracing.isTraced(null));
+    }
+
+    @Test
+    public void tracedCardsTest() {
+        PaymentTracing.configure(PaymentTracing.SUMMARY_MODE, 0, List.of(Constants.PAYER_CARD_NUMBER));
+
+        assertTrue(PaymentTracing.isTraced(Constants.PAYER_CARD_NUMBER));
+        assertFalse(PaymentTracing.isTraced(Constants.RECEIVER_CARD_NUMBER));
+
+        PaymentTracing.trace(Constants.RECEIVER_CARD_NUMBER);
+        assertTrue(PaymentTracing.isTraced(Constants.RECEIVER_CARD_NUMBER));
+
+        PaymentTracing.untrace(Constants.PAYER_CARD_NUMBER);
+        assertFalse(PaymentTracing.isTraced(Constants.PAYER_CARD_NUMBER));
+    }
+
+    @Test
+    public void sampleRateTest() {
+        final int CARD_COUNT = 100000;
+        final double SAMPLE_RATE = 0.01;
+
+        PaymentTracing.configure(PaymentTracing.SUMMARY_MODE, SAMPLE_RATE, List.of());
+
+        int tracedCount = 0;
+        for (long cardNumber = 4000000000000000L; cardNumber < 4000000000000000L + CARD_COUNT; cardNumber++) {
+            String payerCardNumber = String.valueOf(cardNumber);
+            if (PaymentTracing.isTraced(payerCardNumber)) {
+                tracedCount++;
+                // a sampled card is traced every time
+                assertTrue(PaymentTracing.isTraced(payerCardNumber));
+            }
+        }
+        assertEquals(CARD_COUNT * SAMPLE_RATE, tracedCount, CARD_COUNT * SAMPLE_RATE * 0.2);
+
+        PaymentTracing.configure(PaymentTracing.SUMMARY_MODE, 1, List.of());
+        assertTrue(PaymentTracing.isTraced(Constants.PAYER_CARD_NUMBER));
+    }
+
+    @Test
+    public void configureValidationTest() {
+        assertThrows(IllegalArgumentException.class, () -> PaymentTracing.configure("verbose", 0, List.of()));
+        assertThrows(IllegalArgumentException.class, () -> PaymentTracing.configure(PaymentTracing.SUMMARY_MODE, 2, List.of()));
+    }
+}
@@ -0,0 +1,40 @@
+package ru.neoflex.scammertracking.analyzer.mapper;
+
+import org.junit.jupiter.api.Test;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PaymentMapperTest {
+
+    @Test
+    public void mapPaymentRequestTest() {
+        LocalDateTime date = LocalDateTime.now().minusMinutes(1);
+        LocalDateTime dateUpdating = LocalDateTime.now();
+        PaymentRequestDto paymentRequest = new PaymentRequestDto(Constants.ID, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, date);
+
+        PaymentResponseDto paymentResult = PaymentMapper.toPaymentResponse(paymentRequest, null);
+        PaymentEntity paymentEntity = PaymentMapper.toPaymentEntity(paymentRequest, dateUpdating);
+        LastPaymentResponseDto lastPayment = PaymentMapper.toLastPaymentResponse(paymentEntity);
+
+        assertEquals(Constants.ID, paymentResult.getId());
+        assertEquals(Constants.PAYER_CARD_NUMBER, paymentResult.getPayerCardNumber());
+        assertEquals(Constants.RECEIVER_CARD_NUMBER, paymentResult.getReceiverCardNumber());
+        assertEquals(Constants.TEST_COORDINATE_1, paymentResult.getCoordinates().getLatitude());
+        assertEquals(date, paymentResult.getDate());
+        assertNull(paymentResult.getTrusted());
+        assertEquals(Constants.ID, paymentEntity.getIdPayment());
+        assertEquals(dateUpdating, paymentEntity.getDateUpdating());
+        assertEquals(Constants.ID, lastPayment.getId());
+        assertEquals(Constants.RECEIVER_CARD_NUMBER, lastPayment.getReceiverCardNumber());
+        assertEquals(Constants.TEST_COORDINATE_1, lastPayment.getCoordinates().getLongitude());
+        assertEquals(date, lastPayment.getDate());
+    }
+}
@@ -0,0 +1,57 @@
+package ru.neoflex.scammertracking.analyzer.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.model.Coordinates;
+import ru.neoflex.scammertracking.analyzer.geo.SimplePaymentAnalyzer;
+import ru.neoflex.scammertracking.analyzer.metrics.PaymentMetrics.CacheResult;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PaymentMetricsTest {
+
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    public void bindRegistry() {
+        registry = new SimpleMeterRegistry();
+        PaymentMetrics.bindTo(registry);
+    }
+
+    @Test
+    public void checkPaymentMetricsTest() {
+        final long ID_1 = 1;
+        final long ID_2 = 2;
+        Coordinates coordinates1 = new Coordinates(Constants.TEST_COORDINATE_2, Constants.TEST_COORDINATE_1);
+        Coordinates coordinates2 = new Coordinates(Constants.TEST_COORDINATE_3, Constants.TEST_COORDINATE_3);
+        LocalDateTime currentPaymentDatetime = LocalDateTime.now();
+
+        LastPaymentResponseDto lastPayment1 = new LastPaymentResponseDto(ID_1, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, coordinates1, currentPaymentDatetime.minusMinutes(59));
+        LastPaymentResponseDto lastPayment2 = new LastPaymentResponseDto(ID_1, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, coordinates1, currentPaymentDatetime.minusHours(2));
+        PaymentRequestDto currentPayment = new PaymentRequestDto(ID_2, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, coordinates2, currentPaymentDatetime);
+
+        SimplePaymentAnalyzer.checkPayment(lastPayment1, currentPayment);
+        SimplePaymentAnalyzer.checkPayment(lastPayment2, currentPayment);
+
+        assertEquals(1, registry.get(PaymentMetrics.VERDICT_COUNTER).tags("verdict", "suspicious", "rule", "withinHour").counter().count());
+        assertEquals(1, registry.get(PaymentMetrics.VERDICT_COUNTER).tags("verdict", "trusted", "rule", PaymentMetrics.PASSED_RULE).counter().count());
+        assertEquals(2, registry.get(PaymentMetrics.STAGE_TIMER).tag("stage", "check").timer().count());
+    }
+
+    @Test
+    public void cacheLookupsTest() {
+        PaymentMetrics.recordCacheLookup(CacheResult.HIT);
+        PaymentMetrics.recordCacheLookups(CacheResult.MISS, 3);
+        PaymentMetrics.recordCacheLookups(CacheResult.STALE, 0);
+
+        assertEquals(1, registry.get(PaymentMetrics.CACHE_LOOKUP_COUNTER).tag("result", "hit").counter().count());
+        assertEquals(3, registry.get(PaymentMetrics.CACHE_LOOKUP_COUNTER).tag("result", "miss").counter().count());
+        assertEquals(0, registry.get(PaymentMetrics.CACHE_LOOKUP_COUNTER).tag("result", "stale").counter().count());
+    }
+}
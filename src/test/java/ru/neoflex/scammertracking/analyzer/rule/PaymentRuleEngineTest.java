@@ -0,0 +1,126 @@
+package ru.neoflex.scammertracking.analyzer.rule;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import ru.neoflex.scammertracking.analyzer.dao.CardStateTable;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.domain.model.Coordinates;
+import ru.neoflex.scammertracking.analyzer.mapper.PaymentMapper;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PaymentRuleEngineTest {
+
+    private static final Coordinates ORIGIN = new Coordinates(55, 37);
+    // about 40 km to the north of each other
+    private static final Coordinates NORTH_1 = new Coordinates(55.36f, 37);
+    private static final Coordinates NORTH_2 = new Coordinates(55.72f, 37);
+
+    @Test
+    public void checkPaymentAgainstWindowTest() throws Exception {
+        PaymentRuleEngine engine = new PaymentRuleEngine(new ClassPathResource("payment-rules.yaml"), 100, Duration.ofHours(1));
+        LocalDateTime now = LocalDateTime.now();
+
+        LastPaymentResponseDto lastPayment = new LastPaymentResponseDto(1L, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, ORIGIN, now.minusSeconds(50));
+        PaymentRequestDto payment1 = new PaymentRequestDto(2L, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, NORTH_1, now.minusSeconds(20));
+        PaymentRequestDto payment2 = new PaymentRequestDto(3L, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, NORTH_2, now);
+        LastPaymentResponseDto lastPayment1 = new LastPaymentResponseDto(2L, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, NORTH_1, payment1.getDate());
+
+        assertTrue(engine.checkPayment(lastPayment, payment1));
+        // 40 km from the last payment, but 80 km from the payment 50 seconds ago in the window
+        assertFalse(engine.checkPayment(lastPayment1, payment2));
+    }
+
+    @Test
+    public void reloadTest(@TempDir Path directory) throws Exception {
+        Path rulesFile = directory.resolve("payment-rules.yaml");
+        Files.writeString(rulesFile, """
+                paymentRules:
+                  rules:
+                    - name: withinMinute
+                      type: distance
+                      window: 1m
+                      limit: 50
+                """);
+        PaymentRuleEngine engine = new PaymentRuleEngine(new FileSystemResource(rulesFile), 100, Duration.ofHours(1));
+        LocalDateTime now = LocalDateTime.now();
+        LastPaymentResponseDto lastPayment = new LastPaymentResponseDto(1L, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, ORIGIN, now.minusMinutes(10));
+
+        assertTrue(engine.checkPayment(lastPayment, new PaymentRequestDto(2L, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, ORIGIN, now.minusMinutes(5))));
+
+        Files.writeString(rulesFile, """
+                paymentRules:
+                  windowSize: 4
+                  rules:
+                    - name: twoPerHour
+                      type: velocity
+                      window: 1h
+                      limit: 2
+                """);
+        engine.reload();
+        assertEquals(4, engine.getRuleSet().getWindowSize());
+        // the resized windows are seeded again with the last payment only
+        assertTrue(engine.checkPayment(lastPayment, new PaymentRequestDto(3L, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, ORIGIN, now.minusMinutes(1))));
+        assertFalse(engine.checkPayment(lastPayment, new PaymentRequestDto(4L, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, ORIGIN, now)));
+
+        Files.writeString(rulesFile, """
+                paymentRules:
+                  rules:
+                    - name: twoPerHour
+                      type: unknown
+                """);
+        assertThrows(RuntimeException.class, engine::reload);
+        assertEquals("twoPerHour", engine.getRuleSet().getRules().get(0).getName());
+    }
+
+    @Test
+    public void reloadPackagedRulesTest() throws Exception {
+        PaymentRuleEngine engine = new PaymentRuleEngine(new ByteArrayResource("""
+                paymentRules:
+                  rules:
+                    - name: withinMinute
+                      type: distance
+                      window: 1m
+                      limit: 50
+                """.getBytes(StandardCharsets.UTF_8)), 100, Duration.ofHours(1));
+
+        assertThrows(IllegalStateException.class, engine::reload);
+        assertEquals("withinMinute", engine.getRuleSet().getRules().get(0).getName());
+    }
+
+    @Test
+    public void receiversFromCompactStoreTest() throws Exception {
+        PaymentRuleEngine engine = new PaymentRuleEngine(new ByteArrayResource("""
+                paymentRules:
+                  rules:
+                    - name: twoReceiversPerHour
+                      type: receivers
+                      window: 1h
+                      limit: 2
+                """.getBytes(StandardCharsets.UTF_8)), 100, Duration.ofHours(1));
+        CardStateTable table = new CardStateTable(0, 1);
+        LocalDateTime now = LocalDateTime.now();
+        table.put(new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, 1L, 55, 37, now.minusMinutes(30), now.minusMinutes(30)));
+        LastPaymentResponseDto lastPayment = PaymentMapper.toLastPaymentResponse(table.get(Constants.PAYER_CARD_NUMBER));
+
+        // the window is seeded from the store with the receiver of the last payment, not with a distinct unknown one
+        assertTrue(engine.checkPayment(lastPayment, new PaymentRequestDto(2L, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, ORIGIN, now.minusMinutes(20))));
+        assertTrue(engine.checkPayment(lastPayment, new PaymentRequestDto(3L, Constants.PAYER_CARD_NUMBER, "111111", ORIGIN, now.minusMinutes(10))));
+        assertFalse(engine.checkPayment(lastPayment, new PaymentRequestDto(4L, Constants.PAYER_CARD_NUMBER, "222222", ORIGIN, now)));
+    }
+}
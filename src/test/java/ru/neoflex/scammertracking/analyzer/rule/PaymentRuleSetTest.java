@@ -0,0 +1,95 @@
+package ru.neoflex.scammertracking.analyzer.rule;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PaymentRuleSetTest {
+
+    private static final long SECOND_NANOS = 1_000_000_000L;
+    private static final long NOW_NANOS = 1_700_000_000L * SECOND_NANOS;
+    private static final float LATITUDE = 55;
+    private static final float LONGITUDE = 37;
+    // about 111 km
+    private static final float DEGREE = 1;
+
+    @Test
+    public void defaultRulesTest() {
+        PaymentRuleSet ruleSet = PaymentRuleSet.defaultRules();
+
+        assertNull(evaluateLast(ruleSet, NOW_NANOS - SECOND_NANOS / 2, LATITUDE + DEGREE / 1000));
+        assertEquals("withinSecond", evaluateLast(ruleSet, NOW_NANOS - SECOND_NANOS / 2, LATITUDE + DEGREE / 10).getName());
+        assertNull(evaluateLast(ruleSet, NOW_NANOS - 30 * SECOND_NANOS, LATITUDE + DEGREE / 10));
+        assertEquals("withinMinute", evaluateLast(ruleSet, NOW_NANOS - 30 * SECOND_NANOS, LATITUDE + DEGREE).getName());
+        assertNull(evaluateLast(ruleSet, NOW_NANOS - 1800 * SECOND_NANOS, LATITUDE + DEGREE));
+        assertEquals("withinHour", evaluateLast(ruleSet, NOW_NANOS - 1800 * SECOND_NANOS, -LATITUDE).getName());
+        assertNull(evaluateLast(ruleSet, NOW_NANOS - 7200 * SECOND_NANOS, -LATITUDE));
+        // a payment dated before the last one is within every window
+        assertEquals("withinSecond", evaluateLast(ruleSet, NOW_NANOS + 7200 * SECOND_NANOS, LATITUDE + DEGREE / 10).getName());
+    }
+
+    @Test
+    public void velocityAndReceiversTest() {
+        PaymentRuleProperties properties = new PaymentRuleProperties();
+        properties.setRules(List.of(
+                new PaymentRuleProperties.Definition("threePerMinute", PaymentRule.Type.VELOCITY, Duration.ofMinutes(1), 3),
+                new PaymentRuleProperties.Definition("twoReceiversPerHour", PaymentRule.Type.RECEIVERS, Duration.ofHours(1), 2)));
+        PaymentRuleSet ruleSet = PaymentRuleSet.compile(properties);
+        PaymentWindow window = new PaymentWindow(ruleSet.getWindowSize());
+
+        window.add(NOW_NANOS - 90 * SECOND_NANOS, LATITUDE, LONGITUDE, Constants.FAKE_CARD_NUMBER);
+        window.add(NOW_NANOS - 40 * SECOND_NANOS, LATITUDE, LONGITUDE, Constants.RECEIVER_CARD_NUMBER);
+        window.add(NOW_NANOS - 20 * SECOND_NANOS, LATITUDE, LONGITUDE, Constants.RECEIVER_CARD_NUMBER);
+        assertNull(ruleSet.evaluate(window, NOW_NANOS, LATITUDE, LONGITUDE, Constants.RECEIVER_CARD_NUMBER));
+        assertEquals("twoReceiversPerHour", ruleSet.evaluate(window, NOW_NANOS, LATITUDE, LONGITUDE, Constants.PAYER_CARD_NUMBER).getName());
+
+        window.add(NOW_NANOS - 10 * SECOND_NANOS, LATITUDE, LONGITUDE, Constants.RECEIVER_CARD_NUMBER);
+        assertEquals("threePerMinute", ruleSet.evaluate(window, NOW_NANOS, LATITUDE, LONGITUDE, Constants.RECEIVER_CARD_NUMBER).getName());
+    }
+
+    @Test
+    public void windowOverflowTest() {
+        PaymentWindow window = new PaymentWindow(2);
+        window.add(1, LATITUDE, LONGITUDE, Constants.RECEIVER_CARD_NUMBER);
+        window.add(2, LATITUDE, LONGITUDE, Constants.RECEIVER_CARD_NUMBER);
+        window.add(3, LATITUDE, LONGITUDE, Constants.PAYER_CARD_NUMBER);
+
+        assertEquals(2, window.size());
+        assertEquals(3, window.getTimeNanos(0));
+        assertEquals(Constants.PAYER_CARD_NUMBER, window.getReceiverCardNumber(0));
+        assertEquals(2, window.getTimeNanos(1));
+    }
+
+    @Test
+    public void loadTest() throws Exception {
+        PaymentRuleSet ruleSet = PaymentRuleSet.load(new ClassPathResource("payment-rules.yaml"));
+
+        assertEquals(PaymentRuleSet.DEFAULT_WINDOW_SIZE, ruleSet.getWindowSize());
+        assertEquals(PaymentRuleSet.defaultRules().getRules().toString(), ruleSet.getRules().toString());
+    }
+
+    @Test
+    public void compileValidationTest() {
+        PaymentRuleProperties properties = new PaymentRuleProperties();
+        properties.setRules(List.of(new PaymentRuleProperties.Definition("noWindow", PaymentRule.Type.VELOCITY, null, 1)));
+        assertThrows(IllegalArgumentException.class, () -> PaymentRuleSet.compile(properties));
+
+        properties.setRules(List.of(
+                new PaymentRuleProperties.Definition("rule", PaymentRule.Type.VELOCITY, Duration.ofMinutes(1), 1),
+                new PaymentRuleProperties.Definition("rule", PaymentRule.Type.DISTANCE, Duration.ofMinutes(1), 1)));
+        assertThrows(IllegalArgumentException.class, () -> PaymentRuleSet.compile(properties));
+    }
+
+    private static PaymentRule evaluateLast(PaymentRuleSet ruleSet, long lastTimeNanos, float latitude) {
+        PaymentWindow window = new PaymentWindow(1);
+        window.add(lastTimeNanos, LATITUDE, LONGITUDE, Constants.RECEIVER_CARD_NUMBER);
+        return ruleSet.evaluate(window, NOW_NANOS, latitude, LONGITUDE, Constants.RECEIVER_CARD_NUMBER);
+    }
+}
@@ -1,35 +1,43 @@
 package ru.neoflex.scammertracking.analyzer.service.impl;
 
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
-import org.modelmapper.ModelMapper;
-import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.test.context.junit.jupiter.SpringExtension;
-import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
-import ru.neoflex.scammertracking.analyzer.config.AnalyzerConfig;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import ru.neoflex.scammertracking.analyzer.dao.PaymentCacheDao;
+import ru.neoflex.scammertracking.analyzer.dedup.PaymentDeduplicator;
 import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
 import ru.neoflex.scammertracking.analyzer.error.exception.BadRequestException;
 import ru.neoflex.scammertracking.analyzer.error.exception.NotFoundException;
+import ru.neoflex.scammertracking.analyzer.error.exception.PaymentServiceUnavailableException;
 import ru.neoflex.scammertracking.analyzer.feign.FeignService;
 import ru.neoflex.scammertracking.analyzer.kafka.producer.PaymentProducer;
 import ru.neoflex.scammertracking.analyzer.service.PaymentService;
 import ru.neoflex.scammertracking.analyzer.utils.Constants;
 
 import java.time.LocalDateTime;
-
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-@ExtendWith(SpringExtension.class)
-@SpringBootTest
-@SpringJUnitConfig({AnalyzerConfig.class})
+@ExtendWith(MockitoExtension.class)
 class PaymentAnalyzerImplTest {
 
     @Mock
@@ -40,18 +48,9 @@ class PaymentAnalyzerImplTest {
     private PaymentCacheDao paymentCacheDao;
     @Mock
     private PaymentProducer paymentProducer;
-    @Mock
-    private ModelMapper modelMapper;
     @InjectMocks
     private PaymentAnalyzerImpl paymentAnalyzer;
 
-    @BeforeEach
-    public void init() {
-        PaymentResponseDto paymentResponse = new PaymentResponseDto(1, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now(),false);
-        when(modelMapper.map(Mockito.any(), Mockito.eq(PaymentResponseDto.class)))
-                .thenReturn(paymentResponse);
-    }
-
     @Test
     public void analyzeConsumeMessageTest() throws Exception {
         PaymentRequestDto paymentRequest = new PaymentRequestDto(Constants.ID, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
@@ -96,4 +95,105 @@ class PaymentAnalyzerImplTest {
 
         paymentAnalyzer.analyzeConsumeMessage(String.valueOf(Constants.ID), paymentRequest);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void paymentServiceUnavailableTest() throws Exception {
+        PaymentRequestDto paymentRequest = new PaymentRequestDto(Constants.ID, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        LastPaymentResponseDto lastPaymentResponseDto = new LastPaymentResponseDto(1, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+
+        when(paymentService.getLastPayment(Mockito.any(PaymentRequestDto.class), Mockito.any()))
+                .thenThrow(new PaymentServiceUnavailableException("The payment-service concurrency limit is reached"))
+                .thenReturn(lastPaymentResponseDto);
+        doThrow(new PaymentServiceUnavailableException("The payment-service circuit breaker is open"))
+                .when(feignService).savePayment(paymentRequest);
+
+        assertThrows(PaymentServiceUnavailableException.class,
+                () -> paymentAnalyzer.analyzeConsumeMessage(String.valueOf(Constants.ID), paymentRequest));
+        assertThrows(PaymentServiceUnavailableException.class,
+                () -> paymentAnalyzer.analyzeConsumeMessage(String.valueOf(Constants.ID), paymentRequest));
+    }
+
+    @Test
+    public void analyzeConsumeMessagesTest() throws Exception {
+        PaymentRequestDto paymentRequest1 = new PaymentRequestDto(Constants.ID, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        PaymentRequestDto paymentRequest2 = new PaymentRequestDto(Constants.ID + 1, Constants.FAKE_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        PaymentRequestDto paymentRequest3 = new PaymentRequestDto(Constants.ID + 2, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        LastPaymentResponseDto lastPaymentResponseDto = new LastPaymentResponseDto(1, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now().minusDays(1));
+
+        when(paymentService.getLastPayments(Mockito.anyCollection(), Mockito.anySet()))
+                .thenReturn(new HashMap<>(Map.of(Constants.PAYER_CARD_NUMBER, lastPaymentResponseDto)));
+        when(paymentProducer.beginBatch()).thenReturn(Mockito.mock(PaymentProducer.SendBatch.class));
+
+        paymentAnalyzer.analyzeConsumeMessages(List.of(paymentRequest1, paymentRequest2, paymentRequest3));
+
+        verify(paymentService, times(1)).getLastPayments(Mockito.eq(Set.of(Constants.PAYER_CARD_NUMBER)), Mockito.anySet());
+        verify(feignService, times(2)).savePayment(Mockito.any());
+        verify(paymentProducer, times(3)).sendMessage(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void deduplicationTest() throws Exception {
+        PaymentRequestDto paymentRequest1 = new PaymentRequestDto(Constants.ID, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        PaymentRequestDto paymentRequest2 = new PaymentRequestDto(Constants.ID + 1, Constants.FAKE_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        LastPaymentResponseDto lastPaymentResponseDto = new LastPaymentResponseDto(1, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now().minusDays(1));
+        PaymentDeduplicator paymentDeduplicator = new PaymentDeduplicator(100, 100, 0.01);
+        paymentAnalyzer.setPaymentDeduplicator(paymentDeduplicator);
+
+        when(paymentService.getLastPayments(Mockito.anyCollection(), Mockito.anySet()))
+                .thenReturn(new HashMap<>(Map.of(Constants.PAYER_CARD_NUMBER, lastPaymentResponseDto)));
+        when(paymentProducer.beginBatch()).thenReturn(Mockito.mock(PaymentProducer.SendBatch.class));
+
+        paymentAnalyzer.analyzeConsumeMessages(List.of(paymentRequest1, paymentRequest1, paymentRequest2));
+        paymentAnalyzer.analyzeConsumeMessage(String.valueOf(Constants.ID), paymentRequest1);
+
+        verify(feignService, times(1)).savePayment(Mockito.any());
+        verify(paymentProducer, times(2)).sendMessage(Mockito.any(), Mockito.any());
+        assertEquals(4, paymentDeduplicator.getChecks());
+        assertEquals(2, paymentDeduplicator.getDuplicates());
+    }
+
+    @Test
+    public void deduplicationAfterWriteTest() throws Exception {
+        PaymentRequestDto paymentRequest = new PaymentRequestDto(Constants.ID, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        LastPaymentResponseDto lastPaymentResponseDto = new LastPaymentResponseDto(1, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now().minusDays(1));
+        PaymentDeduplicator paymentDeduplicator = new PaymentDeduplicator(100, 100, 0.01);
+        PaymentWriteBehind paymentWriteBehind = Mockito.mock(PaymentWriteBehind.class);
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        paymentAnalyzer.setPaymentDeduplicator(paymentDeduplicator);
+        paymentAnalyzer.setPaymentWriteBehind(paymentWriteBehind);
+        when(paymentService.getLastPayment(Mockito.any(PaymentRequestDto.class), Mockito.any()))
+                .thenReturn(lastPaymentResponseDto);
+        when(paymentWriteBehind.getLastWrite()).thenReturn(written);
+
+        paymentAnalyzer.analyzeConsumeMessage(String.valueOf(Constants.ID), paymentRequest);
+        // the payment is queued, its verdict is not sent yet
+        verify(paymentWriteBehind).submit(Mockito.eq(paymentRequest), Mockito.any(), Mockito.anyBoolean());
+        assertFalse(paymentDeduplicator.isProcessed(Constants.ID));
+
+        written.complete(null);
+        assertTrue(paymentDeduplicator.isProcessed(Constants.ID));
+    }
+
+    @Test
+    public void deduplicationAfterCommitTest() throws Exception {
+        PaymentRequestDto paymentRequest = new PaymentRequestDto(Constants.ID, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        LastPaymentResponseDto lastPaymentResponseDto = new LastPaymentResponseDto(1, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now().minusDays(1));
+        PaymentDeduplicator paymentDeduplicator = new PaymentDeduplicator(100, 100, 0.01);
+        paymentAnalyzer.setPaymentDeduplicator(paymentDeduplicator);
+        when(paymentService.getLastPayments(Mockito.anyCollection(), Mockito.anySet()))
+                .thenReturn(new HashMap<>(Map.of(Constants.PAYER_CARD_NUMBER, lastPaymentResponseDto)));
+        when(paymentProducer.beginBatch()).thenReturn(Mockito.mock(PaymentProducer.SendBatch.class));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            paymentAnalyzer.analyzeConsumeMessages(List.of(paymentRequest));
+            // an aborted transaction redelivers the payment, it is not a duplicate until the transaction is committed
+            assertFalse(paymentDeduplicator.isProcessed(Constants.ID));
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertTrue(paymentDeduplicator.isProcessed(Constants.ID));
+    }
+}
@@ -6,25 +6,27 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.test.context.junit.jupiter.SpringExtension;
-import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
-import ru.neoflex.scammertracking.analyzer.config.AnalyzerConfig;
 import ru.neoflex.scammertracking.analyzer.dao.PaymentCacheDao;
 import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
 import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
 import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.error.exception.PaymentServiceUnavailableException;
 import ru.neoflex.scammertracking.analyzer.feign.FeignService;
 import ru.neoflex.scammertracking.analyzer.utils.Constants;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.when;
 
 import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-@ExtendWith(SpringExtension.class)
-@SpringBootTest
-@SpringJUnitConfig({AnalyzerConfig.class})
+@ExtendWith(MockitoExtension.class)
 class PaymentServiceImplTest {
 
     @Mock
@@ -56,4 +58,52 @@ class PaymentServiceImplTest {
         paymentService.getLastPayment(paymentRequestDeprecated, new AtomicBoolean());
         paymentService.getLastPayment(paymentRequestNull, new AtomicBoolean());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getLastPaymentsTest() {
+        final String PAYER_CARD_NUMBER_DEPRECATED = "987654321";
+        final String PAYER_CARD_NUMBER_MISSED = "123123123";
+
+        PaymentEntity paymentEntity = new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.ID, Constants.TEST_COORDINATE_1, Constants.TEST_COORDINATE_1, LocalDateTime.now(), LocalDateTime.now());
+        PaymentEntity paymentEntityDeprecated = new PaymentEntity(PAYER_CARD_NUMBER_DEPRECATED, Constants.RECEIVER_CARD_NUMBER, Constants.ID, Constants.TEST_COORDINATE_1, Constants.TEST_COORDINATE_1, LocalDateTime.now(), LocalDateTime.now().minusMonths(1));
+        LastPaymentResponseDto lastPaymentResponse = new LastPaymentResponseDto(2, PAYER_CARD_NUMBER_DEPRECATED, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        List<String> payerCardNumbers = List.of(Constants.PAYER_CARD_NUMBER, PAYER_CARD_NUMBER_DEPRECATED, PAYER_CARD_NUMBER_MISSED);
+
+        when(paymentCacheDao.findPaymentsByCardNumbers(payerCardNumbers))
+                .thenReturn(Map.of(Constants.PAYER_CARD_NUMBER, paymentEntity, PAYER_CARD_NUMBER_DEPRECATED, paymentEntityDeprecated));
+        when(feignService.getLastPayments(List.of(PAYER_CARD_NUMBER_DEPRECATED, PAYER_CARD_NUMBER_MISSED)))
+                .thenReturn(Map.of(PAYER_CARD_NUMBER_DEPRECATED, lastPaymentResponse));
+
+        Set<String> deprecatedCardNumbers = new HashSet<>();
+        Map<String, LastPaymentResponseDto> lastPayments = paymentService.getLastPayments(payerCardNumbers, deprecatedCardNumbers);
+
+        assertEquals(2, lastPayments.size());
+        assertEquals(Constants.ID, lastPayments.get(Constants.PAYER_CARD_NUMBER).getId());
+        assertEquals(lastPaymentResponse.getId(), lastPayments.get(PAYER_CARD_NUMBER_DEPRECATED).getId());
+        assertEquals(Set.of(PAYER_CARD_NUMBER_DEPRECATED, PAYER_CARD_NUMBER_MISSED), deprecatedCardNumbers);
+    }
+
+    @Test
+    public void paymentServiceUnavailableTest() throws Exception {
+        final String PAYER_CARD_NUMBER_MISSED = "123123123";
+
+        PaymentRequestDto paymentRequest = new PaymentRequestDto(Constants.ID, Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+        PaymentEntity paymentEntityDeprecated = new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.ID, Constants.TEST_COORDINATE_1, Constants.TEST_COORDINATE_1, LocalDateTime.now(), LocalDateTime.now().minusMonths(1));
+        PaymentServiceUnavailableException unavailable = new PaymentServiceUnavailableException("payment-service circuit breaker is open");
+
+        when(paymentCacheDao.findPaymentByCardNumber(Constants.PAYER_CARD_NUMBER)).thenReturn(paymentEntityDeprecated);
+        when(paymentCacheDao.findPaymentsByCardNumbers(Mockito.any()))
+                .thenReturn(Map.of(Constants.PAYER_CARD_NUMBER, paymentEntityDeprecated));
+        when(feignService.getLastPayment(Mockito.any())).thenThrow(unavailable);
+        when(feignService.getLastPayments(Mockito.any())).thenThrow(unavailable);
+
+        AtomicBoolean isCachedDateDeprecated = new AtomicBoolean();
+        assertEquals(Constants.ID, paymentService.getLastPayment(paymentRequest, isCachedDateDeprecated).getId());
+        assertTrue(isCachedDateDeprecated.get());
+
+        Map<String, LastPaymentResponseDto> lastPayments = paymentService.getLastPayments(List.of(Constants.PAYER_CARD_NUMBER), new HashSet<>());
+        assertEquals(Constants.ID, lastPayments.get(Constants.PAYER_CARD_NUMBER).getId());
+        assertThrows(PaymentServiceUnavailableException.class,
+                () -> paymentService.getLastPayments(List.of(Constants.PAYER_CARD_NUMBER, PAYER_CARD_NUMBER_MISSED), new HashSet<>()));
+    }
+}
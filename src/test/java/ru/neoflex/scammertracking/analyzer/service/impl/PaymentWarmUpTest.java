@@ -0,0 +1,87 @@
+package ru.neoflex.scammertracking.analyzer.service.impl;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.ConsumerFactory;
+import ru.neoflex.scammertracking.analyzer.dao.PaymentCacheDao;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.feign.FeignService;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PaymentWarmUpTest {
+
+    private static final String PAYMENTS_TOPIC = "payments";
+    private static final TopicPartition PAYMENTS_PARTITION = new TopicPartition(PAYMENTS_TOPIC, 0);
+
+    private final PaymentCacheDao paymentCacheDao = mock(PaymentCacheDao.class);
+    private final FeignService feignService = mock(FeignService.class);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void warmUpTest() {
+        MockConsumer<String, PaymentRequestDto> waitingRecords = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        waitingRecords.updateBeginningOffsets(Map.of(PAYMENTS_PARTITION, 0L));
+        waitingRecords.updateEndOffsets(Map.of(PAYMENTS_PARTITION, 3L));
+        waitingRecords.schedulePollTask(() -> {
+            waitingRecords.addRecord(record(1, paymentRequest(Constants.PAYER_CARD_NUMBER)));
+            waitingRecords.addRecord(record(2, paymentRequest(Constants.RECEIVER_CARD_NUMBER)));
+            waitingRecords.addRecord(record(3, paymentRequest(Constants.PAYER_CARD_NUMBER)));
+        });
+        ConsumerFactory<String, PaymentRequestDto> consumerFactory = mock(ConsumerFactory.class);
+        when(consumerFactory.createConsumer(any(), anyString(), any(), any())).thenReturn(waitingRecords);
+        Consumer<String, PaymentRequestDto> consumer = mock(Consumer.class);
+        when(consumer.position(PAYMENTS_PARTITION)).thenReturn(1L);
+
+        PaymentEntity cachedPayment = new PaymentEntity(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER, Constants.ID,
+                Constants.TEST_COORDINATE_1, Constants.TEST_COORDINATE_1, LocalDateTime.now(), LocalDateTime.now());
+        LastPaymentResponseDto lastPayment = new LastPaymentResponseDto(Constants.ID, Constants.RECEIVER_CARD_NUMBER, Constants.PAYER_CARD_NUMBER,
+                Constants.COORDINATES, LocalDateTime.now());
+        when(paymentCacheDao.findPaymentsByCardNumbers(any())).thenReturn(Map.of(Constants.PAYER_CARD_NUMBER, cachedPayment));
+        when(feignService.getLastPayments(List.of(Constants.RECEIVER_CARD_NUMBER))).thenReturn(Map.of(Constants.RECEIVER_CARD_NUMBER, lastPayment));
+
+        try (PaymentWarmUp warmUp = new PaymentWarmUp(paymentCacheDao, feignService, consumerFactory, PAYMENTS_TOPIC, 100, 10, true,
+                Duration.ofSeconds(10), Duration.ofSeconds(60), Executors.newFixedThreadPool(2))) {
+            warmUp.onPartitionsAssigned(consumer, List.of(PAYMENTS_PARTITION, new TopicPartition("other", 0)));
+
+            verify(consumerFactory).createConsumer(any(), anyString(), any(), any());
+            verify(paymentCacheDao).findPaymentsByCardNumbers(eq(List.of(Constants.PAYER_CARD_NUMBER, Constants.RECEIVER_CARD_NUMBER)));
+            assertEquals(1, warmUp.getCachedCards());
+            assertEquals(1, warmUp.getPrefetchedCards());
+
+            assertSame(lastPayment, warmUp.takePrefetched(Constants.RECEIVER_CARD_NUMBER));
+            assertNull(warmUp.takePrefetched(Constants.RECEIVER_CARD_NUMBER));
+            assertNull(warmUp.takePrefetched(Constants.PAYER_CARD_NUMBER));
+            assertEquals(1, warmUp.getUsedPrefetchedCards());
+        }
+    }
+
+    private static ConsumerRecord<String, PaymentRequestDto> record(long offset, PaymentRequestDto paymentRequest) {
+        return new ConsumerRecord<>(PAYMENTS_TOPIC, 0, offset, paymentRequest.getPayerCardNumber(), paymentRequest);
+    }
+
+    private static PaymentRequestDto paymentRequest(String payerCardNumber) {
+        return new PaymentRequestDto(Constants.ID, payerCardNumber, Constants.FAKE_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+    }
+}
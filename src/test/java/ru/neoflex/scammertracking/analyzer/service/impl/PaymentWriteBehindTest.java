@@ -0,0 +1,142 @@
+package ru.neoflex.scammertracking.analyzer.service.impl;
+
+import org.apache.kafka.common.KafkaException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.kafka.core.KafkaTemplate;
+import ru.neoflex.scammertracking.analyzer.dao.PaymentCacheDao;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.entity.PaymentEntity;
+import ru.neoflex.scammertracking.analyzer.feign.FeignService;
+import ru.neoflex.scammertracking.analyzer.kafka.producer.PaymentProducer;
+import ru.neoflex.scammertracking.analyzer.utils.Constants;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PaymentWriteBehindTest {
+
+    private static final String CHECKED_PAYMENTS_TOPIC = "checked-payments";
+    private static final String SUSPICIOUS_PAYMENTS_TOPIC = "suspicious-payments";
+
+    private final FeignService feignService = mock(FeignService.class);
+    private final PaymentCacheDao paymentCacheDao = mock(PaymentCacheDao.class);
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<String, PaymentResponseDto> kafkaTemplate = mock(KafkaTemplate.class);
+    private final PaymentProducer paymentProducer = spy(new PaymentProducer(kafkaTemplate));
+
+    @BeforeEach
+    public void setUp() {
+        when(kafkaTemplate.send(anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @Test
+    public void flushTest() throws Exception {
+        PaymentRequestDto cachedPayment = paymentRequest(1, Constants.PAYER_CARD_NUMBER);
+        PaymentRequestDto payment = paymentRequest(2, "111111");
+        PaymentRequestDto rejectedPayment = paymentRequest(3, "222222");
+        when(feignService.savePayments(anyList())).thenReturn(List.of(rejectedPayment));
+
+        try (PaymentWriteBehind writeBehind = writeBehind()) {
+            writeBehind.submit(cachedPayment, paymentResult(cachedPayment), true);
+            writeBehind.submit(payment, paymentResult(payment), false);
+            writeBehind.submit(rejectedPayment, paymentResult(rejectedPayment), true);
+            writeBehind.getLastWrite().join();
+        }
+
+        verify(paymentCacheDao, times(2)).stage(any());
+        verify(paymentCacheDao).saveAll(argThat(payments -> payments.size() == 1 && payments.get(0).getIdPayment() == 1));
+        verify(paymentCacheDao).unstage(argThat(paymentEntity -> paymentEntity.getIdPayment() == 3));
+        verify(paymentProducer).sendMessage(eq(CHECKED_PAYMENTS_TOPIC), argThat(paymentResult -> paymentResult.getId() == 1));
+        verify(paymentProducer).sendMessage(eq(CHECKED_PAYMENTS_TOPIC), argThat(paymentResult -> paymentResult.getId() == 2));
+        verify(paymentProducer).sendMessage(eq(SUSPICIOUS_PAYMENTS_TOPIC), argThat(paymentResult -> paymentResult.getId() == 3));
+    }
+
+    @Test
+    public void flushRetryTest() throws Exception {
+        PaymentRequestDto payment = paymentRequest(1, Constants.PAYER_CARD_NUMBER);
+        when(feignService.savePayments(anyList())).thenReturn(List.of());
+        Mockito.doThrow(new RuntimeException("Redis is unavailable"))
+                .doNothing()
+                .when(paymentCacheDao).saveAll(anyList());
+
+        CompletableFuture<Void> written;
+        try (PaymentWriteBehind writeBehind = writeBehind()) {
+            written = writeBehind.submit(payment, paymentResult(payment), true);
+            written.join();
+        }
+
+        // the batch is saved in payment-service once and written to the cache on the second attempt
+        verify(feignService, times(1)).savePayments(anyList());
+        verify(paymentCacheDao, times(2)).saveAll(anyList());
+        verify(paymentCacheDao, never()).unstage(any(PaymentEntity.class));
+        verify(paymentProducer).sendMessage(eq(CHECKED_PAYMENTS_TOPIC), any());
+    }
+
+    @Test
+    public void sendFailureTest() throws Exception {
+        PaymentRequestDto failedPayment = paymentRequest(1, Constants.PAYER_CARD_NUMBER);
+        PaymentRequestDto payment = paymentRequest(2, "111111");
+        PaymentRequestDto nextPayment = paymentRequest(3, "222222");
+        when(feignService.savePayments(anyList())).thenReturn(List.of());
+        when(kafkaTemplate.send(anyString(), eq("1"), any())).thenThrow(new KafkaException("Topic not present in metadata"));
+
+        try (PaymentWriteBehind writeBehind = writeBehind()) {
+            CompletableFuture<Void> failedWrite = writeBehind.submit(failedPayment, paymentResult(failedPayment), false);
+            CompletableFuture<Void> write = writeBehind.submit(payment, paymentResult(payment), false);
+            assertThrows(CompletionException.class, failedWrite::join);
+            write.join();
+
+            // the flusher is still running
+            writeBehind.submit(nextPayment, paymentResult(nextPayment), false).join();
+        }
+
+        verify(paymentProducer, times(3)).sendMessage(eq(CHECKED_PAYMENTS_TOPIC), any());
+    }
+
+    @Test
+    public void closeFlushesQueueTest() throws Exception {
+        when(feignService.savePayments(anyList())).thenReturn(List.of());
+
+        PaymentWriteBehind writeBehind = writeBehind();
+        for (int i = 0; i < 100; i++) {
+            PaymentRequestDto payment = paymentRequest(i, "card-" + i);
+            writeBehind.submit(payment, paymentResult(payment), false);
+        }
+        writeBehind.close();
+
+        verify(paymentProducer, times(100)).sendMessage(eq(CHECKED_PAYMENTS_TOPIC), any());
+    }
+
+    private PaymentWriteBehind writeBehind() {
+        return new PaymentWriteBehind(feignService, paymentCacheDao, paymentProducer, CHECKED_PAYMENTS_TOPIC, SUSPICIOUS_PAYMENTS_TOPIC,
+                10, 4, 10, 100, 10_000, Executors.defaultThreadFactory());
+    }
+
+    private static PaymentRequestDto paymentRequest(long id, String payerCardNumber) {
+        return new PaymentRequestDto(id, payerCardNumber, Constants.RECEIVER_CARD_NUMBER, Constants.COORDINATES, LocalDateTime.now());
+    }
+
+    private static PaymentResponseDto paymentResult(PaymentRequestDto paymentRequest) {
+        return new PaymentResponseDto(paymentRequest.getId(), paymentRequest.getPayerCardNumber(), paymentRequest.getReceiverCardNumber(),
+                paymentRequest.getCoordinates(), paymentRequest.getDate(), true);
+    }
+}
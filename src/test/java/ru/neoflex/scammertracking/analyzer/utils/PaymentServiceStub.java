@@ -0,0 +1,120 @@
+package ru.neoflex.scammertracking.analyzer.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentRequestDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.LastPaymentResponseDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.MessageInfoDto;
+import ru.neoflex.scammertracking.analyzer.domain.dto.PaymentRequestDto;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local in-memory stand-in of payment-service serving {@code /payment/last-payment}, {@code /payment/last-payments}
+ * and {@code /payment/save} on a random port, with an optional response delay.
+ */
+public class PaymentServiceStub implements AutoCloseable {
+
+    public static final ObjectMapper OBJECT_MAPPER = Jackson2ObjectMapperBuilder.json().build();
+
+    static {
+        // response headers and body are separate writes, with Nagle the body waits for the delayed ACK of the client
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        // idle connections above the limit are closed and a pooled client would send its next request into a closed one
+        System.setProperty("sun.net.httpserver.maxIdleConnections", "1024");
+    }
+
+    private final HttpServer server;
+    private final Map<String, LastPaymentResponseDto> lastPayments = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile long delayMillis;
+
+    public PaymentServiceStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/payment/last-payment", exchange -> handle(exchange, () -> {
+            LastPaymentRequestDto request = OBJECT_MAPPER.readValue(exchange.getRequestBody(), LastPaymentRequestDto.class);
+            LastPaymentResponseDto lastPayment = lastPayments.get(request.getCardNumber());
+            if (null == lastPayment) {
+                respond(exchange, 404, new MessageInfoDto(404, 404, "The payment with cardNumber " + request.getCardNumber() + " not found"));
+            } else {
+                respond(exchange, 200, lastPayment);
+            }
+        }));
+        server.createContext("/payment/last-payments", exchange -> handle(exchange, () -> {
+            LastPaymentRequestDto[] request = OBJECT_MAPPER.readValue(exchange.getRequestBody(), LastPaymentRequestDto[].class);
+            List<LastPaymentResponseDto> response = Arrays.stream(request)
+                    .map(lastPaymentRequest -> lastPayments.get(lastPaymentRequest.getCardNumber()))
+                    .filter(Objects::nonNull)
+                    .toList();
+            respond(exchange, 200, response);
+        }));
+        server.createContext("/payment/save", exchange -> handle(exchange, () -> {
+            PaymentRequestDto payment = OBJECT_MAPPER.readValue(exchange.getRequestBody(), PaymentRequestDto.class);
+            if (payment.getId() < 0) {
+                respond(exchange, 400, new MessageInfoDto(400, 400, "The payment id is negative"));
+                return;
+            }
+            lastPayments.put(payment.getPayerCardNumber(), new LastPaymentResponseDto(payment.getId(), payment.getPayerCardNumber(),
+                    payment.getReceiverCardNumber(), payment.getCoordinates(), payment.getDate()));
+            respond(exchange, 201, "saved");
+        }));
+        server.start();
+    }
+
+    public String getHostPort() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public void putLastPayment(LastPaymentResponseDto lastPayment) {
+        lastPayments.put(lastPayment.getPayerCardNumber(), lastPayment);
+    }
+
+    public void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        requests.incrementAndGet();
+        try {
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+            handler.handle();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = OBJECT_MAPPER.writeValueAsBytes(body);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private interface Handler {
+        void handle() throws IOException, InterruptedException;
+    }
+}